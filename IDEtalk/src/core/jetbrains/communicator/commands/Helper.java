@@ -80,14 +80,20 @@ public class Helper {
                 try {
                   semaphore.acquire();
 
-                  transport.sendXmlMessage(user, new GetVFileContentsXmlMessage(vFile) {
-                    public void processResponse(Element responseElement) {
-                      super.processResponse(responseElement);
-                      semaphore.release();
-                    }
-                  });
-
-                  semaphore.tryAcquire(getWaitTimeout(), TimeUnit.MILLISECONDS);
+                  // A response which can't be applied to the cached copy drops it,
+                  // so the repeated request gets full contents
+                  GetVFileContentsXmlMessage message = null;
+                  for (int attempt = 0; attempt < 2 && (message == null || message.isFailed()); attempt++) {
+                    message = new GetVFileContentsXmlMessage(vFile, user.getName()) {
+                      public void processResponse(Element responseElement) {
+                        super.processResponse(responseElement);
+                        semaphore.release();
+                      }
+                    };
+                    transport.sendXmlMessage(user, message);
+
+                    if (!semaphore.tryAcquire(getWaitTimeout(), TimeUnit.MILLISECONDS)) break;
+                  }
 
                 } catch (InterruptedException e) {
                   // noop
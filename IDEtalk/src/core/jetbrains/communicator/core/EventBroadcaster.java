@@ -27,5 +27,19 @@ public interface EventBroadcaster {
   void fireEvent(@NotNull IDEtalkEvent event);
 
   void addListener(IDEtalkListener listener);
+
+  /**
+   * Listener will get only events of given class. A {@link jetbrains.communicator.core.users.UserBatchEvent}
+   * is passed if it contains at least one event of the class.
+   */
+  void addListener(Class<? extends IDEtalkEvent> eventClass, IDEtalkListener listener);
+
+  /**
+   * Like {@link #addListener(Class, IDEtalkListener)}, but bursts of UserEvent.Updated events for the same
+   * user and property are delivered to the listener as one event, shortly after the changes happened.
+   * Other events are delivered as usual.
+   */
+  void addCoalescingListener(Class<? extends IDEtalkEvent> eventClass, IDEtalkListener listener);
+
   void removeListener(IDEtalkListener listener);
 }
@@ -17,17 +17,43 @@
 package jetbrains.communicator.core.transport;
 
 import jetbrains.communicator.core.vfs.VFile;
+import jetbrains.communicator.core.vfs.VFileContentsCache;
+import jetbrains.communicator.core.vfs.VFileContentsCodec;
+import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 /**
+ * Requests contents of remote file.<p>
+ * When created for a known remote user, the request announces support of compressed and diff
+ * responses and the hash of contents we have cached for the file. The peer then answers with
+ * "unchanged", a diff against cached contents, or gzipped contents. If contents can't be
+ * restored from the response, the cached copy is dropped and {@link #isFailed()} returns true;
+ * the caller should repeat the request then, and gets full contents.
+ *
  * @author Kir
  */
 public class GetVFileContentsXmlMessage implements XmlMessage {
+  private static final Logger LOG = Logger.getLogger(GetVFileContentsXmlMessage.class);
+
   public static final String TAG = "fillContents";
+  public static final String ACCEPT_ENCODING_ATTR = "acceptEncoding";
+  public static final String KNOWN_HASH_ATTR = "knownHash";
+  public static final String CONTENTS_HASH_ATTR = "contentsHash";
+  public static final String UNCHANGED_ATTR = "unchanged";
+  public static final String GZIP_DIFF_ENCODING = "gzip,diff";
+
   private final VFile myFile;
+  private final String myCacheKey;
+  private volatile boolean myFailed;
 
   public GetVFileContentsXmlMessage(VFile file) {
+    this(file, null);
+  }
+
+  /** @param remoteUser if not null, contents are cached and only changes are transferred next time */
+  public GetVFileContentsXmlMessage(VFile file, String remoteUser) {
     myFile = file;
+    myCacheKey = remoteUser == null ? null : VFileContentsCache.getKey(remoteUser, file);
   }
 
   public String getTagName() {
@@ -44,12 +70,58 @@ public class GetVFileContentsXmlMessage implements XmlMessage {
 
   public void fillRequest(Element element) {
     myFile.saveTo(element);
+    if (myCacheKey != null) {
+      element.setAttribute(ACCEPT_ENCODING_ATTR, GZIP_DIFF_ENCODING);
+      VFileContentsCache.Entry cached = getCache().get(myCacheKey);
+      if (cached != null) {
+        element.setAttribute(KNOWN_HASH_ATTR, cached.getHash());
+      }
+    }
+  }
+
+  /** @return true if the response did not restore file contents from the cached copy */
+  public boolean isFailed() {
+    return myFailed;
   }
 
   public void processResponse(Element responseElement) {
     VFile from = VFile.createFrom(responseElement);
-    if (from != null) {
+    if (from == null) return;
+
+    String hash = responseElement.getAttributeValue(CONTENTS_HASH_ATTR);
+    if (myCacheKey == null || hash == null) {
       myFile.setContents(from.getContents());
+      return;
+    }
+
+    String contents = null;
+    try {
+      VFileContentsCache.Entry cached = getCache().get(myCacheKey);
+      if (cached != null && "true".equals(responseElement.getAttributeValue(UNCHANGED_ATTR))) {
+        contents = cached.getContents();
+      }
+      else if (cached != null && responseElement.getChild(VFileContentsCodec.DIFF, responseElement.getNamespace()) != null) {
+        contents = VFileContentsCodec.applyDiff(cached.getContents(), responseElement);
+      }
+      else {
+        contents = VFileContentsCodec.readContents(responseElement);
+      }
+    } catch (Exception e) {
+      LOG.info(e.getMessage(), e);
+    }
+
+    if (contents == null || !hash.equals(VFileContentsCodec.hash(contents))) {
+      LOG.info("Cannot restore contents of " + myFile.getDisplayName() + ", cached copy is dropped");
+      getCache().remove(myCacheKey);
+      myFailed = true;
+      return;
     }
+
+    getCache().put(myCacheKey, contents, hash);
+    myFile.setContents(contents);
+  }
+
+  private static VFileContentsCache getCache() {
+    return VFileContentsCache.getRemoteContents();
   }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.users;
+
+import jetbrains.communicator.core.EventVisitor;
+import jetbrains.communicator.core.IDEtalkEvent;
+import jetbrains.communicator.util.StringUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Several user changes applied to the model as a single change.<p>
+ *
+ * Listeners get one beforeChange/afterChange pair for the whole batch. By default visitors
+ * see every contained event, so listeners interested in particular users need not care
+ * about batches.
+ *
+ * @author Kir
+ */
+public class UserBatchEvent implements IDEtalkEvent {
+  private final List<UserEvent> myEvents;
+
+  public UserBatchEvent(List<UserEvent> events) {
+    myEvents = Collections.unmodifiableList(new ArrayList<UserEvent>(events));
+  }
+
+  public List<UserEvent> getEvents() {
+    return myEvents;
+  }
+
+  public void accept(EventVisitor visitor) {
+    visitor.visitUserBatch(this);
+  }
+
+  public String toString() {
+    return StringUtil.toString(getClass(), myEvents);
+  }
+}
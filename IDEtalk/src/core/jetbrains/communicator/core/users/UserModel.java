@@ -18,6 +18,8 @@ package jetbrains.communicator.core.users;
 
 import jetbrains.communicator.core.EventBroadcaster;
 
+import java.util.Collection;
+
 /**
  * @author Kir Maximov
  */
@@ -34,6 +36,13 @@ public interface UserModel {
   /** remove user from contact list*/
   void removeUser(User user);
 
+  /**
+   * Synchronize contact list with external list in one step: add new users, update group and
+   * display name of users already in the list and remove usersToRemove.
+   * A single {@link UserBatchEvent} is fired if anything changed.
+   */
+  void updateUsers(Collection<User> users, Collection<User> usersToRemove);
+
   String[] getGroups();
   
   /**@return actually set name */
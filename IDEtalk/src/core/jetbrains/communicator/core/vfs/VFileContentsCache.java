@@ -0,0 +1,97 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.vfs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of file contents keyed by an arbitrary string, bounded by the total length of cached contents.
+ * Used both for contents received from remote users and for contents sent to them.
+ *
+ * @author Kir
+ */
+public class VFileContentsCache {
+  private static final int DEFAULT_MAX_SIZE = 8 * 1024 * 1024;
+  private static final VFileContentsCache ourRemoteContents = new VFileContentsCache(DEFAULT_MAX_SIZE);
+
+  private final int myMaxSize;
+  private int mySize;
+  private final LinkedHashMap<String, Entry> myKey2Entry = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  public VFileContentsCache(int maxSize) {
+    myMaxSize = maxSize;
+  }
+
+  /** Contents of remote files we have seen recently */
+  public static VFileContentsCache getRemoteContents() {
+    return ourRemoteContents;
+  }
+
+  public static String getKey(String remoteUser, VFile file) {
+    return remoteUser + '|' + file.getProjectName() + '|' + file.getFullPath();
+  }
+
+  public synchronized Entry get(String key) {
+    return myKey2Entry.get(key);
+  }
+
+  public synchronized void put(String key, String contents, String hash) {
+    if (contents.length() > myMaxSize) return;
+
+    Entry old = myKey2Entry.put(key, new Entry(contents, hash));
+    if (old != null) {
+      mySize -= old.getContents().length();
+    }
+    mySize += contents.length();
+
+    for (Iterator<Entry> it = myKey2Entry.values().iterator(); it.hasNext() && mySize > myMaxSize;) {
+      mySize -= it.next().getContents().length();
+      it.remove();
+    }
+  }
+
+  public synchronized void remove(String key) {
+    Entry old = myKey2Entry.remove(key);
+    if (old != null) {
+      mySize -= old.getContents().length();
+    }
+  }
+
+  public synchronized void clear() {
+    myKey2Entry.clear();
+    mySize = 0;
+  }
+
+  public static final class Entry {
+    private final String myContents;
+    private final String myHash;
+
+    Entry(String contents, String hash) {
+      myContents = contents;
+      myHash = hash;
+    }
+
+    public String getContents() {
+      return myContents;
+    }
+
+    public String getHash() {
+      return myHash;
+    }
+  }
+}
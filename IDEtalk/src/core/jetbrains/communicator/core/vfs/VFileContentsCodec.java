@@ -0,0 +1,157 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.vfs;
+
+import jetbrains.communicator.ide.Change;
+import jetbrains.communicator.util.StringUtil;
+import org.jdom.Element;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact encoding of file contents for network transfer:
+ * gzipped contents split into chunks, and line-based diffs against a version the peer already has.
+ *
+ * @author Kir
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public final class VFileContentsCodec {
+  private static final String ENCODING = "UTF-8";
+
+  public static final String CHUNK = "chunk";
+  public static final String DIFF = "diff";
+  private static final String CHANGE = "change";
+  private static final String SRC_LINE_ATTR = "srcLine";
+  private static final String DELETED_ATTR = "deleted";
+
+  static final int CHUNK_SIZE = 32 * 1024;
+
+  private VFileContentsCodec() {
+  }
+
+  public static String hash(String contents) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("MD5");
+      byte[] bytes = digest.digest(contents.getBytes(ENCODING));
+      StringBuilder result = new StringBuilder(bytes.length * 2);
+      for (byte b : bytes) {
+        result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return result.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Writes gzipped contents to the element as a sequence of &lt;chunk&gt; children */
+  public static void writeContents(Element root, String contents) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(contents.length() / 3 + 16);
+      Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), ENCODING);
+      writer.write(contents);
+      writer.close();
+
+      String encoded = DatatypeConverter.printBase64Binary(bytes.toByteArray());
+      for (int i = 0; i < encoded.length(); i += CHUNK_SIZE) {
+        Element chunk = new Element(CHUNK, root.getNamespace());
+        chunk.setText(encoded.substring(i, Math.min(encoded.length(), i + CHUNK_SIZE)));
+        root.addContent(chunk);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** @return null if there are no chunks in the element */
+  public static String readContents(Element root) throws IOException {
+    List chunks = root.getChildren(CHUNK, root.getNamespace());
+    if (chunks.isEmpty()) return null;
+
+    StringBuilder encoded = new StringBuilder(chunks.size() * CHUNK_SIZE);
+    for (Object chunk : chunks) {
+      encoded.append(((Element) chunk).getText());
+    }
+    byte[] bytes = DatatypeConverter.parseBase64Binary(encoded.toString());
+
+    Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(bytes)), ENCODING);
+    try {
+      StringBuilder result = new StringBuilder(bytes.length * 3);
+      char[] buf = new char[8192];
+      int read;
+      while ((read = reader.read(buf)) > 0) {
+        result.append(buf, 0, read);
+      }
+      return result.toString();
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  /** Writes an edit script which transforms srcLines to destLines into &lt;diff&gt; child */
+  public static void writeDiff(Element root, Change[] changes, String[] destLines) {
+    Element diff = new Element(DIFF, root.getNamespace());
+    for (Change change : changes) {
+      Element changeElement = new Element(CHANGE, root.getNamespace());
+      changeElement.setAttribute(SRC_LINE_ATTR, String.valueOf(change.getSrcLine()));
+      changeElement.setAttribute(DELETED_ATTR, String.valueOf(change.getDeleted()));
+
+      StringBuilder inserted = new StringBuilder();
+      for (int i = 0; i < change.getInserted(); i++) {
+        inserted.append(destLines[change.getDestLine() + i]);
+      }
+      changeElement.setText(StringUtil.toXMLSafeString(inserted.toString()));
+      diff.addContent(changeElement);
+    }
+    root.addContent(diff);
+  }
+
+  /** @return null if there is no diff in the element */
+  public static String applyDiff(String base, Element root) {
+    Element diff = root.getChild(DIFF, root.getNamespace());
+    if (diff == null) return null;
+
+    String[] srcLines = StringUtil.splitLines(base, true);
+    StringBuilder result = new StringBuilder(base.length());
+    int srcLine = 0;
+    for (Object o : diff.getChildren(CHANGE, root.getNamespace())) {
+      Element change = (Element) o;
+      int changeLine = Integer.parseInt(change.getAttributeValue(SRC_LINE_ATTR));
+      int deleted = Integer.parseInt(change.getAttributeValue(DELETED_ATTR));
+      if (changeLine < srcLine || changeLine + deleted > srcLines.length) {
+        throw new IllegalArgumentException("Diff does not match base contents");
+      }
+
+      for (; srcLine < changeLine; srcLine++) {
+        result.append(srcLines[srcLine]);
+      }
+      result.append(StringUtil.fromXMLSafeString(change.getText()));
+      srcLine += deleted;
+    }
+    for (; srcLine < srcLines.length; srcLine++) {
+      result.append(srcLines[srcLine]);
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.util;
+
+import jetbrains.communicator.core.vfs.VFileContentsCodec;
+import jetbrains.communicator.ide.Change;
+import jetbrains.communicator.ide.IDEFacade;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Maps line numbers of one version of a text to line numbers of another version.<p>
+ *
+ * Built once from a diff, a lookup is a binary search over the changes. Recently used mappings
+ * are cached by hashes of both texts, so positions from several messages about the same
+ * pair of file versions are corrected without a new diff.
+ *
+ * @author Kir
+ */
+public final class LineMapping {
+  private static final int CACHE_SIZE = 32;
+  private static final Map<String, LineMapping> ourCache = new LinkedHashMap<String, LineMapping>(CACHE_SIZE, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<String, LineMapping> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  // Source line of every change, ascending
+  private final int[] myChangeLines;
+  // Shift of the lines after the change, including all previous changes
+  private final int[] myShifts;
+  private final int myDestLinesCount;
+
+  LineMapping(Change[] changes, int destLinesCount) {
+    myChangeLines = new int[changes.length];
+    myShifts = new int[changes.length];
+    myDestLinesCount = destLinesCount;
+
+    int shift = 0;
+    for (int i = 0; i < changes.length; i++) {
+      shift += changes[i].getInserted() - changes[i].getDeleted();
+      myChangeLines[i] = changes[i].getSrcLine();
+      myShifts[i] = shift;
+    }
+  }
+
+  public static LineMapping get(IDEFacade facade, String srcContent, String destContent) {
+    String key = VFileContentsCodec.hash(srcContent) + ':' + VFileContentsCodec.hash(destContent);
+    synchronized (ourCache) {
+      LineMapping mapping = ourCache.get(key);
+      if (mapping != null) return mapping;
+    }
+
+    String[] destLines = StringUtil.splitLines(destContent);
+    LineMapping mapping = new LineMapping(facade.getDiff(StringUtil.splitLines(srcContent), destLines), destLines.length);
+    synchronized (ourCache) {
+      ourCache.put(key, mapping);
+    }
+    return mapping;
+  }
+
+  static void clearCache() {
+    synchronized (ourCache) {
+      ourCache.clear();
+    }
+  }
+
+  public int getCorrectedLine(int line) {
+    // Number of changes which start at or before the line
+    int idx = Arrays.binarySearch(myChangeLines, line);
+    if (idx < 0) {
+      idx = -idx - 1;
+    }
+    else {
+      while (idx < myChangeLines.length && myChangeLines[idx] == line) idx++;
+    }
+
+    int result = Math.max(line + (idx == 0 ? 0 : myShifts[idx - 1]), 0);
+    return Math.max(0, Math.min(myDestLinesCount - 1, result));
+  }
+}
@@ -16,19 +16,18 @@
 
 package jetbrains.communicator.util;
 
-import jetbrains.communicator.ide.Change;
 import jetbrains.communicator.ide.IDEFacade;
 
 /**
  * @author Kir
  *
  * This class uses diff to correct input lines
+ * @see LineMapping
  */
 public class PositionCorrector {
   private final String mySrcContent;
   private final String myDestContent;
-  private Change[] myChanges;
-  private String[] myDestLines;
+  private LineMapping myMapping;
   private final IDEFacade myFacade;
 
   public PositionCorrector(IDEFacade facade, String srcContent, String destContent) {
@@ -39,35 +38,16 @@ public class PositionCorrector {
   }
 
   private void doDiff() {
-    if (myChanges == null && mySrcContent != null && myDestContent != null) {
-
-      myDestLines = myDestContent.split("(\r|\n)");
-      myChanges = myFacade.getDiff(mySrcContent.split("(\r|\n)"), myDestLines);
+    if (myMapping == null && mySrcContent != null && myDestContent != null) {
+      myMapping = LineMapping.get(myFacade, mySrcContent, myDestContent);
     }
   }
 
   public int getCorrectedLine(int line) {
     doDiff();
-    if (myChanges == null) {
+    if (myMapping == null) {
       return line;
     }
-
-    int addOn = 0;
-    for (int i = 0; i < myChanges.length; i++) {
-      Change change = myChanges[i];
-
-      if (line < change.getSrcLine()) {
-        break;
-      }
-
-      addOn += change.getInserted();
-      addOn -= change.getDeleted();
-    }
-
-    int result = Math.max(line + addOn, 0);
-    if (myDestLines != null) {
-      return Math.min(myDestLines.length - 1, result);
-    }
-    return result;
+    return myMapping.getCorrectedLine(line);
   }
 }
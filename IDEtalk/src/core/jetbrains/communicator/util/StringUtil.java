@@ -28,6 +28,7 @@ import org.jetbrains.annotations.Nullable;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -166,6 +167,43 @@ public class StringUtil {
     return sb.toString();
   }
 
+  /**
+   * Splits text to lines without separators; CR LF, LF and CR are separators.
+   * Like String.split, drops trailing empty lines.
+   */
+  public static String[] splitLines(String text) {
+    return splitLines(text, false);
+  }
+
+  /**
+   * Splits text to lines; CR LF, LF and CR are separators.
+   * @param keepSeparators if true, lines keep their separators, so that joined lines are equal to the text;
+   * otherwise separators and trailing empty lines are dropped
+   */
+  public static String[] splitLines(String text, boolean keepSeparators) {
+    List<String> result = new ArrayList<String>();
+    int start = 0;
+    int lastNonEmpty = 0;
+    final int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c == '\n' || c == '\r') {
+        int end = i;
+        if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+          i++;
+        }
+        result.add(text.substring(start, keepSeparators ? i + 1 : end));
+        if (keepSeparators || end > start) lastNonEmpty = result.size();
+        start = i + 1;
+      }
+    }
+    if (start < length || result.isEmpty() && !keepSeparators) {
+      result.add(text.substring(start));
+      lastNonEmpty = result.size();
+    }
+    return result.subList(0, lastNonEmpty).toArray(new String[lastNonEmpty]);
+  }
+
   public static String toXML(Throwable e) {
     @NonNls Element element = new Element("exception", Transport.NAMESPACE);
     if (e.getMessage() != null) {
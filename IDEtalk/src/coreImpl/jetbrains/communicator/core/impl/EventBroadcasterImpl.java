@@ -18,41 +18,88 @@ package jetbrains.communicator.core.impl;
 import jetbrains.communicator.core.EventBroadcaster;
 import jetbrains.communicator.core.IDEtalkEvent;
 import jetbrains.communicator.core.IDEtalkListener;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.core.users.UserBatchEvent;
+import jetbrains.communicator.core.users.UserEvent;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.TestOnly;
+import org.picocontainer.Disposable;
 
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Kir Maximov
  */
-public class EventBroadcasterImpl implements EventBroadcaster {
+public class EventBroadcasterImpl implements EventBroadcaster, Disposable {
   private static final Logger LOG = Logger.getLogger(EventBroadcasterImpl.class);
   public static final Runnable NO_ACTION = new Runnable() { @Override
                                                             public void run() { } };
+  static final long COALESCE_DELAY = 100;
 
-  private final List<IDEtalkListener> myListeners = new CopyOnWriteArrayList<IDEtalkListener>();
+  private final List<Registration> myRegistrations = new CopyOnWriteArrayList<Registration>();
+  // Listeners interested in events of a class, in order of registration. Reset when listeners change
+  private final ConcurrentMap<Class, Registration[]> myClass2Registrations = new ConcurrentHashMap<Class, Registration[]>();
+
+  // Registration -> (user and property -> latest event), guarded by itself
+  private final Map<Registration, LinkedHashMap<String, UserEvent.Updated>> myPendingUpdates =
+      new LinkedHashMap<Registration, LinkedHashMap<String, UserEvent.Updated>>();
+  private ScheduledExecutorService myCoalescingExecutor;
+  private boolean myFlushScheduled;
+
+  private final AtomicLong myInvocationsCount = new AtomicLong();
+  private final AtomicLong myCoalescedCount = new AtomicLong();
 
   @Override
   public void addListener(IDEtalkListener listener) {
-    assert !myListeners.contains(listener);
-    myListeners.add(listener);
+    addListener(IDEtalkEvent.class, listener);
+  }
+
+  @Override
+  public void addListener(Class<? extends IDEtalkEvent> eventClass, IDEtalkListener listener) {
+    register(new Registration(listener, eventClass, false));
+  }
+
+  @Override
+  public void addCoalescingListener(Class<? extends IDEtalkEvent> eventClass, IDEtalkListener listener) {
+    register(new Registration(listener, eventClass, true));
+  }
+
+  private void register(Registration registration) {
+    assert findRegistration(registration.myListener) == null;
+    myRegistrations.add(registration);
+    myClass2Registrations.clear();
   }
 
   @Override
   public void removeListener(IDEtalkListener listener) {
-    myListeners.remove(listener);
+    Registration registration = findRegistration(listener);
+    if (registration != null) {
+      myRegistrations.remove(registration);
+      myClass2Registrations.clear();
+      synchronized (myPendingUpdates) {
+        myPendingUpdates.remove(registration);
+      }
+    }
+  }
+
+  private Registration findRegistration(IDEtalkListener listener) {
+    for (Registration registration : myRegistrations) {
+      if (registration.myListener == listener) return registration;
+    }
+    return null;
   }
 
   @Override
   public void doChange(@NotNull IDEtalkEvent event, Runnable action) {
+    Registration[] registrations = getRegistrations(event);
     try {
-      fireBeforeChange(event);
+      fireBeforeChange(event, registrations);
       action.run();
     } finally {
-      fireAfterChange(event);
+      fireAfterChange(event, registrations);
     }
   }
 
@@ -61,29 +108,188 @@ public class EventBroadcasterImpl implements EventBroadcaster {
     doChange(event, NO_ACTION);
   }
 
-  private void fireBeforeChange(IDEtalkEvent event) {
-    for (IDEtalkListener listener : myListeners) {
-      listener.beforeChange(event);
+  private void fireBeforeChange(IDEtalkEvent event, Registration[] registrations) {
+    for (Registration registration : registrations) {
+      if (!registration.coalesces(event)) {
+        myInvocationsCount.incrementAndGet();
+        registration.myListener.beforeChange(event);
+      }
     }
   }
 
-  private void fireAfterChange(IDEtalkEvent event) {
+  private void fireAfterChange(IDEtalkEvent event, Registration[] registrations) {
     if (LOG.isDebugEnabled()) {
       LOG.debug("afterChange: " + event);
     }
-    for (IDEtalkListener listener : myListeners) {
-      listener.afterChange(event);
+    for (Registration registration : registrations) {
+      if (registration.coalesces(event)) {
+        addPendingUpdate(registration, (UserEvent.Updated) event);
+      }
+      else {
+        myInvocationsCount.incrementAndGet();
+        registration.myListener.afterChange(event);
+      }
+    }
+  }
+
+  private Registration[] getRegistrations(IDEtalkEvent event) {
+    if (event instanceof UserBatchEvent) {
+      List<Registration> result = new ArrayList<Registration>();
+      for (Registration registration : myRegistrations) {
+        if (registration.accepts((UserBatchEvent) event)) {
+          result.add(registration);
+        }
+      }
+      return result.toArray(new Registration[result.size()]);
+    }
+
+    Registration[] result = myClass2Registrations.get(event.getClass());
+    if (result == null) {
+      List<Registration> registrations = new ArrayList<Registration>();
+      for (Registration registration : myRegistrations) {
+        if (registration.myEventClass.isInstance(event)) {
+          registrations.add(registration);
+        }
+      }
+      result = registrations.toArray(new Registration[registrations.size()]);
+      myClass2Registrations.put(event.getClass(), result);
+    }
+    return result;
+  }
+
+  private void addPendingUpdate(Registration registration, UserEvent.Updated event) {
+    User user = event.getUser();
+    String key = user.getTransportCode() + ':' + user.getName() + ':' + event.getPropertyName();
+
+    synchronized (myPendingUpdates) {
+      LinkedHashMap<String, UserEvent.Updated> updates = myPendingUpdates.get(registration);
+      if (updates == null) {
+        updates = new LinkedHashMap<String, UserEvent.Updated>();
+        myPendingUpdates.put(registration, updates);
+      }
+
+      UserEvent.Updated previous = updates.get(key);
+      if (previous != null) {
+        myCoalescedCount.incrementAndGet();
+        if (previous.getClass() == UserEvent.Updated.class && event.getClass() == UserEvent.Updated.class) {
+          event = new UserEvent.Updated(user, event.getPropertyName(), previous.getOldValue(), event.getNewValue());
+        }
+      }
+      updates.put(key, event);
+
+      if (!myFlushScheduled) {
+        myFlushScheduled = true;
+        getCoalescingExecutor().schedule(new Runnable() {
+          public void run() {
+            flushCoalescedEvents();
+          }
+        }, COALESCE_DELAY, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /** Should be called under myPendingUpdates lock */
+  private ScheduledExecutorService getCoalescingExecutor() {
+    if (myCoalescingExecutor == null) {
+      myCoalescingExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "IDEtalk coalesced events");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return myCoalescingExecutor;
+  }
+
+  /** Deliver coalesced events right now */
+  public void flushCoalescedEvents() {
+    Map<Registration, LinkedHashMap<String, UserEvent.Updated>> pending;
+    synchronized (myPendingUpdates) {
+      pending = new LinkedHashMap<Registration, LinkedHashMap<String, UserEvent.Updated>>(myPendingUpdates);
+      myPendingUpdates.clear();
+      myFlushScheduled = false;
+    }
+
+    for (Map.Entry<Registration, LinkedHashMap<String, UserEvent.Updated>> entry : pending.entrySet()) {
+      IDEtalkListener listener = entry.getKey().myListener;
+      for (UserEvent.Updated event : entry.getValue().values()) {
+        if (!myRegistrations.contains(entry.getKey())) break;
+        try {
+          myInvocationsCount.addAndGet(2);
+          listener.beforeChange(event);
+          listener.afterChange(event);
+        }
+        catch (Throwable e) {
+          LOG.error(e.getMessage(), e);
+        }
+      }
+    }
+  }
+
+  /** Number of beforeChange/afterChange calls made on listeners */
+  public long getListenerInvocationsCount() {
+    return myInvocationsCount.get();
+  }
+
+  /** Number of events which were merged into another event instead of being delivered */
+  public long getCoalescedEventsCount() {
+    return myCoalescedCount.get();
+  }
+
+  public void dispose() {
+    synchronized (myPendingUpdates) {
+      myPendingUpdates.clear();
+      if (myCoalescingExecutor != null) {
+        myCoalescingExecutor.shutdownNow();
+        myCoalescingExecutor = null;
+      }
+      myFlushScheduled = false;
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Listener invocations: " + getListenerInvocationsCount() + ", coalesced events: " + getCoalescedEventsCount());
     }
   }
 
   @TestOnly
   IDEtalkListener[] getListeners() {
-    return myListeners.toArray(new IDEtalkListener[myListeners.size()]);
+    List<IDEtalkListener> result = new ArrayList<IDEtalkListener>();
+    for (Registration registration : myRegistrations) {
+      result.add(registration.myListener);
+    }
+    return result.toArray(new IDEtalkListener[result.size()]);
   }
 
   @TestOnly
   void clearListeners() {
-    myListeners.clear();
+    myRegistrations.clear();
+    myClass2Registrations.clear();
+    synchronized (myPendingUpdates) {
+      myPendingUpdates.clear();
+    }
   }
 
+  private static class Registration {
+    private final IDEtalkListener myListener;
+    private final Class<? extends IDEtalkEvent> myEventClass;
+    private final boolean myCoalescing;
+
+    Registration(IDEtalkListener listener, Class<? extends IDEtalkEvent> eventClass, boolean coalescing) {
+      myListener = listener;
+      myEventClass = eventClass;
+      myCoalescing = coalescing;
+    }
+
+    boolean accepts(UserBatchEvent event) {
+      if (myEventClass.isInstance(event)) return true;
+      for (UserEvent userEvent : event.getEvents()) {
+        if (myEventClass.isInstance(userEvent)) return true;
+      }
+      return false;
+    }
+
+    boolean coalesces(IDEtalkEvent event) {
+      return myCoalescing && event instanceof UserEvent.Updated;
+    }
+  }
 }
@@ -232,7 +232,7 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
 
     MyEventListener(EventBroadcaster broadcaster) {
       myBroadcaster = broadcaster;
-      broadcaster.addListener(this);
+      broadcaster.addListener(UserEvent.Removed.class, this);
     }
 
     public void dispose() {
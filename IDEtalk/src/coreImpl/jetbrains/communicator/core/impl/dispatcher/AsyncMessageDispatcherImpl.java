@@ -154,7 +154,7 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
 
     MyEventListener(EventBroadcaster broadcaster) {
       myBroadcaster = broadcaster;
-      broadcaster.addListener(this);
+      broadcaster.addListener(UserEvent.Online.class, this);
     }
 
     public void dispose() {
@@ -450,6 +450,16 @@ class MessageHistory {
 
 
 
+  /** Save history right away, without waiting for SAVE_TIMEOUT */
+
+  void saveNow() {
+
+    saveHistory();
+
+  }
+
+
+
   public boolean isEmpty() {
 
     File historyDir = getHistoryDir();
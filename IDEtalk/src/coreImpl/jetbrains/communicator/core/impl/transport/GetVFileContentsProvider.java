@@ -18,13 +18,23 @@ package jetbrains.communicator.core.impl.transport;
 import jetbrains.communicator.core.transport.GetVFileContentsXmlMessage;
 import jetbrains.communicator.core.users.UserModel;
 import jetbrains.communicator.core.vfs.VFile;
+import jetbrains.communicator.core.vfs.VFileContentsCache;
+import jetbrains.communicator.core.vfs.VFileContentsCodec;
+import jetbrains.communicator.ide.Change;
 import jetbrains.communicator.ide.IDEFacade;
+import jetbrains.communicator.util.StringUtil;
 import org.jdom.Element;
 
+import static jetbrains.communicator.core.transport.GetVFileContentsXmlMessage.*;
+
 /**
  * @author Kir
  */
 public class GetVFileContentsProvider extends FileAccessProvider {
+  private static final int MAX_SENT_CONTENTS_SIZE = 4 * 1024 * 1024;
+
+  /** Recently sent contents by their hash, used as base for diffs */
+  private final VFileContentsCache mySentContents = new VFileContentsCache(MAX_SENT_CONTENTS_SIZE);
 
   public GetVFileContentsProvider(IDEFacade ideFacade, UserModel userModel) {
     super(ideFacade, userModel);
@@ -37,6 +47,37 @@ public class GetVFileContentsProvider extends FileAccessProvider {
   protected void doProcess(Element request, Element response) {
     VFile from = VFile.createFrom(request);
     myIdeFacade.fillFileContents(from);
+
+    String contents = from.getContents();
+    if (contents == null || request.getAttributeValue(ACCEPT_ENCODING_ATTR) == null) {
+      from.saveTo(response);
+      return;
+    }
+
+    from.setContents(null);
     from.saveTo(response);
+
+    String hash = VFileContentsCodec.hash(contents);
+    response.setAttribute(CONTENTS_HASH_ATTR, hash);
+
+    String knownHash = request.getAttributeValue(KNOWN_HASH_ATTR);
+    VFileContentsCache.Entry known = knownHash == null ? null : mySentContents.get(knownHash);
+    if (hash.equals(knownHash)) {
+      response.setAttribute(UNCHANGED_ATTR, "true");
+    }
+    else if (known == null || !writeDiff(response, known.getContents(), contents)) {
+      VFileContentsCodec.writeContents(response, contents);
+    }
+
+    mySentContents.put(hash, contents, hash);
+  }
+
+  private boolean writeDiff(Element response, String knownContents, String contents) {
+    String[] destLines = StringUtil.splitLines(contents, true);
+    Change[] changes = myIdeFacade.getDiff(StringUtil.splitLines(knownContents, true), destLines);
+    if (changes.length == 0) return false; // diff failed
+
+    VFileContentsCodec.writeDiff(response, changes, destLines);
+    return true;
   }
 }
@@ -21,30 +21,66 @@ import jetbrains.communicator.core.EventVisitor;
 import jetbrains.communicator.core.IDEtalkAdapter;
 import jetbrains.communicator.core.IDEtalkEvent;
 import jetbrains.communicator.core.users.GroupEvent;
+import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.core.users.UserEvent;
 import jetbrains.communicator.ide.IDEFacade;
 import jetbrains.communicator.util.XMLUtil;
 
 import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
+ * Contact list which is saved to disk in background.<p>
+ *
+ * Changes are not written immediately: a save happens when the model has been quiet for
+ * SAVE_DELAY, but not later than MAX_SAVE_DELAY after the first unsaved change. Only changed users
+ * are appended to the file, see {@link UserModelFile}.
+ *
  * @author Kir
  */
 public class PersistentUserModelImpl extends UserModelImpl {
 
-  public static final String FILE_NAME = "userModel.xml";
+  public static final String FILE_NAME = "users.txt";
+  /** XStream based format used by previous versions, read only if there is no FILE_NAME yet */
+  public static final String OLD_FILE_NAME = "userModel.xml";
+
+  private static final long SAVE_DELAY = 500;
+  private static final long MAX_SAVE_DELAY = 3000;
+  // Rewrite the file when it has this many records more than users and groups in the model
+  private static final int MAX_OVERRIDDEN_RECORDS = 100;
 
   private final transient File myDataDir;
-  private final transient XStream myXStream;
+  private final transient UserModelFile myFile;
   private final transient IDEtalkAdapter mySaver;
+  private final transient ScheduledExecutorService mySaveExecutor;
+  private final transient Object mySaveLock = new Object();
+  private final transient Object myPendingLock = new Object();
+
+  // Transport code and name -> changed user, guarded by myPendingLock
+  private final transient Map<String, User> myChangedUsers = new HashMap<String, User>();
+  private transient boolean myFullSaveNeeded;
+  private transient long myFirstChange;
+  private transient long myLastChange;
+  private transient Future<?> mySaveTask;
+  private transient long mySaveDelay = SAVE_DELAY;
+  private transient long myMaxSaveDelay = MAX_SAVE_DELAY;
+
   private transient boolean mySaved;
+  private transient int myWritesCount;
+  private transient boolean myDisposed;
 
   public PersistentUserModelImpl(EventBroadcaster broadcaster, IDEFacade ideFacade) {
     super(broadcaster);
     myDataDir = ideFacade.getConfigDir();
-    myXStream = XMLUtil.createXStream();
-    myXStream.alias("user", UserImpl.class);
-    myXStream.alias("users", getClass());
+    myFile = new UserModelFile(new File(myDataDir, FILE_NAME));
+    mySaveExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "IDEtalk user model saver");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
 
     readAll();
 
@@ -53,12 +89,12 @@ public class PersistentUserModelImpl extends UserModelImpl {
         event.accept(new EventVisitor(){
           @Override public void visitUserAdded(UserEvent.Added event) {
             super.visitUserAdded(event);
-            saveAll();
+            userChanged(event.getUser());
           }
 
           @Override public void visitUserRemoved(UserEvent.Removed event) {
             super.visitUserRemoved(event);
-            saveAll();
+            userChanged(event.getUser());
           }
 
           @Override public void visitUserUpdated(UserEvent.Updated event) {
@@ -68,13 +104,13 @@ public class PersistentUserModelImpl extends UserModelImpl {
                 BaseUserImpl.DISPLAY_NAME.equals(event.getPropertyName()) ||
                 BaseUserImpl.GROUP.equals(event.getPropertyName())
                 ) {
-              saveAll();
+              userChanged(event.getUser());
             }
           }
 
           @Override public void visitGroupEvent(GroupEvent event) {
             super.visitGroupEvent(event);
-            saveAll();
+            userChanged(null);
           }
         });
       }
@@ -83,33 +119,160 @@ public class PersistentUserModelImpl extends UserModelImpl {
   }
 
   public void dispose() {
-    synchronized(myUsersGroupsLock) {
-      myUsers.clear();
-      myGroups.clear();
+    synchronized(mySaveLock) {
+      myDisposed = true;
+      mySaveExecutor.shutdownNow();
+      synchronized(myUsersGroupsLock) {
+        _clear();
+      }
+      myFile.delete();
     }
-    new File(getUsersFileName()).delete();
     myBroadcaster.removeListener(mySaver);
     super.dispose();
   }
 
+  /** Rewrite the whole file right now */
   void saveAll() {
-    synchronized(myUsersGroupsLock) {
-      XMLUtil.toXml(myXStream, getUsersFileName(), this);
+    synchronized(myPendingLock) {
+      myFullSaveNeeded = true;
+    }
+    flush();
+  }
+
+  /** Write pending changes right now */
+  public void flush() {
+    synchronized(mySaveLock) {
+      if (myDisposed) return;
+
+      Collection<User> changedUsers;
+      boolean fullSave;
+      synchronized(myPendingLock) {
+        changedUsers = new ArrayList<User>(myChangedUsers.values());
+        fullSave = myFullSaveNeeded || !myFile.exists();
+        myChangedUsers.clear();
+        myFullSaveNeeded = false;
+      }
+      if (changedUsers.isEmpty() && !fullSave) return;
+
+      List<User> users;
+      List<String> groups;
+      List<User> updated = new ArrayList<User>();
+      List<User> removed = new ArrayList<User>();
+      synchronized(myUsersGroupsLock) {
+        users = new ArrayList<User>(myUsers);
+        groups = new ArrayList<String>(new TreeSet<String>(myGroups));
+        for (User user : changedUsers) {
+          if (myUsers.contains(user)) {
+            updated.add(user);
+          }
+          else {
+            removed.add(user);
+          }
+        }
+      }
+
+      if (fullSave || myFile.getRecordsCount() + updated.size() + removed.size() >
+                      users.size() + groups.size() + MAX_OVERRIDDEN_RECORDS) {
+        myFile.writeAll(users, groups);
+      }
+      else {
+        myFile.append(updated, removed);
+      }
+      myWritesCount ++;
+    }
+  }
+
+  /** @param user null means the whole model should be saved */
+  private void userChanged(User user) {
+    synchronized(myPendingLock) {
+      long now = System.currentTimeMillis();
+      if (myChangedUsers.isEmpty() && !myFullSaveNeeded) {
+        myFirstChange = now;
+      }
+      myLastChange = now;
+
+      if (user == null) {
+        myFullSaveNeeded = true;
+      }
+      else {
+        myChangedUsers.put(getKey(user), user);
+      }
+      mySaved = true;
+
+      if (mySaveTask == null) {
+        schedule(mySaveDelay);
+      }
+    }
+  }
+
+  /** Should be called under myPendingLock */
+  private void schedule(long delay) {
+    try {
+      mySaveTask = mySaveExecutor.schedule(new Runnable() {
+        public void run() {
+          saveIfQuiet();
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // disposed
+      mySaveTask = null;
+    }
+  }
+
+  private void saveIfQuiet() {
+    synchronized(myPendingLock) {
+      long now = System.currentTimeMillis();
+      long delay = Math.min(myLastChange + mySaveDelay, myFirstChange + myMaxSaveDelay) - now;
+      if (delay > 0) {
+        schedule(delay);
+        return;
+      }
+      mySaveTask = null;
     }
-    mySaved = true;
+    flush();
   }
 
   private void readAll() {
-    Object persistentModel = XMLUtil.fromXml(myXStream, getUsersFileName(), false);
+    List<User> users = new ArrayList<User>();
+    List<String> groups = new ArrayList<String>();
+    if (!myFile.read(users, groups) && readOldFormat(users, groups)) {
+      userChanged(null);
+    }
+
+    synchronized(myUsersGroupsLock) {
+      myGroups.addAll(groups);
+      for (User user : users) {
+        _addUser(user);
+      }
+    }
+  }
+
+  private boolean readOldFormat(Collection<User> users, Collection<String> groups) {
+    File oldFile = new File(myDataDir, OLD_FILE_NAME);
+    if (!oldFile.exists()) return false;
+
+    XStream xStream = XMLUtil.createXStream();
+    xStream.alias("user", UserImpl.class);
+    xStream.alias("users", getClass());
+    Object persistentModel = XMLUtil.fromXml(xStream, oldFile.getAbsolutePath(), false);
     if (persistentModel instanceof PersistentUserModelImpl) {
       PersistentUserModelImpl model = (PersistentUserModelImpl) persistentModel;
-      if (model.myGroups != null) myGroups.addAll(model.myGroups);
-      if (model.myUsers  != null) myUsers.addAll(model.myUsers);
+      if (model.myGroups != null) groups.addAll(model.myGroups);
+      if (model.myUsers  != null) users.addAll(model.myUsers);
+      return true;
+    }
+    return false;
+  }
+
+  void setSaveDelays(long saveDelay, long maxSaveDelay) {
+    synchronized(myPendingLock) {
+      mySaveDelay = saveDelay;
+      myMaxSaveDelay = maxSaveDelay;
     }
   }
 
-  private String getUsersFileName() {
-    return new File(myDataDir, FILE_NAME).getAbsolutePath();
+  int getWritesCount() {
+    return myWritesCount;
   }
 
   public boolean testSaved() {
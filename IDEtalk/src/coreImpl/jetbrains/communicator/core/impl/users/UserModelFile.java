@@ -0,0 +1,232 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.impl.users;
+
+import jetbrains.communicator.core.users.User;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Line based storage of the contact list.<p>
+ *
+ * Every line is a record: explicitly added group, user with its persistent properties or removed user.
+ * Users are identified by transport code and name. Later records override earlier ones, so a change of a single user is appended to the end of the file
+ * and the file is rewritten completely only from time to time.
+ *
+ * @author Kir
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+class UserModelFile {
+  private static final Logger LOG = Logger.getLogger(UserModelFile.class);
+
+  private static final String HEADER = "#IDEtalk users 1";
+  private static final String ENCODING = "UTF-8";
+  private static final char SEPARATOR = '\t';
+
+  private static final String GROUP = "G";
+  private static final String USER = "U";
+  private static final String REMOVED = "R";
+
+  private final File myFile;
+  private int myRecordsCount;
+
+  UserModelFile(File file) {
+    myFile = file;
+  }
+
+  public boolean exists() {
+    return myFile.exists();
+  }
+
+  public void delete() {
+    myFile.delete();
+    myRecordsCount = 0;
+  }
+
+  /** Number of records in the file, including overridden ones */
+  public int getRecordsCount() {
+    return myRecordsCount;
+  }
+
+  /** @return false if the file does not exist or cannot be read */
+  public boolean read(Collection<User> users, Collection<String> groups) {
+    Map<String, String[]> key2Record = new LinkedHashMap<String, String[]>();
+    int count = 0;
+
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(myFile), ENCODING));
+      if (!HEADER.equals(reader.readLine())) {
+        LOG.info("Unknown format of " + myFile);
+        return false;
+      }
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.length() == 0) continue;
+        count ++;
+
+        String[] fields = split(line);
+        if (GROUP.equals(fields[0]) && fields.length > 1) {
+          groups.add(fields[1]);
+        }
+        else if (USER.equals(fields[0]) && fields.length > 5) {
+          String key = UserModelImpl.getKey(fields[1], fields[2]);
+          key2Record.remove(key);
+          key2Record.put(key, fields);
+        }
+        else if (REMOVED.equals(fields[0]) && fields.length > 2) {
+          key2Record.remove(UserModelImpl.getKey(fields[1], fields[2]));
+        }
+      }
+    } catch (FileNotFoundException e) {
+      return false;
+    } catch (IOException e) {
+      LOG.info("Error reading " + myFile, e);
+      return false;
+    }
+    finally {
+      close(reader);
+    }
+
+    for (String[] record : key2Record.values()) {
+      User user = UserImpl.create(record[2], record[1]);
+      user.setGroup(record[3], null);
+      user.setDisplayName(record[4], null);
+      user.setCanAccessMyFiles(Boolean.valueOf(record[5]), null);
+      users.add(user);
+    }
+    myRecordsCount = count;
+    return true;
+  }
+
+  /** Rewrites the whole file */
+  public void writeAll(Collection<User> users, Collection<String> groups) {
+    File tempFile = new File(myFile.getPath() + ".tmp");
+    Writer writer = null;
+    try {
+      writer = createWriter(tempFile, false);
+      writer.write(HEADER);
+      writer.write('\n');
+      for (String group : groups) {
+        writeRecord(writer, GROUP, group);
+      }
+      for (User user : users) {
+        writeUser(writer, user);
+      }
+    } catch (IOException e) {
+      LOG.info("Error writing " + tempFile, e);
+      close(writer);
+      tempFile.delete();
+      return;
+    }
+    if (!close(writer)) return;
+
+    myFile.delete();
+    if (!tempFile.renameTo(myFile)) {
+      LOG.info("Cannot rename " + tempFile + " to " + myFile);
+      return;
+    }
+    myRecordsCount = groups.size() + users.size();
+  }
+
+  /** Appends records for changed and removed users to the end of the file */
+  public void append(Collection<User> changedUsers, Collection<User> removedUsers) {
+    Writer writer = null;
+    try {
+      writer = createWriter(myFile, true);
+      for (User user : changedUsers) {
+        writeUser(writer, user);
+      }
+      for (User user : removedUsers) {
+        writeRecord(writer, REMOVED, user.getTransportCode(), user.getName());
+      }
+    } catch (IOException e) {
+      LOG.info("Error writing " + myFile, e);
+    }
+    finally {
+      close(writer);
+    }
+    myRecordsCount += changedUsers.size() + removedUsers.size();
+  }
+
+  private static Writer createWriter(File file, boolean append) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), ENCODING));
+  }
+
+  private static void writeUser(Writer writer, User user) throws IOException {
+    writeRecord(writer, USER, user.getTransportCode(), user.getName(), user.getGroup(), user.getDisplayName(),
+        String.valueOf(user.canAccessMyFiles()));
+  }
+
+  private static void writeRecord(Writer writer, String... fields) throws IOException {
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) writer.write(SEPARATOR);
+      writer.write(escape(fields[i]));
+    }
+    writer.write('\n');
+  }
+
+  static String escape(String field) {
+    StringBuilder result = null;
+    for (int i = 0; i < field.length(); i++) {
+      char c = field.charAt(i);
+      String replacement = c == '\\' ? "\\\\" : c == SEPARATOR ? "\\t" : c == '\n' ? "\\n" : c == '\r' ? "\\r" : null;
+      if (replacement != null && result == null) {
+        result = new StringBuilder(field.length() + 8).append(field, 0, i);
+      }
+      if (result != null) {
+        if (replacement != null) result.append(replacement);
+        else result.append(c);
+      }
+    }
+    return result == null ? field : result.toString();
+  }
+
+  static String[] split(String line) {
+    List<String> result = new ArrayList<String>(6);
+    StringBuilder field = new StringBuilder();
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == SEPARATOR) {
+        result.add(field.toString());
+        field.setLength(0);
+      }
+      else if (c == '\\' && i + 1 < line.length()) {
+        char next = line.charAt(++i);
+        field.append(next == 't' ? SEPARATOR : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+      }
+      else {
+        field.append(c);
+      }
+    }
+    result.add(field.toString());
+    return result.toArray(new String[result.size()]);
+  }
+
+  private static boolean close(Closeable closeable) {
+    if (closeable == null) return true;
+    try {
+      closeable.close();
+      return true;
+    } catch (IOException e) {
+      LOG.info(e.getMessage(), e);
+      return false;
+    }
+  }
+}
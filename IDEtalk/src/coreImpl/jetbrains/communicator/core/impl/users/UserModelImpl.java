@@ -38,7 +38,12 @@ public class UserModelImpl implements UserModel, Disposable {
   private final transient Object myCachedUsersLock = new Object();
   protected final transient Object myUsersGroupsLock = new Object();
 
+  // Transport code and name -> user in model, guarded by myUsersGroupsLock
+  private final transient Map<String, User> myKey2User = new HashMap<String, User>();
+
+  // Both are computed lazily and reset on every user or group change
   private transient User[] myCachedUsers;
+  private transient Map<String, User[]> myCachedGroup2Users;
 
   public UserModelImpl(EventBroadcaster eventBroadcaster) {
     myBroadcaster = eventBroadcaster;
@@ -56,26 +61,82 @@ public class UserModelImpl implements UserModel, Disposable {
   }
 
   public void addUser(final User user) {
-    if (_getUsers().contains(user)) return;
+    if (hasUser(user)) return;
     if (user.isSelf() && !Pico.isUnitTest()) return;
 
     myBroadcaster.doChange(new UserEvent.Added(user), new Runnable() {
       public void run() {
         synchronized (myUsersGroupsLock) {
-          myUsers.add(user);
-          myGroups.add(user.getGroup());
+          _addUser(user);
         }
       }
     });
   }
 
   public void removeUser(final User user) {
-    if (!_getUsers().contains(user)) return;
+    if (!hasUser(user)) return;
 
     myBroadcaster.doChange(new UserEvent.Removed(user), new Runnable() {
       public void run() {
         synchronized (myUsersGroupsLock) {
-          myUsers.remove(user);
+          _removeUser(user);
+        }
+      }
+    });
+  }
+
+  public void updateUsers(Collection<User> users, Collection<User> usersToRemove) {
+    final List<UserEvent> events = new ArrayList<UserEvent>();
+    final Set<User> toAdd = new LinkedHashSet<User>();
+    final Set<User> toRemove = new LinkedHashSet<User>();
+    final Map<User, String> newGroups = new HashMap<User, String>();
+    final Map<User, String> newDisplayNames = new HashMap<User, String>();
+
+    synchronized (myUsersGroupsLock) {
+      for (User user : users) {
+        User inModel = myKey2User.get(getKey(user));
+        if (inModel == null) {
+          if (!myUsers.contains(user) && (!user.isSelf() || Pico.isUnitTest()) && toAdd.add(user)) {
+            events.add(new UserEvent.Added(user));
+          }
+          continue;
+        }
+
+        if (!inModel.getGroup().equals(user.getGroup())) {
+          newGroups.put(inModel, user.getGroup());
+          events.add(new UserEvent.Updated(inModel, UserEvent.Updated.GROUP, inModel.getGroup(), user.getGroup()));
+        }
+        if (!inModel.getDisplayName().equals(user.getDisplayName())) {
+          newDisplayNames.put(inModel, user.getDisplayName());
+          events.add(new UserEvent.Updated(inModel, UserEvent.Updated.DISPLAY_NAME,
+              inModel.getDisplayName(), user.getDisplayName()));
+        }
+      }
+
+      for (User user : usersToRemove) {
+        if (myUsers.contains(user) && toRemove.add(user)) {
+          events.add(new UserEvent.Removed(user));
+        }
+      }
+    }
+
+    if (events.isEmpty()) return;
+
+    myBroadcaster.doChange(new UserBatchEvent(events), new Runnable() {
+      public void run() {
+        synchronized (myUsersGroupsLock) {
+          for (Map.Entry<User, String> entry : newGroups.entrySet()) {
+            entry.getKey().setGroup(entry.getValue(), null);
+          }
+          for (Map.Entry<User, String> entry : newDisplayNames.entrySet()) {
+            entry.getKey().setDisplayName(entry.getValue(), null);
+          }
+          for (User user : toAdd) {
+            _addUser(user);
+          }
+          for (User user : toRemove) {
+            _removeUser(user);
+          }
         }
       }
     });
@@ -87,24 +148,35 @@ public class UserModelImpl implements UserModel, Disposable {
       result.addAll(myGroups);
     }
 
-    String lastGroup = null;
-    for (User user : getAllUsers()) {
-      if (!user.getGroup().equals(lastGroup)) {
-        lastGroup = user.getGroup();
-        result.add(lastGroup);
-      }
-    }
+    result.addAll(getGroup2Users().keySet());
     return result.toArray(new String[result.size()]);
   }
 
   public User[] getUsers(String groupName) {
-    List<User> result = new ArrayList<User>();
-    for (User user : getAllUsers()) {
-      if (user.getGroup().equals(groupName)) {
-        result.add(user);
+    User[] users = getGroup2Users().get(groupName);
+    return users == null ? new User[0] : users.clone();
+  }
+
+  private Map<String, User[]> getGroup2Users() {
+    synchronized (myCachedUsersLock) {
+      if (myCachedGroup2Users == null) {
+        Map<String, List<User>> group2Users = new HashMap<String, List<User>>();
+        for (User user : getAllUsers()) {
+          List<User> users = group2Users.get(user.getGroup());
+          if (users == null) {
+            users = new ArrayList<User>();
+            group2Users.put(user.getGroup(), users);
+          }
+          users.add(user);
+        }
+
+        myCachedGroup2Users = new HashMap<String, User[]>();
+        for (Map.Entry<String, List<User>> entry : group2Users.entrySet()) {
+          myCachedGroup2Users.put(entry.getKey(), entry.getValue().toArray(new User[entry.getValue().size()]));
+        }
       }
+      return myCachedGroup2Users;
     }
-    return result.toArray(new User[result.size()]);
   }
 
   public User[] getAllUsers() {
@@ -132,15 +204,16 @@ public class UserModelImpl implements UserModel, Disposable {
 
   public boolean hasUser(User user) {
     synchronized(myUsersGroupsLock) {
-      return _getUsers().contains(user);
+      return myUsers.contains(user);
     }
   }
 
   public String getGroup(User user) {
-    for (User user1 : _getUsers()) {
-      if (user1.equals(user)) return user1.getGroup();
+    User inModel;
+    synchronized(myUsersGroupsLock) {
+      inModel = myKey2User.get(getKey(user));
     }
-    return null;
+    return inModel != null ? inModel.getGroup() : null;
   }
 
   public void addGroup(String groupName) {
@@ -189,12 +262,11 @@ public class UserModelImpl implements UserModel, Disposable {
   }
 
   public User findUser(String userName, String transportCode) {
-    for (User user : _getUsers()) {
-      if (user.getName().equals(userName) && user.getTransportCode().equals(transportCode)) {
-        return user;
-      }
+    User user;
+    synchronized(myUsersGroupsLock) {
+      user = myKey2User.get(getKey(transportCode, userName));
     }
-    return null;
+    return user;
   }
 
   public boolean forEach(Object[] nodes, UserAction userAction, boolean considerOnlyOnlineUsers) {
@@ -252,6 +324,44 @@ public class UserModelImpl implements UserModel, Disposable {
     }
   }
 
+  /** Should be called under myUsersGroupsLock */
+  protected void _addUser(User user) {
+    if (myUsers.add(user)) {
+      myKey2User.put(getKey(user), user);
+    }
+    myGroups.add(user.getGroup());
+  }
+
+  /** Should be called under myUsersGroupsLock */
+  protected void _removeUser(User user) {
+    if (myUsers.remove(user)) {
+      myKey2User.remove(getKey(user));
+    }
+  }
+
+  /** Should be called under myUsersGroupsLock */
+  protected void _clear() {
+    myUsers.clear();
+    myGroups.clear();
+    myKey2User.clear();
+  }
+
+  static String getKey(User user) {
+    return getKey(user.getTransportCode(), user.getName());
+  }
+
+  /** Users are equal when both their names and transports are, see UserImpl.equals */
+  static String getKey(String transportCode, String userName) {
+    return transportCode + ':' + userName;
+  }
+
+  private void resetCaches() {
+    synchronized(myCachedUsersLock) {
+      myCachedUsers = null;
+      myCachedGroup2Users = null;
+    }
+  }
+
   private class MyListener extends IDEtalkAdapter {
     public void afterChange(IDEtalkEvent event) {
       event.accept(new EventVisitor(){
@@ -262,9 +372,16 @@ public class UserModelImpl implements UserModel, Disposable {
 
         @Override public void visitUserEvent(UserEvent event) {
           super.visitUserEvent(event);
-          synchronized(myCachedUsersLock) {
-            myCachedUsers = null;
-          }
+          resetCaches();
+        }
+
+        @Override public void visitUserBatch(UserBatchEvent event) {
+          resetCaches();
+        }
+
+        @Override public void visitGroupEvent(GroupEvent event) {
+          super.visitGroupEvent(event);
+          resetCaches();
         }
       });
     }
@@ -126,7 +126,7 @@ public class UserListComponentImpl implements UserListComponent, Disposable {
 
     UIUtil.runWhenShown(myTree, new MakeNodeWithMessageVisible());
 
-    myUserModel.getBroadcaster().addListener(myExpandTreeNodeListener);
+    myUserModel.getBroadcaster().addCoalescingListener(IDEtalkEvent.class, myExpandTreeNodeListener);
 
     readState();
   }
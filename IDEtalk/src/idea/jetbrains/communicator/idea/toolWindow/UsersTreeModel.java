@@ -70,6 +70,10 @@ public class UsersTreeModel extends DefaultTreeModel implements Disposable {
             updateTree(null);
           }
 
+          @Override public void visitUserBatch(UserBatchEvent event) {
+            updateTree(null);
+          }
+
           @Override public void visitGroupEvent(GroupEvent event) {
             updateTree(event);
           }
@@ -84,7 +88,7 @@ public class UsersTreeModel extends DefaultTreeModel implements Disposable {
         });
       }
     };
-    myBroadcaster.addListener(myListener);
+    myBroadcaster.addCoalescingListener(IDEtalkEvent.class, myListener);
   }
 
   void updateTree(final GroupEvent updated) {
@@ -39,7 +39,6 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 import org.jivesoftware.smack.*;
 import org.jivesoftware.smack.filter.PacketTypeFilter;
-import org.jivesoftware.smack.filter.ThreadFilter;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.PacketExtension;
@@ -51,6 +50,7 @@ import org.picocontainer.MutablePicoContainer;
 import javax.swing.*;
 import java.util.*;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Kir
@@ -71,11 +71,13 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
   private RosterListener myRosterListener;
   private PacketListener mySubscribeListener;
   private PacketListener myMessageListener;
+  private final PendingResponses myPendingResponses;
   private final JabberUserFinder myUserFinder;
   private final IDEFacade myIdeFacade;
 
   private final String myThreadIdPrefix = StringUtils.randomString(5);
-  private int myCurrentThreadId;
+  private final AtomicInteger myCurrentThreadId = new AtomicInteger();
+  private final Object myConnectLock = new Object();
   private boolean myIgnoreUserEvents;
   private PresenceMode myPresenceMode;
 
@@ -84,7 +86,7 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
   private final Map<String, String> myUser2Thread = Collections.synchronizedMap(new HashMap<String, String>());
 
   @NonNls
-  private static final String RESPONSE = "response";
+  static final String RESPONSE = "response";
   private final IgnoreList myIgnoreList;
 
   // negative value disables reconnect
@@ -105,9 +107,10 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
     myUserFinder = userFinder;
     myIdeFacade = messageDispatcher.getIdeFacade();
     myIgnoreList = new IgnoreList(myIdeFacade);
+    myPendingResponses = new PendingResponses(myIdeFacade, RESPONSE_TIMEOUT);
 
     myFacade.addConnectionListener(this);
-    getBroadcaster().addListener(myUserModelListener);
+    getBroadcaster().addListener(UserEvent.class, myUserModelListener);
   }
 
   private EventBroadcaster getBroadcaster() {
@@ -193,41 +196,39 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
     return null;
   }
 
-  public synchronized void sendXmlMessage(User user, final XmlMessage xmlMessage) {
-    if (!myUI.connectAndLogin(null)) {
+  public void sendXmlMessage(User user, final XmlMessage xmlMessage) {
+    if (!connectAndLogin()) {
       return;
     }
 
-    final String threadId = getThreadId(user);
-    final PacketCollector packetCollector = myFacade.getConnection().createPacketCollector(new ThreadFilter(threadId));
-    doSendMessage(xmlMessage, user, threadId);
-
+    final String threadId;
     if (xmlMessage.needsResponse()) {
-      //noinspection HardCodedStringLiteral
-      final Runnable responseWaiterRunnable = new Runnable() {
-        public void run() {
-          try {
-            processResponse(xmlMessage, packetCollector);
-          }
-          finally {
-            packetCollector.cancel();
-          }
-        }
-      };
-      myIdeFacade.runOnPooledThread(responseWaiterRunnable);
+      threadId = myThreadIdPrefix + myCurrentThreadId.getAndIncrement();
+      myPendingResponses.expectResponse(threadId, xmlMessage);
     }
     else {
-      packetCollector.cancel();
+      threadId = getThreadId(user);
+    }
+    doSendMessage(xmlMessage, user, threadId);
+  }
+
+  private boolean connectAndLogin() {
+    if (myFacade.isConnectedAndAuthenticated()) return true;
+
+    synchronized (myConnectLock) {
+      return myUI.connectAndLogin(null);
     }
   }
 
   String getThreadId(User user) {
-    String id = myUser2Thread.get(user.getName());
-    if (id == null) {
-      id = myThreadIdPrefix + myCurrentThreadId ++;
-      myUser2Thread.put(user.getName(), id);
+    synchronized (myUser2Thread) {
+      String id = myUser2Thread.get(user.getName());
+      if (id == null) {
+        id = myThreadIdPrefix + myCurrentThreadId.getAndIncrement();
+        myUser2Thread.put(user.getName(), id);
+      }
+      return id;
     }
-    return id;
   }
 
   public void setOwnPresence(UserPresence userPresence) {
@@ -253,28 +254,6 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
     return myPresenceMode == null || myPresenceMode != presenceMode;
   }
 
-  private static void processResponse(XmlMessage xmlMessage, PacketCollector collector) {
-    boolean gotResponse = false;
-
-    while (!gotResponse) {
-
-      Message response = (Message) collector.nextResult(RESPONSE_TIMEOUT);
-      if (response == null) break;
-
-      final Collection<PacketExtension> extensions = response.getExtensions();
-      for (PacketExtension o : extensions) {
-        if (o instanceof JDOMExtension) {
-          JDOMExtension extension = (JDOMExtension) o;
-          if (RESPONSE.equals(extension.getElement().getName())) {
-            xmlMessage.processResponse(extension.getElement());
-            gotResponse = true;
-            break;
-          }
-        }
-      }
-    }
-  }
-
   private Message doSendMessage(XmlMessage xmlMessage, User user, String threadId) {
     Element element = new Element(xmlMessage.getTagName(), xmlMessage.getTagNamespace());
     xmlMessage.fillRequest(element);
@@ -302,6 +281,7 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
     if (myMessageListener == null) {
       myMessageListener = new MyMessageListener();
       connection.addPacketListener(myMessageListener, new PacketTypeFilter(Message.class));
+      connection.addPacketListener(myPendingResponses, new PacketTypeFilter(Message.class));
     }
   }
 
@@ -333,7 +313,9 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
     connection.removePacketListener(mySubscribeListener);
     mySubscribeListener = null;
     connection.removePacketListener(myMessageListener);
+    connection.removePacketListener(myPendingResponses);
     myMessageListener = null;
+    myPendingResponses.clear();
 
     final Roster roster = connection.getRoster();
     if (roster != null) {
@@ -403,13 +385,18 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
   private void updateJabberUsers(boolean removeUsersNotInRoster) {
     LOG.debug("Roster changed - update user model");
     Set<User> currentUsers = new HashSet<User>(Arrays.asList(myUserModel.getAllUsers()));
+    Map<User, RosterEntry> rosterUsers = new LinkedHashMap<User, RosterEntry>();
     for (RosterEntry rosterEntry : getRoster().getEntries()) {
-      User user = addJabberUserToUserModelOrUpdateInfo(rosterEntry);
+      User user = createUserFromRosterEntry(rosterEntry);
+      rosterUsers.put(user, rosterEntry);
       currentUsers.remove(user);
     }
 
-    if (removeUsersNotInRoster) {
-      removeUsers(currentUsers);
+    Collection<User> toRemove = removeUsersNotInRoster ? currentUsers : Collections.<User>emptySet();
+    myUserModel.updateUsers(rosterUsers.keySet(), toRemove);
+
+    for (Map.Entry<User, RosterEntry> entry : rosterUsers.entrySet()) {
+      updateIsIDEtalkClient(getCurrentJabberID(entry.getKey(), entry.getValue()), entry.getKey());
     }
 
     if (LOG.isDebugEnabled()) {
@@ -417,24 +404,20 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
     }
   }
 
-  private void removeUsers(Set<User> currentUsers) {
-    for (User user : currentUsers) {
-      myUserModel.removeUser(user);
+  /** Creates a user (not added to the model) with group and display name from roster entry */
+  private User createUserFromRosterEntry(RosterEntry rosterEntry) {
+    User user = myUserModel.createUser(getSimpleId(rosterEntry.getUser()), getName());
+    User inModel = myUserModel.findUser(user.getName(), getName());
+    if (inModel != null) {
+      user.setGroup(inModel.getGroup(), null);
+      user.setDisplayName(inModel.getDisplayName(), null);
     }
-  }
 
-  private User addJabberUserToUserModelOrUpdateInfo(RosterEntry rosterEntry) {
-//    System.out.println("rosterEntry.getName() = " + rosterEntry.getName());
-//    System.out.println("rosterEntry.getUser() = " + rosterEntry.getUser());
-    User user = myUserModel.createUser(getSimpleId(rosterEntry.getUser()), getName());
     String newGroup = getUserGroup(rosterEntry);
     if (newGroup != null) {
-      user.setGroup(newGroup, myUserModel);
+      user.setGroup(newGroup, null);
     }
-    user.setDisplayName(rosterEntry.getName(), myUserModel);
-    myUserModel.addUser(user);
-    String jabberId = getCurrentJabberID(user, rosterEntry);
-    updateIsIDEtalkClient(jabberId, user);
+    user.setDisplayName(rosterEntry.getName(), null);
     return user;
   }
 
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.jabber.impl;
+
+import jetbrains.communicator.core.transport.XmlMessage;
+import jetbrains.communicator.ide.IDEFacade;
+import org.apache.log4j.Logger;
+import org.jdom.Element;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.PacketExtension;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Single dispatcher for responses to outgoing XML messages.<p>
+ *
+ * Every request which needs a response gets its own Jabber thread id. The response comes
+ * back with the same thread id and is routed to the waiting XmlMessage. No thread is
+ * blocked while a response is pending; requests without response are dropped after timeout.
+ * Responses are processed on a pooled thread to keep Smack's listener thread free.
+ *
+ * @author Kir
+ */
+class PendingResponses implements PacketListener {
+  private static final Logger LOG = Logger.getLogger(PendingResponses.class);
+
+  private final IDEFacade myIdeFacade;
+  private final long myTimeout;
+  // Insertion order is also expiration order, because timeout is the same for all requests
+  private final LinkedHashMap<String, PendingResponse> myThread2Response = new LinkedHashMap<String, PendingResponse>();
+
+  PendingResponses(IDEFacade ideFacade, long timeout) {
+    myIdeFacade = ideFacade;
+    myTimeout = timeout;
+  }
+
+  public void expectResponse(String threadId, XmlMessage xmlMessage) {
+    long now = System.currentTimeMillis();
+    synchronized (myThread2Response) {
+      expireOutdated(now);
+      myThread2Response.put(threadId, new PendingResponse(xmlMessage, now + myTimeout));
+    }
+  }
+
+  public void processPacket(Packet packet) {
+    final Message message = (Message) packet;
+    final String threadId = message.getThread();
+    if (threadId == null) return;
+
+    final Element response = getResponseElement(message);
+    if (response == null) return;
+
+    final PendingResponse pendingResponse;
+    synchronized (myThread2Response) {
+      expireOutdated(System.currentTimeMillis());
+      pendingResponse = myThread2Response.remove(threadId);
+    }
+
+    if (pendingResponse != null) {
+      myIdeFacade.runOnPooledThread(new Runnable() {
+        public void run() {
+          try {
+            pendingResponse.myMessage.processResponse(response);
+          }
+          catch (Throwable e) {
+            LOG.error(e.getMessage(), e);
+          }
+        }
+      });
+    }
+  }
+
+  public int size() {
+    synchronized (myThread2Response) {
+      return myThread2Response.size();
+    }
+  }
+
+  public void clear() {
+    synchronized (myThread2Response) {
+      myThread2Response.clear();
+    }
+  }
+
+  private void expireOutdated(long now) {
+    for (Iterator<Map.Entry<String, PendingResponse>> it = myThread2Response.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<String, PendingResponse> entry = it.next();
+      if (entry.getValue().myDeadline > now) break;
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("No response for thread " + entry.getKey());
+      }
+      it.remove();
+    }
+  }
+
+  static Element getResponseElement(Message message) {
+    for (PacketExtension o : message.getExtensions()) {
+      if (o instanceof JDOMExtension) {
+        JDOMExtension extension = (JDOMExtension) o;
+        if (JabberTransport.RESPONSE.equals(extension.getElement().getName())) {
+          return extension.getElement();
+        }
+      }
+    }
+    return null;
+  }
+
+  private static class PendingResponse {
+    private final XmlMessage myMessage;
+    private final long myDeadline;
+
+    PendingResponse(XmlMessage message, long deadline) {
+      myMessage = message;
+      myDeadline = deadline;
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.XmlRpcTransport;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.URL;
+
+/**
+ * XML-RPC transport over a persistent HTTP/1.1 connection to one peer.<p>
+ *
+ * Unlike LiteXmlRpcTransport, it asks the peer for keep-alive by itself instead of relying on
+ * the JVM-wide XmlRpc.setKeepAlive flag, and it owns its socket, so the connection pool can
+ * really close it. A connection may be used for the next request only when the peer agreed to
+ * keep it open and the whole response has been read.
+ *
+ * @author Kir
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+class KeepAliveXmlRpcTransport implements XmlRpcTransport {
+  private static final Logger LOG = Logger.getLogger(KeepAliveXmlRpcTransport.class);
+  private static final int MAX_HEADER_LINE = 8192;
+
+  private final String myHost;
+  private final int myPort;
+  private final String myUri;
+
+  private Socket mySocket;
+  private InputStream myInput;
+  private OutputStream myOutput;
+  private boolean myKeepAlive;
+  private ResponseStream myResponse;
+
+  KeepAliveXmlRpcTransport(URL url) {
+    myHost = url.getHost();
+    myPort = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    myUri = url.getFile().length() == 0 ? "/" : url.getFile();
+  }
+
+  public InputStream sendXmlRpc(byte[] request) throws IOException {
+    boolean reused = mySocket != null;
+    try {
+      if (mySocket == null) {
+        open();
+      }
+      InputStream response = sendRequest(request);
+      if (response == null && reused) {
+        // The peer has dropped the idle connection in the meantime, try once more on a fresh one
+        LOG.debug("Connection to " + myHost + ':' + myPort + " was closed by peer, reconnecting");
+        close();
+        open();
+        response = sendRequest(request);
+      }
+      if (response == null) {
+        throw new EOFException("Connection closed by " + myHost + ':' + myPort);
+      }
+      return response;
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  public void endClientRequest() {
+    if (myResponse == null) return;
+
+    // The response decoder may stop at the closing tag, skip the rest so that
+    // the next request on this connection starts on a clean stream
+    try {
+      if (!myKeepAlive || !myResponse.skipRest()) {
+        close();
+      }
+    } catch (IOException e) {
+      LOG.debug(e.getMessage(), e);
+      close();
+    }
+    myResponse = null;
+  }
+
+  /** @return true if the connection is open and may be used for the next request */
+  boolean isReusable() {
+    return mySocket != null && myKeepAlive && myResponse == null;
+  }
+
+  boolean isOpen() {
+    return mySocket != null;
+  }
+
+  void close() {
+    if (mySocket != null) {
+      try {
+        mySocket.close();
+      } catch (IOException e) {
+        LOG.debug(e.getMessage(), e);
+      }
+    }
+    mySocket = null;
+    myInput = null;
+    myOutput = null;
+    myResponse = null;
+    myKeepAlive = false;
+  }
+
+  private void open() throws IOException {
+    mySocket = new Socket(myHost, myPort);
+    myInput = new BufferedInputStream(mySocket.getInputStream());
+    myOutput = new BufferedOutputStream(mySocket.getOutputStream());
+  }
+
+  /** @return response body or null if the connection was closed before the peer answered */
+  private InputStream sendRequest(byte[] request) throws IOException {
+    String header = "POST " + myUri + " HTTP/1.1\r\n" +
+        "Host: " + myHost + ':' + myPort + "\r\n" +
+        "Content-Type: text/xml\r\n" +
+        "Content-Length: " + request.length + "\r\n" +
+        "Connection: keep-alive\r\n" +
+        "\r\n";
+    try {
+      myOutput.write(header.getBytes("US-ASCII"));
+      myOutput.write(request);
+      myOutput.flush();
+    } catch (IOException e) {
+      LOG.debug(e.getMessage(), e);
+      return null;
+    }
+
+    String statusLine = readLine();
+    if (statusLine == null) return null;
+
+    String[] status = statusLine.split(" ", 3);
+    if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+      throw new IOException("Unexpected response from " + myHost + ':' + myPort + ": " + statusLine);
+    }
+    myKeepAlive = "HTTP/1.1".equals(status[0]);
+
+    int contentLength = -1;
+    String line;
+    while ((line = readLine()) != null && line.length() > 0) {
+      String lowerCase = line.toLowerCase();
+      if (lowerCase.startsWith("content-length:")) {
+        try {
+          contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+        } catch (NumberFormatException e) {
+          throw new IOException("Bad response header from " + myHost + ':' + myPort + ": " + line);
+        }
+      }
+      else if (lowerCase.startsWith("connection:")) {
+        myKeepAlive = lowerCase.indexOf("keep-alive") != -1;
+      }
+    }
+    if (line == null) {
+      throw new EOFException("Incomplete response from " + myHost + ':' + myPort);
+    }
+    if (!"200".equals(status[1])) {
+      throw new IOException("Peer " + myHost + ':' + myPort + " answered " + statusLine);
+    }
+    if (contentLength < 0) {
+      // The body ends with the connection
+      myKeepAlive = false;
+    }
+
+    myResponse = new ResponseStream(myInput, contentLength);
+    return myResponse;
+  }
+
+  private String readLine() throws IOException {
+    StringBuilder result = new StringBuilder();
+    int c;
+    while ((c = myInput.read()) != '\n') {
+      if (c == -1) {
+        return result.length() == 0 ? null : result.toString();
+      }
+      if (result.length() > MAX_HEADER_LINE) {
+        throw new IOException("Response header too long from " + myHost + ':' + myPort);
+      }
+      if (c != '\r') {
+        result.append((char) c);
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * Body of one response, reads no further than its Content-Length and does not close the connection.
+   */
+  private static class ResponseStream extends InputStream {
+    private final InputStream myIn;
+    private int myRemaining;
+
+    /** @param length body length or -1 if the body ends with the connection */
+    ResponseStream(InputStream in, int length) {
+      myIn = in;
+      myRemaining = length < 0 ? Integer.MAX_VALUE : length;
+    }
+
+    public int read() throws IOException {
+      if (myRemaining == 0) return -1;
+      int result = myIn.read();
+      if (result != -1) {
+        myRemaining --;
+      }
+      return result;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (myRemaining == 0) return -1;
+      int result = myIn.read(b, off, Math.min(len, myRemaining));
+      if (result > 0) {
+        myRemaining -= result;
+      }
+      return result;
+    }
+
+    public int available() throws IOException {
+      return Math.min(myIn.available(), myRemaining);
+    }
+
+    public void close() {
+    }
+
+    /** @return false if the connection ended before the whole body was read */
+    boolean skipRest() throws IOException {
+      while (myRemaining > 0) {
+        long skipped = myIn.skip(myRemaining);
+        if (skipped > 0) {
+          myRemaining -= skipped;
+        }
+        else if (myIn.read() == -1) {
+          return false;
+        }
+        else {
+          myRemaining --;
+        }
+      }
+      return true;
+    }
+  }
+}
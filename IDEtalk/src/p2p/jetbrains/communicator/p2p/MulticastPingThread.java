@@ -17,6 +17,7 @@ package jetbrains.communicator.p2p;
 
 import jetbrains.communicator.ide.IDEFacade;
 import jetbrains.communicator.p2p.commands.AddOnlineUserP2PCommand;
+import jetbrains.communicator.util.StringUtil;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
@@ -25,6 +26,7 @@ import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.net.SocketException;
 import java.util.Arrays;
+import java.util.StringTokenizer;
 
 /**
  * @author Kir Maximov
@@ -36,18 +38,23 @@ class MulticastPingThread extends Thread {
 
   public static final int MULTICAST_PORT = 2863;
   static final String PING_MESSAGE = "Is there anybody out there?";
+  /** Format: HEARTBEAT_MESSAGE + port + ':' + hash of user name, projects and presence */
+  static final String HEARTBEAT_MESSAGE = "IDEtalk heartbeat ";
   private static final String MULTICAST_ADDR = "239.203.13.64";
-  private static final int BUFFER_SIZE = PING_MESSAGE.getBytes().length + 6;
+  private static final int BUFFER_SIZE = Math.max(PING_MESSAGE.getBytes().length + 6, HEARTBEAT_MESSAGE.getBytes().length + 18);
   private static final int ALLOWED_FAILURES = 3000;
 
   private volatile boolean myIsRunning;
   private volatile boolean myDisposed;
   private MulticastSocket myDatagramSocket;
+  private final Object mySendSocketLock = new Object();
+  private MulticastSocket mySendSocket;
   protected boolean myStarted;
 
   private final InetAddress mySelfAddress;
   private final IDEFacade myIdeFacade;
   private final UserMonitorClient myUserMonitorClient;
+  private volatile UserMonitorThread myUserMonitor;
 
   private int myFailuresCounter;
 
@@ -63,35 +70,69 @@ class MulticastPingThread extends Thread {
     System.setProperty("sun.net.client.defaultConnectTimeout", "2000");
   }
 
+  void setUserMonitor(UserMonitorThread userMonitor) {
+    myUserMonitor = userMonitor;
+  }
+
   public void sendMulticastPingRequest() throws IOException {
     if (!myIsRunning) return;
 
-    MulticastSocket datagramSocket = null;
-    try {
-      datagramSocket = new MulticastSocket();
-      datagramSocket.setInterface(mySelfAddress);
-      LOG.debug("Sending Multicast ping request: " + mySelfAddress);
-      sendMessage(datagramSocket, PING_MESSAGE + myUserMonitorClient.getPort());
-      myFailuresCounter = 0;
-    } catch (IOException e) {
+    LOG.debug("Sending Multicast ping request: " + mySelfAddress);
+    send(PING_MESSAGE + myUserMonitorClient.getPort(), InetAddress.getByName(MULTICAST_ADDR));
+  }
+
+  /**
+   * Lightweight "I'm still here" announcement. It carries a hash of our user state, so peers
+   * which have stale information about us ask for details with a direct ping.
+   */
+  public void sendHeartbeat() throws IOException {
+    if (!myIsRunning) return;
 
-      if (++myFailuresCounter > ALLOWED_FAILURES) {
-        LOG.info("Unable to send multicast request on interface " + mySelfAddress + ". I give up after " +
-            myFailuresCounter + " attempts.", e);
-        myIsRunning = false;
+    send(HEARTBEAT_MESSAGE + myUserMonitorClient.getPort() + ':' + getOwnStateHash(), InetAddress.getByName(MULTICAST_ADDR));
+  }
+
+  private void sendDirectPingRequest(InetAddress remoteAddress) {
+    send(PING_MESSAGE + myUserMonitorClient.getPort(), remoteAddress);
+  }
+
+  private void send(String msg, InetAddress target) {
+    synchronized (mySendSocketLock) {
+      try {
+        if (mySendSocket == null) {
+          mySendSocket = new MulticastSocket();
+          mySendSocket.setInterface(mySelfAddress);
+        }
+        byte[] bytes = msg.getBytes();
+        mySendSocket.send(new DatagramPacket(bytes, 0, bytes.length, target, MULTICAST_PORT));
+        myFailuresCounter = 0;
+      } catch (IOException e) {
+        closeSendSocket();
+
+        if (++myFailuresCounter > ALLOWED_FAILURES) {
+          LOG.info("Unable to send multicast request on interface " + mySelfAddress + ". I give up after " +
+              myFailuresCounter + " attempts.", e);
+          myIsRunning = false;
+        }
       }
     }
-    finally {
-      if (datagramSocket != null) {
-        datagramSocket.close();
+  }
+
+  private void closeSendSocket() {
+    synchronized (mySendSocketLock) {
+      if (mySendSocket != null) {
+        mySendSocket.close();
+        mySendSocket = null;
       }
     }
   }
 
-  private static void sendMessage(MulticastSocket datagramSocket, String msg) throws IOException {
-    DatagramPacket packet = new DatagramPacket(msg.getBytes(), 0, msg.getBytes().length,
-            InetAddress.getByName(MULTICAST_ADDR), MULTICAST_PORT);
-    datagramSocket.send(packet);
+  int getOwnStateHash() {
+    int result = StringUtil.getMyUsername().hashCode();
+    if (myIdeFacade != null) {
+      result = 29 * result + Arrays.asList(myIdeFacade.getProjects()).hashCode();
+    }
+    result = 29 * result + myUserMonitorClient.getOwnPresence().getPresenceMode().name().hashCode();
+    return result;
   }
 
   /** @noinspection AssignmentToNull*/
@@ -134,6 +175,9 @@ class MulticastPingThread extends Thread {
               addSelfInfoTo(remoteAddress, targetPort);
             }
           }
+          else if (message.startsWith(HEARTBEAT_MESSAGE)) {
+            processHeartbeat(datagramPacket, message);
+          }
         }
         catch(SocketException e) {
           if (!"Socket closed".equalsIgnoreCase(e.getMessage())) {
@@ -178,6 +222,31 @@ class MulticastPingThread extends Thread {
         mySelfAddress, myUserMonitorClient.getPort(), Arrays.asList(projects), myUserMonitorClient.getOwnPresence());
   }
 
+  private void processHeartbeat(DatagramPacket datagramPacket, String message) {
+    final UserMonitorThread userMonitor = myUserMonitor;
+    int[] portAndHash = extractPortAndHash(message);
+    if (userMonitor == null || portAndHash == null) return;
+
+    if (shouldAddSelf(datagramPacket, portAndHash[0])) {
+      InetAddress remoteAddress = datagramPacket.getAddress();
+      if (userMonitor.processHeartbeat(remoteAddress, portAndHash[0], portAndHash[1])) {
+        sendDirectPingRequest(remoteAddress);
+      }
+    }
+  }
+
+  static int[] extractPortAndHash(String message) {
+    StringTokenizer tokenizer = new StringTokenizer(message.substring(HEARTBEAT_MESSAGE.length()), ":");
+    try {
+      int port = Integer.parseInt(tokenizer.nextToken());
+      int hash = Integer.parseInt(tokenizer.nextToken());
+      return new int[]{port, hash};
+    } catch (Exception e) {
+      LOG.debug(e);
+    }
+    return null;
+  }
+
   private boolean shouldAddSelf(DatagramPacket datagramPacket, int targetPort) {
     boolean ownAddress = NetworkUtil.isOwnAddress(datagramPacket.getAddress());
     if (ownAddress) {
@@ -204,6 +273,7 @@ class MulticastPingThread extends Thread {
     if (myDatagramSocket != null) {
       myDatagramSocket.close();
     }
+    closeSendSocket();
     if (myIsRunning) {
       myIsRunning = false;
       //try {
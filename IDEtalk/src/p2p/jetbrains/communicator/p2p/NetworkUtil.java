@@ -19,7 +19,6 @@ import jetbrains.communicator.core.Pico;
 import jetbrains.communicator.util.TimeoutCachedValue;
 import jetbrains.communicator.util.XmlRpcTarget;
 import org.apache.log4j.Logger;
-import org.apache.xmlrpc.XmlRpcClient;
 import org.apache.xmlrpc.XmlRpcException;
 
 import java.io.IOException;
@@ -58,6 +57,8 @@ public class NetworkUtil {
     }
   };
 
+  private static final XmlRpcConnectionPool ourConnectionPool = new XmlRpcConnectionPool();
+
   private NetworkUtil() {
   }
 
@@ -86,8 +87,7 @@ public class NetworkUtil {
     }
 
     try {
-      XmlRpcClient client = new XmlRpcClient(url);
-      return client.execute(fullMethodName, new Vector<Object>(parameters));
+      return ourConnectionPool.execute(url, fullMethodName, new Vector<Object>(parameters));
     } catch (MalformedURLException e) {
       LOG.info(buildFullLogLine(logLine, parameters)+ ' ' +e.getLocalizedMessage());
     } catch (IOException e) {
@@ -98,6 +98,15 @@ public class NetworkUtil {
     return null;
   }
 
+  /** Closes all idle connections to remote peers */
+  public static void closeConnections() {
+    ourConnectionPool.clear();
+  }
+
+  static XmlRpcConnectionPool getConnectionPool() {
+    return ourConnectionPool;
+  }
+
   private static String buildFullLogLine(String logLine, List<? extends Object> parameters) {
     return logLine + '(' + parameters + ')';
   }
@@ -19,6 +19,7 @@ import org.apache.log4j.Logger;
 import org.apache.xmlrpc.IdeaAwareWebServer;
 import org.apache.xmlrpc.IdeaAwareXmlRpcServer;
 import org.apache.xmlrpc.WebServer;
+import org.apache.xmlrpc.XmlRpc;
 
 import java.io.IOException;
 
@@ -34,6 +35,14 @@ public class P2PServer {
     myXmlRpcPort = portToListen;
 
     //XmlRpc.setDebug(true);
+
+    // WebServer keeps connections from peers open only with this flag, so the connection pools
+    // of our peers can reuse them. The flag is JVM-wide: every XML-RPC 2 WebServer in the IDE
+    // process honors keep-alive requests from then on, and XmlRpcClientLite transports ask for
+    // keep-alive and leave their socket open until the peer closes it. It can't be scoped to this
+    // server because WebServer reads it statically in its package-private connection handler.
+    // Our own client side does not depend on it, see KeepAliveXmlRpcTransport
+    XmlRpc.setKeepAlive(true);
     try{
       // Trying to avoid dependency on IDEA code here:
       //noinspection UnnecessaryFullyQualifiedName
@@ -146,7 +146,7 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
       myUserMonitorThread.triggerFindNow();
       new WaitFor() { protected boolean condition() { return myUserMonitorThread.isRunning(); } };
 
-      myEventBroadcaster.addListener(myUserAddedCallbackListener);
+      myEventBroadcaster.addListener(UserEvent.Added.class, myUserAddedCallbackListener);
     }
   }
 
@@ -171,6 +171,7 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
         LOG.info(e);
       }
     }
+    NetworkUtil.closeConnections();
 
     myOnlineUsers.clear();
   }
@@ -178,6 +179,8 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
   public void initializeProject(final String projectName, MutablePicoContainer projectLevelContainer) {
     getIdeFacade().runOnPooledThread(new Runnable() {
       public void run() {
+        myUserMonitorThread.announceNow();
+
         User[] users = findUsers(new NullProgressIndicator());
         Set<User> ourUsers = new HashSet<User>();
         for (User user : users) {
@@ -291,6 +294,23 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
     }
   }
 
+  /** Sends several messages to the user in a single network call */
+  public void sendXmlMessages(User user, List<XmlMessage> messages) {
+    if (messages.isEmpty()) return;
+
+    Message msg = SendXmlMessageP2PCommand.createNetworkMessage(messages);
+    boolean needsResponse = false;
+    for (XmlMessage message : messages) {
+      needsResponse |= message.needsResponse();
+    }
+    if (needsResponse) {
+      myAsyncMessageDispatcher.sendNow(user, msg);
+    }
+    else {
+      myAsyncMessageDispatcher.sendLater(user, msg);
+    }
+  }
+
   public UserPresence getOwnPresence() {
     return myOwnPresence;
   }
@@ -311,7 +331,11 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
       notifyUsersAboutOnlineImmediately();
     }
 
+    boolean changed = !userPresence.equals(myOwnPresence);
     myOwnPresence = userPresence;
+    if (changed && userPresence.isOnline()) {
+      myUserMonitorThread.announceNow();
+    }
   }
 
   private boolean selfBecomeAvailable(UserPresence userPresence) {
@@ -405,7 +429,7 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
       else { // User already exists
         UserPresence oldPresence = getNotNullOnlineInfo(user).getPresence();
         final OnlineUserInfo onlineUserInfo = myUser2InfoNew.get(user);
-        if (onlineUserInfo == null) return;
+        if (onlineUserInfo == null) continue;
         UserPresence newPresence = onlineUserInfo.getPresence();
 
         if (!newPresence.equals(oldPresence)) {
@@ -33,28 +33,43 @@ import java.util.*;
 /**
  * @author Kir Maximov
  *         <p/>
- *         This thread periodically scans the local network via multicast
- *         request and passes obtained users to UserMonitorClient
+ *         This thread scans the local network via multicast request when asked to,
+ *         and passes obtained users to UserMonitorClient. Between scans, presence
+ *         is kept up to date by periodic heartbeats: a user is considered offline
+ *         after several missed heartbeats, and a peer whose heartbeat carries
+ *         changed state is asked for details directly.
+ *         <p/>
+ *         Peers of older releases don't send heartbeats, so the network is
+ *         still scanned every {@link #TIMEOUT_BETWEEN_SCANS} and such peers
+ *         go offline when they don't answer a scan.
  */
 @SuppressWarnings({"HardCodedStringLiteral"})
 public class UserMonitorThread extends Thread {
   public static final Logger LOG = Logger.getLogger(UserMonitorThread.class);
 
   static final long WAIT_USER_RESPONSES_TIMEOUT = 3000;
+  /** Interval between heartbeats, in seconds */
   static final String SCAN_TIMEOUT_PROPERTY = "ideTalk.scanTimeout";
   public static final int MSECS_IN_SEC = 1000;
+  static final long HEARTBEAT_INTERVAL = 30 * MSECS_IN_SEC;
+  static final int MISSED_HEARTBEATS_LIMIT = 3;
   static final long TIMEOUT_BETWEEN_SCANS = 3 * 60 * MSECS_IN_SEC;
 
   private final MulticastPingThread[] myMulticastThreads;
   private final UserMonitorClient myClient;
   private final long myWaitUserResponsesTimeout;
-  private final long myScansTimeout;
+  private final long myHeartbeatInterval;
 
   private final Object myAvailableUsersLock = new Object();
-  private final Set<User> myAvailableUsers = new HashSet<User>();
+  private final Map<User, Long> myUser2LastSeen = new HashMap<User, Long>();
+  private final Map<String, User> myPeer2User = new HashMap<String, User>();
+  private final Map<String, Integer> myPeer2StateHash = new HashMap<String, Integer>();
+  private final Map<String, Integer> myPeer2PendingStateHash = new HashMap<String, Integer>();
+  private final Set<String> myHeartbeatPeers = new HashSet<String>();
 
   private Thread myThread;
   private long myStartFindingAt;
+  private long myLastScanAt;
 
   private final Object myLock = new Object();
 
@@ -69,15 +84,18 @@ public class UserMonitorThread extends Thread {
     myClient = client;
     myMulticastThreads = multicastPingThread;
     myWaitUserResponsesTimeout = waitUserResponsesTimeout;
+    for (MulticastPingThread thread : myMulticastThreads) {
+      thread.setUserMonitor(this);
+    }
 
     String timeout = System.getProperty(SCAN_TIMEOUT_PROPERTY);
 
     if(StringUtil.isEmpty(timeout)) {
-      myScansTimeout = TIMEOUT_BETWEEN_SCANS;
+      myHeartbeatInterval = HEARTBEAT_INTERVAL;
     }
     else {
       try {
-        myScansTimeout = Long.parseLong(timeout) * MSECS_IN_SEC;
+        myHeartbeatInterval = Long.parseLong(timeout) * MSECS_IN_SEC;
       } catch (NumberFormatException e) {
         LOG.error("Invalid timeout for interval between scans: " + SCAN_TIMEOUT_PROPERTY + '=' + timeout);
         throw e;
@@ -129,26 +147,19 @@ public class UserMonitorThread extends Thread {
 
     while (isRunning()) {
       try {
-        waitForNextSearch();
+        boolean fullScan = waitForNextCycle();
 
         if (!isRunning()) return;
-        synchronized(myLock) {
-          myStartFindingAt = System.currentTimeMillis();
-          LOG.debug("Start finding users ");
-        }
-
-        try {
-          sendMulticastRequests(getListeningThreads());
-
-          Thread.sleep(myWaitUserResponsesTimeout);
-
-          flushOnlineUsers();
-        } finally {
-          synchronized(myLock) {
-            myStartFindingAt = 0;
-            LOG.debug("Done finding users. Timeout for " + myScansTimeout);
+        if (!fullScan) {
+          sendHeartbeats(getListeningThreads());
+          if (expireStaleUsers(System.currentTimeMillis())) {
+            flushOnlineUsers();
           }
         }
+        if (fullScan || System.currentTimeMillis() - myLastScanAt >= TIMEOUT_BETWEEN_SCANS) {
+          // Also the only way to notice peers of older releases coming and going
+          scanNetwork();
+        }
       } catch (UnknownHostException e) {
         LOG.error(e.getMessage(), e);
       } catch (NoRouteToHostException e) {
@@ -165,6 +176,28 @@ public class UserMonitorThread extends Thread {
     LOG.info("Shut down");
   }
 
+  private void scanNetwork() throws IOException, InterruptedException {
+    long scanStart = System.currentTimeMillis();
+    synchronized(myLock) {
+      LOG.debug("Start finding users ");
+    }
+
+    try {
+      sendMulticastRequests(getListeningThreads());
+
+      Thread.sleep(myWaitUserResponsesTimeout);
+
+      expireUnansweredUsers(scanStart);
+      flushOnlineUsers();
+    } finally {
+      synchronized(myLock) {
+        myStartFindingAt = 0;
+        myLastScanAt = scanStart;
+        LOG.debug("Done finding users. Next heartbeat in " + myHeartbeatInterval);
+      }
+    }
+  }
+
   boolean isRunning() {
     return myThread != null;
   }
@@ -175,6 +208,23 @@ public class UserMonitorThread extends Thread {
     }
   }
 
+  private static void sendHeartbeats(List<MulticastPingThread> listeningThreads) throws IOException {
+    for (MulticastPingThread thread : listeningThreads) {
+      thread.sendHeartbeat();
+    }
+  }
+
+  /** Tells peers about changed own presence or projects without waiting for the next heartbeat */
+  public void announceNow() {
+    if (!isRunning()) return;
+
+    try {
+      sendHeartbeats(getListeningThreads());
+    } catch (IOException e) {
+      LOG.info(e.getMessage(), e);
+    }
+  }
+
   private List<MulticastPingThread> getListeningThreads() {
     List<MulticastPingThread> result = new ArrayList<MulticastPingThread>();
     for (MulticastPingThread multicastThread : myMulticastThreads) {
@@ -188,9 +238,6 @@ public class UserMonitorThread extends Thread {
   private void startFindingUsers() {
     synchronized(myLock) {
       myStartFindingAt = System.currentTimeMillis();
-      synchronized(myAvailableUsersLock) {
-        myAvailableUsers.clear();
-      }
     }
   }
 
@@ -206,17 +253,19 @@ public class UserMonitorThread extends Thread {
     } };
   }
 
-  private void waitForNextSearch() {
+  /** @return true if full network scan was requested, false if it is time for the next heartbeat */
+  private boolean waitForNextCycle() {
     try {
       synchronized(myLock) {
-        while(isRunning() && !isFinding()) {
-          myLock.wait(myScansTimeout);
-          startFindingUsers();
+        if (isRunning() && !isFinding()) {
+          myLock.wait(myHeartbeatInterval);
         }
+        return isFinding();
       }
     } catch (InterruptedException e) {
       myThread = null;
     }
+    return false;
   }
 
   public void addOnlineUser(String remoteAddress, String remoteUsername, Integer remotePort, Collection<String> projects, UserPresence presence) {
@@ -227,8 +276,20 @@ public class UserMonitorThread extends Thread {
       OnlineUserInfo onlineUserInfo = new OnlineUserInfo(InetAddress.getByName(remoteAddress), remotePort.intValue(), projects, presence);
       if (!onlineUserInfo.getAddress().isLoopbackAddress() || Pico.isUnitTest()) {
         User user = myClient.createUser(remoteUsername, onlineUserInfo);
+        String peer = peerKey(onlineUserInfo.getAddress(), remotePort.intValue());
+        Integer stateHash;
         synchronized(myAvailableUsersLock) {
-          myAvailableUsers.add(user);
+          myUser2LastSeen.put(user, System.currentTimeMillis());
+          myPeer2User.put(peer, user);
+          stateHash = myPeer2PendingStateHash.remove(peer);
+          if (stateHash != null) {
+            myPeer2StateHash.put(peer, stateHash);
+          }
+        }
+
+        if (stateHash != null && !isFinding()) {
+          // Answer to our request for details after a heartbeat with changed state
+          flushOnlineUsers();
         }
       }
     } catch (UnknownHostException e) {
@@ -236,6 +297,81 @@ public class UserMonitorThread extends Thread {
     }
   }
 
+  /**
+   * Registers a heartbeat from remote peer.
+   * @return true if we have no up-to-date information about the peer and should ask it for details
+   */
+  boolean processHeartbeat(InetAddress remoteAddress, int remotePort, int stateHash) {
+    String peer = peerKey(remoteAddress, remotePort);
+    synchronized(myAvailableUsersLock) {
+      myHeartbeatPeers.add(peer);
+      User user = myPeer2User.get(peer);
+      Integer knownHash = myPeer2StateHash.get(peer);
+      if (user != null && knownHash != null && knownHash.intValue() == stateHash && myUser2LastSeen.containsKey(user)) {
+        myUser2LastSeen.put(user, System.currentTimeMillis());
+        return false;
+      }
+      myPeer2PendingStateHash.put(peer, stateHash);
+      return true;
+    }
+  }
+
+  /**
+   * Peers which haven't sent a heartbeat yet are left to {@link #expireUnansweredUsers(long)}.
+   * @return true if some users went offline
+   */
+  boolean expireStaleUsers(long now) {
+    long expireBefore = now - myHeartbeatInterval * MISSED_HEARTBEATS_LIMIT;
+    synchronized(myAvailableUsersLock) {
+      Set<User> heartbeatUsers = new HashSet<User>();
+      for (String peer : myHeartbeatPeers) {
+        User user = myPeer2User.get(peer);
+        if (user != null) {
+          heartbeatUsers.add(user);
+        }
+      }
+      return removeUsersSeenBefore(expireBefore, heartbeatUsers, "Missed heartbeats from ");
+    }
+  }
+
+  /**
+   * Called at the end of a network scan for peers which don't send heartbeats.
+   * @return true if some users went offline
+   */
+  boolean expireUnansweredUsers(long scanStart) {
+    synchronized(myAvailableUsersLock) {
+      Set<User> silentUsers = new HashSet<User>(myUser2LastSeen.keySet());
+      for (String peer : myHeartbeatPeers) {
+        silentUsers.remove(myPeer2User.get(peer));
+      }
+      return removeUsersSeenBefore(scanStart, silentUsers, "No answer to the scan from ");
+    }
+  }
+
+  private boolean removeUsersSeenBefore(long time, Set<User> candidates, String logPrefix) {
+    boolean changed = false;
+    for (Iterator<Map.Entry<User, Long>> it = myUser2LastSeen.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<User, Long> entry = it.next();
+      if (entry.getValue().longValue() < time && candidates.contains(entry.getKey())) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(logPrefix + entry.getKey());
+        }
+        it.remove();
+        changed = true;
+      }
+    }
+    if (changed) {
+      myPeer2User.values().retainAll(myUser2LastSeen.keySet());
+      myPeer2StateHash.keySet().retainAll(myPeer2User.keySet());
+      myHeartbeatPeers.retainAll(myPeer2User.keySet());
+    }
+    return changed;
+  }
+
+  private static String peerKey(InetAddress address, int port) {
+    return address.getHostAddress() + ':' + port;
+  }
+
   boolean isFinding() {
     synchronized(myLock) {
       return isRunning() && myStartFindingAt > 0;
@@ -245,9 +381,9 @@ public class UserMonitorThread extends Thread {
   void flushOnlineUsers() {
     synchronized(myAvailableUsersLock) {
       if (LOG.isDebugEnabled()) {
-        LOG.debug("Setting online users: \n" + myAvailableUsers.toString().replace(',','\n'));
+        LOG.debug("Setting online users: \n" + myUser2LastSeen.keySet().toString().replace(',','\n'));
       }
-      myClient.setOnlineUsers(new HashSet<User>(myAvailableUsers));
+      myClient.setOnlineUsers(new HashSet<User>(myUser2LastSeen.keySet()));
     }
   }
 
@@ -290,7 +426,7 @@ public class UserMonitorThread extends Thread {
   private void setIndicatorText(ProgressIndicator progressIndicator) {
     int size;
     synchronized(myAvailableUsersLock) {
-      size = myAvailableUsers.size();
+      size = myUser2LastSeen.size();
     }
     progressIndicator.setText(StringUtil.getMsg("p2p.finder.progressText",
         String.valueOf(size),
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import org.apache.xmlrpc.XmlRpcClient;
+import org.apache.xmlrpc.XmlRpcClientException;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Keeps persistent HTTP connections to remote IDEtalk peers.<p>
+ *
+ * Every peer gets its own small pool of keep-alive transports, so subsequent calls to the same
+ * peer reuse an already opened socket instead of paying TCP setup for each message. Several
+ * calls to one peer may run concurrently - each of them takes its own connection from the pool.
+ * A connection goes back to the pool only when its call completed; connections which failed or
+ * whose response could not be decoded are closed.
+ *
+ * @author Kir
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+class XmlRpcConnectionPool {
+  static final int MAX_IDLE_CONNECTIONS_PER_PEER = 4;
+
+  private final Map<String, LinkedList<KeepAliveXmlRpcTransport>> myUrl2IdleTransports =
+      new HashMap<String, LinkedList<KeepAliveXmlRpcTransport>>();
+  private final Set<KeepAliveXmlRpcTransport> myBusyTransports = new HashSet<KeepAliveXmlRpcTransport>();
+  private final Map<String, XmlRpcClient> myUrl2Client = new HashMap<String, XmlRpcClient>();
+
+  public Object execute(String url, String fullMethodName, Vector<Object> parameters)
+      throws IOException, XmlRpcException {
+    XmlRpcClient client = getClient(url);
+    KeepAliveXmlRpcTransport transport = takeTransport(url);
+    boolean completed = false;
+    try {
+      Object result = client.execute(new XmlRpcRequest(fullMethodName, parameters), transport);
+      completed = true;
+      return result;
+    } catch (XmlRpcClientException e) {
+      // The request was not sent or the response was not decoded, the connection state is unknown
+      throw e;
+    } catch (XmlRpcException e) {
+      // Fault returned by the peer, the response has been read completely
+      completed = true;
+      throw e;
+    } finally {
+      if (completed) {
+        returnTransport(url, transport);
+      }
+      else {
+        discardTransport(transport);
+      }
+    }
+  }
+
+  public synchronized int getIdleConnectionsCount(String url) {
+    LinkedList<KeepAliveXmlRpcTransport> transports = myUrl2IdleTransports.get(url);
+    return transports == null ? 0 : transports.size();
+  }
+
+  /**
+   * Closes idle connections. Connections busy with a call are closed when the call completes.
+   */
+  public void clear() {
+    List<KeepAliveXmlRpcTransport> toClose = new ArrayList<KeepAliveXmlRpcTransport>();
+    synchronized (this) {
+      for (LinkedList<KeepAliveXmlRpcTransport> transports : myUrl2IdleTransports.values()) {
+        toClose.addAll(transports);
+      }
+      myUrl2IdleTransports.clear();
+      myBusyTransports.clear();
+      myUrl2Client.clear();
+    }
+    for (KeepAliveXmlRpcTransport transport : toClose) {
+      transport.close();
+    }
+  }
+
+  private synchronized XmlRpcClient getClient(String url) throws MalformedURLException {
+    XmlRpcClient client = myUrl2Client.get(url);
+    if (client == null) {
+      client = new XmlRpcClient(new URL(url));
+      myUrl2Client.put(url, client);
+    }
+    return client;
+  }
+
+  KeepAliveXmlRpcTransport takeTransport(String url) throws MalformedURLException {
+    KeepAliveXmlRpcTransport result = null;
+    synchronized (this) {
+      LinkedList<KeepAliveXmlRpcTransport> transports = myUrl2IdleTransports.get(url);
+      if (transports != null && !transports.isEmpty()) {
+        result = transports.removeFirst();
+      }
+    }
+    if (result == null) {
+      result = new KeepAliveXmlRpcTransport(new URL(url));
+    }
+    synchronized (this) {
+      myBusyTransports.add(result);
+    }
+    return result;
+  }
+
+  void returnTransport(String url, KeepAliveXmlRpcTransport transport) {
+    synchronized (this) {
+      // Not busy anymore means the pool was cleared during the call
+      if (myBusyTransports.remove(transport) && transport.isReusable()) {
+        LinkedList<KeepAliveXmlRpcTransport> transports = myUrl2IdleTransports.get(url);
+        if (transports == null) {
+          transports = new LinkedList<KeepAliveXmlRpcTransport>();
+          myUrl2IdleTransports.put(url, transports);
+        }
+        if (transports.size() < MAX_IDLE_CONNECTIONS_PER_PEER) {
+          transports.addFirst(transport);
+          return;
+        }
+      }
+    }
+    transport.close();
+  }
+
+  private void discardTransport(KeepAliveXmlRpcTransport transport) {
+    synchronized (this) {
+      myBusyTransports.remove(transport);
+    }
+    transport.close();
+  }
+}
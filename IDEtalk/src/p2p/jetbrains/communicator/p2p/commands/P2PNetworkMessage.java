@@ -45,12 +45,11 @@ public class P2PNetworkMessage implements Message {
   }
 
   public boolean send(User user) {
-    int port = getPort(user);
-    if (port < 0) {
+    XmlRpcTargetImpl target = getTarget(user);
+    if (target == null) {
       return false;
     }
-    
-    XmlRpcTargetImpl target = new XmlRpcTargetImpl(port, P2PTransport.getInstance().getAddress(user));
+
     List<String> parameters = new ArrayList<String>();
     parameters.add(StringUtil.toXMLSafeString(StringUtil.getMyUsername()));
     parameters.addAll(myCommandParameters);
@@ -66,7 +65,15 @@ public class P2PNetworkMessage implements Message {
     return myResponse;
   }
 
-  private int getPort(User user) {
+  static XmlRpcTargetImpl getTarget(User user) {
+    int port = getPort(user);
+    if (port < 0) {
+      return null;
+    }
+    return new XmlRpcTargetImpl(port, P2PTransport.getInstance().getAddress(user));
+  }
+
+  private static int getPort(User user) {
     P2PTransport p2PTransport = P2PTransport.getInstance();
     if (p2PTransport == null) {
       return -1;
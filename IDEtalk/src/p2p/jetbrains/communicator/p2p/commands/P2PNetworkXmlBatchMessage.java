@@ -0,0 +1,81 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p.commands;
+
+import jetbrains.communicator.core.dispatcher.Message;
+import jetbrains.communicator.core.transport.XmlMessage;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.p2p.NetworkUtil;
+import jetbrains.communicator.p2p.XmlRpcTargetImpl;
+import jetbrains.communicator.util.StringUtil;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Several XML messages to the same user, delivered in one XML-RPC call.
+ * @author Kir
+ */
+class P2PNetworkXmlBatchMessage implements Message {
+  private final String[] myMessageTexts;
+  private transient final XmlMessage[] myMessages;
+
+  P2PNetworkXmlBatchMessage(String[] messageTexts, XmlMessage[] messages) {
+    assert messageTexts.length == messages.length;
+    myMessageTexts = new String[messageTexts.length];
+    for (int i = 0; i < messageTexts.length; i++) {
+      myMessageTexts[i] = StringUtil.toXMLSafeString(messageTexts[i]);
+    }
+    myMessages = messages;
+  }
+
+  public boolean send(User user) {
+    XmlRpcTargetImpl target = P2PNetworkMessage.getTarget(user);
+    if (target == null) {
+      return false;
+    }
+
+    Object response = NetworkUtil.sendMessage(target, SendXmlMessageP2PCommand.ID, "incomingMessages",
+        StringUtil.toXMLSafeString(StringUtil.getMyUsername()), new Vector<String>(Arrays.asList(myMessageTexts)));
+    if (!(response instanceof List)) {
+      return false;
+    }
+
+    if (myMessages != null) {
+      List responses = (List) response;
+      for (int i = 0; i < myMessages.length && i < responses.size(); i++) {
+        P2PNetworkXmlMessage.processResponse(myMessages[i], responses.get(i));
+      }
+    }
+    return true;
+  }
+
+  String[] getMessageTexts() {
+    return myMessageTexts;
+  }
+
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof P2PNetworkXmlBatchMessage)) return false;
+
+    return Arrays.equals(myMessageTexts, ((P2PNetworkXmlBatchMessage) o).myMessageTexts);
+  }
+
+  public int hashCode() {
+    return Arrays.hashCode(myMessageTexts);
+  }
+}
@@ -49,13 +49,17 @@ class P2PNetworkXmlMessage extends P2PNetworkMessage {
   }
 
   void processResponse() {
-    if (myMessage == null || !myMessage.needsResponse()) return;
+    processResponse(myMessage, getResponse());
+  }
+
+  static void processResponse(XmlMessage message, Object responseObject) {
+    if (message == null || !message.needsResponse()) return;
 
     try {
-      final String response = getResponse().toString();
+      final String response = responseObject.toString();
       if (StringUtil.isNotEmpty(response)) {
         Document document = new SAXBuilder().build(new StringReader(response));
-        myMessage.processResponse(document.getRootElement());
+        message.processResponse(document.getRootElement());
       }
     } catch (JDOMException e) {
       LOG.error(e.getMessage(), e);
@@ -28,6 +28,8 @@ import org.jdom.input.SAXBuilder;
 import org.jdom.output.XMLOutputter;
 
 import java.io.StringReader;
+import java.util.List;
+import java.util.Vector;
 
 /**
  * @author Kir Maximov
@@ -42,12 +44,30 @@ public class SendXmlMessageP2PCommand extends BaseP2PCommand {
   }
 
   public String incomingMessage(String remoteUser, String messageText) {
+    return processMessage(StringUtil.fromXMLSafeString(remoteUser), messageText);
+  }
+
+  /**
+   * Batch envelope: several messages from the same user are delivered in a single XML-RPC call.
+   * Responses are returned in the order of incoming messages.
+   */
+  @SuppressWarnings({"CollectionDeclaredAsConcreteClass"})
+  public Vector<String> incomingMessages(String remoteUser, Vector<String> messageTexts) {
+    String user = StringUtil.fromXMLSafeString(remoteUser);
+    Vector<String> result = new Vector<String>(messageTexts.size());
+    for (String messageText : messageTexts) {
+      result.add(processMessage(user, messageText));
+    }
+    return result;
+  }
+
+  private String processMessage(String remoteUser, String messageText) {
     String xml = StringUtil.fromXMLSafeString(messageText);
     SAXBuilder builder = new SAXBuilder();
     try {
       Document document = builder.build(new StringReader(xml));
       Element rootElement = document.getRootElement();
-      Element response = createResponse(rootElement, StringUtil.fromXMLSafeString(remoteUser));
+      Element response = createResponse(rootElement, remoteUser);
       if (response == null) return "";
 
       return new XMLOutputter().outputString(response);
@@ -67,12 +87,27 @@ public class SendXmlMessageP2PCommand extends BaseP2PCommand {
   }
 
   public static Message createNetworkMessage(final XmlMessage message) {
+    return new P2PNetworkXmlMessage(toXmlString(message), message);
+  }
+
+  public static Message createNetworkMessage(final List<XmlMessage> messages) {
+    if (messages.size() == 1) {
+      return createNetworkMessage(messages.get(0));
+    }
+
+    String[] texts = new String[messages.size()];
+    for (int i = 0; i < texts.length; i++) {
+      texts[i] = toXmlString(messages.get(i));
+    }
+    return new P2PNetworkXmlBatchMessage(texts, messages.toArray(new XmlMessage[messages.size()]));
+  }
+
+  private static String toXmlString(XmlMessage message) {
     Element element = new Element(message.getTagName(), message.getTagNamespace());
     message.fillRequest(element);
 
     XMLOutputter outputter = new XMLOutputter();
-    String str = outputter.outputString(element);
-    return new P2PNetworkXmlMessage(str, message);
+    return outputter.outputString(element);
   }
 
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Results of IDEtalk benchmarks as JSON lines: one object per measurement, with
+ * "benchmark" name and numeric values. Printed to stdout and optionally written to a file.
+ *
+ * @author Kir
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class BenchmarkReport {
+  private final List<String> myLines = new ArrayList<String>();
+
+  public void add(String benchmark, Map<String, ? extends Number> values) {
+    StringBuilder line = new StringBuilder();
+    line.append("{\"benchmark\":\"").append(benchmark).append('"');
+    for (Map.Entry<String, ? extends Number> entry : values.entrySet()) {
+      line.append(",\"").append(entry.getKey()).append("\":").append(format(entry.getValue()));
+    }
+    line.append('}');
+
+    System.out.println(line);
+    myLines.add(line.toString());
+  }
+
+  public static Map<String, Number> values(Object... namesAndValues) {
+    Map<String, Number> result = new LinkedHashMap<String, Number>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      result.put((String) namesAndValues[i], (Number) namesAndValues[i + 1]);
+    }
+    return result;
+  }
+
+  public List<String> getLines() {
+    return Collections.unmodifiableList(myLines);
+  }
+
+  public void writeTo(File file) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      for (String line : myLines) {
+        writer.write(line);
+        writer.write('\n');
+      }
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  /** @return value at given percentile (0..100) of unsorted samples */
+  public static long percentile(long[] samples, double percentile) {
+    if (samples.length == 0) return 0;
+    long[] sorted = samples.clone();
+    Arrays.sort(sorted);
+    int idx = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+  }
+
+  private static String format(Number value) {
+    if (value instanceof Double || value instanceof Float) {
+      double d = value.doubleValue();
+      if (Double.isNaN(d) || Double.isInfinite(d)) return "null";
+      return String.format(Locale.US, "%.3f", d);
+    }
+    return String.valueOf(value);
+  }
+}
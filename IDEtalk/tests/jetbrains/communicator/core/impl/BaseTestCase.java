@@ -139,6 +139,11 @@ public abstract class BaseTestCase extends LightTestCase {
     });
   }
 
+  /** Deliver UserEvent.Updated events held for coalescing listeners */
+  protected void flushCoalescedEvents() {
+    getBroadcasterImpl().flushCoalescedEvents();
+  }
+
   private EventBroadcasterImpl getBroadcasterImpl() {
     return (EventBroadcasterImpl) getBroadcaster();
   }
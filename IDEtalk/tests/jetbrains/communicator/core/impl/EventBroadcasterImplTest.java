@@ -0,0 +1,162 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.impl;
+
+import jetbrains.communicator.core.IDEtalkAdapter;
+import jetbrains.communicator.core.IDEtalkEvent;
+import jetbrains.communicator.core.users.*;
+import jetbrains.communicator.mock.MockUser;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Kir
+ */
+public class EventBroadcasterImplTest extends TestCase {
+  private EventBroadcasterImpl myBroadcaster;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myBroadcaster = new EventBroadcasterImpl();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myBroadcaster.dispose();
+    super.tearDown();
+  }
+
+  public void testTypedListener() throws Exception {
+    MyListener all = new MyListener();
+    MyListener userEvents = new MyListener();
+    MyListener removed = new MyListener();
+    myBroadcaster.addListener(all);
+    myBroadcaster.addListener(UserEvent.class, userEvents);
+    myBroadcaster.addListener(UserEvent.Removed.class, removed);
+
+    MockUser user = new MockUser("bob", null);
+    myBroadcaster.fireEvent(new UserEvent.Added(user));
+    myBroadcaster.fireEvent(new GroupEvent.Added("group"));
+    myBroadcaster.fireEvent(new UserEvent.Removed(user));
+
+    assertEquals(3, all.myEvents.size());
+    assertEquals(2, userEvents.myEvents.size());
+    assertEquals(1, removed.myEvents.size());
+    assertTrue(removed.myEvents.get(0) instanceof UserEvent.Removed);
+
+    myBroadcaster.removeListener(removed);
+    myBroadcaster.fireEvent(new UserEvent.Removed(user));
+    assertEquals(1, removed.myEvents.size());
+  }
+
+  public void testBatchForTypedListener() throws Exception {
+    MyListener removed = new MyListener();
+    myBroadcaster.addListener(UserEvent.Removed.class, removed);
+
+    MockUser user = new MockUser("bob", null);
+    myBroadcaster.fireEvent(new UserBatchEvent(Arrays.<UserEvent>asList(new UserEvent.Added(user))));
+    assertEquals(0, removed.myEvents.size());
+
+    myBroadcaster.fireEvent(new UserBatchEvent(Arrays.<UserEvent>asList(new UserEvent.Added(user), new UserEvent.Removed(user))));
+    assertEquals(1, removed.myEvents.size());
+  }
+
+  public void testCoalescing() throws Exception {
+    MyListener coalescing = new MyListener();
+    myBroadcaster.addCoalescingListener(IDEtalkEvent.class, coalescing);
+
+    MockUser user = new MockUser("bob", null);
+    myBroadcaster.fireEvent(new UserEvent.Added(user));
+    myBroadcaster.fireEvent(new UserEvent.Updated(user, UserEvent.Updated.DISPLAY_NAME, "a", "b"));
+    myBroadcaster.fireEvent(new UserEvent.Updated(user, UserEvent.Updated.DISPLAY_NAME, "b", "c"));
+    myBroadcaster.fireEvent(new UserEvent.Updated(user, UserEvent.Updated.GROUP, "g1", "g2"));
+    assertEquals("Only Added delivered immediately", 1, coalescing.myEvents.size());
+
+    myBroadcaster.flushCoalescedEvents();
+    assertEquals(3, coalescing.myEvents.size());
+    UserEvent.Updated displayName = (UserEvent.Updated) coalescing.myEvents.get(1);
+    assertEquals("a", displayName.getOldValue());
+    assertEquals("c", displayName.getNewValue());
+    assertEquals(UserEvent.Updated.GROUP, ((UserEvent.Updated) coalescing.myEvents.get(2)).getPropertyName());
+    assertEquals(1, myBroadcaster.getCoalescedEventsCount());
+  }
+
+  public void testCoalescedDeliveryInBackground() throws Exception {
+    MyListener coalescing = new MyListener();
+    myBroadcaster.addCoalescingListener(UserEvent.class, coalescing);
+
+    myBroadcaster.fireEvent(new UserEvent.Online(new MockUser("bob", null)));
+    Thread.sleep(EventBroadcasterImpl.COALESCE_DELAY * 5);
+
+    assertEquals(1, coalescing.myEvents.size());
+    myBroadcaster.removeListener(coalescing);
+  }
+
+  public void testPresenceStormInvocations() throws Exception {
+    final int usersCount = 20;
+    final int updatesPerUser = 50;
+
+    // Typical set of listeners: two UI listeners, several interested in specific events only
+    MyListener tree = new MyListener();
+    MyListener list = new MyListener();
+    myBroadcaster.addListener(UserEvent.Removed.class, new MyListener());
+    myBroadcaster.addListener(UserEvent.Online.class, new MyListener());
+    myBroadcaster.addListener(UserEvent.Added.class, new MyListener());
+
+    myBroadcaster.addListener(tree);
+    myBroadcaster.addListener(list);
+    long plain = fireUpdates(usersCount, updatesPerUser);
+
+    myBroadcaster.removeListener(tree);
+    myBroadcaster.removeListener(list);
+    myBroadcaster.addCoalescingListener(IDEtalkEvent.class, tree);
+    myBroadcaster.addCoalescingListener(IDEtalkEvent.class, list);
+    long coalesced = fireUpdates(usersCount, updatesPerUser);
+
+    assertEquals(usersCount * updatesPerUser * 2 * 2, plain);
+    // A background delivery may split the burst, but each user/property is delivered at most a few times
+    assertTrue(String.valueOf(coalesced), coalesced >= usersCount * 2 * 2 && coalesced < plain / 10);
+  }
+
+  private long fireUpdates(int usersCount, int updatesPerUser) {
+    List<User> users = new ArrayList<User>();
+    for (int i = 0; i < usersCount; i ++) {
+      users.add(new MockUser("user" + i, null));
+    }
+
+    long before = myBroadcaster.getListenerInvocationsCount();
+    for (int i = 0; i < updatesPerUser; i ++) {
+      for (User user : users) {
+        myBroadcaster.fireEvent(new UserEvent.Updated(user, UserEvent.Updated.PRESENCE, null, String.valueOf(i)));
+      }
+    }
+    myBroadcaster.flushCoalescedEvents();
+    return myBroadcaster.getListenerInvocationsCount() - before;
+  }
+
+  private static class MyListener extends IDEtalkAdapter {
+    private final List<IDEtalkEvent> myEvents = new ArrayList<IDEtalkEvent>();
+
+    @Override
+    public void afterChange(IDEtalkEvent event) {
+      myEvents.add(event);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.impl.dispatcher;
+
+import jetbrains.communicator.BenchmarkReport;
+import jetbrains.communicator.core.EventBroadcaster;
+import jetbrains.communicator.core.Pico;
+import jetbrains.communicator.core.TestFactory;
+import jetbrains.communicator.core.dispatcher.Message;
+import jetbrains.communicator.core.impl.users.UserModelImpl;
+import jetbrains.communicator.core.transport.TextXmlMessage;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.mock.MockMessage;
+import jetbrains.communicator.mock.MockUser;
+import jetbrains.communicator.p2p.commands.SendXmlMessageP2PCommand;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.Future;
+
+/**
+ * Cost of saving and loading message history and the queue of pending network messages,
+ * depending on their size.
+ *
+ * @author Kir
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class PersistenceBenchmark {
+  private static final int USERS = 10;
+  private static final int SAVE_REPEATS = 3;
+
+  public static void main(String[] args) throws Exception {
+    BenchmarkReport report = new BenchmarkReport();
+    Pico.initInTests();
+    TestFactory.init();
+    try {
+      run(report);
+    }
+    finally {
+      Pico.disposeInstance();
+      TestFactory.deleteFiles();
+    }
+    if (args.length > 0) {
+      report.writeTo(new File(args[0]));
+    }
+    System.exit(0);
+  }
+
+  /** Pico container should be initialized */
+  public static void run(BenchmarkReport report) throws Exception {
+    for (int size : new int[]{100, 1000, 5000, 20000}) {
+      measureHistory(report, size);
+    }
+    for (int size : new int[]{10, 100, 500}) {
+      measurePendingQueue(report, size);
+    }
+  }
+
+  private static void measureHistory(BenchmarkReport report, int messagesCount) throws Exception {
+    File dir = TestFactory.createDir("historyBenchmark");
+    // Saves are triggered explicitly
+    MockIDEFacade facade = new MockIDEFacade(dir) {
+      @Override
+      public Future<?> runOnPooledThread(Runnable toRun) {
+        return null;
+      }
+    };
+    UserModelImpl userModel = createUserModel();
+    User[] users = userModel.getAllUsers();
+
+    MessageHistory history = new MessageHistory(facade, userModel);
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < messagesCount; i ++) {
+      history.addMessage(users[i % users.length], new MockMessage(new Date(now - messagesCount + i), "history message " + i));
+    }
+
+    long saveNanos = Long.MAX_VALUE;
+    for (int i = 0; i < SAVE_REPEATS; i ++) {
+      long started = System.nanoTime();
+      history.saveNow();
+      saveNanos = Math.min(saveNanos, System.nanoTime() - started);
+    }
+    history.dispose();
+
+    long started = System.nanoTime();
+    MessageHistory loaded = new MessageHistory(facade, userModel);
+    long loadNanos = System.nanoTime() - started;
+    loaded.dispose();
+    userModel.dispose();
+
+    report.add("history.save", BenchmarkReport.values(
+        "messages", messagesCount,
+        "saveMillis", saveNanos / 1e6,
+        "loadMillis", loadNanos / 1e6,
+        "fileBytes", sizeOf(new File(dir, "history"))
+    ));
+  }
+
+  private static void measurePendingQueue(BenchmarkReport report, int messagesCount) throws Exception {
+    File dir = TestFactory.createDir("pendingBenchmark");
+    MockIDEFacade facade = new MockIDEFacade(dir);
+    EventBroadcaster broadcaster = Pico.getEventBroadcaster();
+    UserModelImpl userModel = createUserModel();
+    User[] users = userModel.getAllUsers();
+
+    AsyncMessageDispatcherImpl dispatcher = new AsyncMessageDispatcherImpl(broadcaster, facade);
+    // Every queued message rewrites the queue file
+    long started = System.nanoTime();
+    for (int i = 0; i < messagesCount; i ++) {
+      Message message = SendXmlMessageP2PCommand.createNetworkMessage(new TextXmlMessage("pending message " + i));
+      dispatcher.addPendingMessage(users[i % users.length], message);
+    }
+    long enqueueNanos = System.nanoTime() - started;
+
+    long saveNanos = Long.MAX_VALUE;
+    for (int i = 0; i < SAVE_REPEATS; i ++) {
+      started = System.nanoTime();
+      dispatcher.save();
+      saveNanos = Math.min(saveNanos, System.nanoTime() - started);
+    }
+    dispatcher.dispose();
+
+    started = System.nanoTime();
+    AsyncMessageDispatcherImpl loaded = new AsyncMessageDispatcherImpl(broadcaster, facade);
+    long loadNanos = System.nanoTime() - started;
+    int loadedCount = 0;
+    for (User user : loaded.getUsersWithMessages()) {
+      loadedCount += loaded.getPendingMessages(user).length;
+    }
+    loaded.dispose();
+    userModel.dispose();
+
+    if (loadedCount != messagesCount) {
+      throw new IllegalStateException("Loaded " + loadedCount + " pending messages instead of " + messagesCount);
+    }
+    report.add("pendingQueue.save", BenchmarkReport.values(
+        "messages", messagesCount,
+        "enqueueMillisPerMessage", enqueueNanos / 1e6 / messagesCount,
+        "saveMillis", saveNanos / 1e6,
+        "loadMillis", loadNanos / 1e6,
+        "fileBytes", sizeOf(dir)
+    ));
+  }
+
+  private static UserModelImpl createUserModel() {
+    UserModelImpl userModel = new UserModelImpl(Pico.getEventBroadcaster());
+    for (int i = 0; i < USERS; i ++) {
+      userModel.addUser(new MockUser("user" + i, "group"));
+    }
+    return userModel;
+  }
+
+  private static long sizeOf(File file) {
+    if (file.isFile()) return file.length();
+
+    long result = 0;
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        result += sizeOf(child);
+      }
+    }
+    return result;
+  }
+}
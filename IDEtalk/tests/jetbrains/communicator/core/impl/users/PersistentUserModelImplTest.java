@@ -23,9 +23,12 @@ import jetbrains.communicator.core.users.UserEvent;
 import jetbrains.communicator.mock.MockIDEFacade;
 import jetbrains.communicator.mock.MockTransport;
 import jetbrains.communicator.mock.MockUser;
+import jetbrains.communicator.util.WaitFor;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 
 /**
@@ -46,6 +49,9 @@ public class PersistentUserModelImplTest extends BaseTestCase {
   }
 
   private PersistentUserModelImpl createModelInstance() {
+    if (myUserModel != null) {
+      myUserModel.flush();
+    }
     PersistentUserModelImpl persistentUserModel = new PersistentUserModelImpl(getBroadcaster(), new MockIDEFacade(myTempDir));
     disposeOnTearDown(persistentUserModel);
     return persistentUserModel;
@@ -56,12 +62,126 @@ public class PersistentUserModelImplTest extends BaseTestCase {
 
     File file = new File(myTempDir, PersistentUserModelImpl.FILE_NAME);
     String fileText = FileUtil.loadFile(file);
+    assertEquals("Invalid file template", "#IDEtalk users 1\n", fileText);
+
+    myUserModel.addGroup("a group");
+    myUserModel.addUser(new MockUser("user", "group"));
+    myUserModel.flush();
     assertEquals("Invalid file template",
-        "<users>\n" +
-        "  <myUsers class=\"set\"/>\n" +
-        "  <myGroups class=\"set\"/>\n" +
-        "</users>",
-        fileText);
+        "#IDEtalk users 1\n" +
+        "G\ta group\n" +
+        "G\tgroup\n" +
+        "U\t" + MockTransport.NAME + "\tuser\tgroup\tuser\tfalse\n",
+        FileUtil.loadFile(file));
+  }
+
+  public void testReadOldFormat() throws Exception {
+    File oldFile = new File(myTempDir, PersistentUserModelImpl.OLD_FILE_NAME);
+    FileOutputStream out = new FileOutputStream(oldFile);
+    out.write(("<users>\n" +
+        "  <myUsers class=\"set\">\n" +
+        "    <user>\n" +
+        "      <myName>bob</myName>\n" +
+        "      <myGroup>friends</myGroup>\n" +
+        "      <myDisplayName>Bob</myDisplayName>\n" +
+        "      <myCanAccessMyFiles>true</myCanAccessMyFiles>\n" +
+        "      <myTransportCode>" + MockTransport.NAME + "</myTransportCode>\n" +
+        "    </user>\n" +
+        "  </myUsers>\n" +
+        "  <myGroups class=\"set\">\n" +
+        "    <string>empty</string>\n" +
+        "  </myGroups>\n" +
+        "</users>").getBytes("UTF-8"));
+    out.close();
+
+    PersistentUserModelImpl model = createModelInstance();
+    assertEquals(Arrays.asList("empty", "friends"), Arrays.asList(model.getGroups()));
+    User bob = model.findUser("bob", MockTransport.NAME);
+    assertEquals("Bob", bob.getDisplayName());
+    assertTrue(bob.canAccessMyFiles());
+
+    model.flush();
+    assertTrue("Should be converted to new format", new File(myTempDir, PersistentUserModelImpl.FILE_NAME).exists());
+  }
+
+  public void testIncrementalSave() throws Exception {
+    User user = myUserModel.createUser("user", MockTransport.NAME);
+    myUserModel.addUser(user);
+    myUserModel.addUser(myUserModel.createUser("another\tuser", MockTransport.NAME));
+    myUserModel.flush();
+
+    user.setDisplayName("new\nname", myUserModel);
+    myUserModel.removeUser(myUserModel.findUser("another\tuser", MockTransport.NAME));
+    myUserModel.flush();
+
+    String fileText = FileUtil.loadFile(new File(myTempDir, PersistentUserModelImpl.FILE_NAME));
+    assertTrue(fileText, fileText.endsWith("U\t" + MockTransport.NAME + "\tuser\tGeneral\tnew\\nname\tfalse\n" +
+        "R\t" + MockTransport.NAME + "\tanother\\tuser\n"));
+
+    User[] users = createModelInstance().getAllUsers();
+    assertEquals(1, users.length);
+    assertEquals("new\nname", users[0].getDisplayName());
+  }
+
+  public void testSameNameOnDifferentTransports() throws Exception {
+    User mockUser = myUserModel.createUser("user", MockTransport.NAME);
+    User otherUser = myUserModel.createUser("user", "other transport");
+    myUserModel.addUser(mockUser);
+    myUserModel.addUser(otherUser);
+    myUserModel.flush();
+
+    // Both changes go to one appended batch
+    otherUser.setDisplayName("Other", myUserModel);
+    myUserModel.removeUser(mockUser);
+    myUserModel.flush();
+
+    PersistentUserModelImpl model = createModelInstance();
+    assertEquals(1, model.getAllUsers().length);
+    assertNull(model.findUser("user", MockTransport.NAME));
+    assertEquals("Other", model.findUser("user", "other transport").getDisplayName());
+  }
+
+  public void testReadRemovedRecordWithoutTransport() throws Exception {
+    FileOutputStream out = new FileOutputStream(new File(myTempDir, PersistentUserModelImpl.FILE_NAME));
+    out.write(("#IDEtalk users 1\n" +
+        "U\t" + MockTransport.NAME + "\tuser\tgroup\tuser\tfalse\n" +
+        "U\tother transport\tuser\tgroup\tuser\tfalse\n" +
+        "U\t" + MockTransport.NAME + "\tbob\tgroup\tbob\tfalse\n" +
+        "R\tuser\n").getBytes("UTF-8"));
+    out.close();
+
+    User[] users = createModelInstance().getAllUsers();
+    assertEquals(1, users.length);
+    assertEquals("bob", users[0].getName());
+  }
+
+  public void testSavesAreCoalesced() throws Exception {
+    myUserModel.setSaveDelays(100, 1000);
+    for (int i = 0; i < 200; i ++) {
+      myUserModel.addUser(myUserModel.createUser("user" + i, MockTransport.NAME));
+    }
+
+    new WaitFor(2000) {
+      @Override
+      protected boolean condition() {
+        return myUserModel.getWritesCount() > 0;
+      }
+    };
+    final int writesCount = myUserModel.getWritesCount();
+    assertTrue("Writes should be coalesced: " + writesCount, writesCount > 0 && writesCount < 5);
+
+    myUserModel.setSaveDelays(0, 0);
+    myUserModel.addUser(myUserModel.createUser("last", MockTransport.NAME));
+    new WaitFor(2000) {
+      @Override
+      protected boolean condition() {
+        return myUserModel.getWritesCount() > writesCount;
+      }
+    };
+
+    PersistentUserModelImpl modelInstance = new PersistentUserModelImpl(getBroadcaster(), new MockIDEFacade(myTempDir));
+    disposeOnTearDown(modelInstance);
+    assertEquals(201, modelInstance.getAllUsers().length);
   }
 
   public void testPersistUser() throws Exception {
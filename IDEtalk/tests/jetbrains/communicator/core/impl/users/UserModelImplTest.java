@@ -22,6 +22,7 @@ import jetbrains.communicator.core.TestFactory;
 import jetbrains.communicator.core.transport.EventFactory;
 import jetbrains.communicator.core.users.GroupEvent;
 import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.core.users.UserBatchEvent;
 import jetbrains.communicator.core.users.UserEvent;
 import jetbrains.communicator.core.users.UserModel;
 import jetbrains.communicator.mock.MockTransport;
@@ -219,6 +220,76 @@ public class UserModelImplTest extends BaseTestCase {
     myListener.assertLog("Expect no messages when not in model", "");
   }
 
+  public void testFindUser() throws Exception {
+    User user = myUserModel.findUser("ccc", MockTransport.NAME);
+    assertNotNull(user);
+    assertEquals("group1", myUserModel.getGroup(user));
+    assertNull("Another transport", myUserModel.findUser("ccc", "fake transport"));
+
+    myUserModel.removeUser(user);
+    assertNull(myUserModel.findUser("ccc", MockTransport.NAME));
+    assertNull(myUserModel.getGroup(user));
+
+    user.setGroup("group2", null);
+    myUserModel.addUser(user);
+    assertSame(user, myUserModel.findUser("ccc", MockTransport.NAME));
+    assertEquals(4, myUserModel.getUsers("group2").length);
+  }
+
+  public void testSameNameOnDifferentTransports() throws Exception {
+    User mockUser = myUserModel.findUser("ccc", MockTransport.NAME);
+    User otherUser = myUserModel.createUser("ccc", "other transport");
+    otherUser.setGroup("group3", null);
+    myUserModel.addUser(otherUser);
+
+    assertSame(mockUser, myUserModel.findUser("ccc", MockTransport.NAME));
+    assertSame(otherUser, myUserModel.findUser("ccc", "other transport"));
+    assertEquals("group1", myUserModel.getGroup(mockUser));
+    assertEquals("group3", myUserModel.getGroup(otherUser));
+
+    myUserModel.removeUser(otherUser);
+    assertSame("User of another transport should stay", mockUser, myUserModel.findUser("ccc", MockTransport.NAME));
+    assertEquals("group1", myUserModel.getGroup(mockUser));
+    assertNull(myUserModel.findUser("ccc", "other transport"));
+
+    myUserModel.updateUsers(Arrays.asList(otherUser), new ArrayList<User>());
+    assertSame(otherUser, myUserModel.findUser("ccc", "other transport"));
+    assertEquals("Existing user should not be updated from another transport", "group1", mockUser.getGroup());
+  }
+
+  public void testGroupMembersAfterRename() throws Exception {
+    myUserModel.renameGroup("group1", "new group");
+
+    assertEquals(0, myUserModel.getUsers("group1").length);
+    assertEquals(2, myUserModel.getUsers("new group").length);
+  }
+
+  public void testUpdateUsers_OneEvent() throws Exception {
+    MockUser moved = new MockUser("aaa", "group2");
+    moved.setDisplayName("Mr. A", null);
+    MockUser added = new MockUser("new user", "group3");
+    MockUser same = new MockUser("bbb", "group2");
+    User removed = myUserModel.findUser("ccc", MockTransport.NAME);
+
+    myUserModel.updateUsers(Arrays.<User>asList(moved, added, same), Arrays.asList(removed));
+
+    myListener.assertLog("One aggregate event expected", "BeforeAfter");
+    UserBatchEvent event = (UserBatchEvent) myListener.getEvents()[0];
+    assertEquals(event.toString(), 4, event.getEvents().size());
+
+    User inModel = myUserModel.findUser("aaa", MockTransport.NAME);
+    assertNotSame("Existing user should be updated", moved, inModel);
+    assertEquals("group2", inModel.getGroup());
+    assertEquals("Mr. A", inModel.getDisplayName());
+    assertSame(added, myUserModel.findUser("new user", MockTransport.NAME));
+    assertFalse(myUserModel.hasUser(removed));
+    assertEquals(Arrays.asList("group2", "group3"), Arrays.asList(myUserModel.getGroups()).subList(1, 3));
+    assertEquals(0, myUserModel.getUsers("group1").length);
+
+    myUserModel.updateUsers(Arrays.<User>asList(moved, added, same), Arrays.asList(removed));
+    myListener.assertLog("Nothing changed, no events expected", "");
+  }
+
   private void assertUser(String group, String name, User user) {
     assertEquals(group, user.getGroup());
     assertEquals(name, user.getDisplayName());
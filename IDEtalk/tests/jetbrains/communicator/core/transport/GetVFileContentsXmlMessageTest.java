@@ -0,0 +1,101 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.transport;
+
+import jetbrains.communicator.core.vfs.VFile;
+import jetbrains.communicator.core.vfs.VFileContentsCache;
+import jetbrains.communicator.core.vfs.VFileContentsCodec;
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.util.StringUtil;
+import junit.framework.TestCase;
+import org.jdom.Element;
+
+/**
+ * @author Kir
+ */
+public class GetVFileContentsXmlMessageTest extends TestCase {
+  private static final String USER = "someUser";
+  private static final String PATH = "some/path";
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    VFileContentsCache.getRemoteContents().clear();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    VFileContentsCache.getRemoteContents().clear();
+    super.tearDown();
+  }
+
+  public void testContentsAreCached() throws Exception {
+    String contents = "line1\nline2\n";
+    VFile file = VFile.create(PATH);
+    GetVFileContentsXmlMessage message = new GetVFileContentsXmlMessage(file, USER);
+    message.processResponse(createResponse(VFileContentsCodec.hash(contents), contents));
+
+    assertFalse(message.isFailed());
+    assertEquals(contents, file.getContents());
+    assertEquals(VFileContentsCodec.hash(contents), getKnownHash());
+  }
+
+  public void testDiffNotMatchingCachedCopy() throws Exception {
+    String cached = "a\n";
+    new GetVFileContentsXmlMessage(VFile.create(PATH), USER).processResponse(createResponse(VFileContentsCodec.hash(cached), cached));
+
+    // Diff against contents we don't have
+    String changed = "c\n";
+    String[] destLines = StringUtil.splitLines(changed, true);
+    Element response = createResponse(VFileContentsCodec.hash(changed), null);
+    VFileContentsCodec.writeDiff(response,
+        new MockIDEFacade().getDiff(StringUtil.splitLines("a\nb\nc\n", true), destLines), destLines);
+
+    VFile file = VFile.create(PATH);
+    GetVFileContentsXmlMessage message = new GetVFileContentsXmlMessage(file, USER);
+    message.processResponse(response);
+
+    assertTrue(message.isFailed());
+    assertNull(file.getContents());
+    assertNull("Next request should ask for full contents", getKnownHash());
+  }
+
+  public void testHashMismatch() throws Exception {
+    VFile file = VFile.create(PATH);
+    GetVFileContentsXmlMessage message = new GetVFileContentsXmlMessage(file, USER);
+    message.processResponse(createResponse(VFileContentsCodec.hash("other"), "contents"));
+
+    assertTrue(message.isFailed());
+    assertNull(file.getContents());
+    assertNull(getKnownHash());
+  }
+
+  private static Element createResponse(String hash, String contents) {
+    Element response = new Element("response");
+    VFile.create(PATH).saveTo(response);
+    response.setAttribute(GetVFileContentsXmlMessage.CONTENTS_HASH_ATTR, hash);
+    if (contents != null) {
+      VFileContentsCodec.writeContents(response, contents);
+    }
+    return response;
+  }
+
+  private static String getKnownHash() {
+    Element request = new Element("request");
+    new GetVFileContentsXmlMessage(VFile.create(PATH), USER).fillRequest(request);
+    return request.getAttributeValue(GetVFileContentsXmlMessage.KNOWN_HASH_ATTR);
+  }
+}
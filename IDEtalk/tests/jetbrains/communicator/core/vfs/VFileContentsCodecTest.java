@@ -0,0 +1,59 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.vfs;
+
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.util.StringUtil;
+import junit.framework.TestCase;
+import org.jdom.Element;
+
+/**
+ * @author Kir
+ */
+public class VFileContentsCodecTest extends TestCase {
+
+  public void testCompressedContents() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      text.append("line \u043f\u0440\u0438\u0432\u0435\u0442 ").append(i).append('\n');
+    }
+
+    Element root = new Element("response");
+    VFileContentsCodec.writeContents(root, text.toString());
+    assertTrue("Several chunks expected", root.getChildren(VFileContentsCodec.CHUNK).size() > 1);
+
+    assertEquals(text.toString(), VFileContentsCodec.readContents(root));
+    assertNull(VFileContentsCodec.readContents(new Element("response")));
+  }
+
+  public void testDiff() throws Exception {
+    String base = "line1\nline2\r\nline3\nline4\n";
+    String changed = "line0\nline1\nline3\nline3.5\r\nline4\n";
+
+    String[] destLines = StringUtil.splitLines(changed, true);
+    Element root = new Element("response");
+    VFileContentsCodec.writeDiff(root,
+        new MockIDEFacade().getDiff(StringUtil.splitLines(base, true), destLines), destLines);
+
+    assertEquals(changed, VFileContentsCodec.applyDiff(base, root));
+    assertNull(VFileContentsCodec.applyDiff(base, new Element("response")));
+  }
+
+  public void testHash() throws Exception {
+    assertEquals(VFileContentsCodec.hash("text"), VFileContentsCodec.hash("text"));
+    assertFalse(VFileContentsCodec.hash("text").equals(VFileContentsCodec.hash("text1")));
+  }
+}
@@ -103,6 +103,7 @@ public class UsersTreeModelTest extends BaseTestCase {
 
     // rename user aaa
     myUserModel.getUsers("group1")[0].setDisplayName("xxxx", myUserModel);
+    flushCoalescedEvents();
 
     assertEquals("Nodes expansion should be preserved", 8, myTree.getRowCount());
 
@@ -120,6 +121,7 @@ public class UsersTreeModelTest extends BaseTestCase {
     MockUser mockUser = ((MockUser) myUserModel.getUsers("group1")[1]);
     mockUser.setOnline(true);
     getBroadcaster().fireEvent(new UserEvent.Online(mockUser));
+    flushCoalescedEvents();
 
     assertEquals("Nodes expansion should be preserved", 8, myTree.getRowCount());
 
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.jabber.impl;
+
+import jetbrains.communicator.core.transport.Transport;
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.p2p.MockXmlMessage;
+import jetbrains.communicator.util.WaitFor;
+import junit.framework.TestCase;
+import org.jdom.Element;
+import org.jivesoftware.smack.packet.Message;
+
+/**
+ * @author Kir
+ */
+public class PendingResponsesTest extends TestCase {
+  private PendingResponses myResponses;
+  private volatile String myLog;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myResponses = new PendingResponses(new MockIDEFacade(), 1000);
+    myLog = "";
+  }
+
+  public void testResponseIsRoutedByThread() throws Exception {
+    myResponses.expectResponse("t1", createMessage("first"));
+    myResponses.expectResponse("t2", createMessage("second"));
+    assertEquals(2, myResponses.size());
+
+    myResponses.processPacket(createResponse("t2"));
+    waitForLog("second");
+    assertEquals(1, myResponses.size());
+
+    myResponses.processPacket(createResponse("t2"));
+    myResponses.processPacket(createResponse("t1"));
+    waitForLog("secondfirst");
+    assertEquals(0, myResponses.size());
+  }
+
+  public void testPacketWithoutResponseIsIgnored() throws Exception {
+    myResponses.expectResponse("t1", createMessage("first"));
+
+    Message message = new Message("someone");
+    message.setThread("t1");
+    myResponses.processPacket(message);
+
+    assertEquals("Still waiting for response", 1, myResponses.size());
+  }
+
+  public void testExpiredRequestsAreDropped() throws Exception {
+    myResponses = new PendingResponses(new MockIDEFacade(), -1);
+    myResponses.expectResponse("t1", createMessage("first"));
+    myResponses.expectResponse("t2", createMessage("second"));
+
+    assertEquals("Only last request may be kept", 1, myResponses.size());
+    myResponses.processPacket(createResponse("t1"));
+    assertEquals(0, myResponses.size());
+    assertEquals("", myLog);
+  }
+
+  private void waitForLog(final String expected) {
+    new WaitFor(1000) {
+      @Override
+      protected boolean condition() {
+        return expected.equals(myLog);
+      }
+    };
+    assertEquals(expected, myLog);
+  }
+
+  private MockXmlMessage createMessage(final String name) {
+    MockXmlMessage message = new MockXmlMessage() {
+      @Override
+      public void processResponse(Element responseElement) {
+        myLog += name;
+      }
+    };
+    message.setShouldWaitForResponse(true);
+    return message;
+  }
+
+  private static Message createResponse(String thread) {
+    Message message = new Message("someone");
+    message.setThread(thread);
+    message.addExtension(new JDOMExtension(new Element(JabberTransport.RESPONSE, Transport.NAMESPACE)));
+    return message;
+  }
+}
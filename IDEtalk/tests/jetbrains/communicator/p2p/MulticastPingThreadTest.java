@@ -40,4 +40,12 @@ public class MulticastPingThreadTest extends BaseTestCase {
 
   }
 
+  public void testExtractPortAndHash() throws Exception {
+    final String heartbeat = MulticastPingThread.HEARTBEAT_MESSAGE;
+
+    int[] portAndHash = MulticastPingThread.extractPortAndHash(heartbeat + "125:-345");
+    assertEquals(125, portAndHash[0]);
+    assertEquals(-345, portAndHash[1]);
+    assertNull(MulticastPingThread.extractPortAndHash(heartbeat + "125"));
+  }
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import jetbrains.communicator.BenchmarkReport;
+import jetbrains.communicator.core.EventBroadcaster;
+import jetbrains.communicator.core.IDEtalkAdapter;
+import jetbrains.communicator.core.IDEtalkEvent;
+import jetbrains.communicator.core.Pico;
+import jetbrains.communicator.core.TestFactory;
+import jetbrains.communicator.core.impl.dispatcher.AsyncMessageDispatcherImpl;
+import jetbrains.communicator.core.impl.users.UserModelImpl;
+import jetbrains.communicator.core.transport.MessageEvent;
+import jetbrains.communicator.core.transport.TextXmlMessage;
+import jetbrains.communicator.core.transport.XmlMessage;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.util.WaitFor;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two P2P endpoints in one process, talking over loopback.<p>
+ *
+ * Measures throughput and delivery latency of text messages, sent one by one (each message goes
+ * through the sender's pending queue and a separate XML-RPC call) and in batches of several messages.
+ * Latency is measured from the sendXmlMessage call to the MessageEvent on the receiving side.
+ *
+ * @author Kir
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class P2PLoopbackBenchmark {
+  private static final String PREFIX = "bench ";
+  private static final long DELIVERY_TIMEOUT = 120 * 1000;
+
+  private final EventBroadcaster myBroadcaster;
+  private final List<Runnable> myDisposeActions = new ArrayList<Runnable>();
+  private P2PTransport mySender;
+  private User myPeer;
+
+  private volatile long[] myLatencies;
+  private volatile CountDownLatch myDelivered;
+
+  private P2PLoopbackBenchmark() {
+    myBroadcaster = Pico.getEventBroadcaster();
+  }
+
+  public static void main(String[] args) throws Exception {
+    BenchmarkReport report = new BenchmarkReport();
+    Pico.initInTests();
+    TestFactory.init();
+    try {
+      run(report, 2000);
+    }
+    finally {
+      Pico.disposeInstance();
+      TestFactory.deleteFiles();
+    }
+    if (args.length > 0) {
+      report.writeTo(new File(args[0]));
+    }
+    System.exit(0);
+  }
+
+  /** Pico container should be initialized */
+  public static void run(BenchmarkReport report, int messagesCount) throws Exception {
+    P2PLoopbackBenchmark benchmark = new P2PLoopbackBenchmark();
+    try {
+      benchmark.setUp();
+
+      // Warm up connections, XML parsers and JIT
+      benchmark.sendBurst(Math.min(200, messagesCount), 1);
+
+      benchmark.report(report, "p2p.loopback.sequential", benchmark.sendSequentially(Math.min(500, messagesCount)));
+      benchmark.report(report, "p2p.loopback.burst", benchmark.sendBurst(messagesCount, 1));
+      benchmark.report(report, "p2p.loopback.batch10", benchmark.sendBurst(messagesCount, 10));
+    }
+    finally {
+      benchmark.tearDown();
+    }
+  }
+
+  private void setUp() throws Exception {
+    P2PTransport receiver = createEndpoint("receiver");
+    mySender = createEndpoint("sender");
+    // Network messages find their transport through Pico, so only sender is registered there
+    Pico.getInstance().registerComponentInstance(mySender);
+    myDisposeActions.add(new Runnable() {
+      public void run() {
+        Pico.getInstance().unregisterComponentByInstance(mySender);
+      }
+    });
+
+    // Initial user scans should finish, otherwise they would drop our peer from online users
+    Thread.sleep(500);
+    new WaitFor(10000) {
+      protected boolean condition() {
+        return !mySender.getUserMonitorThread().isFinding();
+      }
+    };
+
+    myPeer = mySender.createUser("loopback peer", new OnlineUserInfo(InetAddress.getByName("127.0.0.1"), receiver.getPort()));
+    mySender.setOnlineUsers(Collections.singleton(myPeer));
+
+    final IDEtalkAdapter listener = new IDEtalkAdapter() {
+      public void afterChange(IDEtalkEvent event) {
+        String text = ((MessageEvent) event).getMessage();
+        if (!text.startsWith(PREFIX)) return;
+
+        String[] seqAndTime = text.substring(PREFIX.length()).split(" ");
+        myLatencies[Integer.parseInt(seqAndTime[0])] = System.nanoTime() - Long.parseLong(seqAndTime[1]);
+        myDelivered.countDown();
+      }
+    };
+    myBroadcaster.addListener(MessageEvent.class, listener);
+    myDisposeActions.add(new Runnable() {
+      public void run() {
+        myBroadcaster.removeListener(listener);
+      }
+    });
+  }
+
+  private P2PTransport createEndpoint(String name) throws Exception {
+    File dir = TestFactory.createDir(name);
+    final UserModelImpl userModel = new UserModelImpl(myBroadcaster);
+    final AsyncMessageDispatcherImpl dispatcher = new AsyncMessageDispatcherImpl(myBroadcaster, new MockIDEFacade(dir));
+    final P2PTransport transport = new P2PTransport(dispatcher, userModel, 100);
+    myDisposeActions.add(new Runnable() {
+      public void run() {
+        transport.dispose();
+        dispatcher.dispose();
+        userModel.dispose();
+      }
+    });
+    return transport;
+  }
+
+  private void tearDown() {
+    Collections.reverse(myDisposeActions);
+    for (Runnable action : myDisposeActions) {
+      action.run();
+    }
+  }
+
+  /** @return total time in nanoseconds */
+  private long sendSequentially(int count) throws InterruptedException {
+    myLatencies = new long[count];
+    long started = System.nanoTime();
+    for (int i = 0; i < count; i ++) {
+      myDelivered = new CountDownLatch(1);
+      mySender.sendXmlMessage(myPeer, createMessage(i));
+      if (!myDelivered.await(DELIVERY_TIMEOUT, TimeUnit.MILLISECONDS)) {
+        throw new IllegalStateException("Message " + i + " was not delivered");
+      }
+    }
+    return System.nanoTime() - started;
+  }
+
+  /** @return total time in nanoseconds */
+  private long sendBurst(int count, int batchSize) throws InterruptedException {
+    myLatencies = new long[count];
+    myDelivered = new CountDownLatch(count);
+
+    long started = System.nanoTime();
+    for (int i = 0; i < count; i += batchSize) {
+      if (batchSize == 1) {
+        mySender.sendXmlMessage(myPeer, createMessage(i));
+      }
+      else {
+        List<XmlMessage> batch = new ArrayList<XmlMessage>(batchSize);
+        for (int j = i; j < Math.min(count, i + batchSize); j ++) {
+          batch.add(createMessage(j));
+        }
+        mySender.sendXmlMessages(myPeer, batch);
+      }
+    }
+    if (!myDelivered.await(DELIVERY_TIMEOUT, TimeUnit.MILLISECONDS)) {
+      throw new IllegalStateException(myDelivered.getCount() + " messages of " + count + " were not delivered");
+    }
+    return System.nanoTime() - started;
+  }
+
+  /** Reports latencies of the last run */
+  private void report(BenchmarkReport report, String name, long totalNanos) {
+    long[] latencies = myLatencies;
+    report.add(name, BenchmarkReport.values(
+        "messages", latencies.length,
+        "messagesPerSecond", latencies.length * 1e9 / totalNanos,
+        "latencyP50Millis", BenchmarkReport.percentile(latencies, 50) / 1e6,
+        "latencyP99Millis", BenchmarkReport.percentile(latencies, 99) / 1e6,
+        "latencyMaxMillis", BenchmarkReport.percentile(latencies, 100) / 1e6
+    ));
+  }
+
+  private static TextXmlMessage createMessage(int seq) {
+    return new TextXmlMessage(PREFIX + seq + ' ' + System.nanoTime());
+  }
+}
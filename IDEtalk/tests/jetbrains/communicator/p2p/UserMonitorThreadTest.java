@@ -173,6 +173,51 @@ public class UserMonitorThreadTest extends BaseTestCase {
     }
   }
 
+  public void testHeartbeat_UnknownAndKnownPeer() throws Exception {
+    InetAddress localhost = InetAddress.getByName("localhost");
+    assertTrue("Details should be requested from unknown peer", myUserMonitorThread.processHeartbeat(localhost, PORT, 17));
+
+    expectSetOneOnlineUser();
+    myUserMonitorThread.flushOnlineUsers();
+
+    assertFalse("Peer state is known", myUserMonitorThread.processHeartbeat(localhost, PORT, 17));
+    assertTrue("Peer state has changed", myUserMonitorThread.processHeartbeat(localhost, PORT, 18));
+  }
+
+  public void testExpireUsersAfterMissedHeartbeats() throws Exception {
+    expectSetOneOnlineUser();
+    myUserMonitorThread.flushOnlineUsers();
+    myUserMonitorThread.processHeartbeat(InetAddress.getByName("localhost"), PORT, 17);
+
+    assertFalse("Nothing to expire yet", myUserMonitorThread.expireStaleUsers(System.currentTimeMillis()));
+
+    long later = System.currentTimeMillis() + UserMonitorThread.HEARTBEAT_INTERVAL * (UserMonitorThread.MISSED_HEARTBEATS_LIMIT + 1);
+    assertTrue("User should go offline", myUserMonitorThread.expireStaleUsers(later));
+
+    myUserMonitorClientMock.expects(once()).method("setOnlineUsers").with(eq(Collections.emptySet()));
+    myUserMonitorThread.flushOnlineUsers();
+  }
+
+  public void testPeerWithoutHeartbeats_ExpiredByScanOnly() throws Exception {
+    expectSetOneOnlineUser();
+    myUserMonitorThread.flushOnlineUsers();
+
+    long later = System.currentTimeMillis() + UserMonitorThread.HEARTBEAT_INTERVAL * (UserMonitorThread.MISSED_HEARTBEATS_LIMIT + 1);
+    assertFalse("Peer of an older release sends no heartbeats", myUserMonitorThread.expireStaleUsers(later));
+    assertTrue("Peer didn't answer the scan", myUserMonitorThread.expireUnansweredUsers(later));
+
+    myUserMonitorClientMock.expects(once()).method("setOnlineUsers").with(eq(Collections.emptySet()));
+    myUserMonitorThread.flushOnlineUsers();
+  }
+
+  public void testHeartbeatPeer_NotExpiredByScan() throws Exception {
+    expectSetOneOnlineUser();
+    myUserMonitorThread.flushOnlineUsers();
+    myUserMonitorThread.processHeartbeat(InetAddress.getByName("localhost"), PORT, 17);
+
+    assertFalse("Presence of the peer is kept by heartbeats", myUserMonitorThread.expireUnansweredUsers(System.currentTimeMillis() + 1));
+  }
+
   private void expectSetOneOnlineUser() throws UnknownHostException {
     User p2PUser = UserImpl.create("nick", P2PTransport.CODE);
 
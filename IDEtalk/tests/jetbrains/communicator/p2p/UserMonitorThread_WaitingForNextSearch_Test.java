@@ -40,6 +40,7 @@ public class UserMonitorThread_WaitingForNextSearch_Test extends BaseTestCase {
   private static final int PORT = 12234;
   private static final int WAIT_USER_RESPONSES_TIMEOUT = 100;
   private static final int SECS_BETWEEN_SCANS = 1;
+  private volatile int myHeartbeats;
 
   @Override
   protected void setUp() throws Exception {
@@ -48,6 +49,7 @@ public class UserMonitorThread_WaitingForNextSearch_Test extends BaseTestCase {
     myUserMonitorClientMock = mock(UserMonitorClient.class);
 
     final boolean[] started = new boolean[1];
+    myHeartbeats = 0;
     myMulticastThread = new MulticastPingThread(InetAddress.getByName("localhost"), null, (UserMonitorClient) myUserMonitorClientMock.proxy()) {
       @Override
       public void run() {
@@ -62,6 +64,11 @@ public class UserMonitorThread_WaitingForNextSearch_Test extends BaseTestCase {
       public void sendMulticastPingRequest() throws IOException {
         started[0] = true;
       }
+
+      @Override
+      public void sendHeartbeat() throws IOException {
+        myHeartbeats++;
+      }
     };
 
     myUserMonitorClientMock.stubs().method("getPort").will(returnValue(PORT));
@@ -110,15 +117,17 @@ public class UserMonitorThread_WaitingForNextSearch_Test extends BaseTestCase {
     assertFalse("Should trigger user finding and then stop", myUserMonitorThread.isFinding());
   }
 
-  public void testSecondCycleOfUserFinding() throws Exception {
+  public void testHeartbeatInsteadOfSecondSearch() throws Exception {
     Thread.sleep(1010 * SECS_BETWEEN_SCANS);
 
-    myUserMonitorThread.LOG.debug("Expect another search");
-    assertTrue("Should search for users again", myUserMonitorThread.isFinding());
-    expectSetOneOnlineUser();
-    Thread.sleep(myUserMonitorThread.getWaitUserResponsesTimeout());
-    Thread.sleep(10);
-    assertFalse("Search should be finished", myUserMonitorThread.isFinding());
+    assertFalse("Should not search for users again", myUserMonitorThread.isFinding());
+    new WaitFor(500) {
+      @Override
+      protected boolean condition() {
+        return myHeartbeats > 0;
+      }
+    };
+    assertTrue("Heartbeat expected", myHeartbeats > 0);
   }
 
   private void expectSetOneOnlineUser() throws UnknownHostException {
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import jetbrains.communicator.LightTestCase;
+import jetbrains.communicator.util.WaitFor;
+import org.apache.xmlrpc.XmlRpcClientException;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Kir
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class XmlRpcConnectionPoolTest extends LightTestCase {
+  private static final String OK_RESPONSE = "<?xml version=\"1.0\"?><methodResponse><params><param>" +
+      "<value>ok</value></param></params></methodResponse>";
+  private static final String BROKEN_RESPONSE = "<?xml version=\"1.0\"?><methodResponse><params><par";
+
+  private XmlRpcConnectionPool myPool;
+  private FakePeer myPeer;
+  private String myUrl;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myPool = new XmlRpcConnectionPool();
+    myPeer = new FakePeer();
+    myUrl = "http://127.0.0.1:" + myPeer.getPort() + '/';
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myPool.clear();
+    myPeer.stop();
+    super.tearDown();
+  }
+
+  public void testConnectionIsReused() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      assertEquals("ok", call());
+    }
+
+    assertEquals("Subsequent calls should go over one connection", 1, myPeer.myAccepted.get());
+    assertEquals(1, myPool.getIdleConnectionsCount(myUrl));
+  }
+
+  public void testIdleConnectionsPerPeerAreLimited() throws Exception {
+    int count = XmlRpcConnectionPool.MAX_IDLE_CONNECTIONS_PER_PEER + 2;
+    List<KeepAliveXmlRpcTransport> transports = new ArrayList<KeepAliveXmlRpcTransport>();
+    for (int i = 0; i < count; i++) {
+      KeepAliveXmlRpcTransport transport = myPool.takeTransport(myUrl);
+      readFully(transport.sendXmlRpc("request".getBytes()));
+      transport.endClientRequest();
+      transports.add(transport);
+    }
+    for (KeepAliveXmlRpcTransport transport : transports) {
+      myPool.returnTransport(myUrl, transport);
+    }
+
+    assertEquals(XmlRpcConnectionPool.MAX_IDLE_CONNECTIONS_PER_PEER, myPool.getIdleConnectionsCount(myUrl));
+    assertFalse(transports.get(count - 1).isOpen());
+    waitForClosed(2);
+  }
+
+  public void testUndecodableResponseDropsConnection() throws Exception {
+    myPeer.myResponse = BROKEN_RESPONSE;
+    try {
+      call();
+      fail("Broken response should not be decoded");
+    } catch (XmlRpcClientException e) {
+      // expected
+    }
+    assertEquals(0, myPool.getIdleConnectionsCount(myUrl));
+    waitForClosed(1);
+
+    myPeer.myResponse = OK_RESPONSE;
+    assertEquals("ok", call());
+    assertEquals(2, myPeer.myAccepted.get());
+  }
+
+  public void testConnectionClosedByPeerIsNotPooled() throws Exception {
+    myPeer.myKeepAlive = false;
+
+    assertEquals("ok", call());
+    assertEquals(0, myPool.getIdleConnectionsCount(myUrl));
+    assertEquals("ok", call());
+    assertEquals(2, myPeer.myAccepted.get());
+  }
+
+  public void testReconnectWhenPeerDroppedIdleConnection() throws Exception {
+    myPeer.myDropAfterResponse = true;
+
+    assertEquals("ok", call());
+    waitForClosed(1);
+    assertEquals(1, myPool.getIdleConnectionsCount(myUrl));
+
+    assertEquals("Stale connection should be replaced transparently", "ok", call());
+    assertEquals(2, myPeer.myAccepted.get());
+  }
+
+  public void testClear() throws Exception {
+    KeepAliveXmlRpcTransport busy = myPool.takeTransport(myUrl);
+    readFully(busy.sendXmlRpc("request".getBytes()));
+    busy.endClientRequest();
+    call();
+    assertEquals(2, myPeer.myAccepted.get());
+    assertEquals(1, myPool.getIdleConnectionsCount(myUrl));
+
+    myPool.clear();
+    assertEquals(0, myPool.getIdleConnectionsCount(myUrl));
+    waitForClosed(1);
+
+    // Connection which was busy during clear() is not pooled again
+    myPool.returnTransport(myUrl, busy);
+    assertEquals(0, myPool.getIdleConnectionsCount(myUrl));
+    waitForClosed(2);
+  }
+
+  private Object call() throws Exception {
+    return myPool.execute(myUrl, "test.call", new Vector<Object>());
+  }
+
+  private void waitForClosed(final int expected) {
+    new WaitFor(5000) {
+      @Override
+      protected boolean condition() {
+        return myPeer.myClosed.get() >= expected;
+      }
+    };
+    assertEquals("Connections closed on the peer side", expected, myPeer.myClosed.get());
+  }
+
+  private static void readFully(InputStream stream) throws IOException {
+    byte[] buffer = new byte[1024];
+    //noinspection StatementWithEmptyBody
+    while (stream.read(buffer) != -1);
+  }
+
+  /**
+   * Minimal HTTP peer which answers every request with {@link #myResponse} and counts its connections.
+   */
+  private static class FakePeer implements Runnable {
+    private final ServerSocket myServerSocket;
+    private final AtomicInteger myAccepted = new AtomicInteger();
+    private final AtomicInteger myClosed = new AtomicInteger();
+    private volatile String myResponse = OK_RESPONSE;
+    private volatile boolean myKeepAlive = true;
+    private volatile boolean myDropAfterResponse;
+
+    FakePeer() throws IOException {
+      myServerSocket = new ServerSocket(0);
+      new Thread(this, "Fake XML-RPC peer").start();
+    }
+
+    int getPort() {
+      return myServerSocket.getLocalPort();
+    }
+
+    void stop() throws IOException {
+      myServerSocket.close();
+    }
+
+    public void run() {
+      try {
+        while (true) {
+          final Socket socket = myServerSocket.accept();
+          myAccepted.incrementAndGet();
+          new Thread("Fake XML-RPC connection") {
+            @Override
+            public void run() {
+              serve(socket);
+            }
+          }.start();
+        }
+      } catch (IOException e) {
+        // stopped
+      }
+    }
+
+    private void serve(Socket socket) {
+      try {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        while (readRequest(in)) {
+          boolean keepAlive = myKeepAlive;
+          byte[] body = myResponse.getBytes("UTF-8");
+          out.write(("HTTP/1.1 200 OK\r\n" +
+                     "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n" +
+                     "Content-Type: text/xml\r\n" +
+                     "Content-Length: " + body.length + "\r\n\r\n").getBytes("US-ASCII"));
+          out.write(body);
+          out.flush();
+          if (!keepAlive || myDropAfterResponse) {
+            break;
+          }
+        }
+      } catch (IOException e) {
+        // connection reset
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // ignore
+        }
+        myClosed.incrementAndGet();
+      }
+    }
+
+    private static boolean readRequest(InputStream in) throws IOException {
+      int contentLength = 0;
+      String line = readLine(in);
+      if (line == null) return false;
+      while ((line = readLine(in)) != null && line.length() > 0) {
+        if (line.toLowerCase().startsWith("content-length:")) {
+          contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+        }
+      }
+      for (int i = 0; i < contentLength; i++) {
+        if (in.read() == -1) return false;
+      }
+      return line != null;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      StringBuilder result = new StringBuilder();
+      int c;
+      while ((c = in.read()) != '\n') {
+        if (c == -1) return null;
+        if (c != '\r') {
+          result.append((char) c);
+        }
+      }
+      return result.toString();
+    }
+  }
+}
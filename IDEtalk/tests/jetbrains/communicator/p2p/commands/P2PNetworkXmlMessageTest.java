@@ -15,10 +15,15 @@
  */
 package jetbrains.communicator.p2p.commands;
 
+import jetbrains.communicator.core.dispatcher.Message;
+import jetbrains.communicator.core.transport.XmlMessage;
 import junit.framework.TestCase;
 import jetbrains.communicator.p2p.MockXmlMessage;
 import org.jdom.Element;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 /**
  * @author Kir
  */
@@ -53,4 +58,19 @@ public class P2PNetworkXmlMessageTest extends TestCase {
     P2PNetworkXmlMessage p2PNetworkXmlMessage = new P2PNetworkXmlMessage("str", null);
     p2PNetworkXmlMessage.processResponse();
   }
+
+  public void testCreateBatchMessage() throws Throwable {
+    Message single = SendXmlMessageP2PCommand.createNetworkMessage(
+        Collections.<XmlMessage>singletonList(new MockXmlMessage("single")));
+    assertTrue("Single message should not be wrapped", single instanceof P2PNetworkXmlMessage);
+
+    Message batch = SendXmlMessageP2PCommand.createNetworkMessage(
+        Arrays.<XmlMessage>asList(new MockXmlMessage("first"), new MockXmlMessage("second")));
+    assertTrue("Batch expected: " + batch, batch instanceof P2PNetworkXmlBatchMessage);
+
+    String[] texts = ((P2PNetworkXmlBatchMessage) batch).getMessageTexts();
+    assertEquals(2, texts.length);
+    assertTrue(texts[0], texts[0].indexOf("first") > 0);
+    assertTrue(texts[1], texts[1].indexOf("second") > 0);
+  }
 }
@@ -16,6 +16,7 @@
 package jetbrains.communicator.util;
 
 import junit.framework.TestCase;
+import jetbrains.communicator.ide.Change;
 import jetbrains.communicator.mock.MockIDEFacade;
 
 /**
@@ -90,6 +91,47 @@ public class PositionCorrectorTest extends TestCase {
 
   }
 
+  public void testCRLF() throws Exception {
+    assertPositionCorrection("aaa\r\nbbb\r\nccc", "aaa\nbbb\nccc", 2, 2);
+    assertPositionCorrection("aaa\r\nbbb\r\nccc", "aaa\nxxx\nbbb\nccc", 2, 3);
+  }
+
+  public void testManyChanges() throws Exception {
+    StringBuilder src = new StringBuilder();
+    StringBuilder dest = new StringBuilder();
+    for (int i = 0; i < 1000; i ++) {
+      src.append("line").append(i).append('\n');
+      dest.append("line").append(i).append('\n');
+      if (i % 10 == 0) {
+        dest.append("added").append(i).append('\n');
+      }
+    }
+
+    PositionCorrector positionCorrector = new PositionCorrector(new MockIDEFacade(), src.toString(), dest.toString());
+    for (int i = 0; i < 1000; i ++) {
+      assertEquals(i + (i + 9) / 10, positionCorrector.getCorrectedLine(i));
+    }
+  }
+
+  public void testMappingIsCached() throws Exception {
+    final int[] diffs = new int[1];
+    MockIDEFacade facade = new MockIDEFacade() {
+      @Override
+      public Change[] getDiff(Object[] src, Object[] dest) {
+        diffs[0] ++;
+        return super.getDiff(src, dest);
+      }
+    };
+
+    String src = "aaa\nbbb\nccc" + System.nanoTime();
+    assertEquals(2, new PositionCorrector(facade, src, "000\n" + src).getCorrectedLine(1));
+    assertEquals(2, new PositionCorrector(facade, src, "000\n" + src).getCorrectedLine(1));
+    assertEquals(1, diffs[0]);
+
+    assertEquals(1, new PositionCorrector(facade, src, src).getCorrectedLine(1));
+    assertEquals(2, diffs[0]);
+  }
+
   public static void assertPositionCorrection(String src, String dest, int srcLine, int expectedLine) {
     PositionCorrector positionCorrector = new PositionCorrector(new MockIDEFacade(), src, dest);
     assertEquals("Invalid correction for line " + srcLine + '\n' + src + "\n-----------\n" + dest + '\n',
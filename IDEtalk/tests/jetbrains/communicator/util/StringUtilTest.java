@@ -17,6 +17,8 @@ package jetbrains.communicator.util;
 
 import junit.framework.TestCase;
 
+import java.util.Arrays;
+
 /**
  * @author kir
  */
@@ -58,4 +60,18 @@ public class StringUtilTest extends TestCase {
     assertEquals(msg, -1, msg.indexOf('{'));
     System.out.println(msg);
   }
+
+  public void testSplitLines() throws Exception {
+    assertEquals(Arrays.asList(""), Arrays.asList(StringUtil.splitLines("")));
+    assertEquals(Arrays.asList("aaa"), Arrays.asList(StringUtil.splitLines("aaa\n")));
+    assertEquals(Arrays.asList("aaa", "", "bbb", "ccc", "ddd"),
+        Arrays.asList(StringUtil.splitLines("aaa\r\n\r\nbbb\rccc\nddd\n\n")));
+    assertEquals(0, StringUtil.splitLines("\n\r\n").length);
+  }
+
+  public void testSplitLinesKeepingSeparators() throws Exception {
+    assertEquals(Arrays.asList("a\n", "b\r\n", "\r", "c"), Arrays.asList(StringUtil.splitLines("a\nb\r\n\rc", true)));
+    assertEquals(Arrays.asList("a\n", "\n"), Arrays.asList(StringUtil.splitLines("a\n\n", true)));
+    assertEquals(0, StringUtil.splitLines("", true).length);
+  }
 }
@@ -76,10 +76,11 @@ public interface BundleManager {
 
   /**
    * Resolves all dependencies of the given module, by analyzing the package import, require-bundle, bundle-classpath and fragment hosts
-   * headers. Returns a list of {@link Module} and {@link Library} objects.
+   * headers. Returns a list of {@link Module} and {@link Library} objects. The result is cached until the bundle index, the manifest
+   * of one of the bundles or the project libraries change.
    *
    * @param module the module to resolve the dependencies for
-   * @return a list of dependencies.
+   * @return an unmodifiable set of dependencies.
    */
   @NotNull
   Set<Object> resolveDependenciesOf(@NotNull Module module);
@@ -103,6 +104,17 @@ public interface BundleManager {
    */
   boolean isFragmentHost(@NotNull Object host, @NotNull Object fragment);
 
+  /**
+   * Returns the packages which are visible to the given module at runtime, according to its Import-Package, Require-Bundle,
+   * Bundle-ClassPath and Fragment-Host headers and the bundles currently known. The result is cached until the bundle index
+   * or one of the involved manifests changes.
+   *
+   * @param module the module
+   * @return the visible packages or null if the module is no bundle.
+   */
+  @Nullable
+  VisiblePackages getVisiblePackages(@NotNull Module module);
+
   /**
    * Adds the given libraries to the bundle index.
    *
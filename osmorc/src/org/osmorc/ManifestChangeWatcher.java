@@ -1,6 +1,7 @@
 package org.osmorc;
 
 import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -18,7 +19,7 @@ import org.osmorc.manifest.ManifestFileTypeFactory;
 import org.osmorc.manifest.lang.psi.ManifestFile;
 import org.osmorc.settings.ProjectSettings;
 
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -30,6 +31,9 @@ public class ManifestChangeWatcher extends EditorNotifications.Provider<Manifest
   private Project myProject;
   private MessageBus myMessageBus;
   private AtomicBoolean myNeedsResync = new AtomicBoolean(false);
+  // modules whose manifests changed since the last automatic synchronization. Only collected while synchronizing
+  // automatically, a manual synchronization resynchronizes all modules.
+  private final Set<Module> myChangedModules = Collections.synchronizedSet(new HashSet<Module>());
 
   public ManifestChangeWatcher(@NotNull Project project, @NotNull MessageBus messageBus) {
     myProject = project;
@@ -55,12 +59,16 @@ public class ManifestChangeWatcher extends EditorNotifications.Provider<Manifest
               OsmorcFacet of = OsmorcFacet.getInstance(psiFile);
               // check if the facet is manually edited and if the file is the manifest file for the facet.
               if (of != null && of.getConfiguration().isManifestManuallyEdited() && of.isManifestForThisFacet(virtualFile)) {
-                // cancel all pending requests
+                // cancel all pending requests, the modules collected so far are synchronized with the next one
+                if (settings.getManifestSynchronizationType() == ProjectSettings.ManifestSynchronizationType.AutomaticallySynchronize) {
+                  myChangedModules.add(of.getModule());
+                }
                 myAlarm.cancelAllRequests();
                 // add notification bar by setting the needs resync to true and updating the notifications.
                 myAlarm.addRequest(new Runnable() {
                   @Override
                   public void run() {
+                    List<Module> changedModules = takeChangedModules();
                     if (settings.getManifestSynchronizationType() == ProjectSettings.ManifestSynchronizationType.ManuallySynchronize) {
                       myNeedsResync.set(true);
                       EditorNotifications.getInstance(myProject).updateAllNotifications();
@@ -68,7 +76,7 @@ public class ManifestChangeWatcher extends EditorNotifications.Provider<Manifest
                     if (settings.getManifestSynchronizationType() == ProjectSettings.ManifestSynchronizationType.AutomaticallySynchronize) {
                       myNeedsResync.set(false);
                       EditorNotifications.getInstance(myProject).updateAllNotifications();
-                      ModuleDependencySynchronizer.resynchronizeAll(psiFile.getProject());
+                      ModuleDependencySynchronizer.resynchronize(psiFile.getProject(), changedModules);
                     }
                   }
                 }, 250);
@@ -80,6 +88,24 @@ public class ManifestChangeWatcher extends EditorNotifications.Provider<Manifest
     });
   }
 
+  /**
+   * Returns the modules collected since the last call and forgets them. Modules which have been disposed in the meantime are
+   * left out.
+   */
+  @NotNull
+  private List<Module> takeChangedModules() {
+    List<Module> result = new ArrayList<Module>();
+    synchronized (myChangedModules) {
+      for (Module module : myChangedModules) {
+        if (!module.isDisposed()) {
+          result.add(module);
+        }
+      }
+      myChangedModules.clear();
+    }
+    return result;
+  }
+
   @Override
   public Key<ManifestChangeNotificationPanel> getKey() {
     return KEY;
@@ -27,6 +27,7 @@ package org.osmorc;
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.module.ModuleServiceManager;
@@ -34,15 +35,21 @@ import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.*;
+import com.intellij.openapi.roots.ex.ProjectRootManagerEx;
 import com.intellij.openapi.roots.impl.libraries.LibraryEx;
 import com.intellij.openapi.roots.libraries.Library;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.stubs.StubIndexKey;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osmorc.facet.OsmorcFacet;
+import org.osmorc.manifest.BundleManifest;
+import org.osmorc.manifest.impl.ManifestModel;
+import org.osmorc.manifest.index.*;
+import org.osmorc.manifest.lang.psi.HeaderValuePart;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * This class synchronizes dependencies by using the manifest entries of the bundles to determine the bundle dependencies. It will
@@ -79,6 +86,25 @@ public class ModuleDependencySynchronizer {
    * @param project the project the project that should be synchronized.
    */
   public static void resynchronizeAll(@NotNull final Project project) {
+    doResynchronize(project, null);
+  }
+
+  /**
+   * Resynchronizes the dependencies of the given modules and of all modules which directly or indirectly depend on them. Like
+   * {@link #resynchronizeAll(Project)}, only modules with manually edited manifests are synced.
+   *
+   * @param project         the project
+   * @param changedModules  the modules whose manifests have changed
+   */
+  public static void resynchronize(@NotNull final Project project, @NotNull Collection<Module> changedModules) {
+    doResynchronize(project, new ArrayList<Module>(changedModules));
+  }
+
+  /**
+   * The affected modules are found and their dependencies are resolved in a read action in the background, only the root models
+   * are updated on the event dispatch thread.
+   */
+  private static void doResynchronize(@NotNull final Project project, @Nullable final Collection<Module> changedModules) {
     ApplicationManager.getApplication().invokeLater(new Runnable() {
       @Override
       public void run() {
@@ -86,18 +112,302 @@ public class ModuleDependencySynchronizer {
           @Override
           public void run(@NotNull ProgressIndicator indicator) {
             indicator.setIndeterminate(true);
-            // sync the dependencies of ALL modules
-            ModuleManager instance = ModuleManager.getInstance(project);
-            Module[] modules = instance.getModules();
-            for (Module module : modules) {
-              getInstance(module).syncDependenciesFromManifest();
-            }
+            final Map<Module, Dependencies> dependencies =
+              ApplicationManager.getApplication().runReadAction(new Computable<Map<Module, Dependencies>>() {
+                @Override
+                public Map<Module, Dependencies> compute() {
+                  if (project.isDisposed()) return Collections.emptyMap();
+                  Collection<Module> modules = changedModules != null
+                                               ? findAffectedModules(project, changedModules)
+                                               : Arrays.asList(ModuleManager.getInstance(project).getModules());
+                  return resolveDependencies(modules);
+                }
+              });
+            if (dependencies.isEmpty()) return;
+            ApplicationManager.getApplication().invokeAndWait(new Runnable() {
+              @Override
+              public void run() {
+                if (!project.isDisposed()) {
+                  updateModels(project, dependencies);
+                }
+              }
+            }, ModalityState.NON_MODAL);
           }
         }.queue();
       }
     }, project.getDisposed());
   }
 
+  /**
+   * Resolves the dependencies of those of the given modules whose manifests are manually edited. Must be called in a read action.
+   *
+   * @return the dependencies by module.
+   */
+  @NotNull
+  static Map<Module, Dependencies> resolveDependencies(@NotNull Collection<Module> modules) {
+    Map<Module, Dependencies> result = new LinkedHashMap<Module, Dependencies>();
+    for (Module module : modules) {
+      if (!module.isDisposed()) {
+        Dependencies dependencies = getInstance(module).resolveDependencies();
+        if (dependencies != null) {
+          result.put(module, dependencies);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Updates the root models of the given modules with their resolved dependencies. The root models of all modules are prepared
+   * first and then committed in a single write action, so the project roots change only once. Must be called from the event
+   * dispatch thread.
+   */
+  static void updateModels(@NotNull Project project, @NotNull Map<Module, Dependencies> dependencies) {
+    final List<ModifiableRootModel> models = new ArrayList<ModifiableRootModel>();
+    for (Map.Entry<Module, Dependencies> entry : dependencies.entrySet()) {
+      if (!entry.getKey().isDisposed()) {
+        ModifiableRootModel model = getInstance(entry.getKey()).prepareModel(entry.getValue());
+        if (model != null) {
+          models.add(model);
+        }
+      }
+    }
+    if (models.isEmpty()) {
+      return;
+    }
+
+    final ProjectRootManagerEx rootManager = ProjectRootManagerEx.getInstanceEx(project);
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      @Override
+      public void run() {
+        rootManager.mergeRootsChangesDuring(new Runnable() {
+          @Override
+          public void run() {
+            for (ModifiableRootModel model : models) {
+              model.commit();
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Determines the modules whose dependencies may change, when the manifests of the given modules change. These are the modules
+   * themselves and, transitively, every module which depends on one of them. A module depends on another one, if it has an order
+   * entry for it or if its manifest imports a package exported by it, requires it or names it as fragment host. Hosts also depend on
+   * their fragments, as fragments may add re-exported bundles.
+   *
+   * <p/>
+   * Only the manifests of the affected modules are read, the modules depending on them are found in the {@link ManifestIndex}.
+   * While the index is not available, the manifests of all modules are read instead.
+   *
+   * @param project        the project
+   * @param changedModules the changed modules
+   * @return the affected modules, including the changed ones.
+   */
+  @NotNull
+  static Set<Module> findAffectedModules(@NotNull Project project, @NotNull Collection<Module> changedModules) {
+    Set<Module> result = findAffectedModulesInIndex(project, changedModules);
+    return result != null ? result : findAffectedModulesInManifests(project, changedModules);
+  }
+
+  /**
+   * @return the affected modules or null if the manifest index is not available.
+   */
+  @Nullable
+  private static Set<Module> findAffectedModulesInIndex(@NotNull Project project, @NotNull Collection<Module> changedModules) {
+    BundleManager bundleManager = ServiceManager.getService(project, BundleManager.class);
+    Map<VirtualFile, List<Object>> manifestFiles = new HashMap<VirtualFile, List<Object>>();
+    Map<Object, Set<Object>> dependents = new HashMap<Object, Set<Object>>();
+    for (Module module : ModuleManager.getInstance(project).getModules()) {
+      OsmorcFacet facet = OsmorcFacet.getInstance(module);
+      VirtualFile manifestFile = facet != null && facet.getConfiguration().isManifestManuallyEdited() ? facet.getManifestFile() : null;
+      if (manifestFile != null) {
+        addToList(manifestFiles, manifestFile, module);
+      }
+      for (Module dependency : ModuleRootManager.getInstance(module).getDependencies()) {
+        addDependent(dependents, dependency, module);
+      }
+    }
+
+    Set<Module> result = new LinkedHashSet<Module>();
+    LinkedList<Object> queue = new LinkedList<Object>(changedModules);
+    while (!queue.isEmpty()) {
+      Module module = (Module)queue.removeFirst();
+      if (!result.add(module)) {
+        continue;
+      }
+      Set<Object> moduleDependents = dependents.get(module);
+      if (moduleDependents != null) {
+        queue.addAll(moduleDependents);
+      }
+      BundleManifest manifest = OsmorcFacet.hasOsmorcFacet(module) ? bundleManager.getManifestByObject(module) : null;
+      if (manifest == null) {
+        continue;
+      }
+
+      // importers of its packages, bundles requiring it, its fragments and its hosts
+      Map<StubIndexKey<String, HeaderValuePart>, Collection<String>> lookups =
+        new LinkedHashMap<StubIndexKey<String, HeaderValuePart>, Collection<String>>();
+      lookups.put(ImportedPackageIndex.KEY, manifest.getExportedPackageNames());
+      String symbolicName = manifest.getBundleSymbolicName();
+      if (symbolicName != null) {
+        lookups.put(RequiredBundleIndex.KEY, Collections.singletonList(symbolicName));
+        lookups.put(FragmentHostIndex.KEY, Collections.singletonList(symbolicName));
+      }
+      String fragmentHost = manifest.getFragmentHost();
+      if (fragmentHost != null) {
+        lookups.put(BundleSymbolicNameIndex.KEY, ManifestModel.getClauseNames(fragmentHost));
+      }
+      for (Map.Entry<StubIndexKey<String, HeaderValuePart>, Collection<String>> lookup : lookups.entrySet()) {
+        for (String value : lookup.getValue()) {
+          Set<VirtualFile> files = ManifestIndex.getManifestFiles(lookup.getKey(), value, project);
+          if (files == null) {
+            return null;
+          }
+          for (VirtualFile file : files) {
+            List<Object> modules = manifestFiles.get(file);
+            if (modules != null) {
+              queue.addAll(modules);
+            }
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private static Set<Module> findAffectedModulesInManifests(@NotNull Project project, @NotNull Collection<Module> changedModules) {
+    BundleManager bundleManager = ServiceManager.getService(project, BundleManager.class);
+    Module[] modules = ModuleManager.getInstance(project).getModules();
+
+    Map<Object, BundleManifest> manifests = new HashMap<Object, BundleManifest>();
+    for (Module module : modules) {
+      if (OsmorcFacet.hasOsmorcFacet(module)) {
+        BundleManifest manifest = bundleManager.getManifestByObject(module);
+        if (manifest != null) {
+          manifests.put(module, manifest);
+        }
+      }
+    }
+    Map<Object, Set<Object>> dependents = buildReverseDependencies(manifests);
+    for (Module module : modules) {
+      for (Module dependency : ModuleRootManager.getInstance(module).getDependencies()) {
+        addDependent(dependents, dependency, module);
+      }
+    }
+
+    Set<Module> result = new LinkedHashSet<Module>();
+    for (Object bundle : collectDependents(changedModules, dependents)) {
+      if (bundle instanceof Module) {
+        result.add((Module)bundle);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param bundles    the bundles to start with
+   * @param dependents the reverse dependency graph
+   * @return the given bundles and all bundles which directly or indirectly depend on them.
+   */
+  @NotNull
+  static Set<Object> collectDependents(@NotNull Collection<?> bundles, @NotNull Map<Object, Set<Object>> dependents) {
+    Set<Object> result = new LinkedHashSet<Object>();
+    LinkedList<Object> queue = new LinkedList<Object>(bundles);
+    while (!queue.isEmpty()) {
+      Object bundle = queue.removeFirst();
+      if (result.add(bundle)) {
+        Set<Object> bundleDependents = dependents.get(bundle);
+        if (bundleDependents != null) {
+          queue.addAll(bundleDependents);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Builds the reverse dependency graph of the given bundles from their manifests.
+   *
+   * @param manifests the manifests of the bundles, by the bundles' objects.
+   * @return for every bundle the bundles which depend on it.
+   */
+  @NotNull
+  static Map<Object, Set<Object>> buildReverseDependencies(@NotNull Map<Object, BundleManifest> manifests) {
+    Map<String, List<Object>> exporters = new HashMap<String, List<Object>>();
+    Map<String, List<Object>> symbolicNames = new HashMap<String, List<Object>>();
+    for (Map.Entry<Object, BundleManifest> entry : manifests.entrySet()) {
+      for (String packageName : entry.getValue().getExportedPackageNames()) {
+        addToList(exporters, packageName, entry.getKey());
+      }
+      String symbolicName = entry.getValue().getBundleSymbolicName();
+      if (symbolicName != null) {
+        addToList(symbolicNames, symbolicName, entry.getKey());
+      }
+    }
+
+    Map<Object, Set<Object>> result = new HashMap<Object, Set<Object>>();
+    for (Map.Entry<Object, BundleManifest> entry : manifests.entrySet()) {
+      Object bundle = entry.getKey();
+      BundleManifest manifest = entry.getValue();
+      for (String anImport : manifest.getImports()) {
+        for (String packageName : ManifestModel.getClauseNames(anImport)) {
+          addDependents(result, exporters.get(packageName), bundle);
+        }
+      }
+      for (String requiredBundle : manifest.getRequiredBundles()) {
+        for (String symbolicName : ManifestModel.getClauseNames(requiredBundle)) {
+          addDependents(result, symbolicNames.get(symbolicName), bundle);
+        }
+      }
+      String fragmentHost = manifest.getFragmentHost();
+      if (fragmentHost != null) {
+        for (String symbolicName : ManifestModel.getClauseNames(fragmentHost)) {
+          List<Object> hosts = symbolicNames.get(symbolicName);
+          addDependents(result, hosts, bundle);
+          if (hosts != null) {
+            for (Object host : hosts) {
+              addDependent(result, bundle, host);
+            }
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private static <K> void addToList(Map<K, List<Object>> map, K key, Object value) {
+    List<Object> list = map.get(key);
+    if (list == null) {
+      list = new ArrayList<Object>(1);
+      map.put(key, list);
+    }
+    list.add(value);
+  }
+
+  private static void addDependents(Map<Object, Set<Object>> dependents, @Nullable Collection<Object> dependencies, Object dependent) {
+    if (dependencies != null) {
+      for (Object dependency : dependencies) {
+        addDependent(dependents, dependency, dependent);
+      }
+    }
+  }
+
+  private static void addDependent(Map<Object, Set<Object>> dependents, Object dependency, Object dependent) {
+    if (dependency.equals(dependent)) {
+      return;
+    }
+    Set<Object> set = dependents.get(dependency);
+    if (set == null) {
+      set = new HashSet<Object>();
+      dependents.put(dependency, set);
+    }
+    set.add(dependent);
+  }
+
   /**
    * Ctor. This is invoked by IDEA's service manager. Use {@link #getInstance(Module)} to acquire an
    * instance of this class.
@@ -120,37 +430,70 @@ public class ModuleDependencySynchronizer {
    * If the two prerequisites are not met, this method will do nothing.
    */
   public void syncDependenciesFromManifest() {
+    final Dependencies dependencies = myApplication.runReadAction(new Computable<Dependencies>() {
+      public Dependencies compute() {
+        return resolveDependencies();
+      }
+    });
+    if (dependencies == null) {
+      return;
+    }
+    myApplication.invokeAndWait(new Runnable() {
+      public void run() {
+        if (!myModule.isDisposed()) {
+          updateModels(myModule.getProject(), Collections.singletonMap(myModule, dependencies));
+        }
+      }
+    }, ModalityState.NON_MODAL);
+  }
+
+  /**
+   * Resolves the dependencies of the wrapped module from its manifest. Must be called in a read action.
+   *
+   * @return the dependencies or null if the module has no Osmorc facet or its manifest is not manually edited.
+   */
+  @Nullable
+  private Dependencies resolveDependencies() {
     OsmorcFacet facet = OsmorcFacet.getInstance(myModule);
-    if (facet != null && facet.getConfiguration().isManifestManuallyEdited()) {
-      myApplication.invokeAndWait(new Runnable() {
-        public void run() {
-          final ModifiableRootModel model = myModuleRootManager.getModifiableModel();
-          Set<Object> newDependencies = myBundleManager.resolveDependenciesOf(myModule);
+    if (facet == null || !facet.getConfiguration().isManifestManuallyEdited()) {
+      return null;
+    }
 
-          List<OrderEntry> oldOrderEntries = determineOldModuleDependencies(model);
-          List<OrderEntry> obsoleteOrderEntries = determineObsoleteModuleDependencies(oldOrderEntries, newDependencies);
+    Set<Object> bundles = new HashSet<Object>(myBundleManager.resolveDependenciesOf(myModule));
+    Set<Object> reExported = new HashSet<Object>();
+    for (Object bundle : bundles) {
+      if (myBundleManager.isReExported(bundle, myModule)) {
+        reExported.add(bundle);
+      }
+    }
+    return new Dependencies(bundles, reExported);
+  }
 
-          boolean commitNeeded = false;
+  /**
+   * Updates a modifiable model of the wrapped module with the given dependencies.
+   *
+   * @return the model if it has been changed and needs to be committed, null if there are no changes.
+   */
+  @Nullable
+  private ModifiableRootModel prepareModel(@NotNull Dependencies dependencies) {
+    final ModifiableRootModel model = myModuleRootManager.getModifiableModel();
+    Set<Object> newDependencies = new HashSet<Object>(dependencies.myBundles);
 
-          //noinspection ConstantConditions
-          commitNeeded |= removeDependenciesFrom(model, obsoleteOrderEntries);
-          commitNeeded |= addNewModuleDependencies(model, newDependencies);
-          commitNeeded |= checkAndSetReexport(model, newDependencies);
+    List<OrderEntry> oldOrderEntries = determineOldModuleDependencies(model);
+    List<OrderEntry> obsoleteOrderEntries = determineObsoleteModuleDependencies(oldOrderEntries, newDependencies);
 
-          if (commitNeeded) {
-            myApplication.runWriteAction(new Runnable() {
-              @Override
-              public void run() {
-                model.commit();
-              }
-            });
-          }
-          else {
-            model.dispose();
-          }
-        }
-      }, ModalityState.NON_MODAL);
+    boolean commitNeeded = false;
+
+    //noinspection ConstantConditions
+    commitNeeded |= removeDependenciesFrom(model, obsoleteOrderEntries);
+    commitNeeded |= addNewModuleDependencies(model, newDependencies);
+    commitNeeded |= checkAndSetReexport(model, dependencies);
+
+    if (commitNeeded) {
+      return model;
     }
+    model.dispose();
+    return null;
   }
 
   /**
@@ -172,15 +515,15 @@ public class ModuleDependencySynchronizer {
 
   /**
    * Finds out which order entries of the given <code>oldOrderEntry</code> list are not in the collection <code>newDependencies</code>.
-   * It will also remove all entries from the <code>newDependencies</code> collection that are already linked to in the oldOrderEntries collection.
+   * It will also remove all entries from the <code>newDependencies</code> set that are already linked to in the oldOrderEntries collection.
    *
    * @param oldOrderEntries the old order entries
-   * @param newDependencies the new dependencies. This collection should contain {@link Module} and {@link Library} objects, not {@link OrderEntry}s.
+   * @param newDependencies the new dependencies. This set should contain {@link Module} and {@link Library} objects, not {@link OrderEntry}s.
    * @return the list of obsolete dependencies that can be removed from the module.
    */
   @NotNull
   private static List<OrderEntry> determineObsoleteModuleDependencies(@NotNull List<OrderEntry> oldOrderEntries,
-                                                                      @NotNull Collection<Object> newDependencies) {
+                                                                      @NotNull Set<Object> newDependencies) {
     List<OrderEntry> result = new ArrayList<OrderEntry>();
 
     for (OrderEntry oldOrderEntry : oldOrderEntries) {
@@ -243,19 +586,26 @@ public class ModuleDependencySynchronizer {
   /**
    * Checks if any of the dependencies of the given model should be re-exported and sets the appropriate flags
    *
-   * @param model      the model
-   * @param newBundles the new dependencies. This collection should contain {@link Module} and {@link Library} objects, not {@link OrderEntry}s.
+   * @param model        the model
+   * @param dependencies the new dependencies
    * @return true ift he model was modified and requires a commit, false otherwise.
    */
-  protected boolean checkAndSetReexport(ModifiableRootModel model, Collection<Object> newBundles) {
+  private boolean checkAndSetReexport(ModifiableRootModel model, Dependencies dependencies) {
     boolean commitNeeded = false;
+    // unresolved library entries are matched by name
+    Map<String, Library> librariesByName = new HashMap<String, Library>();
+    for (Object bundle : dependencies.myBundles) {
+      if (bundle instanceof Library && ((Library)bundle).getName() != null) {
+        librariesByName.put(((Library)bundle).getName(), (Library)bundle);
+      }
+    }
 
     for (OrderEntry orderEntry : model.getOrderEntries()) {
       if (orderEntry instanceof ModuleOrderEntry) {
         ModuleOrderEntry moduleOrderEntry = (ModuleOrderEntry)orderEntry;
         Module module = moduleOrderEntry.getModule();
         if (module != null && OsmorcFacet.hasOsmorcFacet(module)) {
-          boolean export = myBundleManager.isReExported(moduleOrderEntry.getModule(), myModule);
+          boolean export = dependencies.myReExported.contains(module);
           if (export != moduleOrderEntry.isExported()) {
             moduleOrderEntry.setExported(export);
             commitNeeded = true;
@@ -266,16 +616,10 @@ public class ModuleDependencySynchronizer {
         LibraryOrderEntry libraryOrderEntry = (LibraryOrderEntry)orderEntry;
         Library library = libraryOrderEntry.getLibrary();
         if (library == null) {
-          for (Object newBundle : newBundles) {
-            if (newBundle instanceof Library &&
-                ((Library)newBundle).getName().equals(libraryOrderEntry.getLibraryName())) {
-              library = (Library)newBundle;
-              break;
-            }
-          }
+          library = librariesByName.get(libraryOrderEntry.getLibraryName());
         }
         if (library != null) {
-          boolean export = myBundleManager.isReExported(library, myModule);
+          boolean export = dependencies.myReExported.contains(library);
           if (export != libraryOrderEntry.isExported()) {
             libraryOrderEntry.setExported(export);
             commitNeeded = true;
@@ -285,4 +629,23 @@ public class ModuleDependencySynchronizer {
     }
     return commitNeeded;
   }
+
+  /**
+   * The dependencies of a module as resolved from its manifest.
+   */
+  static final class Dependencies {
+    /**
+     * The {@link Module}s and {@link Library}s the module depends on.
+     */
+    @NotNull final Set<Object> myBundles;
+    /**
+     * Those of the bundles which are re-exported by the module.
+     */
+    @NotNull final Set<Object> myReExported;
+
+    Dependencies(@NotNull Set<Object> bundles, @NotNull Set<Object> reExported) {
+      myBundles = bundles;
+      myReExported = reExported;
+    }
+  }
 }
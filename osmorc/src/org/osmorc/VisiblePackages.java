@@ -0,0 +1,77 @@
+package org.osmorc;
+
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.roots.libraries.Library;
+import org.jetbrains.annotations.NotNull;
+import org.osmorc.manifest.lang.psi.ManifestFile;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The packages a bundle can see at runtime: the packages it imports, the packages exported by the bundles it requires
+ * (including re-exported bundles) and everything its fragment hosts and fragments can see. Bundles whose contents are
+ * entirely visible (fragment hosts, fragments and libraries on the Bundle-ClassPath) are kept separately.
+ * <p/>
+ * Instances are snapshots. They remember the manifests they were computed from, so {@link #isUpToDate()} tells if one
+ * of these manifests has been edited since.
+ */
+public final class VisiblePackages {
+  private final Set<String> myPackageNames;
+  private final Set<Object> myVisibleBundles;
+  private final ManifestFile[] myManifestFiles;
+  private final long[] myModificationStamps;
+  private final long myIndexModificationCount;
+
+  public VisiblePackages(@NotNull Set<String> packageNames,
+                         @NotNull Set<Object> visibleBundles,
+                         @NotNull Collection<ManifestFile> manifestFiles,
+                         long indexModificationCount) {
+    myPackageNames = new HashSet<String>(packageNames);
+    myVisibleBundles = new HashSet<Object>(visibleBundles);
+    myManifestFiles = manifestFiles.toArray(new ManifestFile[manifestFiles.size()]);
+    myModificationStamps = new long[myManifestFiles.length];
+    for (int i = 0; i < myManifestFiles.length; i++) {
+      myModificationStamps[i] = myManifestFiles[i].getModificationStamp();
+    }
+    myIndexModificationCount = indexModificationCount;
+  }
+
+  /**
+   * @param packageName the fully qualified name of a package
+   * @return true if the package is imported or provided by a required bundle.
+   */
+  public boolean isVisible(@NotNull String packageName) {
+    return myPackageNames.contains(packageName);
+  }
+
+  /**
+   * @param bundle a {@link Module} or a {@link Library}
+   * @return true if all packages of the given bundle are visible, no matter if they are exported.
+   */
+  public boolean isVisibleFrom(@NotNull Object bundle) {
+    return myVisibleBundles.contains(bundle);
+  }
+
+  @NotNull
+  public Set<String> getPackageNames() {
+    return myPackageNames;
+  }
+
+  public long getIndexModificationCount() {
+    return myIndexModificationCount;
+  }
+
+  /**
+   * @return false if one of the manifests these packages were computed from has been modified since.
+   */
+  public boolean isUpToDate() {
+    for (int i = 0; i < myManifestFiles.length; i++) {
+      if (!myManifestFiles[i].isValid() || myManifestFiles[i].getModificationStamp() != myModificationStamps[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
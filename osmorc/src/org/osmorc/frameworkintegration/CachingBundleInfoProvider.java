@@ -25,16 +25,23 @@
 
 package org.osmorc.frameworkintegration;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.vfs.VfsUtil;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.osgi.framework.Constants;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.WeakHashMap;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * This is a helper class which helps providing information about bundles that do not necessarily belong to the
@@ -42,12 +49,25 @@ import java.util.jar.Manifest;
  * <p/>
  * XXX: I am aware that we have BundleManifestImpl already for this, but this one depends on PsiFiles, which do not work
  * for stuff outside the project.
+ * <p/>
+ * The main attributes of the manifests are cached by the canonical path of the bundle. A cached manifest is used as long
+ * as size and modification time of the jar (or of the manifest of an exploded bundle) stay the same. The cache keeps
+ * the {@link #MAX_CACHED_MANIFESTS} most recently used manifests.
  *
  * @author <a href="mailto:janthomae@janthomae.de">Jan Thom&auml;</a>
  * @version $Id:$
  */
 public class CachingBundleInfoProvider {
-  private static final WeakHashMap<String, Manifest> _cache = new WeakHashMap<String, Manifest>();
+  private static final Logger LOG = Logger.getInstance("#org.osmorc.frameworkintegration.CachingBundleInfoProvider");
+
+  static final int MAX_CACHED_MANIFESTS = 4096;
+
+  private static final Map<String, CachedManifest> _cache = new LinkedHashMap<String, CachedManifest>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, CachedManifest> eldest) {
+      return size() > MAX_CACHED_MANIFESTS;
+    }
+  };
 
   private CachingBundleInfoProvider() {
   }
@@ -117,6 +137,54 @@ public class CachingBundleInfoProvider {
     return fragmentHost != null;
   }
 
+  /**
+   * Reads the manifests of the given bundles into the cache, so later queries for them don't need to touch the disk. The
+   * manifests are read concurrently, this method returns when all of them have been read.
+   *
+   * @param bundleUrls the urls of the bundles
+   */
+  public static void preload(@NotNull Collection<String> bundleUrls) {
+    if (bundleUrls.size() < 2) {
+      for (String bundleUrl : bundleUrls) {
+        getMainAttributes(bundleUrl);
+      }
+      return;
+    }
+
+    int threads = Math.min(bundleUrls.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "Osmorc manifest reader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      List<Future<?>> reads = new ArrayList<Future<?>>(bundleUrls.size());
+      for (final String bundleUrl : bundleUrls) {
+        reads.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            getMainAttributes(bundleUrl);
+          }
+        }));
+      }
+      for (Future<?> read : reads) {
+        read.get();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e) {
+      LOG.error(e.getCause());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
   /**
    * Returns the attribute of the bundle located at the given url. If the bundle cannot be found there or the jar at
    * that location isn't a bundle, this returns null.
@@ -126,33 +194,82 @@ public class CachingBundleInfoProvider {
    * @return the attribute's value or null if there is no such bundle or no such attribute
    */
   @Nullable
-  private synchronized static String getBundleAttribute(String bundleUrl, String attribute) {
-    bundleUrl = normalize(bundleUrl);
-    if (!_cache.containsKey(bundleUrl)) {
-      try {
-        File bundleFile = new File(VfsUtil.urlToPath(bundleUrl));
-        if (bundleFile.isDirectory()) {
-          File manifestFile = new File(bundleFile, "META-INF/MANIFEST.MF");
-          if (manifestFile.exists() && !manifestFile.isDirectory()) {
-            FileInputStream fileInputStream = new FileInputStream(manifestFile);
-            Manifest manifest = new Manifest(fileInputStream);
+  private static String getBundleAttribute(String bundleUrl, String attribute) {
+    Attributes attributes = getMainAttributes(bundleUrl);
+    return attributes != null ? attributes.getValue(attribute) : null;
+  }
+
+  @Nullable
+  private static Attributes getMainAttributes(String bundleUrl) {
+    File bundleFile = new File(VfsUtil.urlToPath(normalize(bundleUrl)));
+    String path;
+    try {
+      path = bundleFile.getCanonicalPath();
+    }
+    catch (IOException e) {
+      path = bundleFile.getAbsolutePath();
+    }
+
+    File stampFile = bundleFile.isDirectory() ? new File(bundleFile, JarFile.MANIFEST_NAME) : bundleFile;
+    long length = stampFile.length();
+    long lastModified = stampFile.lastModified();
+    synchronized (_cache) {
+      CachedManifest cached = _cache.get(path);
+      if (cached != null && cached.myLength == length && cached.myLastModified == lastModified) {
+        return cached.myAttributes;
+      }
+    }
+
+    // read outside of the lock, so several manifests can be read at the same time
+    Attributes attributes = readMainAttributes(bundleFile);
+    synchronized (_cache) {
+      _cache.put(path, new CachedManifest(length, lastModified, attributes));
+    }
+    return attributes;
+  }
+
+  /**
+   * Reads the main attributes of the manifest of the given bundle. For jars only the manifest entry is read, which is
+   * found through the central directory of the zip file.
+   */
+  @Nullable
+  private static Attributes readMainAttributes(@NotNull File bundleFile) {
+    try {
+      if (bundleFile.isDirectory()) {
+        File manifestFile = new File(bundleFile, JarFile.MANIFEST_NAME);
+        if (manifestFile.exists() && !manifestFile.isDirectory()) {
+          FileInputStream fileInputStream = new FileInputStream(manifestFile);
+          try {
+            return new Manifest(fileInputStream).getMainAttributes();
+          }
+          finally {
             fileInputStream.close();
-            _cache.put(bundleUrl, manifest);
           }
         }
-        else {
-          JarFile file = new JarFile(bundleFile);
-          _cache.put(bundleUrl, file.getManifest());
+      }
+      else if (bundleFile.isFile()) {
+        ZipFile file = new ZipFile(bundleFile);
+        try {
+          ZipEntry entry = file.getEntry(JarFile.MANIFEST_NAME);
+          if (entry != null) {
+            InputStream inputStream = file.getInputStream(entry);
+            try {
+              return new Manifest(inputStream).getMainAttributes();
+            }
+            finally {
+              inputStream.close();
+            }
+          }
+        }
+        finally {
           file.close();
         }
       }
-      catch (IOException e) {
-        return null;
-      }
     }
-
-    Manifest manifest = _cache.get(bundleUrl);
-    return manifest != null ? manifest.getMainAttributes().getValue(attribute) : null;
+    catch (IOException e) {
+      // not a readable jar, so it is no bundle
+    }
+    return null;
   }
 
   private static String normalize(String bundleUrl) {
@@ -163,4 +280,16 @@ public class CachingBundleInfoProvider {
     File bundleFile = new File(VfsUtil.urlToPath(bundleUrl));
     return bundleFile.isDirectory();
   }
+
+  private static class CachedManifest {
+    private final long myLength;
+    private final long myLastModified;
+    private final Attributes myAttributes;
+
+    private CachedManifest(long length, long lastModified, @Nullable Attributes attributes) {
+      myLength = length;
+      myLastModified = lastModified;
+      myAttributes = attributes;
+    }
+  }
 }
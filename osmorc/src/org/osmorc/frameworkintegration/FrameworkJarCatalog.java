@@ -0,0 +1,433 @@
+package org.osmorc.frameworkintegration;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.Constants;
+import org.osmorc.util.DigestUtil;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Persistent catalog of the jars of framework instances. For every file in the folders of a framework instance it knows whether
+ * it is a bundle, its symbolic name and version and the sources paired with it. The catalog is updated incrementally: only files
+ * which are new or whose size or time stamp changed are opened again.
+ * <p/>
+ * The source pairings are kept until the layout of the framework instance changes, that is until a file is added to or removed
+ * from one of its folders or from the folders next to them, where the source finders look for sources.
+ * <p/>
+ * There is one catalog per set of folders, they are stored in the IDE's system folder.
+ */
+public class FrameworkJarCatalog {
+  private static final Logger LOG = Logger.getInstance("#org.osmorc.frameworkintegration.FrameworkJarCatalog");
+  private static final int VERSION = 1;
+  /**
+   * How deep the folders next to the scanned ones are looked at for layout changes.
+   */
+  private static final int LAYOUT_DEPTH = 2;
+
+  private final File myCatalogDir;
+  private final Map<String, Catalog> myCatalogs = new HashMap<String, Catalog>();
+
+  public static FrameworkJarCatalog getInstance() {
+    return ServiceManager.getService(FrameworkJarCatalog.class);
+  }
+
+  public FrameworkJarCatalog() {
+    this(new File(PathManager.getSystemPath(), "osmorc" + File.separator + "framework-jars"));
+  }
+
+  FrameworkJarCatalog(@NotNull File catalogDir) {
+    myCatalogDir = catalogDir;
+  }
+
+  /**
+   * Returns the files in the given folders, in the order of the folders and their names. Files which are not known to the catalog
+   * or have changed since are examined and the catalog is saved, if it has changed.
+   *
+   * @param directories the folders of a framework instance
+   * @return the files in the given folders.
+   */
+  @NotNull
+  public synchronized List<Jar> getJars(@NotNull Collection<File> directories) {
+    String key = getKey(directories);
+    Catalog catalog = getCatalog(key);
+
+    String layoutStamp = getLayoutStamp(directories);
+    if (!layoutStamp.equals(catalog.myLayoutStamp)) {
+      // sources may have been added or removed
+      for (Jar jar : catalog.myJars.values()) {
+        jar.mySourceUrls = null;
+      }
+      catalog.myLayoutStamp = layoutStamp;
+      catalog.myModified = true;
+    }
+
+    List<Jar> result = new ArrayList<Jar>();
+    Set<String> found = new HashSet<String>();
+    for (File directory : directories) {
+      File[] files = directory.listFiles();
+      if (files == null) {
+        continue;
+      }
+      Arrays.sort(files);
+      for (File file : files) {
+        String path = file.getPath();
+        if (!found.add(path)) {
+          continue;
+        }
+        Jar jar = catalog.myJars.get(path);
+        long length = file.isDirectory() ? 0 : file.length();
+        long lastModified = getLastModified(file);
+        if (jar == null || jar.myLength != length || jar.myLastModified != lastModified) {
+          jar = examine(file, length, lastModified);
+          catalog.myJars.put(path, jar);
+          catalog.myModified = true;
+        }
+        result.add(jar);
+      }
+    }
+    if (catalog.myJars.keySet().retainAll(found)) {
+      catalog.myModified = true;
+    }
+    save(key, catalog);
+    return result;
+  }
+
+  /**
+   * Remembers the sources found for the given jar. Call {@link #save()} when done.
+   */
+  public synchronized void setSourceUrls(@NotNull Jar jar, @NotNull List<String> sourceUrls) {
+    jar.mySourceUrls = new ArrayList<String>(sourceUrls);
+    for (Catalog catalog : myCatalogs.values()) {
+      if (catalog.myJars.get(jar.myPath) == jar) {
+        catalog.myModified = true;
+      }
+    }
+  }
+
+  /**
+   * Saves the catalogs which have been modified.
+   */
+  public synchronized void save() {
+    for (Map.Entry<String, Catalog> catalog : myCatalogs.entrySet()) {
+      save(catalog.getKey(), catalog.getValue());
+    }
+  }
+
+  @NotNull
+  private Catalog getCatalog(@NotNull String key) {
+    Catalog catalog = myCatalogs.get(key);
+    if (catalog == null) {
+      catalog = load(getCatalogFile(key));
+      myCatalogs.put(key, catalog);
+    }
+    return catalog;
+  }
+
+  @NotNull
+  private File getCatalogFile(@NotNull String key) {
+    return new File(myCatalogDir, key + ".dat");
+  }
+
+  @NotNull
+  private static Catalog load(@NotNull File file) {
+    Catalog catalog = new Catalog();
+    if (!file.isFile()) {
+      return catalog;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (in.readInt() != VERSION) {
+          return catalog;
+        }
+        catalog.myLayoutStamp = in.readUTF();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          Jar jar = Jar.read(in);
+          catalog.myJars.put(jar.myPath, jar);
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read the framework jar catalog " + file.getPath(), e);
+      return new Catalog();
+    }
+    return catalog;
+  }
+
+  private void save(@NotNull String key, @NotNull Catalog catalog) {
+    if (!catalog.myModified) {
+      return;
+    }
+    File file = getCatalogFile(key);
+    try {
+      if (!myCatalogDir.isDirectory() && !myCatalogDir.mkdirs()) {
+        throw new IOException("Cannot create folder " + myCatalogDir.getPath());
+      }
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      try {
+        out.writeInt(VERSION);
+        out.writeUTF(catalog.myLayoutStamp);
+        out.writeInt(catalog.myJars.size());
+        for (Jar jar : catalog.myJars.values()) {
+          jar.write(out);
+        }
+      }
+      finally {
+        out.close();
+      }
+      catalog.myModified = false;
+    }
+    catch (IOException e) {
+      LOG.info("Cannot write the framework jar catalog " + file.getPath(), e);
+      FileUtil.delete(file);
+    }
+  }
+
+  /**
+   * Reads the manifest of the given file, which may be a jar or an exploded bundle.
+   */
+  @NotNull
+  private static Jar examine(@NotNull File file, long length, long lastModified) {
+    Manifest manifest = null;
+    boolean hasManifest = false;
+    try {
+      if (file.isDirectory()) {
+        File manifestFile = new File(file, JarFile.MANIFEST_NAME);
+        if (manifestFile.isFile()) {
+          hasManifest = true;
+          InputStream in = new BufferedInputStream(new FileInputStream(manifestFile));
+          try {
+            manifest = new Manifest(in);
+          }
+          finally {
+            in.close();
+          }
+        }
+      }
+      else {
+        ZipFile zipFile = new ZipFile(file);
+        try {
+          ZipEntry entry = zipFile.getEntry(JarFile.MANIFEST_NAME);
+          if (entry != null) {
+            hasManifest = true;
+            InputStream in = zipFile.getInputStream(entry);
+            try {
+              manifest = new Manifest(in);
+            }
+            finally {
+              in.close();
+            }
+          }
+        }
+        finally {
+          zipFile.close();
+        }
+      }
+    }
+    catch (IOException e) {
+      // not a jar or a broken manifest, it is still a bundle if it has a manifest
+      LOG.debug("Cannot read the manifest of " + file.getPath(), e);
+    }
+
+    String symbolicName = null;
+    String version = null;
+    if (manifest != null) {
+      Attributes attributes = manifest.getMainAttributes();
+      symbolicName = attributes.getValue(Constants.BUNDLE_SYMBOLICNAME);
+      if (symbolicName != null) {
+        int index = symbolicName.indexOf(';');
+        symbolicName = (index >= 0 ? symbolicName.substring(0, index) : symbolicName).trim();
+      }
+      version = attributes.getValue(Constants.BUNDLE_VERSION);
+    }
+    return new Jar(file.getPath(), length, lastModified, hasManifest, symbolicName, version);
+  }
+
+  /**
+   * The time stamp of an exploded bundle is the time stamp of its manifest, the time stamp of the folder doesn't change when a
+   * file inside is changed.
+   */
+  private static long getLastModified(@NotNull File file) {
+    if (file.isDirectory()) {
+      return new File(file, JarFile.MANIFEST_NAME).lastModified();
+    }
+    return file.lastModified();
+  }
+
+  @NotNull
+  private static String getKey(@NotNull Collection<File> directories) {
+    List<String> paths = new ArrayList<String>();
+    for (File directory : directories) {
+      paths.add(directory.getAbsolutePath());
+    }
+    Collections.sort(paths);
+    MessageDigest digest = DigestUtil.createSha1();
+    for (String path : paths) {
+      DigestUtil.update(digest, path);
+    }
+    return DigestUtil.toHex(digest.digest());
+  }
+
+  /**
+   * Returns the time stamps of the given folders, of their parents and of the folders below these.
+   */
+  @NotNull
+  static String getLayoutStamp(@NotNull Collection<File> directories) {
+    Set<File> roots = new LinkedHashSet<File>();
+    for (File directory : directories) {
+      roots.add(directory);
+      File parent = directory.getParentFile();
+      if (parent != null) {
+        roots.add(parent);
+      }
+    }
+    Set<File> visited = new HashSet<File>();
+    StringBuilder result = new StringBuilder();
+    for (File root : roots) {
+      appendLayoutStamp(root, LAYOUT_DEPTH, visited, result);
+    }
+    return result.toString();
+  }
+
+  private static void appendLayoutStamp(@NotNull File directory, int depth, @NotNull Set<File> visited, @NotNull StringBuilder result) {
+    if (!visited.add(directory)) {
+      return;
+    }
+    result.append(directory.getPath()).append('|').append(directory.lastModified()).append('\n');
+    if (depth == 0) {
+      return;
+    }
+    File[] children = directory.listFiles();
+    if (children == null) {
+      return;
+    }
+    Arrays.sort(children);
+    for (File child : children) {
+      if (child.isDirectory() && new File(child, JarFile.MANIFEST_NAME).exists()) {
+        // an exploded bundle, not a folder containing bundles or sources
+        continue;
+      }
+      if (child.isDirectory()) {
+        appendLayoutStamp(child, depth - 1, visited, result);
+      }
+    }
+  }
+
+  private static class Catalog {
+    private String myLayoutStamp = "";
+    private final Map<String, Jar> myJars = new LinkedHashMap<String, Jar>();
+    private boolean myModified;
+  }
+
+  /**
+   * What the catalog knows about a file of a framework instance.
+   */
+  public static final class Jar {
+    private final String myPath;
+    private final long myLength;
+    private final long myLastModified;
+    private final boolean myHasManifest;
+    @Nullable private final String mySymbolicName;
+    @Nullable private final String myVersion;
+    @Nullable private List<String> mySourceUrls;
+
+    private Jar(@NotNull String path, long length, long lastModified, boolean hasManifest, @Nullable String symbolicName,
+                @Nullable String version) {
+      myPath = path;
+      myLength = length;
+      myLastModified = lastModified;
+      myHasManifest = hasManifest;
+      mySymbolicName = symbolicName;
+      myVersion = version;
+    }
+
+    @NotNull
+    public File getFile() {
+      return new File(myPath);
+    }
+
+    /**
+     * @return true if the file has a manifest, so it's a bundle.
+     */
+    public boolean hasManifest() {
+      return myHasManifest;
+    }
+
+    @Nullable
+    public String getSymbolicName() {
+      return mySymbolicName;
+    }
+
+    @Nullable
+    public String getVersion() {
+      return myVersion;
+    }
+
+    /**
+     * @return the urls of the sources of this jar or null if they are not known yet.
+     */
+    @Nullable
+    public List<String> getSourceUrls() {
+      return mySourceUrls;
+    }
+
+    private void write(@NotNull DataOutput out) throws IOException {
+      out.writeUTF(myPath);
+      out.writeLong(myLength);
+      out.writeLong(myLastModified);
+      out.writeBoolean(myHasManifest);
+      writeNullable(out, mySymbolicName);
+      writeNullable(out, myVersion);
+      if (mySourceUrls == null) {
+        out.writeInt(-1);
+      }
+      else {
+        out.writeInt(mySourceUrls.size());
+        for (String sourceUrl : mySourceUrls) {
+          out.writeUTF(sourceUrl);
+        }
+      }
+    }
+
+    @NotNull
+    private static Jar read(@NotNull DataInput in) throws IOException {
+      Jar jar = new Jar(in.readUTF(), in.readLong(), in.readLong(), in.readBoolean(), readNullable(in), readNullable(in));
+      int sourceCount = in.readInt();
+      if (sourceCount >= 0) {
+        jar.mySourceUrls = new ArrayList<String>(sourceCount);
+        for (int i = 0; i < sourceCount; i++) {
+          jar.mySourceUrls.add(in.readUTF());
+        }
+      }
+      return jar;
+    }
+
+    private static void writeNullable(@NotNull DataOutput out, @Nullable String value) throws IOException {
+      out.writeBoolean(value != null);
+      if (value != null) {
+        out.writeUTF(value);
+      }
+    }
+
+    @Nullable
+    private static String readNullable(@NotNull DataInput in) throws IOException {
+      return in.readBoolean() ? in.readUTF() : null;
+    }
+  }
+}
@@ -1,16 +1,19 @@
 package org.osmorc.frameworkintegration;
 
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.util.containers.HashSet;
+import com.intellij.openapi.vfs.VirtualFileManager;
 import org.jetbrains.annotations.NotNull;
-import org.osmorc.frameworkintegration.util.FileUtil;
 
-import java.util.Collection;
-import java.util.Set;
+import java.io.File;
+import java.util.*;
 
 /**
  * Convenience implementation of {@link FrameworkLibraryCollector} that extracts jars  from the given
  * jar paths and calls {@link #collectFrameworkJars(java.util.Collection} for the jar files.
+ * <p/>
+ * The jars are looked up in the {@link FrameworkJarCatalog}, so only new or changed jars are opened, and the sources found for
+ * the jars are remembered there, too.
  *
  * @author janthomae@janthomae.de
  */
@@ -18,21 +21,28 @@ public abstract class JarFileLibraryCollector implements FrameworkLibraryCollect
   @Override
   public final void collectFrameworkLibraries(@NotNull FrameworkInstanceLibrarySourceFinder sourceFinder,
                                               @NotNull Collection<VirtualFile> directoriesWithJars) {
-    Set<VirtualFile> classRoots = new HashSet<VirtualFile>();
+    List<File> directories = new ArrayList<File>();
     for (VirtualFile directoryWithJars : directoriesWithJars) {
-      VirtualFile[] files = directoryWithJars.getChildren();
-      for (VirtualFile file : files) {
-        VirtualFile dir = FileUtil.getFolder(file);
-
-        if (dir != null) {
-          VirtualFile manifest = dir.findFileByRelativePath("META-INF/MANIFEST.MF"); // it's a bundle
-          if (manifest != null && !sourceFinder.containsOnlySources(file)) {
-            classRoots.add(file);
-          }
+      directories.add(new File(directoryWithJars.getPath()));
+    }
+
+    FrameworkJarCatalog catalog = FrameworkJarCatalog.getInstance();
+    Map<VirtualFile, FrameworkJarCatalog.Jar> classRoots = new LinkedHashMap<VirtualFile, FrameworkJarCatalog.Jar>();
+    LocalFileSystem fileSystem = LocalFileSystem.getInstance();
+    for (FrameworkJarCatalog.Jar jar : catalog.getJars(directories)) {
+      if (jar.hasManifest()) { // it's a bundle
+        VirtualFile file = fileSystem.findFileByIoFile(jar.getFile());
+        if (file != null && !sourceFinder.containsOnlySources(file)) {
+          classRoots.put(file, jar);
         }
       }
     }
-    collectFrameworkJars(classRoots, sourceFinder);
+    try {
+      collectFrameworkJars(classRoots.keySet(), new CachingSourceFinder(sourceFinder, catalog, classRoots));
+    }
+    finally {
+      catalog.save();
+    }
   }
 
   /**
@@ -45,4 +55,61 @@ public abstract class JarFileLibraryCollector implements FrameworkLibraryCollect
                                       @NotNull FrameworkInstanceLibrarySourceFinder sourceFinder) {
 
   }
+
+  /**
+   * Source finder which takes the sources from the catalog, if they are known, and records the sources found by the framework's
+   * source finder otherwise.
+   */
+  private static class CachingSourceFinder implements FrameworkInstanceLibrarySourceFinder {
+    private final FrameworkInstanceLibrarySourceFinder myDelegate;
+    private final FrameworkJarCatalog myCatalog;
+    private final Map<VirtualFile, FrameworkJarCatalog.Jar> myJars;
+
+    private CachingSourceFinder(@NotNull FrameworkInstanceLibrarySourceFinder delegate,
+                                @NotNull FrameworkJarCatalog catalog,
+                                @NotNull Map<VirtualFile, FrameworkJarCatalog.Jar> jars) {
+      myDelegate = delegate;
+      myCatalog = catalog;
+      myJars = jars;
+    }
+
+    @Override
+    public List<VirtualFile> getSourceForLibraryClasses(@NotNull VirtualFile libraryClasses) {
+      FrameworkJarCatalog.Jar jar = myJars.get(libraryClasses);
+      if (jar == null) {
+        return myDelegate.getSourceForLibraryClasses(libraryClasses);
+      }
+
+      List<String> sourceUrls = jar.getSourceUrls();
+      if (sourceUrls != null) {
+        List<VirtualFile> result = new ArrayList<VirtualFile>(sourceUrls.size());
+        VirtualFileManager fileManager = VirtualFileManager.getInstance();
+        for (String sourceUrl : sourceUrls) {
+          VirtualFile source = fileManager.findFileByUrl(sourceUrl);
+          if (source == null) {
+            // it's gone, look again
+            result = null;
+            break;
+          }
+          result.add(source);
+        }
+        if (result != null) {
+          return result;
+        }
+      }
+
+      List<VirtualFile> sources = myDelegate.getSourceForLibraryClasses(libraryClasses);
+      List<String> urls = new ArrayList<String>(sources.size());
+      for (VirtualFile source : sources) {
+        urls.add(source.getUrl());
+      }
+      myCatalog.setSourceUrls(jar, urls);
+      return sources;
+    }
+
+    @Override
+    public boolean containsOnlySources(@NotNull VirtualFile libraryClassesCondidate) {
+      return myDelegate.containsOnlySources(libraryClassesCondidate);
+    }
+  }
 }
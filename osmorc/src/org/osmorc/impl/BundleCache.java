@@ -1,50 +1,153 @@
 package org.osmorc.impl;
 
-import com.intellij.util.containers.HashSet;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.stubs.StubIndexKey;
+import com.intellij.testFramework.LightVirtualFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.osmorc.manifest.BundleManifest;
 import org.osmorc.manifest.ManifestHolder;
 import org.osmorc.manifest.ManifestHolderDisposedException;
+import org.osmorc.manifest.impl.ManifestModel;
+import org.osmorc.manifest.index.BundleSymbolicNameIndex;
+import org.osmorc.manifest.index.ExportedPackageIndex;
+import org.osmorc.manifest.index.FragmentHostIndex;
+import org.osmorc.manifest.index.ManifestIndex;
+import org.osmorc.manifest.lang.psi.HeaderValuePart;
+import org.osmorc.manifest.lang.psi.ManifestFile;
 import org.osmorc.valueobject.Version;
 
 import java.util.*;
 
 /**
  * The bundle cache holds information about all bundles within the project.
+ * <p/>
+ * Candidates for a query are looked up by exported package, bundle symbolic name or fragment host, and only the manifests
+ * of these candidates are read to check versions and attributes. Manifests of the project and its libraries are looked up in
+ * the persistent {@link ManifestIndex}, so adding them to the cache doesn't read them. Other manifests, and all manifests
+ * while the index isn't available, are read and kept in hash indexes of the cache, which are maintained in
+ * {@link #updateWith(ManifestHolder)} and {@link #cleanup()}. Manifests which can be edited (those of modules) are
+ * re-indexed before the next query after the cache has been told about their change with {@link #manifestChanged(VirtualFile)}.
  */
 public class BundleCache {
 
-  private volatile Set<ManifestHolder> myManifestHolders;
+  @Nullable private final Project myProject;
+  private final Map<ManifestHolder, Entry> myEntries = new HashMap<ManifestHolder, Entry>();
+  private final Map<String, List<Entry>> myPackage2Exporters = new HashMap<String, List<Entry>>();
+  private final Map<String, List<Entry>> mySymbolicName2Entries = new HashMap<String, List<Entry>>();
+  private final Map<String, List<Entry>> myHost2Fragments = new HashMap<String, List<Entry>>();
+  private final Map<Object, Entry> myBoundObject2Entry = new HashMap<Object, Entry>();
+  /**
+   * The headers by which the entries are kept in the hash indexes above.
+   */
+  private final Map<Entry, Headers> myEntry2Headers = new HashMap<Entry, Headers>();
+  /**
+   * Entries whose manifests are looked up in the manifest index, by their files.
+   */
+  private final Map<VirtualFile, List<Entry>> myFile2IndexedEntries = new HashMap<VirtualFile, List<Entry>>();
+  /**
+   * Entries whose manifests are looked up in the manifest index and which are not in the hash indexes of the cache yet. They
+   * are read and added there when a query finds the manifest index unavailable.
+   */
+  private final Set<Entry> myUnreadEntries = new HashSet<Entry>();
+  /**
+   * Entries of editable manifests by their files.
+   */
+  private final Map<VirtualFile, List<Entry>> myFile2VolatileEntries = new HashMap<VirtualFile, List<Entry>>();
+  /**
+   * Entries of holders which have no manifest (yet).
+   */
+  private final Set<Entry> myEntriesWithoutManifest = new HashSet<Entry>();
+  /**
+   * Entries whose manifest has changed since they were indexed. They are re-indexed before the next query.
+   */
+  private final Set<Entry> myChangedEntries = new HashSet<Entry>();
+  /**
+   * Incremented whenever an entry is added to or removed from the indexes.
+   */
+  private long myModificationCount;
 
+  /**
+   * Creates a cache which doesn't use the manifest index.
+   */
   public BundleCache() {
-    myManifestHolders = new HashSet<ManifestHolder>();
+    this(null);
+  }
+
+  public BundleCache(@Nullable Project project) {
+    myProject = project;
   }
 
   /**
    * Clears the bundle cache.
    */
   public synchronized void clear() {
-    myManifestHolders = new HashSet<ManifestHolder>();
+    myEntries.clear();
+    myPackage2Exporters.clear();
+    mySymbolicName2Entries.clear();
+    myHost2Fragments.clear();
+    myBoundObject2Entry.clear();
+    myEntry2Headers.clear();
+    myFile2IndexedEntries.clear();
+    myUnreadEntries.clear();
+    myFile2VolatileEntries.clear();
+    myEntriesWithoutManifest.clear();
+    myChangedEntries.clear();
+    myModificationCount++;
   }
 
   /**
    * Updates the cache with the given manifest holder.
    *
    * @param holder the holder
-   * @return true, if the holder was added to the cache, false if the holder was already known.
+   * @return true, if the holder was added to the cache or its manifest has changed since it was indexed, false if the holder was
+   *         already known.
    */
-  public synchronized boolean updateWith(@NotNull final ManifestHolder holder) {
-    if (!myManifestHolders.contains(holder)) {
-      // copy on write
-      HashSet<ManifestHolder> copy = new HashSet<ManifestHolder>(myManifestHolders);
-      copy.add(holder);
-      myManifestHolders = copy;
-      return true;
+  public boolean updateWith(@NotNull final ManifestHolder holder) {
+    Entry known;
+    synchronized (this) {
+      known = myEntries.get(holder);
     }
-    else {
+    if (known != null && known.isUpToDate()) {
       return false;
     }
+
+    // reading the manifest may need a read action, so it is done outside of the lock
+    Entry entry = new Entry(holder, myProject);
+    synchronized (this) {
+      Entry old = myEntries.get(holder);
+      if (old != null && old != known) {
+        // somebody else has indexed it meanwhile
+        return false;
+      }
+      if (old != null) {
+        replaceEntry(old, entry);
+      }
+      else {
+        addToIndexes(entry);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Tells the cache that the given manifest file has been edited, created or deleted. The holders of that manifest are re-indexed
+   * before the next query. An unknown manifest may have been created for a module which had none so far, so the holders without a
+   * manifest are re-indexed then.
+   *
+   * @param manifestFile the manifest file
+   */
+  public synchronized void manifestChanged(@NotNull VirtualFile manifestFile) {
+    List<Entry> entries = myFile2VolatileEntries.get(manifestFile);
+    if (entries != null) {
+      myChangedEntries.addAll(entries);
+    }
+    else {
+      myChangedEntries.addAll(myEntriesWithoutManifest);
+    }
   }
 
   /**
@@ -53,21 +156,16 @@ public class BundleCache {
    * @return true if there were stale entries, false if nothing changed.
    */
   public synchronized boolean cleanup() {
-    Set<ManifestHolder> toRemove = new HashSet<ManifestHolder>();
-    for (ManifestHolder manifestHolder : myManifestHolders) {
-      if (manifestHolder.isDisposed()) {
-        toRemove.add(manifestHolder);
+    List<Entry> toRemove = new ArrayList<Entry>();
+    for (Entry entry : myEntries.values()) {
+      if (entry.myHolder.isDisposed()) {
+        toRemove.add(entry);
       }
     }
-    if (toRemove.isEmpty()) {
-      return false;
+    for (Entry entry : toRemove) {
+      removeFromIndexes(entry);
     }
-
-    // copy on write
-    HashSet<ManifestHolder> copy = new HashSet<ManifestHolder>(myManifestHolders);
-    copy.removeAll(toRemove);
-    myManifestHolders = copy;
-    return true;
+    return !toRemove.isEmpty();
   }
 
   /**
@@ -78,28 +176,23 @@ public class BundleCache {
    */
   @NotNull
   public Set<ManifestHolder> whoProvides(@NotNull final String packageSpec) {
+    String packageName = getFirstName(packageSpec);
+    if (packageName == null) {
+      return Collections.emptySet();
+    }
+
     Set<ManifestHolder> result = new HashSet<ManifestHolder>();
-    for (ManifestHolder manifestHolder : myManifestHolders) {
-      BundleManifest bundleManifest;
-      try {
-        bundleManifest = manifestHolder.getBundleManifest();
-      }
-      catch (ManifestHolderDisposedException ignore) {
-        // ok this thing is gone
-        continue;
-      }
-      if (bundleManifest != null) {
-        if (bundleManifest.exportsPackage(packageSpec)) {
-          result.add(manifestHolder);
-        }
+    for (Entry entry : getCandidates(myPackage2Exporters, ExportedPackageIndex.KEY, packageName)) {
+      // the index only knows the package name, versions and attributes are checked by the manifest
+      if (entry.myManifest.exportsPackage(packageSpec)) {
+        result.add(entry.myHolder);
       }
     }
     return result;
   }
 
   /**
-   * Returns a set of  manifest holders that represent fragments of the given manifest holder. Note, that this is a potentially costly operation
-   * when there are many manifests.
+   * Returns a set of  manifest holders that represent fragments of the given manifest holder.
    *
    * @param bundle the manifest holder to find the fragments for.
    * @return a set of matching manifest holders. If there are no fragments known, returns an empty set.
@@ -112,20 +205,15 @@ public class BundleCache {
       if (bundleManifest == null) {
         return Collections.emptySet();
       }
+      String bundleSymbolicName = bundleManifest.getBundleSymbolicName();
+      if (bundleSymbolicName == null) {
+        return Collections.emptySet();
+      }
 
       Set<ManifestHolder> result = new HashSet<ManifestHolder>();
-      for (ManifestHolder manifestHolder : myManifestHolders) {
-        try {
-          BundleManifest potentialFragmentManifest = manifestHolder.getBundleManifest();
-          if (potentialFragmentManifest == null) {
-            continue;
-          }
-          if (bundleManifest.isFragmentHostFor(potentialFragmentManifest)) {
-            result.add(manifestHolder);
-          }
-        }
-        catch (ManifestHolderDisposedException ignore) {
-          // ignore.
+      for (Entry entry : getCandidates(myHost2Fragments, FragmentHostIndex.KEY, bundleSymbolicName)) {
+        if (bundleManifest.isFragmentHostFor(entry.myManifest)) {
+          result.add(entry.myHolder);
         }
       }
       return result;
@@ -146,23 +234,18 @@ public class BundleCache {
     try {
       BundleManifest fragmentManifest = fragment.getBundleManifest();
       // if its not a fragment or has no manifest, we can short cut here
-      if (fragmentManifest == null || !fragmentManifest.isFragmentBundle()) {
+      if (fragmentManifest == null) {
+        return Collections.emptySet();
+      }
+      String hostName = getFragmentHostName(fragmentManifest);
+      if (hostName == null) {
         return Collections.emptySet();
       }
 
       Set<ManifestHolder> result = new HashSet<ManifestHolder>();
-      for (ManifestHolder manifestHolder : myManifestHolders) {
-        try {
-          BundleManifest potentialHostManifest = manifestHolder.getBundleManifest();
-          if (potentialHostManifest == null) {
-            continue;
-          }
-          if (potentialHostManifest.isFragmentHostFor(fragmentManifest)) {
-            result.add(manifestHolder);
-          }
-        }
-        catch (ManifestHolderDisposedException ignore) {
-          // ignore.
+      for (Entry entry : getCandidates(mySymbolicName2Entries, BundleSymbolicNameIndex.KEY, hostName)) {
+        if (entry.myManifest.isFragmentHostFor(fragmentManifest)) {
+          result.add(entry.myHolder);
         }
       }
       return result;
@@ -180,20 +263,10 @@ public class BundleCache {
    */
   @NotNull
   public List<ManifestHolder> whoIs(@NotNull final String bundleSymbolicName) {
-    List<ManifestHolder> result = new ArrayList<ManifestHolder>();
-    for (ManifestHolder manifestHolder : myManifestHolders) {
-      BundleManifest bundleManifest;
-      try {
-        bundleManifest = manifestHolder.getBundleManifest();
-      }
-      catch (ManifestHolderDisposedException ignore) {
-        continue;
-      }
-      if (bundleManifest != null) {
-        if (bundleSymbolicName.equals(bundleManifest.getBundleSymbolicName())) {
-          result.add(manifestHolder);
-        }
-      }
+    List<Entry> candidates = getCandidates(mySymbolicName2Entries, BundleSymbolicNameIndex.KEY, bundleSymbolicName);
+    List<ManifestHolder> result = new ArrayList<ManifestHolder>(candidates.size());
+    for (Entry entry : candidates) {
+      result.add(entry.myHolder);
     }
     return result;
   }
@@ -207,21 +280,15 @@ public class BundleCache {
    */
   @Nullable
   public ManifestHolder whoIsRequiredBundle(@NotNull final String requiredBundleSpec) {
-    List<ManifestHolder> candidates = new ArrayList<ManifestHolder>();
-    for (ManifestHolder manifestHolder : myManifestHolders) {
-      BundleManifest bundleManifest;
-      try {
-        bundleManifest = manifestHolder.getBundleManifest();
-      }
-      catch (ManifestHolderDisposedException ignore) {
-        // this thing is gone
-        continue;
-      }
+    String bundleSymbolicName = getFirstName(requiredBundleSpec);
+    if (bundleSymbolicName == null) {
+      return null;
+    }
 
-      if (bundleManifest != null) {
-        if (bundleManifest.isRequiredBundle(requiredBundleSpec)) {
-          candidates.add(manifestHolder);
-        }
+    List<ManifestHolder> candidates = new ArrayList<ManifestHolder>();
+    for (Entry entry : getCandidates(mySymbolicName2Entries, BundleSymbolicNameIndex.KEY, bundleSymbolicName)) {
+      if (entry.myManifest.isRequiredBundle(requiredBundleSpec)) {
+        candidates.add(entry.myHolder);
       }
     }
 
@@ -342,18 +409,320 @@ public class BundleCache {
    */
   @Nullable
   public ManifestHolder getManifestHolder(@NotNull final Object bundle) {
-    for (ManifestHolder manifestHolder : myManifestHolders) {
-      Object boundObject;
+    refreshChangedEntries();
+    Entry entry;
+    synchronized (this) {
+      entry = myBoundObject2Entry.get(bundle);
+    }
+    return entry != null && !entry.myHolder.isDisposed() ? entry.myHolder : null;
+  }
+
+  /**
+   * Returns a counter which changes whenever the contents of the cache change, including manifests of modules which have been
+   * edited since they were indexed.
+   */
+  public long getModificationCount() {
+    refreshChangedEntries();
+    synchronized (this) {
+      return myModificationCount;
+    }
+  }
+
+  /**
+   * Returns the live entries which are stored under the given key, in the given hash index of the cache and in the given
+   * manifest index. The returned list is a copy which may be used outside of the lock.
+   */
+  @NotNull
+  private List<Entry> getCandidates(@NotNull Map<String, List<Entry>> index,
+                                    @NotNull StubIndexKey<String, HeaderValuePart> indexKey,
+                                    @NotNull String key) {
+    refreshChangedEntries();
+    Set<VirtualFile> files = myProject != null ? ManifestIndex.getManifestFiles(indexKey, key, myProject) : null;
+    if (files == null) {
+      readUnreadEntries();
+    }
+    Set<Entry> candidates = new LinkedHashSet<Entry>();
+    synchronized (this) {
+      List<Entry> entries = index.get(key);
+      if (entries != null) {
+        candidates.addAll(entries);
+      }
+      if (files != null) {
+        for (VirtualFile file : files) {
+          entries = myFile2IndexedEntries.get(file);
+          if (entries != null) {
+            candidates.addAll(entries);
+          }
+        }
+      }
+    }
+    List<Entry> result = new ArrayList<Entry>(candidates.size());
+    for (Entry entry : candidates) {
+      // disposed ones are gone and will be removed on the next cleanup.
+      if (!entry.myHolder.isDisposed()) {
+        result.add(entry);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reads the manifests of the entries which have only been looked up in the manifest index so far and adds them to the hash
+   * indexes of the cache.
+   */
+  private void readUnreadEntries() {
+    Entry[] unreadEntries;
+    synchronized (this) {
+      if (myUnreadEntries.isEmpty()) {
+        return;
+      }
+      unreadEntries = myUnreadEntries.toArray(new Entry[myUnreadEntries.size()]);
+    }
+    for (Entry entry : unreadEntries) {
+      //noinspection ConstantConditions
+      Headers headers = new Headers(entry.myManifest);
+      synchronized (this) {
+        if (myUnreadEntries.remove(entry)) {
+          addHeaders(entry, headers);
+        }
+      }
+    }
+  }
+
+  /**
+   * Re-indexes the holders whose manifests have changed since they were indexed, see {@link #manifestChanged(VirtualFile)}.
+   */
+  private void refreshChangedEntries() {
+    Entry[] changedEntries;
+    synchronized (this) {
+      if (myChangedEntries.isEmpty()) {
+        return;
+      }
+      changedEntries = myChangedEntries.toArray(new Entry[myChangedEntries.size()]);
+      myChangedEntries.clear();
+    }
+    for (Entry entry : changedEntries) {
+      if (!entry.isUpToDate()) {
+        Entry newEntry = new Entry(entry.myHolder, myProject);
+        synchronized (this) {
+          if (myEntries.get(entry.myHolder) == entry) {
+            replaceEntry(entry, newEntry);
+          }
+        }
+      }
+    }
+  }
+
+  private void replaceEntry(@NotNull Entry oldEntry, @NotNull Entry newEntry) {
+    // the manifest may have changed again while the new entry was read
+    boolean changedAgain = myChangedEntries.contains(oldEntry);
+    removeFromIndexes(oldEntry);
+    addToIndexes(newEntry);
+    if (changedAgain) {
+      myChangedEntries.add(newEntry);
+    }
+  }
+
+  private void addToIndexes(@NotNull Entry entry) {
+    myModificationCount++;
+    myEntries.put(entry.myHolder, entry);
+    if (entry.myBoundObject != null) {
+      myBoundObject2Entry.put(entry.myBoundObject, entry);
+    }
+    if (entry.myManifest == null) {
+      myEntriesWithoutManifest.add(entry);
+      return;
+    }
+    if (entry.myVolatileFile != null) {
+      addToIndex(myFile2VolatileEntries, entry.myVolatileFile, entry);
+    }
+    if (entry.myIndexedFile != null) {
+      addToIndex(myFile2IndexedEntries, entry.myIndexedFile, entry);
+      myUnreadEntries.add(entry);
+    }
+    else if (entry.myHeaders != null) {
+      addHeaders(entry, entry.myHeaders);
+    }
+  }
+
+  private void addHeaders(@NotNull Entry entry, @NotNull Headers headers) {
+    myEntry2Headers.put(entry, headers);
+    if (headers.mySymbolicName != null) {
+      addToIndex(mySymbolicName2Entries, headers.mySymbolicName, entry);
+    }
+    if (headers.myFragmentHostName != null) {
+      addToIndex(myHost2Fragments, headers.myFragmentHostName, entry);
+    }
+    for (String packageName : headers.myExportedPackages) {
+      addToIndex(myPackage2Exporters, packageName, entry);
+    }
+  }
+
+  private void removeFromIndexes(@NotNull Entry entry) {
+    myModificationCount++;
+    myEntries.remove(entry.myHolder);
+    if (entry.myBoundObject != null && myBoundObject2Entry.get(entry.myBoundObject) == entry) {
+      myBoundObject2Entry.remove(entry.myBoundObject);
+    }
+    myChangedEntries.remove(entry);
+    if (entry.myManifest == null) {
+      myEntriesWithoutManifest.remove(entry);
+      return;
+    }
+    if (entry.myVolatileFile != null) {
+      removeFromIndex(myFile2VolatileEntries, entry.myVolatileFile, entry);
+    }
+    if (entry.myIndexedFile != null) {
+      removeFromIndex(myFile2IndexedEntries, entry.myIndexedFile, entry);
+      myUnreadEntries.remove(entry);
+    }
+    Headers headers = myEntry2Headers.remove(entry);
+    if (headers == null) {
+      return;
+    }
+    if (headers.mySymbolicName != null) {
+      removeFromIndex(mySymbolicName2Entries, headers.mySymbolicName, entry);
+    }
+    if (headers.myFragmentHostName != null) {
+      removeFromIndex(myHost2Fragments, headers.myFragmentHostName, entry);
+    }
+    for (String packageName : headers.myExportedPackages) {
+      removeFromIndex(myPackage2Exporters, packageName, entry);
+    }
+  }
+
+  private static <K> void addToIndex(@NotNull Map<K, List<Entry>> index, @NotNull K key, @NotNull Entry entry) {
+    List<Entry> entries = index.get(key);
+    if (entries == null) {
+      entries = new ArrayList<Entry>(1);
+      index.put(key, entries);
+    }
+    entries.add(entry);
+  }
+
+  private static <K> void removeFromIndex(@NotNull Map<K, List<Entry>> index, @NotNull K key, @NotNull Entry entry) {
+    List<Entry> entries = index.get(key);
+    if (entries != null) {
+      entries.remove(entry);
+      if (entries.isEmpty()) {
+        index.remove(key);
+      }
+    }
+  }
+
+  @Nullable
+  private static String getFirstName(@NotNull String clauseText) {
+    List<String> names = ManifestModel.getClauseNames(clauseText);
+    return names.isEmpty() ? null : names.get(0);
+  }
+
+  @Nullable
+  private static String getFragmentHostName(@NotNull BundleManifest manifest) {
+    String fragmentHost = manifest.getFragmentHost();
+    return fragmentHost != null ? getFirstName(fragmentHost) : null;
+  }
+
+  /**
+   * Tells whether the given manifest is found by the manifest index of the given project.
+   */
+  private static boolean isIndexed(@Nullable Project project, @NotNull VirtualFile manifestFile) {
+    if (project == null || project.isDisposed() || manifestFile instanceof LightVirtualFile) {
+      return false;
+    }
+    ProjectFileIndex fileIndex = ProjectRootManager.getInstance(project).getFileIndex();
+    return fileIndex.isInContent(manifestFile) || fileIndex.isInLibraryClasses(manifestFile);
+  }
+
+  /**
+   * What the cache knows about a manifest holder. An entry is immutable, a changed holder gets a new entry.
+   */
+  private static final class Entry {
+    private final ManifestHolder myHolder;
+    @Nullable private final Project myProject;
+    @Nullable private final BundleManifest myManifest;
+    @Nullable private final Object myBoundObject;
+    private final long myModificationStamp;
+    /**
+     * The file of the manifest if it can be edited.
+     */
+    @Nullable private final VirtualFile myVolatileFile;
+    /**
+     * The file of the manifest if it is looked up in the manifest index.
+     */
+    @Nullable private final VirtualFile myIndexedFile;
+    /**
+     * The headers of the manifest if it is not looked up in the manifest index.
+     */
+    @Nullable private final Headers myHeaders;
+
+    private Entry(@NotNull ManifestHolder holder, @Nullable Project project) {
+      myHolder = holder;
+      myProject = project;
+      BundleManifest manifest = null;
+      Object boundObject = null;
       try {
-        boundObject = manifestHolder.getBoundObject();
+        manifest = holder.getBundleManifest();
+        boundObject = holder.getBoundObject();
       }
       catch (ManifestHolderDisposedException ignore) {
-        continue;
+        // it's gone, the entry will be removed on the next cleanup.
+      }
+      myManifest = manifest;
+      myBoundObject = boundObject;
+
+      if (manifest == null) {
+        myModificationStamp = -1;
+        myVolatileFile = null;
+        myIndexedFile = null;
+        myHeaders = null;
+        return;
+      }
+
+      ManifestFile manifestFile = manifest.getManifestFile();
+      VirtualFile file = manifestFile.getViewProvider().getVirtualFile();
+      myModificationStamp = manifestFile.getModificationStamp();
+      // manifests inside of jars don't change without the library being reindexed
+      myVolatileFile = manifestFile.isWritable() ? file : null;
+      myIndexedFile = isIndexed(project, file) ? file : null;
+      myHeaders = myIndexedFile == null ? new Headers(manifest) : null;
+    }
+
+    /**
+     * @return true if the holder still has the manifest this entry was created from, and that manifest is unchanged and still
+     *         looked up in the same way.
+     */
+    private boolean isUpToDate() {
+      try {
+        BundleManifest manifest = myHolder.getBundleManifest();
+        if (manifest != myManifest) {
+          return false;
+        }
+        if (manifest == null) {
+          return true;
+        }
+        ManifestFile manifestFile = manifest.getManifestFile();
+        return manifestFile.getModificationStamp() == myModificationStamp &&
+               isIndexed(myProject, manifestFile.getViewProvider().getVirtualFile()) == (myIndexedFile != null);
       }
-      if (boundObject.equals(bundle)) {
-        return manifestHolder;
+      catch (ManifestHolderDisposedException ignore) {
+        // will be removed on the next cleanup
+        return true;
       }
     }
-    return null;
+  }
+
+  /**
+   * The headers of a manifest by which the cache finds it in its hash indexes.
+   */
+  private static final class Headers {
+    @Nullable private final String mySymbolicName;
+    @Nullable private final String myFragmentHostName;
+    @NotNull private final Set<String> myExportedPackages;
+
+    private Headers(@NotNull BundleManifest manifest) {
+      mySymbolicName = manifest.getBundleSymbolicName();
+      myFragmentHostName = getFragmentHostName(manifest);
+      myExportedPackages = manifest.getExportedPackageNames();
+    }
   }
 }
@@ -1,24 +1,40 @@
 package org.osmorc.impl;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.OrderRootType;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.roots.impl.libraries.ProjectLibraryTable;
 import com.intellij.openapi.roots.libraries.Library;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.JarFileSystem;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.psi.*;
 import com.intellij.util.messages.Topic;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 import org.osmorc.BundleManager;
+import org.osmorc.VisiblePackages;
 import org.osmorc.facet.OsmorcFacet;
 import org.osmorc.manifest.BundleManifest;
+import org.osmorc.manifest.ManifestFileTypeFactory;
 import org.osmorc.manifest.ManifestHolder;
 import org.osmorc.manifest.ManifestHolderDisposedException;
 import org.osmorc.manifest.ManifestHolderRegistry;
+import org.osmorc.manifest.impl.ManifestModel;
+import org.osmorc.manifest.index.ManifestIndex;
+import org.osmorc.manifest.lang.psi.ManifestFile;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -32,6 +48,32 @@ public class MyBundleManager implements BundleManager {
   private BundleCache myBundleCache;
   private ManifestHolderRegistry myManifestHolderRegistry;
   private Project myProject;
+  /**
+   * Incremented whenever the contents of the bundle cache change, invalidates the cached visible packages.
+   */
+  private volatile long myIndexModificationCount;
+  private final ConcurrentMap<Module, VisiblePackages> myVisiblePackages = new ConcurrentHashMap<Module, VisiblePackages>();
+
+  /**
+   * Memoized resolution results. They are dropped when the bundle index changes, when a manifest of a module is edited or when
+   * the project libraries change, see {@link #validateResolutionCaches()}.
+   */
+  private final ConcurrentMap<Module, Set<Object>> myResolvedDependencies = new ConcurrentHashMap<Module, Set<Object>>();
+  /**
+   * For every required bundle the bundles it makes available through re-exports, including itself. Modules requiring the same
+   * bundles share these.
+   */
+  private final ConcurrentMap<ManifestHolder, List<ManifestHolder>> myRequiredBundleClosures =
+    new ConcurrentHashMap<ManifestHolder, List<ManifestHolder>>();
+  /**
+   * The project libraries by the file names of their class roots.
+   */
+  private volatile Map<String, List<Library>> myJarName2Libraries;
+  private final Object myResolutionLock = new Object();
+  private long myResolutionGeneration;
+  private long myResolvedIndexModificationCount = -1;
+  private long myResolvedBundleCacheModificationCount = -1;
+  private long myResolvedRootsModificationCount = -1;
 
   /**
    * Pattern which finds the jar filename in a path pattern from a Bundle-ClassPath header.
@@ -41,10 +83,25 @@ public class MyBundleManager implements BundleManager {
   public MyBundleManager(ManifestHolderRegistry manifestHolderRegistry, Project project) {
     myManifestHolderRegistry = manifestHolderRegistry;
     myProject = project;
-    myBundleCache = new BundleCache();
+    myBundleCache = new BundleCache(project);
+    PsiManager.getInstance(project).addPsiTreeChangeListener(new ManifestChangeListener(), project);
+    project.getMessageBus().connect(project).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter() {
+      @Override
+      public void after(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+          // manifests which aren't loaded as PSI, and jars whose manifests may have changed
+          String name = new File(event.getPath()).getName();
+          if (name.endsWith(".jar") || FileTypeManager.getInstance().getFileTypeByFileName(name) == ManifestFileTypeFactory.MANIFEST) {
+            ManifestIndex.manifestsChanged(myProject);
+            return;
+          }
+        }
+      }
+    });
   }
 
   private void notifyListenersOfBundleIndexChange() {
+    indexChanged();
     if (!myProject.isDisposed()) {
       myProject.getMessageBus().syncPublisher(BUNDLE_INDEX_CHANGE_TOPIC).bundlesChanged();
     }
@@ -81,6 +138,49 @@ public class MyBundleManager implements BundleManager {
   @TestOnly
   public void addManifestHolder(@NotNull ManifestHolder manifestHolder) {
     myBundleCache.updateWith(manifestHolder);
+    indexChanged();
+  }
+
+  private void indexChanged() {
+    myIndexModificationCount++;
+    myVisiblePackages.clear();
+    synchronized (myResolutionLock) {
+      clearResolutionCaches();
+    }
+  }
+
+  /**
+   * Drops the memoized resolution results if anything they depend on has changed since they were computed.
+   *
+   * @return the generation of the results, to be passed to {@link #isCurrentGeneration(long)} before storing a new result.
+   */
+  private long validateResolutionCaches() {
+    long bundleCacheModificationCount = myBundleCache.getModificationCount();
+    long rootsModificationCount = ProjectRootManager.getInstance(myProject).getModificationCount();
+    synchronized (myResolutionLock) {
+      if (myResolvedIndexModificationCount != myIndexModificationCount ||
+          myResolvedBundleCacheModificationCount != bundleCacheModificationCount ||
+          myResolvedRootsModificationCount != rootsModificationCount) {
+        clearResolutionCaches();
+        myResolvedIndexModificationCount = myIndexModificationCount;
+        myResolvedBundleCacheModificationCount = bundleCacheModificationCount;
+        myResolvedRootsModificationCount = rootsModificationCount;
+      }
+      return myResolutionGeneration;
+    }
+  }
+
+  private boolean isCurrentGeneration(long generation) {
+    synchronized (myResolutionLock) {
+      return generation == myResolutionGeneration;
+    }
+  }
+
+  private void clearResolutionCaches() {
+    myResolutionGeneration++;
+    myResolvedDependencies.clear();
+    myRequiredBundleClosures.clear();
+    myJarName2Libraries = null;
   }
 
   /**
@@ -106,6 +206,9 @@ public class MyBundleManager implements BundleManager {
       ManifestHolder manifestHolder = myManifestHolderRegistry.getManifestHolder(module);
       boolean needsNotification = myBundleCache.updateWith(manifestHolder);
       needsNotification |= myBundleCache.cleanup();
+      if (needsNotification) {
+        indexChanged();
+      }
       if (needsNotification && sendNotifications) {
         notifyListenersOfBundleIndexChange();
       }
@@ -136,6 +239,9 @@ public class MyBundleManager implements BundleManager {
       }
     }
     needsNotification |= myBundleCache.cleanup();
+    if (needsNotification) {
+      indexChanged();
+    }
     if (needsNotification && sendNotifications) {
       notifyListenersOfBundleIndexChange();
     }
@@ -146,6 +252,12 @@ public class MyBundleManager implements BundleManager {
   @Override
   @NotNull
   public Set<Object> resolveDependenciesOf(@NotNull final Module module) {
+    long generation = validateResolutionCaches();
+    Set<Object> result = myResolvedDependencies.get(module);
+    if (result != null) {
+      return result;
+    }
+
     BundleManifest manifest = getManifestByObject(module);
     if (manifest == null) {
       return Collections.emptySet();
@@ -162,11 +274,9 @@ public class MyBundleManager implements BundleManager {
 
     // Resolve Require-Bundle
     List<String> requiredBundles = manifest.getRequiredBundles();
-    List<ManifestHolder> allRequiredBundles = new ArrayList<ManifestHolder>();
     for (String requiredBundle : requiredBundles) {
-      resolveRequiredBundle(requiredBundle, allRequiredBundles);
+      resolveRequiredBundle(requiredBundle, dependencyHolders, generation);
     }
-    dependencyHolders.addAll(allRequiredBundles);
 
 
     // Resolve Fragment-Hosts
@@ -176,7 +286,7 @@ public class MyBundleManager implements BundleManager {
     }
 
     // finally extract result objects from holders.
-    Set<Object> result = new HashSet<Object>();
+    result = new HashSet<Object>();
     for (ManifestHolder holder : dependencyHolders) {
       try {
         result.add(holder.getBoundObject());
@@ -188,21 +298,132 @@ public class MyBundleManager implements BundleManager {
 
     // Resolve Bundle-ClassPath (this might contain non-osgi-bundles so we have to work on the library level here)
     List<String> entries = manifest.getBundleClassPathEntries();
-    result.addAll(resolveBundleClassPath(entries));
-
+    result.addAll(resolveBundleClassPath(entries, generation));
 
+    result = Collections.unmodifiableSet(result);
+    if (isCurrentGeneration(generation)) {
+      myResolvedDependencies.put(module, result);
+    }
     return result;
   }
 
+  @Override
+  @Nullable
+  public VisiblePackages getVisiblePackages(@NotNull Module module) {
+    VisiblePackages visiblePackages = myVisiblePackages.get(module);
+    if (visiblePackages != null && visiblePackages.getIndexModificationCount() == myIndexModificationCount &&
+        visiblePackages.isUpToDate()) {
+      return visiblePackages;
+    }
+
+    long indexModificationCount = myIndexModificationCount;
+    ManifestHolder manifestHolder = myBundleCache.getManifestHolder(module);
+    if (manifestHolder == null) {
+      return null;
+    }
+    Set<String> packageNames = new HashSet<String>();
+    Set<Object> visibleBundles = new HashSet<Object>();
+    Set<ManifestFile> manifestFiles = new HashSet<ManifestFile>();
+    collectVisiblePackages(manifestHolder, new HashSet<ManifestHolder>(), packageNames, visibleBundles, manifestFiles);
+    if (manifestFiles.isEmpty()) {
+      return null;
+    }
+
+    visiblePackages = new VisiblePackages(packageNames, visibleBundles, manifestFiles, indexModificationCount);
+    if (indexModificationCount == myIndexModificationCount) {
+      myVisiblePackages.put(module, visiblePackages);
+    }
+    return visiblePackages;
+  }
+
+  /**
+   * Collects the packages visible to the bundle of the given holder. A fragment sees everything its hosts see and vice versa,
+   * so hosts and fragments are followed recursively.
+   */
+  private void collectVisiblePackages(@NotNull ManifestHolder manifestHolder,
+                                      @NotNull Set<ManifestHolder> visited,
+                                      @NotNull Set<String> packageNames,
+                                      @NotNull Set<Object> visibleBundles,
+                                      @NotNull Set<ManifestFile> manifestFiles) {
+    if (!visited.add(manifestHolder)) {
+      return;
+    }
+    BundleManifest manifest;
+    try {
+      manifest = manifestHolder.getBundleManifest();
+    }
+    catch (ManifestHolderDisposedException e) {
+      return;
+    }
+    if (manifest == null) {
+      return;
+    }
+    manifestFiles.add(manifest.getManifestFile());
+
+    // Import-Package
+    for (String anImport : manifest.getImports()) {
+      packageNames.addAll(ManifestModel.getClauseNames(anImport));
+    }
+
+    // Require-Bundle, including re-exported bundles and the exports of their fragments
+    long generation = validateResolutionCaches();
+    Set<ManifestHolder> requiredBundles = new LinkedHashSet<ManifestHolder>();
+    for (String requiredBundle : manifest.getRequiredBundles()) {
+      resolveRequiredBundle(requiredBundle, requiredBundles, generation);
+    }
+    for (ManifestHolder requiredBundle : requiredBundles) {
+      addExportedPackages(requiredBundle, packageNames, manifestFiles);
+      for (ManifestHolder fragment : BundleCache.getCandidatesWithHighestVersions(myBundleCache.getFragmentsForBundle(requiredBundle))) {
+        addExportedPackages(fragment, packageNames, manifestFiles);
+      }
+    }
+
+    // Bundle-ClassPath
+    visibleBundles.addAll(resolveBundleClassPath(manifest.getBundleClassPathEntries(), generation));
+
+    // Fragment-Host and fragments
+    Set<ManifestHolder> related = new HashSet<ManifestHolder>();
+    if (manifest.isFragmentBundle()) {
+      related.addAll(myBundleCache.getFragmentHosts(manifestHolder));
+    }
+    related.addAll(BundleCache.getCandidatesWithHighestVersions(myBundleCache.getFragmentsForBundle(manifestHolder)));
+    for (ManifestHolder holder : related) {
+      try {
+        visibleBundles.add(holder.getBoundObject());
+      }
+      catch (ManifestHolderDisposedException e) {
+        continue;
+      }
+      collectVisiblePackages(holder, visited, packageNames, visibleBundles, manifestFiles);
+    }
+  }
+
+  private static void addExportedPackages(@NotNull ManifestHolder manifestHolder,
+                                          @NotNull Set<String> packageNames,
+                                          @NotNull Set<ManifestFile> manifestFiles) {
+    try {
+      BundleManifest manifest = manifestHolder.getBundleManifest();
+      if (manifest != null) {
+        packageNames.addAll(manifest.getExportedPackageNames());
+        manifestFiles.add(manifest.getManifestFile());
+      }
+    }
+    catch (ManifestHolderDisposedException e) {
+      // ok it's gone, ignore it.
+    }
+  }
+
   /**
    * This method fully resolves a Require-Bundle specification including re-exports and possible amendments by fragments. All resolved
-   * dependencies will be added to the <code>resolvedDependencies</code> list.
+   * dependencies will be added to the <code>resolvedDependencies</code> collection.
    *
    * @param requireBundleSpec    the spec to resolve
    * @param resolvedDependencies the resolved dependencies.
+   * @param generation           the generation of the resolution caches
    */
   private void resolveRequiredBundle(@NotNull String requireBundleSpec,
-                                     @NotNull List<ManifestHolder> resolvedDependencies) {
+                                     @NotNull Collection<ManifestHolder> resolvedDependencies,
+                                     long generation) {
 
     // first get the manifest holder of the required bundle
     ManifestHolder manifestHolder = myBundleCache.whoIsRequiredBundle(requireBundleSpec);
@@ -212,37 +433,64 @@ public class MyBundleManager implements BundleManager {
       return;
     }
 
-    if (resolvedDependencies.contains(manifestHolder)) {
-      // we're done here, we already resolved this dependency
-      return;
-    }
+    resolvedDependencies.addAll(getRequiredBundleClosure(manifestHolder, generation));
+  }
 
-    BundleManifest requireBundleManifest;
-    try {
-      requireBundleManifest = manifestHolder.getBundleManifest();
-    }
-    catch (ManifestHolderDisposedException e) {
-      // ok it's gone. Should rarely happen but in this case there is nothing we can do anymore.
-      return;
+  /**
+   * Returns the given required bundle and all bundles which are re-exported by it or by its fragments, recursively. The results are
+   * memoized, and the closures already known for re-exported bundles are reused instead of walking their re-exports again.
+   *
+   * @param requiredBundle the holder of the required bundle
+   * @param generation     the generation of the resolution caches
+   * @return the closure, empty if the bundle is gone.
+   */
+  @NotNull
+  private List<ManifestHolder> getRequiredBundleClosure(@NotNull ManifestHolder requiredBundle, long generation) {
+    List<ManifestHolder> closure = myRequiredBundleClosures.get(requiredBundle);
+    if (closure != null) {
+      return closure;
     }
 
+    Set<ManifestHolder> result = new LinkedHashSet<ManifestHolder>();
+    LinkedList<ManifestHolder> toResolve = new LinkedList<ManifestHolder>();
+    toResolve.add(requiredBundle);
+    while (!toResolve.isEmpty()) {
+      ManifestHolder manifestHolder = toResolve.removeFirst();
+      if (result.contains(manifestHolder)) {
+        // we're done here, we already resolved this dependency
+        continue;
+      }
 
-    if (requireBundleManifest != null) {
-      // its kosher, so add it to the result list.
-      resolvedDependencies.add(manifestHolder);
+      List<ManifestHolder> known = manifestHolder != requiredBundle ? myRequiredBundleClosures.get(manifestHolder) : null;
+      if (known != null) {
+        result.addAll(known);
+        continue;
+      }
 
-      // now determine additional dependencies
-      List<String> toResolve = new ArrayList<String>();
+      BundleManifest requireBundleManifest;
+      try {
+        requireBundleManifest = manifestHolder.getBundleManifest();
+      }
+      catch (ManifestHolderDisposedException e) {
+        // ok it's gone. Should rarely happen but in this case there is nothing we can do anymore.
+        continue;
+      }
+      if (requireBundleManifest == null) {
+        continue;
+      }
 
-      // -  bundles that are re-exported from the current dependency
-      toResolve.addAll(requireBundleManifest.getReExportedBundles());
+      // its kosher, so add it to the result.
+      result.add(manifestHolder);
 
-      // - bundles that are re-exported from any fragments
-      Set<ManifestHolder> fragments = myBundleCache.getFragmentsForBundle(manifestHolder);
+      // now determine additional dependencies
+      List<String> reExported = new ArrayList<String>();
 
-      // we only want the highest version of each fragment, so filter this out:
-      fragments = BundleCache.getCandidatesWithHighestVersions(fragments);
+      // -  bundles that are re-exported from the current dependency
+      reExported.addAll(requireBundleManifest.getReExportedBundles());
 
+      // - bundles that are re-exported from any fragments, we only want the highest version of each fragment
+      Set<ManifestHolder> fragments =
+        BundleCache.getCandidatesWithHighestVersions(myBundleCache.getFragmentsForBundle(manifestHolder));
       for (ManifestHolder fragment : fragments) {
         BundleManifest manifest = null;
         try {
@@ -252,43 +500,80 @@ public class MyBundleManager implements BundleManager {
           // ok it's gone, ignore it.
         }
         if (manifest != null) {
-          toResolve.addAll(manifest.getReExportedBundles());
+          reExported.addAll(manifest.getReExportedBundles());
         }
       }
 
-      // now recursively resolve these dependencies
-      for (String dependencySpec : toResolve) {
-        resolveRequiredBundle(dependencySpec, resolvedDependencies);
+      for (String dependencySpec : reExported) {
+        ManifestHolder dependency = myBundleCache.whoIsRequiredBundle(dependencySpec);
+        if (dependency != null) {
+          toResolve.add(dependency);
+        }
       }
     }
+
+    closure = Collections.unmodifiableList(new ArrayList<ManifestHolder>(result));
+    if (isCurrentGeneration(generation)) {
+      myRequiredBundleClosures.put(requiredBundle, closure);
+    }
+    return closure;
   }
 
   /**
    * Resolves the given bundle classpath entries.
    *
    * @param classPathEntries
+   * @param generation       the generation of the resolution caches
    * @return a set of libraries that are dependencies according to the given classpath entries. Returns an empty set if no libraries
    *         could be found.
    */
-  private Set<Library> resolveBundleClassPath(@NotNull Collection<String> classPathEntries) {
-    Library[] libraries = ProjectLibraryTable.getInstance(myProject).getLibraries();
+  private Set<Library> resolveBundleClassPath(@NotNull Collection<String> classPathEntries, long generation) {
+    if (classPathEntries.isEmpty()) {
+      return Collections.emptySet();
+    }
 
+    Map<String, List<Library>> jarName2Libraries = getJarName2Libraries(generation);
     Set<Library> result = new HashSet<Library>();
     for (String entry : classPathEntries) {
       Matcher matcher = JarPathPattern.matcher(entry);
       if (matcher.matches()) {
-        String jarName = matcher.group(2);
-        for (Library library : libraries) {
-          String[] urls = library.getUrls(OrderRootType.CLASSES);
-          for (String url : urls) {
-            if (url.endsWith(jarName)) {
-              result.add(library);
-              break;
-            }
-          }
+        List<Library> libraries = jarName2Libraries.get(matcher.group(2));
+        if (libraries != null) {
+          result.addAll(libraries);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the project libraries by the file names of their class roots.
+   */
+  @NotNull
+  private Map<String, List<Library>> getJarName2Libraries(long generation) {
+    Map<String, List<Library>> result = myJarName2Libraries;
+    if (result != null) {
+      return result;
+    }
+
+    result = new HashMap<String, List<Library>>();
+    for (Library library : ProjectLibraryTable.getInstance(myProject).getLibraries()) {
+      for (String url : library.getUrls(OrderRootType.CLASSES)) {
+        String path = StringUtil.trimEnd(url, JarFileSystem.JAR_SEPARATOR);
+        String jarName = path.substring(path.lastIndexOf('/') + 1);
+        List<Library> libraries = result.get(jarName);
+        if (libraries == null) {
+          libraries = new ArrayList<Library>(1);
+          result.put(jarName, libraries);
+        }
+        if (!libraries.contains(library)) {
+          libraries.add(library);
         }
       }
     }
+    if (isCurrentGeneration(generation)) {
+      myJarName2Libraries = result;
+    }
     return result;
   }
 
@@ -370,4 +655,55 @@ public class MyBundleManager implements BundleManager {
 
     return hostManifest.isFragmentHostFor(fragmentManifest);
   }
+
+  /**
+   * Tells the bundle cache which manifests have been edited, so it only re-indexes those instead of checking all manifests of modules
+   * on every query.
+   */
+  private class ManifestChangeListener extends PsiTreeChangeAdapter {
+    @Override
+    public void childAdded(PsiTreeChangeEvent event) {
+      manifestChanged(event);
+    }
+
+    @Override
+    public void childRemoved(PsiTreeChangeEvent event) {
+      manifestChanged(event);
+    }
+
+    @Override
+    public void childReplaced(PsiTreeChangeEvent event) {
+      manifestChanged(event);
+    }
+
+    @Override
+    public void childMoved(PsiTreeChangeEvent event) {
+      manifestChanged(event);
+    }
+
+    @Override
+    public void childrenChanged(PsiTreeChangeEvent event) {
+      manifestChanged(event);
+    }
+
+    @Override
+    public void propertyChanged(PsiTreeChangeEvent event) {
+      manifestChanged(event);
+    }
+
+    private void manifestChanged(PsiTreeChangeEvent event) {
+      PsiFile file = event.getFile();
+      if (file == null) {
+        // a created, deleted or renamed file
+        PsiElement element = event.getChild() != null ? event.getChild() : event.getElement();
+        if (element instanceof PsiFile) {
+          file = (PsiFile)element;
+        }
+      }
+      if (file instanceof ManifestFile) {
+        ManifestIndex.manifestsChanged(myProject);
+        myBundleCache.manifestChanged(file.getViewProvider().getVirtualFile());
+      }
+    }
+  }
 }
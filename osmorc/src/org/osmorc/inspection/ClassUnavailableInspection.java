@@ -32,18 +32,26 @@ import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleUtil;
+import com.intellij.openapi.roots.LibraryOrderEntry;
+import com.intellij.openapi.roots.OrderEntry;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.roots.libraries.Library;
 import com.intellij.psi.*;
-import org.eclipse.osgi.service.resolver.BundleDescription;
-import org.eclipse.osgi.service.resolver.ExportPackageDescription;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osmorc.BundleManager;
+import org.osmorc.VisiblePackages;
 import org.osmorc.facet.OsmorcFacet;
+import org.osmorc.manifest.BundleManifest;
 
 /**
  * Inspection which will check, if a class or package is available inside the osgi context.
+ * <p/>
+ * The packages visible to a bundle are computed once by the {@link BundleManager} and cached until the bundle index
+ * changes, so most checks are a lookup of the package name.
  *
  * @author <a href="mailto:janthomae@janthomae.de">Jan Thom&auml;</a>
  * @author Robert F. Beeger (robert@beeger.net)
@@ -78,82 +86,90 @@ public class ClassUnavailableInspection extends LocalInspectionTool {
 
   @NotNull
   public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, boolean isOnTheFly) {
+    final OsmorcFacet facet = OsmorcFacet.getInstance(holder.getFile());
+    // only check this if the manifest is manually edited
+    if (facet == null || !facet.getConfiguration().isManifestManuallyEdited()) {
+      return PsiElementVisitor.EMPTY_VISITOR;
+    }
+    final Module usingModule = facet.getModule();
+
     return new JavaElementVisitor() {
+      private VisiblePackages myVisiblePackages;
+
+      @Nullable
+      private VisiblePackages getVisiblePackages() {
+        if (myVisiblePackages == null) {
+          BundleManager bundleManager = ServiceManager.getService(usingModule.getProject(), BundleManager.class);
+          myVisiblePackages = bundleManager.getVisiblePackages(usingModule);
+        }
+        return myVisiblePackages;
+      }
+
       @Override
       public void visitNewExpression(PsiNewExpression expression) {
-        // only check this if the manifest is manually edited
-        OsmorcFacet instance = OsmorcFacet.getInstance(expression);
-        if (instance != null && instance.getConfiguration().isManifestManuallyEdited()) {
-          PsiJavaCodeReferenceElement classReference = expression.getClassReference();
-          if (classReference != null) {
-            final AvailabilityCheckResult result = checkElement(classReference.resolve(), ModuleUtil.findModuleForPsiElement(expression));
-            if (!result.isOk()) {
-              holder.registerProblem(expression, result.getDescription(), ProblemHighlightType.LIKE_UNKNOWN_SYMBOL);
-            }
+        PsiJavaCodeReferenceElement classReference = expression.getClassReference();
+        if (classReference != null) {
+          final AvailabilityCheckResult result = checkElement(classReference.resolve(), usingModule, getVisiblePackages());
+          if (!result.isOk()) {
+            holder.registerProblem(expression, result.getDescription(), ProblemHighlightType.LIKE_UNKNOWN_SYMBOL);
           }
         }
       }
 
       @Override
       public void visitVariable(PsiVariable variable) {
-        // only check this if the manifest is manually edited
-        OsmorcFacet instance = OsmorcFacet.getInstance(variable);
-        if (instance != null && instance.getConfiguration().isManifestManuallyEdited()) {
-          PsiClass psiClass = null;
-          PsiType psiType = variable.getType();
-          if (psiType instanceof PsiClassType) {
-            psiClass = ((PsiClassType)psiType).resolve();
-          }
-          final AvailabilityCheckResult result = checkElement(psiClass, ModuleUtil.findModuleForPsiElement(variable));
-          if (!result.isOk()) {
-            holder.registerProblem(variable, result.getDescription(), ProblemHighlightType.LIKE_UNKNOWN_SYMBOL);
-          }
+        PsiClass psiClass = null;
+        PsiType psiType = variable.getType();
+        if (psiType instanceof PsiClassType) {
+          psiClass = ((PsiClassType)psiType).resolve();
+        }
+        final AvailabilityCheckResult result = checkElement(psiClass, usingModule, getVisiblePackages());
+        if (!result.isOk()) {
+          holder.registerProblem(variable, result.getDescription(), ProblemHighlightType.LIKE_UNKNOWN_SYMBOL);
         }
       }
 
 
       @Override
       public void visitImportStatement(PsiImportStatement statement) {
-        // only check this if the manifest is manually edited
-        OsmorcFacet instance = OsmorcFacet.getInstance(statement);
-        if (instance != null && instance.getConfiguration().isManifestManuallyEdited()) {
-          PsiElement element = statement.resolve();
+        PsiElement element = statement.resolve();
 
-          if (element == null) {
-            PsiJavaCodeReferenceElement importReference = statement.getImportReference();
-            if (importReference != null) {
-              String importText = importReference.getText();
-              if (importText.endsWith(";")) {
-                importText = importText.substring(0, importText.length() - 1);
-              }
-              if (importText.endsWith(".*")) {
-                importText = importText.substring(0, importText.length() - 2);
-              }
+        if (element == null) {
+          PsiJavaCodeReferenceElement importReference = statement.getImportReference();
+          if (importReference != null) {
+            String importText = importReference.getText();
+            if (importText.endsWith(";")) {
+              importText = importText.substring(0, importText.length() - 1);
+            }
+            if (importText.endsWith(".*")) {
+              importText = importText.substring(0, importText.length() - 2);
+            }
 
-              PsiReference reference = importReference.findReferenceAt(importText.length() - 1);
-              if (reference != null) {
-                element = reference.resolve();
-              }
+            PsiReference reference = importReference.findReferenceAt(importText.length() - 1);
+            if (reference != null) {
+              element = reference.resolve();
             }
           }
+        }
 
-          final AvailabilityCheckResult result = checkElement(element, ModuleUtil.findModuleForPsiElement(statement));
-          if (!result.isOk()) {
-            holder.registerProblem(statement, result.getDescription(), ProblemHighlightType.LIKE_UNKNOWN_SYMBOL);
-          }
+        final AvailabilityCheckResult result = checkElement(element, usingModule, getVisiblePackages());
+        if (!result.isOk()) {
+          holder.registerProblem(statement, result.getDescription(), ProblemHighlightType.LIKE_UNKNOWN_SYMBOL);
         }
       }
     };
   }
 
   @NotNull
-  protected AvailabilityCheckResult checkElement(PsiElement element, Module usingModule) {
-    AvailabilityCheckResult result = new AvailabilityCheckResult();
-    if (element != null) {
+  protected AvailabilityCheckResult checkElement(@Nullable PsiElement element,
+                                                 @NotNull Module usingModule,
+                                                 @Nullable VisiblePackages visiblePackages) {
+    AvailabilityCheckResult result = AvailabilityCheckResult.OK;
+    if (element != null && visiblePackages != null) {
       if (element instanceof PsiPackage) {
         PsiDirectory[] directories = ((PsiPackage)element).getDirectories();
         for (PsiDirectory directory : directories) {
-          result = checkDirectory(directory, usingModule);
+          result = checkDirectory(directory, usingModule, visiblePackages);
           if (!result.isOk()) {
             break;
           }
@@ -164,7 +180,7 @@ public class ClassUnavailableInspection extends LocalInspectionTool {
         if (containingFile != null) {
           final PsiDirectory folder = containingFile.getContainingDirectory();
           if (folder != null) {
-            result = checkDirectory(folder, usingModule);
+            result = checkDirectory(folder, usingModule, visiblePackages);
           }
         }
       }
@@ -175,208 +191,68 @@ public class ClassUnavailableInspection extends LocalInspectionTool {
   /**
    * Checks if the package represented by <code>directory</code> is available to the given module.
    *
-   * @param directory   the directory representing a package
-   * @param usingModule the module for which the given package should be available.
-   * @return
+   * @param directory       the directory representing a package
+   * @param usingModule     the module for which the given package should be available.
+   * @param visiblePackages the packages visible to the module.
+   * @return the result of the check
    */
   @NotNull
-  private AvailabilityCheckResult checkDirectory(final @NotNull PsiDirectory directory, final @NotNull Module usingModule) {
-    final Module containingModule = ModuleUtil.findModuleForFile(directory.getVirtualFile(), usingModule.getProject());
-
-    if (containingModule != null && containingModule.equals(usingModule)) {
-      // same module == same bundle OK
+  private static AvailabilityCheckResult checkDirectory(@NotNull PsiDirectory directory,
+                                                       @NotNull Module usingModule,
+                                                       @NotNull VisiblePackages visiblePackages) {
+    PsiPackage psiPackage = JavaDirectoryService.getInstance().getPackage(directory);
+    if (psiPackage == null) {
+      return AvailabilityCheckResult.OK;
+    }
+    String packageName = psiPackage.getQualifiedName();
+    if (packageName.length() == 0 || packageName.startsWith("java.") || visiblePackages.isVisible(packageName)) {
+      // java.* is always delegated to the boot class path
       return AvailabilityCheckResult.OK;
     }
 
-    // next case - Fragment hosts. Fragment hosts may either have the package themselves (no matter if they export it)
-    // or import them from somewhere, in which case some other bundle must export it.
-    BundleManager bundleManager = ServiceManager.getService(directory.getProject(), BundleManager.class);
-
-    AvailabilityCheckResult result =
-      new AvailabilityCheckResult(AvailabilityCheckResult.ResultType.SymbolIsNotExported, "No bundle provides this entity.");
-
-
-    return result;
-
-    // first check if the dependency would be satisfied by one of the host bundles of this module.
-    //Collection<Object> usingModuleHostBundles = bundleManager.getHostBundles(usingModule);
-    //for (Object usingModuleHostBundle : usingModuleHostBundles) {
-    //  if (usingModuleHostBundle == containingModule) {
-    //    return result; // ok, the package is provided by the bundle itself or it's hosts.
-    //  }
-    //}
-    //
-    //Collection<Object> containingBundles;
-    //if (containingModule != null) {
-    //  containingBundles = bundleManager.getHostBundles(containingModule);
-    //}
-    //else {
-    //  containingBundles = new ArrayList<Object>();
-    //}
-    //
-    //final ProjectFileIndex projectFileIndex = ProjectRootManager.getInstance(usingModule.getProject()).getFileIndex();
-    //final List<OrderEntry> entriesForFile = projectFileIndex.getOrderEntriesForFile(directory.getVirtualFile());
-    //
-    //// check all orderentries which link to the specified directory (package)
-    //for (OrderEntry orderEntry : entriesForFile) {
-    //  Module orderEntryModule = orderEntry.getOwnerModule();
-    //  // and are imported by the usingModule
-    //  if (orderEntryModule == usingModule) {
-    //    if (orderEntry instanceof LibraryOrderEntry) {
-    //      final Library library = ((LibraryOrderEntry)orderEntry).getLibrary();
-    //      if (library != null) {
-    //        result = isLibraryExportingPackageTo(library, directory, usingModule, bundleManager);
-    //        if (result.isOk()) {
-    //          break;
-    //        }
-    //      }
-    //    }
-    //    else if (orderEntry instanceof ModuleOrderEntry) {
-    //      Module module = ((ModuleOrderEntry)orderEntry).getModule();
-    //      if (containingModule != null) {
-    //        result = isBundleExportingContainingPackageTo(module, containingModule, usingModule, directory, bundleManager);
-    //        if (!result.isOk()) {
-    //          for (Object containingBundleHost : containingBundles) {
-    //            result =
-    //              isBundleExportingContainingPackageTo(containingBundleHost, containingBundleHost, usingModule, directory, bundleManager);
-    //            if (result.isOk()) {
-    //              break;
-    //            }
-    //          }
-    //        }
-    //      }
-    //      else {
-    //        ProjectSettings projectSettings = ServiceManager.getService(usingModule.getProject(), ProjectSettings.class);
-    //        String frameworkInstanceName = projectSettings.getFrameworkInstanceName();
-    //        if (frameworkInstanceName != null) {
-    //          List<Library> libraries = libraryHandler.getLibraries(frameworkInstanceName);
-    //          for (Library library : libraries) {
-    //            VirtualFile[] files = library.getFiles(OrderRootType.CLASSES);
-    //            for (VirtualFile file : files) {
-    //              if (VfsUtil.isAncestor(file, directory.getVirtualFile(), false)) {
-    //                result = isLibraryExportingPackageTo(library, directory, usingModule, bundleManager);
-    //              }
-    //            }
-    //          }
-    //        }
-    //      }
-    //    }
-    //  }
-    //}
-    //return result;
-  }
-
-  private AvailabilityCheckResult isLibraryExportingPackageTo(Library library,
-                                                              PsiDirectory folder,
-                                                              Module usingModule,
-                                                              BundleManager bundleManager) {
-    // check if the library exports the package directly
-    AvailabilityCheckResult result = isBundleExportingContainingPackageTo(library, library, usingModule, folder, bundleManager);
-    //if (!result.isOk()) {
-    //  // if not, check it's fragment hosts and see if they export the package
-    //  Collection<Object> hostBundles = bundleManager.getHostBundles(library);
-    //  for (Object bundleHost : hostBundles) {
-    //    result = isBundleExportingContainingPackageTo(bundleHost, bundleHost, usingModule, folder, bundleManager);
-    //    if (result.isOk()) {
-    //      break;
-    //    }
-    //  }
-    //}
-    return result;
-  }
-
-  private AvailabilityCheckResult isBundleExportingContainingPackageTo(final @NotNull Object exportingBundle,
-                                                                       final @NotNull Object containingBundle,
-                                                                       final @NotNull Object importingBundle,
-                                                                       final @NotNull PsiDirectory folder,
-                                                                       final @NotNull BundleManager bundleManager) {
-    return null;
-//    PsiPackage containingPackage = JavaDirectoryService.getInstance().getPackage(folder);
-//    BundleDescription exporterDescription = bundleManager.getBundleDescription(exportingBundle);
-//    BundleDescription containerDescription = bundleManager.getBundleDescription(containingBundle);
-//    BundleDescription importerDescription = bundleManager.getBundleDescription(importingBundle);
-//
-//    // FIXES Exception ID: 16964. getBundleDescription and JavaDirectoryService.getPackage are @Nullable
-////        assert importerDescription != null;
-////        assert containingPackage != null;
-//
-//    if (importerDescription != null && containingPackage != null) {
-//      if (containerDescription == null ||
-//          isDirectImportExport(containingPackage, exporterDescription, importerDescription, bundleManager)) {
-//        return new AvailabilityCheckResult();
-//      }
-//
-//      boolean containerExports = isContainerExportingPackage(containingPackage, containerDescription);
-//      boolean recursiveRequired = isRecursiveRequired(importerDescription, containerDescription, bundleManager);
-//      if (!containerExports) {
-//        return new AvailabilityCheckResult(AvailabilityCheckResult.ResultType.SymbolIsNotExported, "Bundle '" +
-//                                                                                                   bundleManager.getDisplayName(exportingBundle) +
-//                                                                                                   "' contains package '" +
-//                                                                                                   containingPackage.getQualifiedName() +
-//                                                                                                   "' but does not export it.");
-//      }
-//      // TODO: actually it could also not be exported somehwere but this case is not handled.
-//      if (!recursiveRequired) {
-//        return new AvailabilityCheckResult(AvailabilityCheckResult.ResultType.SymbolIsNotImported,
-//                                           "The package  '" + containingPackage.getQualifiedName() + "' is not imported in the manifest.");
-//      }
-//      return new AvailabilityCheckResult();
-//    }
-//    else {
-//      // TOOD: dunno if this is really ok.
-//      return new AvailabilityCheckResult();
-//    }
-//
-  }
+    final Module containingModule = ModuleUtil.findModuleForFile(directory.getVirtualFile(), usingModule.getProject());
+    if (containingModule != null) {
+      if (containingModule.equals(usingModule) || visiblePackages.isVisibleFrom(containingModule)) {
+        // same module == same bundle OK, the same goes for fragment hosts and fragments
+        return AvailabilityCheckResult.OK;
+      }
+      return notVisible(containingModule, packageName, usingModule);
+    }
 
-  private boolean isContainerExportingPackage(PsiPackage containingPackage, BundleDescription containerDescription) {
-    boolean containerExportsPackage = false;
-    final ExportPackageDescription[] exportPackageDescriptions = containerDescription.getExportPackages();
-    for (ExportPackageDescription exportPackageDescription : exportPackageDescriptions) {
-      if (exportPackageDescription.getName().equals(containingPackage.getQualifiedName())) {
-        containerExportsPackage = true;
-        break;
+    // the package comes from a library (or the JDK)
+    final ProjectFileIndex projectFileIndex = ProjectRootManager.getInstance(usingModule.getProject()).getFileIndex();
+    Library providingLibrary = null;
+    for (OrderEntry orderEntry : projectFileIndex.getOrderEntriesForFile(directory.getVirtualFile())) {
+      if (orderEntry instanceof LibraryOrderEntry) {
+        Library library = ((LibraryOrderEntry)orderEntry).getLibrary();
+        if (library != null) {
+          if (visiblePackages.isVisibleFrom(library)) {
+            // on the Bundle-ClassPath
+            return AvailabilityCheckResult.OK;
+          }
+          if (orderEntry.getOwnerModule() == usingModule) {
+            providingLibrary = library;
+          }
+        }
       }
     }
-    return containerExportsPackage;
+    return providingLibrary != null
+           ? notVisible(providingLibrary, packageName, usingModule)
+           : new AvailabilityCheckResult(AvailabilityCheckResult.ResultType.SymbolIsNotImported,
+                                         "The package '" + packageName + "' is not imported in the manifest.");
   }
 
-  //private boolean isDirectImportExport(PsiPackage containingPackage,
-  //                                     BundleDescription exporterDescription,
-  //                                     BundleDescription importerDescription,
-  //                                     BundleManager bundleManager) {
-  //  final List<ExportPackageDescription> resolvedImports = bundleManager.getResolvedImports(importerDescription.getUserObject());
-  //  for (ExportPackageDescription resolvedImport : resolvedImports) {
-  //    if (resolvedImport.getName().equals(containingPackage.getQualifiedName()) && resolvedImport.getExporter() == exporterDescription) {
-  //      return true;
-  //    }
-  //  }
-  //  return false;
-  //}
-  //
-  //private boolean isRecursiveRequired(final @NotNull BundleDescription requirer,
-  //                                    final @NotNull BundleDescription required,
-  //                                    BundleManager bundleManager) {
-  //  final List<BundleDescription> resolvedRequires = bundleManager.getResolvedRequires(requirer.getUserObject());
-  //  for (BundleDescription resolvedRequire : resolvedRequires) {
-  //    if (required == resolvedRequire) {
-  //      return true;
-  //    }
-  //  }
-  //  for (BundleDescription resolvedRequire : resolvedRequires) {
-  //    final BundleSpecification[] requiredBundles = resolvedRequire.getRequiredBundles();
-  //    for (BundleSpecification requiredBundle : requiredBundles) {
-  //      if (requiredBundle.isExported()) {
-  //        final BundleDescription supplier = (BundleDescription)requiredBundle.getSupplier();
-  //        if (supplier == required) {
-  //          return true;
-  //        }
-  //        else if (supplier != null && isRecursiveRequired(supplier, required, bundleManager)) {
-  //          return true;
-  //        }
-  //      }
-  //    }
-  //  }
-  //  return false;
-  //}
+  @NotNull
+  private static AvailabilityCheckResult notVisible(@NotNull Object providingBundle, @NotNull String packageName, @NotNull Module usingModule) {
+    BundleManager bundleManager = ServiceManager.getService(usingModule.getProject(), BundleManager.class);
+    BundleManifest manifest = bundleManager.getManifestByObject(providingBundle);
+    // libraries which aren't bundles are bundlified with all their packages exported
+    if (manifest != null && !manifest.getExportedPackageNames().contains(packageName)) {
+      String bundleName = manifest.getBundleSymbolicName() != null ? manifest.getBundleSymbolicName() : String.valueOf(providingBundle);
+      return new AvailabilityCheckResult(AvailabilityCheckResult.ResultType.SymbolIsNotExported,
+                                         "Bundle '" + bundleName + "' contains package '" + packageName + "' but does not export it.");
+    }
+    return new AvailabilityCheckResult(AvailabilityCheckResult.ResultType.SymbolIsNotImported,
+                                       "The package '" + packageName + "' is not imported in the manifest.");
+  }
 }
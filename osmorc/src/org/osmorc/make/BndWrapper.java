@@ -104,7 +104,6 @@ public class BndWrapper {
       Map<String, String> additionalProperties = new HashMap<String, String>();
 
       // okay try to find a rule for this nice package:
-      long lastModified = Long.MIN_VALUE;
       ApplicationSettings settings = ServiceManager.getService(ApplicationSettings.class);
       for (LibraryBundlificationRule bundlificationRule : settings.getLibraryBundlificationRules()) {
         if (bundlificationRule.appliesTo(sourceFile.getName())) {
@@ -112,8 +111,6 @@ public class BndWrapper {
             return null; // make it quick in this case
           }
           additionalProperties.putAll(bundlificationRule.getAdditionalPropertiesMap());
-          // if a rule applies which has been changed recently we need to re-bundle the file
-          lastModified = Math.max(lastModified, bundlificationRule.getLastModified());
 
           // if stop after this rule is true, we will no longer try to find any more matching rules
           if (bundlificationRule.isStopAfterThisRule()) {
@@ -122,16 +119,23 @@ public class BndWrapper {
         }
       }
 
-
-      if (!targetFile.exists() || targetFile.lastModified() < sourceFile.lastModified() ||
-          targetFile.lastModified() < lastModified) {
-        if (doWrap(module, compileContext, sourceFile, targetFile, additionalProperties)) {
-          return VfsUtil.pathToUrl(targetFile.getCanonicalPath());
+      // the bundle only needs to be rebuilt if the contents of the library or the rules applying to it have changed,
+      // so look it up in the cache first. Touching the library or changing unrelated rules doesn't require a rebuild.
+      BundledLibraryCache cache = BundledLibraryCache.getInstance();
+      String key = cache.getKey(sourceFile, additionalProperties);
+      File bundle = cache.get(key);
+      if (bundle == null) {
+        File wrapped = doWrap(module, compileContext, sourceFile, additionalProperties);
+        if (wrapped == null) {
+          return null;
         }
+        bundle = cache.put(key, wrapped);
       }
-      else {
-        // Fixes IDEADEV-39099. When the wrapper does not return anything the library is not regarded
-        // as a bundle.
+
+      // Fixes IDEADEV-39099. When the wrapper does not return anything the library is not regarded
+      // as a bundle.
+      if (targetFile.exists() && cache.isSameContent(bundle, targetFile) ||
+          install(module, compileContext, sourceFile, bundle, targetFile)) {
         return VfsUtil.pathToUrl(targetFile.getCanonicalPath());
       }
     }
@@ -155,16 +159,15 @@ public class BndWrapper {
    * @param module
    * @param compileContext the compile context
    * @param inputJar       the input file
-   * @param outputJar      the output file
    * @param properties     properties for the manifest. these may contain bnd instructions
-   * @return true if the bundling was successful, false otherwise.
+   * @return a temporary file containing the bundle if the bundling was successful, null otherwise.
    * @throws Exception in case something goes wrong.
    */
-  private boolean doWrap(@NotNull Module module,
-                         @NotNull final CompileContext compileContext,
-                         @NotNull File inputJar,
-                         @NotNull final File outputJar,
-                         @NotNull Map<String, String> properties) throws Exception {
+  @Nullable
+  private static File doWrap(@NotNull Module module,
+                             @NotNull final CompileContext compileContext,
+                             @NotNull File inputJar,
+                             @NotNull Map<String, String> properties) throws Exception {
     final String messagePrefix = "[" + module.getName() + "][Library " + inputJar.getName() + "] ";
 
     String sourceFileUrl = VfsUtil.pathToUrl(inputJar.getPath());
@@ -187,7 +190,7 @@ public class BndWrapper {
         compileContext.addMessage(CompilerMessageCategory.ERROR,
                                   messagePrefix + "Can not calculate name of output bundle, rename jar or use -properties", sourceFileUrl,
                                   0, 0);
-        return false;
+        return null;
       }
 
       analyzer.setProperty(Constants.BUNDLE_SYMBOLICNAME, base);
@@ -206,10 +209,32 @@ public class BndWrapper {
     }
     Manifest mf = analyzer.calcManifest();
     Jar jar = analyzer.getJar();
-    final File f = FileUtil.createTempFile("tmpbnd", ".jar");
+    File f = FileUtil.createTempFile("tmpbnd", ".jar");
     jar.write(f);
     jar.close();
     analyzer.close();
+    return f;
+  }
+
+  /**
+   * Puts a copy of the given bundle at the place of the output file.
+   *
+   * @param module
+   * @param compileContext the compile context
+   * @param inputJar       the library the bundle was created from
+   * @param bundle         the bundle
+   * @param outputJar      the output file
+   * @return true if the output file was written, false otherwise.
+   * @throws IOException in case something goes wrong.
+   */
+  private static boolean install(@NotNull Module module,
+                                 @NotNull final CompileContext compileContext,
+                                 @NotNull File inputJar,
+                                 @NotNull File bundle,
+                                 @NotNull final File outputJar) throws IOException {
+    final String messagePrefix = "[" + module.getName() + "][Library " + inputJar.getName() + "] ";
+    final File f = FileUtil.createTempFile("tmpbnd", ".jar");
+    FileUtil.copy(bundle, f);
 
     // IDEA-26817 delete the old bundle, so the renameTo later works...
     if (outputJar.exists()) {
@@ -303,6 +328,13 @@ public class BndWrapper {
       classPathEntries[i] = new File(VfsUtil.urlToPath(classPathUrl));
     }
 
+    // if only some classes or resources changed, the previous bundle is updated instead of building it from scratch
+    File outFile = new File(outputPath);
+    IncrementalBundleBuilder incrementalBuilder = new IncrementalBundleBuilder(outFile, classPathEntries, buildProperties);
+    if (incrementalBuilder.update()) {
+      return true;
+    }
+
     // build a bnd file here containing all accumulated settings.
     File bndFile;
     try {
@@ -314,9 +346,8 @@ public class BndWrapper {
       return false;
     }
 
-    File outFile = new File(outputPath);
     try {
-      return doBuild(module, compileContext, bndFile, classPathEntries, outFile);
+      return doBuild(module, compileContext, bndFile, classPathEntries, outFile, incrementalBuilder);
     }
     catch (Exception e) {
       compileContext.addMessage(CompilerMessageCategory.ERROR, messagePrefix + "Unexpected error: " + e.getMessage(), null, 0, 0);
@@ -328,10 +359,32 @@ public class BndWrapper {
                                  @NotNull CompileContext compileContext,
                                  @NotNull File bndFile,
                                  @NotNull File[] classpath,
-                                 @NotNull File output)
+                                 @NotNull File output,
+                                 @NotNull IncrementalBundleBuilder incrementalBuilder)
     throws Exception {
-    String messagePrefix = "[" + module.getName() + "] ";
     ReportingBuilder builder = new ReportingBuilder(compileContext, VfsUtil.pathToUrl(bndFile.getPath()), module);
+    return buildBundle(builder, bndFile, classpath, output, incrementalBuilder, compileContext);
+  }
+
+  /**
+   * Builds the bundle with the given builder from the given bnd file and records it for the next incremental update.
+   *
+   * @param builder            the builder to use.
+   * @param bndFile            the bnd file with all settings for the build.
+   * @param classpath          the classpath bnd pulls classes and resources from.
+   * @param output             the bundle to be written.
+   * @param incrementalBuilder the incremental builder which failed to update the bundle.
+   * @param compileContext     the compile context for messages.
+   * @return true if the build succeeded, false otherwise.
+   */
+  static boolean buildBundle(@NotNull ReportingBuilder builder,
+                             @NotNull File bndFile,
+                             @NotNull File[] classpath,
+                             @NotNull File output,
+                             @NotNull IncrementalBundleBuilder incrementalBuilder,
+                             @NotNull CompileContext compileContext)
+    throws Exception {
+    String messagePrefix = builder.getMessagePrefix();
     builder.setPedantic(false);
     builder.setProperties(bndFile);
 
@@ -375,6 +428,7 @@ public class BndWrapper {
     Jar jar = builder.build();
     jar.setName(output.getName());
     jar.write(output);
+    incrementalBuilder.record(jar, builder);
     builder.close();
     return true;
   }
@@ -395,19 +449,30 @@ public class BndWrapper {
     if (outputPath == null) {
       throw new IOException("Unable to determine module output path for module " + module.getName());
     }
-    OrderedProperties props = OrderedProperties.fromMap(contents);
     File tmpFile = FileUtil.createTempFile(new File(outputPath), "osmorc", ".bnd", true);
-    // create one
-    BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(tmpFile));
+    writeBndFile(tmpFile, contents,
+                 "Bnd file generated by Osmorc for build of Module " + module.getName() + " in project " + module.getProject().getName());
+    tmpFile.deleteOnExit();
+    return tmpFile;
+  }
+
+  /**
+   * Writes the given contents to a bnd file.
+   *
+   * @param bndFile  the file
+   * @param contents the contents of the file
+   * @param comment  a comment for the head of the file
+   * @throws IOException in case writing the file fails.
+   */
+  static void writeBndFile(@NotNull File bndFile, @NotNull Map<String, String> contents, @NotNull String comment) throws IOException {
+    OrderedProperties props = OrderedProperties.fromMap(contents);
+    BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(bndFile));
     try {
-      props.store(bos,
-                  "Bnd file generated by Osmorc for build of Module " + module.getName() + " in project " + module.getProject().getName());
+      props.store(bos, comment);
     }
     finally {
       bos.close();
     }
-    tmpFile.deleteOnExit();
-    return tmpFile;
   }
 
   /**
@@ -0,0 +1,79 @@
+package org.osmorc.make;
+
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.compiler.CompileScope;
+import com.intellij.openapi.compiler.CompilerMessageCategory;
+import com.intellij.openapi.compiler.DummyCompileContext;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compile context for a single bundle which is built concurrently with other bundles. Messages are kept back until
+ * {@link #flushTo(CompileContext)} is called, so the messages of every module show up together and in the order
+ * they were reported, no matter how the builds of different modules interleave.
+ */
+class BufferingCompileContext extends DummyCompileContext {
+  private final CompileContext myDelegate;
+  private final List<Message> myMessages = new ArrayList<Message>();
+
+  BufferingCompileContext(@NotNull CompileContext delegate) {
+    myDelegate = delegate;
+  }
+
+  @Override
+  public Project getProject() {
+    return myDelegate.getProject();
+  }
+
+  @Override
+  public CompileScope getCompileScope() {
+    return myDelegate.getCompileScope();
+  }
+
+  @Override
+  public ProgressIndicator getProgressIndicator() {
+    return myDelegate.getProgressIndicator();
+  }
+
+  @Override
+  public void addMessage(CompilerMessageCategory category, String message, @Nullable String url, int lineNum, int columnNum) {
+    synchronized (myMessages) {
+      myMessages.add(new Message(category, message, url, lineNum, columnNum));
+    }
+  }
+
+  /**
+   * Passes all messages reported so far to the given context and forgets them.
+   */
+  void flushTo(@NotNull CompileContext context) {
+    List<Message> messages;
+    synchronized (myMessages) {
+      messages = new ArrayList<Message>(myMessages);
+      myMessages.clear();
+    }
+    for (Message message : messages) {
+      context.addMessage(message.myCategory, message.myText, message.myUrl, message.myLine, message.myColumn);
+    }
+  }
+
+  private static class Message {
+    private final CompilerMessageCategory myCategory;
+    private final String myText;
+    private final String myUrl;
+    private final int myLine;
+    private final int myColumn;
+
+    private Message(CompilerMessageCategory category, String text, String url, int line, int column) {
+      myCategory = category;
+      myText = text;
+      myUrl = url;
+      myLine = line;
+      myColumn = column;
+    }
+  }
+}
@@ -51,6 +51,9 @@ import org.osmorc.util.OrderedProperties;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * This is a compiler step that builds up a bundle. Depending on user settings the compiler either uses a user-edited
@@ -118,16 +121,72 @@ public class BundleCompiler implements PackagingCompiler {
    */
   public ProcessingItem[] process(CompileContext compileContext,
                                   ProcessingItem[] processingItems) {
-    try {
-      for (ProcessingItem processingItem : processingItems) {
-        Module module = ((BundleProcessingItem)processingItem).getModule();
-        buildBundle(module, compileContext.getProgressIndicator(), compileContext);
+    final ProgressIndicator progressIndicator = compileContext.getProgressIndicator();
+    List<BundleBuild> bundleBuilds = new ArrayList<BundleBuild>(processingItems.length);
+    for (ProcessingItem processingItem : processingItems) {
+      final Module module = ((BundleProcessingItem)processingItem).getModule();
+      bundleBuilds.add(new BundleBuild() {
+        @Override
+        public void build(@NotNull CompileContext moduleContext) throws IOException {
+          buildBundle(module, progressIndicator, moduleContext);
+        }
+      });
+    }
+    buildConcurrently(compileContext, bundleBuilds);
+    return processingItems;
+  }
+
+  /**
+   * Runs the given builds on the {@link BundleCompilerPool}. Bundles of different modules don't depend on each other, so they
+   * are built concurrently. Every build reports into its own buffer and the buffers are flushed in the order of the builds, so
+   * the messages of a module stay together.
+   *
+   * @param compileContext the compile context
+   * @param bundleBuilds   the builds, one per module
+   */
+  static void buildConcurrently(@NotNull CompileContext compileContext, @NotNull List<? extends BundleBuild> bundleBuilds) {
+    ProgressIndicator progressIndicator = compileContext.getProgressIndicator();
+    List<BufferingCompileContext> moduleContexts = new ArrayList<BufferingCompileContext>(bundleBuilds.size());
+    List<Future<Object>> builds = new ArrayList<Future<Object>>(bundleBuilds.size());
+    for (final BundleBuild bundleBuild : bundleBuilds) {
+      final BufferingCompileContext moduleContext = new BufferingCompileContext(compileContext);
+      moduleContexts.add(moduleContext);
+      builds.add(BundleCompilerPool.submitModuleTask(new Callable<Object>() {
+        @Override
+        public Object call() throws IOException {
+          bundleBuild.build(moduleContext);
+          return null;
+        }
+      }, progressIndicator));
+    }
+
+    for (int i = 0; i < builds.size(); i++) {
+      try {
+        if (!BundleCompilerPool.await(builds.get(i), progressIndicator)) {
+          cancel(builds);
+          break;
+        }
+      }
+      catch (ExecutionException e) {
+        logger.error(e.getCause());
+      }
+      finally {
+        moduleContexts.get(i).flushTo(compileContext);
       }
     }
-    catch (IOException ioexception) {
-      logger.error(ioexception);
+  }
+
+  private static void cancel(List<? extends Future<?>> tasks) {
+    for (Future<?> task : tasks) {
+      task.cancel(false);
     }
-    return processingItems;
+  }
+
+  /**
+   * The build of the bundle of one module.
+   */
+  interface BundleBuild {
+    void build(@NotNull CompileContext moduleContext) throws IOException;
   }
 
 
@@ -414,7 +473,8 @@ public class BundleCompiler implements PackagingCompiler {
 
   /**
    * Bundlifies all libraries that belong to the given module and that are not bundles and that are not modules. The bundles are cached, so if
-   * the source library does not change, it will not be bundlified again.
+   * the source library does not change, it will not be bundlified again. Libraries are wrapped concurrently on a bounded pool,
+   * a library which is already being wrapped for another module is waited for instead of wrapped a second time.
    *
    * @param module         the module whose libraries are to be bundled.
    * @param indicator      a progress indicator.
@@ -422,39 +482,116 @@ public class BundleCompiler implements PackagingCompiler {
    * @return a string array containing the urls of the bundlified libraries.
    */
   @NotNull
-  public static String[] bundlifyLibraries(@NotNull Module module, @NotNull ProgressIndicator indicator,
-                                           @NotNull CompileContext compileContext) {
+  public static String[] bundlifyLibraries(@NotNull final Module module, @NotNull final ProgressIndicator indicator,
+                                           @NotNull final CompileContext compileContext) {
+    Map<String, String> bundles = bundlifyLibraries(module, getLibraryUrls(module), indicator, compileContext);
     ArrayList<String> result = new ArrayList<String>();
+    for (String bundle : bundles.values()) {
+      if (bundle != null) {
+        result.add(bundle);
+      }
+    }
+    return ArrayUtil.toStringArray(result);
+  }
 
-    final String[] urls = OrderEnumerator.orderEntries(module).withoutSdk().withoutModuleSourceEntries().withoutDepModules()
+  /**
+   * Returns the file urls of all libraries that belong to the given module and that are not framework libraries.
+   *
+   * @param module the module
+   * @return the library urls, in the order of the module's dependencies.
+   */
+  @NotNull
+  public static String[] getLibraryUrls(@NotNull Module module) {
+    String[] urls = OrderEnumerator.orderEntries(module).withoutSdk().withoutModuleSourceEntries().withoutDepModules()
       .satisfying(NOT_FRAMEWORK_LIBRARY_CONDITION).recursively().exportedOnly().classes().getUrls();
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = convertJarUrlToFileUrl(urls[i]);
+    }
+    return urls;
+  }
 
-    BndWrapper wrapper = new BndWrapper();
-    for (String url : urls) {
-      url = convertJarUrlToFileUrl(url);
-
+  /**
+   * Bundlifies the given libraries of the given module, see {@link #bundlifyLibraries(Module, ProgressIndicator, CompileContext)}.
+   *
+   * @param module         the module whose libraries are to be bundled.
+   * @param libraryUrls    the file urls of the libraries, as returned by {@link #getLibraryUrls(Module)}.
+   * @param indicator      a progress indicator.
+   * @param compileContext the compile context
+   * @return the urls of the bundles by the urls of the libraries, in the order of the given urls. Libraries which are neither bundles nor
+   *         could be bundlified map to null. If the operation was canceled or no output path could be created, the remaining libraries
+   *         are missing.
+   */
+  @NotNull
+  public static Map<String, String> bundlifyLibraries(@NotNull final Module module, @NotNull String[] libraryUrls,
+                                                      @NotNull final ProgressIndicator indicator,
+                                                      @NotNull final CompileContext compileContext) {
+    // libraries are wrapped concurrently, the result keeps the order of the module's libraries.
+    Map<String, String> bundles = new LinkedHashMap<String, String>();
+    Map<String, Future<String>> wraps = new LinkedHashMap<String, Future<String>>();
+    String outputPath = null;
+    final BndWrapper wrapper = new BndWrapper();
+    for (final String url : libraryUrls) {
       if (CachingBundleInfoProvider.canBeBundlified(url)) { // Fixes IDEA-56666
-        indicator.setText("Bundling non-OSGi libraries for module: " + module.getName());
-        indicator.setText2(url);
         // ok it is not a bundle, so we need to bundlify
-        final String outputPath = BndWrapper.getOutputPath(module, compileContext);
         if (outputPath == null) {
-          // couldnt create output path, abort here..
+          outputPath = BndWrapper.getOutputPath(module, compileContext);
+          if (outputPath == null) {
+            // couldnt create output path, abort here..
+            break;
+          }
+          indicator.setText("Bundling non-OSGi libraries for module: " + module.getName());
+        }
+        final String libraryOutputPath = outputPath;
+        wraps.put(url, BundleCompilerPool.submitLibraryTask(url + "|" + outputPath, new Callable<String>() {
+          @Override
+          public String call() {
+            indicator.setText2(url);
+            return wrapper.wrapLibrary(module, compileContext, url, libraryOutputPath);
+          }
+        }, indicator));
+        // reserve the position of the library
+        bundles.put(url, null);
+      }
+      else {
+        // Exclude non-bundles (IDEA-56666)
+        bundles.put(url, CachingBundleInfoProvider.isBundle(url) ? fixFileURL(url) : null);
+      }
+    }
+
+    for (Iterator<Map.Entry<String, Future<String>>> iterator = wraps.entrySet().iterator(); iterator.hasNext(); ) {
+      Map.Entry<String, Future<String>> wrap = iterator.next();
+      try {
+        if (!BundleCompilerPool.await(wrap.getValue(), indicator)) {
+          removeRemaining(bundles, wrap, iterator);
           break;
         }
-        String bundledLocation = wrapper.wrapLibrary(module, compileContext, url, outputPath);
+        String bundledLocation = wrap.getValue().get();
         // if no bundle could (or should) be created, we exempt this library
         if (bundledLocation != null) {
-          result.add(fixFileURL(bundledLocation));
+          bundles.put(wrap.getKey(), fixFileURL(bundledLocation));
         }
       }
-      else {
-        if (CachingBundleInfoProvider.isBundle(url)) { // Exclude non-bundles (IDEA-56666)
-          result.add(fixFileURL(url));
-        }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        removeRemaining(bundles, wrap, iterator);
+        break;
+      }
+      catch (ExecutionException e) {
+        logger.error(e.getCause());
       }
     }
-    return ArrayUtil.toStringArray(result);
+    return bundles;
+  }
+
+  /**
+   * Removes the libraries whose wrapping was not awaited from the result.
+   */
+  private static void removeRemaining(@NotNull Map<String, String> bundles, @NotNull Map.Entry<String, Future<String>> current,
+                                      @NotNull Iterator<Map.Entry<String, Future<String>>> remaining) {
+    bundles.remove(current.getKey());
+    while (remaining.hasNext()) {
+      bundles.remove(remaining.next().getKey());
+    }
   }
 
   /**
@@ -0,0 +1,136 @@
+package org.osmorc.make;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.Ref;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded worker pools used by the {@link BundleCompiler}. Module bundles and wrapped libraries are processed on separate
+ * pools, so a module task waiting for its libraries never occupies a worker the libraries need. The size of both pools
+ * defaults to the number of processors and can be set with the <code>osmorc.make.threads</code> system property.
+ */
+final class BundleCompilerPool {
+  static final int PARALLELISM =
+    Math.max(1, Integer.getInteger("osmorc.make.threads", Runtime.getRuntime().availableProcessors()));
+
+  private static final long POLL_INTERVAL_MS = 100;
+
+  private static final ExecutorService ourModulePool = createPool("Osmorc bundle builder");
+  private static final ExecutorService ourLibraryPool = createPool("Osmorc library wrapper");
+
+  private static final ConcurrentMap<String, Future<?>> ourRunningTasks = new ConcurrentHashMap<String, Future<?>>();
+
+  private BundleCompilerPool() {
+  }
+
+  /**
+   * Schedules a module build. The task runs under the given progress indicator, so it sees cancellation and the
+   * modality of the calling compile process.
+   */
+  @NotNull
+  static <T> Future<T> submitModuleTask(@NotNull Callable<T> task, @Nullable ProgressIndicator indicator) {
+    return ourModulePool.submit(underProgress(task, indicator));
+  }
+
+  /**
+   * Schedules a library task. When a task with the same key is already scheduled or running (e.g. two modules wrap the
+   * same library into the same output folder), its future is returned instead, so the target is never written twice
+   * at the same time.
+   */
+  @NotNull
+  @SuppressWarnings("unchecked")
+  static <T> Future<T> submitLibraryTask(@NotNull final String key, @NotNull Callable<T> task, @Nullable ProgressIndicator indicator) {
+    FutureTask<T> future = new FutureTask<T>(underProgress(task, indicator)) {
+      @Override
+      protected void done() {
+        ourRunningTasks.remove(key, this);
+      }
+    };
+    Future<?> running = ourRunningTasks.putIfAbsent(key, future);
+    if (running != null) {
+      return (Future<T>)running;
+    }
+    ourLibraryPool.execute(future);
+    return future;
+  }
+
+  /**
+   * Waits for the given task to finish, checking the indicator for cancellation while waiting.
+   *
+   * @return false if the indicator was cancelled or the waiting thread was interrupted before the task finished.
+   * @throws ExecutionException if the task failed.
+   */
+  static boolean await(@NotNull Future<?> future, @Nullable ProgressIndicator indicator) throws ExecutionException {
+    try {
+      while (true) {
+        if (indicator != null && indicator.isCanceled()) {
+          return false;
+        }
+        try {
+          future.get(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+          return true;
+        }
+        catch (TimeoutException e) {
+          // check the indicator again
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    catch (CancellationException e) {
+      return false;
+    }
+  }
+
+  private static <T> Callable<T> underProgress(@NotNull final Callable<T> task, @Nullable final ProgressIndicator indicator) {
+    if (indicator == null) {
+      return task;
+    }
+    return new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        final Ref<T> result = new Ref<T>();
+        final Ref<Exception> failure = new Ref<Exception>();
+        ProgressManager.getInstance().runProcess(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              result.set(task.call());
+            }
+            catch (Exception e) {
+              failure.set(e);
+            }
+          }
+        }, indicator);
+        if (!failure.isNull()) {
+          throw failure.get();
+        }
+        return result.get();
+      }
+    };
+  }
+
+  private static ExecutorService createPool(final String name) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 10, TimeUnit.SECONDS,
+                                                     new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private final AtomicInteger myCount = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + " " + myCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    // don't keep idle threads around between two makes
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+}
@@ -22,7 +22,6 @@
  * TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
  * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-
 package org.osmorc.make;
 
 import com.intellij.openapi.application.ApplicationManager;
@@ -34,10 +33,7 @@ import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.util.ArrayUtil;
 import com.intellij.util.io.IOUtil;
-import gnu.trove.TObjectLongHashMap;
-import gnu.trove.TObjectLongProcedure;
 import org.osmorc.facet.OsmorcFacet;
 import org.osmorc.facet.OsmorcFacetConfiguration;
 import org.osmorc.frameworkintegration.LibraryBundlificationRule;
@@ -53,12 +49,19 @@ import java.util.regex.Pattern;
 
 /**
  * The validitystate of a bundle. This tells IntellIJ if files have been changed lately.
+ * <p/>
+ * All files the bundle is built from are summarized in a single fingerprint. The fingerprint of the module output folder
+ * is kept up to date by {@link ModuleOutputFingerprints}, so the output folder isn't walked on every make.
  *
  * @author <a href="mailto:janthomae@janthomae.de">Jan Thom&auml;</a>
  * @author Robert F. Beeger (robert@beeger.net)
  * @version $Id$
  */
 public class BundleValidityState implements ValidityState {
+  /**
+   * Written instead of the number of files which was saved by earlier versions, which listed every file with its time stamp.
+   */
+  private static final int FINGERPRINT_FORMAT = -1;
 
   /**
    * Ctor. Used by the bundle compiler to create a validity state for a given module.
@@ -68,36 +71,38 @@ public class BundleValidityState implements ValidityState {
   public BundleValidityState(final Module module) {
     moduleName = module.getName();
     jarUrl = BundleCompiler.getJarFileName(module);
+    legacy = false;
 
     final OsmorcFacet osmorcFacet = OsmorcFacet.getInstance(module);
     alwaysRebuildBundleJAR = OsmorcFacet.hasOsmorcFacet(module) &&
                              osmorcFacet.getConfiguration().isAlwaysRebuildBundleJAR();
 
     if (alwaysRebuildBundleJAR) {
-      jarLastModificationTime = 0;
-      fileTimestamps = new long[0];
-      fileUrls = ArrayUtil.EMPTY_STRING_ARRAY;
+      fingerprint = 0;
     }
     else {
-      jarLastModificationTime = (new File(VfsUtil.urlToPath(jarUrl))).lastModified();
-      final TObjectLongHashMap<String> url2Timestamps = new TObjectLongHashMap<String>();
+      long jarLastModificationTime = (new File(VfsUtil.urlToPath(jarUrl))).lastModified();
 
-      // note down the modification times of all files that will be copied by the Jar builder
+      // the files that will be copied by the Jar builder
+      final long[] outputFingerprint = new long[1];
       ApplicationManager.getApplication().runReadAction(new Runnable() {
         public void run() {
           VirtualFile moduleOutputDir = BundleCompiler.getModuleOutputUrl(module);
           if (moduleOutputDir != null) {
-            registerTimestamps(moduleOutputDir, url2Timestamps);
+            outputFingerprint[0] = ModuleOutputFingerprints.getInstance(module.getProject()).getFingerprint(moduleOutputDir);
           }
         }
       }
       );
 
+      // the few files outside of the output folder are looked at every time
+      OutputFingerprint otherFiles = new OutputFingerprint();
+
       // add the manifest from the facet settings (it might not be in the source roots)
       // so the build is also triggered when only the manifest has changed
       VirtualFile manifestFile = BundleCompiler.getManifestFile(module);
       if (manifestFile != null) {
-        registerTimestamps(manifestFile, url2Timestamps);
+        registerTimestamps(manifestFile, otherFiles);
       }
 
       if (osmorcFacet != null) {
@@ -106,7 +111,7 @@ public class BundleValidityState implements ValidityState {
         for (Pair<String, String> jarContent : jarContents) {
           VirtualFile file = LocalFileSystem.getInstance().findFileByPath(jarContent.getFirst());
           if (file != null) {
-            registerTimestamps(file, url2Timestamps);
+            registerTimestamps(file, otherFiles);
           }
         }
         // OSMORC-130 - include BND files into change calculation
@@ -115,46 +120,29 @@ public class BundleValidityState implements ValidityState {
           VirtualFile bndFile = LocalFileSystem.getInstance()
             .findFileByIoFile(BundleCompiler.findFileInModuleContentRoots(bndFileLocation, module));
           if (bndFile != null && bndFile.exists()) {
-            registerTimestamps(bndFile, url2Timestamps);
-            registerDependencies(bndFile, url2Timestamps);
+            registerTimestamps(bndFile, otherFiles);
+            registerDependencies(bndFile, otherFiles);
           }
         }
       }
 
+      long rulesModifiedTimeStamp = 0;
+      ApplicationSettings settings = ServiceManager.getService(ApplicationSettings.class);
+      for (LibraryBundlificationRule bundlificationRule : settings.getLibraryBundlificationRules()) {
+        rulesModifiedTimeStamp = Math.max(rulesModifiedTimeStamp, bundlificationRule.getLastModified());
+      }
 
-      // we put the urls and timestamps into two arrays for easy serialization
-      fileUrls = new String[url2Timestamps.size()];
-      fileTimestamps = new long[url2Timestamps.size()];
-
-      // functor for copying from map to arrays.
-      TObjectLongProcedure<String> tobjectlongprocedure = new TObjectLongProcedure<String>() {
-        public boolean execute(String s, long l) {
-          fileUrls[i] = s;
-          fileTimestamps[i] = l;
-          i++;
-          return true;
-        }
-
-        int i;
-      };
-      // and copy
-      url2Timestamps.forEachEntry(tobjectlongprocedure);
-    }
-    long lastModified = 0;
-    ApplicationSettings settings = ServiceManager.getService(ApplicationSettings.class);
-    for (LibraryBundlificationRule bundlificationRule : settings.getLibraryBundlificationRules()) {
-      lastModified = Math.max(lastModified, bundlificationRule.getLastModified());
+      fingerprint = combine(outputFingerprint[0], otherFiles.getValue(), jarLastModificationTime, rulesModifiedTimeStamp);
     }
-    rulesModifiedTimeStamp = lastModified;
   }
 
   /**
    * Finds all included files of the given bnd file and registers them as dependencies as well
    *
-   * @param bndFile        the bnd file.
-   * @param url2Timestamps the map containing the known timestamps
+   * @param bndFile    the bnd file.
+   * @param timestamps the known timestamps
    */
-  private void registerDependencies(VirtualFile bndFile, TObjectLongHashMap<String> url2Timestamps) {
+  private void registerDependencies(VirtualFile bndFile, OutputFingerprint timestamps) {
     try {
       String contents = VfsUtil.loadText(bndFile);
       Pattern p = Pattern.compile("-include[:=\\s](.+)");
@@ -172,14 +160,14 @@ public class BundleValidityState implements ValidityState {
           // TODO: we currently do not support replacing bnd's properties or macros in the file locations
           VirtualFile dependentFile = VfsUtil.findRelativeFile(listMember, bndFile);
           if (dependentFile != null && dependentFile.exists()) {
-            if (url2Timestamps.containsKey(dependentFile.getUrl())) {
+            if (timestamps.contains(dependentFile.getPath())) {
               // welcome to the world of circular dependencies
               return;
             }
             else {
-              registerTimestamps(dependentFile, url2Timestamps);
+              registerTimestamps(dependentFile, timestamps);
               // recursively call for includes inside the included file
-              registerDependencies(dependentFile, url2Timestamps);
+              registerDependencies(dependentFile, timestamps);
             }
           }
         }
@@ -200,19 +188,24 @@ public class BundleValidityState implements ValidityState {
     throws IOException {
     alwaysRebuildBundleJAR = in.readBoolean();
     moduleName = IOUtil.readString(in);
-    int i = in.readInt();
-    fileUrls = new String[i];
-    fileTimestamps = new long[i];
-    for (int j = 0; j < i; j++) {
-      String s = IOUtil.readString(in);
-      long l = in.readLong();
-      fileUrls[j] = s;
-      fileTimestamps[j] = l;
+    int format = in.readInt();
+    if (format == FINGERPRINT_FORMAT) {
+      jarUrl = IOUtil.readString(in);
+      fingerprint = in.readLong();
+      legacy = false;
+    }
+    else {
+      // a state saved by an earlier version, skip the files. It never equals a current state, so the bundle is built again.
+      for (int j = 0; j < format; j++) {
+        IOUtil.readString(in);
+        in.readLong();
+      }
+      jarUrl = IOUtil.readString(in);
+      in.readLong();
+      in.readLong();
+      fingerprint = 0;
+      legacy = true;
     }
-
-    jarUrl = IOUtil.readString(in);
-    jarLastModificationTime = in.readLong();
-    rulesModifiedTimeStamp = in.readLong();
   }
 
   /**
@@ -225,18 +218,9 @@ public class BundleValidityState implements ValidityState {
     throws IOException {
     out.writeBoolean(alwaysRebuildBundleJAR);
     IOUtil.writeString(moduleName, out);
-    int i = fileUrls.length;
-    out.writeInt(i);
-    for (int j = 0; j < i; j++) {
-      String s = fileUrls[j];
-      long l = fileTimestamps[j];
-      IOUtil.writeString(s, out);
-      out.writeLong(l);
-    }
-
+    out.writeInt(FINGERPRINT_FORMAT);
     IOUtil.writeString(jarUrl, out);
-    out.writeLong(jarLastModificationTime);
-    out.writeLong(rulesModifiedTimeStamp);
+    out.writeLong(fingerprint);
   }
 
 
@@ -248,52 +232,43 @@ public class BundleValidityState implements ValidityState {
   }
 
   public boolean equalsTo(ValidityState validitystate) {
-    if (alwaysRebuildBundleJAR) {
+    if (alwaysRebuildBundleJAR || legacy) {
       return false;
     }
     if (!(validitystate instanceof BundleValidityState)) {
       return false;
     }
     BundleValidityState myvalstate = (BundleValidityState)validitystate;
-    if (rulesModifiedTimeStamp != myvalstate.rulesModifiedTimeStamp) {
-      return false;
-    }
-    if (!moduleName.equals(myvalstate.moduleName)) {
-      return false;
-    }
-    if (fileUrls.length != myvalstate.fileUrls.length) {
-      return false;
-    }
-    for (int i = 0; i < fileUrls.length; i++) {
-      String s = fileUrls[i];
-      long l = fileTimestamps[i];
-      if (!s.equals(myvalstate.fileUrls[i]) || l != myvalstate.fileTimestamps[i]) {
-        return false;
-      }
-    }
-    return Comparing.strEqual(jarUrl, myvalstate.jarUrl) &&
-           jarLastModificationTime == myvalstate.jarLastModificationTime;
+    return !myvalstate.legacy &&
+           fingerprint == myvalstate.fingerprint &&
+           moduleName.equals(myvalstate.moduleName) &&
+           Comparing.strEqual(jarUrl, myvalstate.jarUrl);
   }
 
   private final String moduleName;
-  private final String fileUrls[];
-  private final long fileTimestamps[];
   private final String jarUrl;
-  private final long jarLastModificationTime;
   private final boolean alwaysRebuildBundleJAR;
-  private final long rulesModifiedTimeStamp;
+  private final long fingerprint;
+  private final boolean legacy;
 
 
-  private static void registerTimestamps(VirtualFile virtualfile, TObjectLongHashMap<String> url2Timestamps) {
+  private static void registerTimestamps(VirtualFile virtualfile, OutputFingerprint timestamps) {
     if (virtualfile.isDirectory()) {
       VirtualFile avirtualfile1[] = virtualfile.getChildren();
       for (VirtualFile virtualfile1 : avirtualfile1) {
-        registerTimestamps(virtualfile1, url2Timestamps);
+        registerTimestamps(virtualfile1, timestamps);
       }
     }
     else {
-      url2Timestamps.put(virtualfile.getUrl(), virtualfile.getTimeStamp());
+      timestamps.put(virtualfile.getPath(), virtualfile.getTimeStamp());
     }
   }
-}
 
+  static long combine(long... values) {
+    long result = 17;
+    for (long value : values) {
+      result = OutputFingerprint.mix(result * 31 + value);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,188 @@
+package org.osmorc.make;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osmorc.util.DigestUtil;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Persistent cache of libraries wrapped by the {@link BndWrapper}. A wrapped library is stored under a key made of the
+ * source jar's name, the hash of its contents and the bnd properties of the bundlification rules matching it. So a
+ * library is analyzed again only if it really changed or the rules for it were changed; copies of the same jar used by
+ * different modules or projects and rebuilds after a clean reuse the cached bundle.
+ * <p/>
+ * The cache lives in the IDE's system folder and keeps the {@link #MAX_ENTRIES} most recently used bundles.
+ */
+public class BundledLibraryCache {
+  private static final Logger LOG = Logger.getInstance("#org.osmorc.make.BundledLibraryCache");
+
+  static final int MAX_ENTRIES = 1000;
+  private static final int MAX_REMEMBERED_HASHES = 4096;
+
+  private final File myCacheDir;
+  private final Map<String, ContentHash> myPath2Hash = new LinkedHashMap<String, ContentHash>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, ContentHash> eldest) {
+      return size() > MAX_REMEMBERED_HASHES;
+    }
+  };
+
+  public static BundledLibraryCache getInstance() {
+    return ServiceManager.getService(BundledLibraryCache.class);
+  }
+
+  public BundledLibraryCache() {
+    this(new File(PathManager.getSystemPath(), "osmorc" + File.separator + "bundled-libraries"));
+  }
+
+  BundledLibraryCache(@NotNull File cacheDir) {
+    myCacheDir = cacheDir;
+  }
+
+  /**
+   * Calculates the key of the bundle created from the given library with the given bnd properties.
+   */
+  @NotNull
+  public String getKey(@NotNull File sourceJar, @NotNull Map<String, String> properties) throws IOException {
+    MessageDigest digest = DigestUtil.createSha1();
+    // the name matters, as the bundle symbolic name is derived from it if the rules don't specify one
+    DigestUtil.update(digest, sourceJar.getName());
+    DigestUtil.update(digest, getContentHash(sourceJar));
+    for (Map.Entry<String, String> property : new TreeMap<String, String>(properties).entrySet()) {
+      DigestUtil.update(digest, property.getKey());
+      DigestUtil.update(digest, property.getValue());
+    }
+    return DigestUtil.toHex(digest.digest());
+  }
+
+  /**
+   * @return the cached bundle for the given key or null if there is none.
+   */
+  @Nullable
+  public File get(@NotNull String key) {
+    File bundle = getCacheFile(key);
+    if (!bundle.isFile()) {
+      return null;
+    }
+    // keep track of the usage for the eviction
+    //noinspection ResultOfMethodCallIgnored
+    bundle.setLastModified(System.currentTimeMillis());
+    return bundle;
+  }
+
+  /**
+   * Moves the given bundle into the cache.
+   *
+   * @return the cached bundle.
+   */
+  @NotNull
+  public File put(@NotNull String key, @NotNull File bundle) throws IOException {
+    File target = getCacheFile(key);
+    if (!myCacheDir.isDirectory() && !myCacheDir.mkdirs()) {
+      throw new IOException("Cannot create cache folder " + myCacheDir.getPath());
+    }
+    // the same library may be wrapped for two modules at the same time, so move in a complete file only.
+    File temp = FileUtil.createTempFile(myCacheDir, key, ".tmp", true);
+    FileUtil.copy(bundle, temp);
+    FileUtil.delete(bundle);
+    if (!temp.renameTo(target)) {
+      FileUtil.delete(target);
+      if (!temp.renameTo(target)) {
+        FileUtil.delete(temp);
+        throw new IOException("Cannot store " + target.getPath());
+      }
+    }
+    evictOldEntries();
+    return target;
+  }
+
+  /**
+   * @return true if both files have the same contents.
+   */
+  public boolean isSameContent(@NotNull File first, @NotNull File second) throws IOException {
+    return first.length() == second.length() && getContentHash(first).equals(getContentHash(second));
+  }
+
+  /**
+   * Returns the hash of the file's contents. Hashes are remembered as long as the size and time stamp of the file don't
+   * change, so asking again for an unchanged file doesn't read it again.
+   */
+  @NotNull
+  String getContentHash(@NotNull File file) throws IOException {
+    String path = file.getAbsolutePath();
+    long length = file.length();
+    long lastModified = file.lastModified();
+    synchronized (myPath2Hash) {
+      ContentHash hash = myPath2Hash.get(path);
+      if (hash != null && hash.myLength == length && hash.myLastModified == lastModified) {
+        return hash.myHash;
+      }
+    }
+
+    MessageDigest digest = DigestUtil.createSha1();
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    finally {
+      in.close();
+    }
+    String result = DigestUtil.toHex(digest.digest());
+    synchronized (myPath2Hash) {
+      myPath2Hash.put(path, new ContentHash(length, lastModified, result));
+    }
+    return result;
+  }
+
+  @NotNull
+  private File getCacheFile(@NotNull String key) {
+    return new File(myCacheDir, key + ".jar");
+  }
+
+  private void evictOldEntries() {
+    File[] bundles = myCacheDir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.getName().endsWith(".jar");
+      }
+    });
+    if (bundles == null || bundles.length <= MAX_ENTRIES) {
+      return;
+    }
+    Arrays.sort(bundles, new Comparator<File>() {
+      @Override
+      public int compare(File o1, File o2) {
+        long diff = o1.lastModified() - o2.lastModified();
+        return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+      }
+    });
+    for (int i = 0; i < bundles.length - MAX_ENTRIES; i++) {
+      if (!FileUtil.delete(bundles[i])) {
+        LOG.debug("Could not delete outdated cached bundle " + bundles[i].getPath());
+      }
+    }
+  }
+
+  private static class ContentHash {
+    private final long myLength;
+    private final long myLastModified;
+    private final String myHash;
+
+    private ContentHash(long length, long lastModified, String hash) {
+      myLength = length;
+      myLastModified = lastModified;
+      myHash = hash;
+    }
+  }
+}
@@ -0,0 +1,385 @@
+package org.osmorc.make;
+
+import aQute.lib.osgi.*;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Updates a bundle built by the {@link BndWrapper} in place when only the contents of some of its classes or resources
+ * changed, instead of running bnd over the whole module again.
+ * <p/>
+ * After every full build a record of the build is stored in the IDE's system folder: the bnd properties, the classpath,
+ * every file in the folders the bundle was built from, which jar entry it became and, for classes, the packages the class
+ * refers to. The next build only replaces the entries of changed files and copies all other entries as they are, without
+ * inflating and deflating them again. The manifest is kept, as long as none of the changed classes refers to another set
+ * of packages. Everything else needs a full build: added or removed files, changed classes with other references, changes
+ * of the properties, of jars on the classpath or of files which didn't end up in the bundle.
+ */
+class IncrementalBundleBuilder {
+  private static final Logger LOG = Logger.getInstance("#org.osmorc.make.IncrementalBundleBuilder");
+
+  private static final int VERSION = 1;
+  /**
+   * Files modified this shortly before a build is recorded may be modified again without getting another time stamp.
+   */
+  private static final long UNRELIABLE_STAMP_INTERVAL = 2000;
+  /**
+   * Instructions whose results depend on the contents of classes or resources, not just on the packages they refer to.
+   * Included bnd files are resolved by bnd relative to the including file and may include further files, so their
+   * changes can't be told from the properties either.
+   */
+  private static final Set<String> CONTENT_DEPENDENT_PROPERTIES = new HashSet<String>(Arrays.asList(
+    Constants.SERVICE_COMPONENT, Constants.PLUGIN, Constants.SOURCES, Constants.MAKE, Constants.INCLUDE, "-dsannotations",
+    "-metatype"));
+
+  private final File myOutput;
+  private final File myRecordFile;
+  private final List<File> myRoots = new ArrayList<File>();
+  private final String myStamp;
+  private final boolean myEnabled;
+
+  IncrementalBundleBuilder(@NotNull File output, @NotNull File[] classpath, @NotNull Map<String, String> buildProperties) {
+    this(output, classpath, buildProperties, new File(PathManager.getSystemPath(), "osmorc" + File.separator + "bundle-builds"));
+  }
+
+  IncrementalBundleBuilder(@NotNull File output, @NotNull File[] classpath, @NotNull Map<String, String> buildProperties,
+                           @NotNull File recordDir) {
+    myOutput = output.getAbsoluteFile();
+    myRecordFile = new File(recordDir, Integer.toHexString(myOutput.getPath().hashCode()) + ".dat");
+
+    boolean enabled = true;
+    StringBuilder stamp = new StringBuilder();
+    Set<File> roots = new LinkedHashSet<File>();
+    for (File entry : classpath) {
+      appendStamp(stamp, entry);
+      if (entry.isDirectory()) {
+        roots.add(entry.getAbsoluteFile());
+      }
+    }
+    for (Map.Entry<String, String> property : new TreeMap<String, String>(buildProperties).entrySet()) {
+      String value = property.getValue();
+      stamp.append(property.getKey()).append('=').append(value).append('\n');
+      if (CONTENT_DEPENDENT_PROPERTIES.contains(property.getKey())) {
+        enabled = false;
+      }
+      // files mentioned by the properties, e.g. a manifest or additional resources
+      for (String token : value.split("[,;=\\s]+")) {
+        File file = new File(token.replaceAll("^[@{]+|[}]+$", ""));
+        if (!file.isAbsolute()) {
+          continue;
+        }
+        if (file.isDirectory()) {
+          roots.add(file.getAbsoluteFile());
+        }
+        else if (file.isFile()) {
+          appendStamp(stamp, file);
+        }
+      }
+    }
+    myRoots.addAll(roots);
+    myStamp = stamp.toString();
+    myEnabled = enabled;
+  }
+
+  /**
+   * Tries to bring the bundle up to date without a full build.
+   *
+   * @return true if the bundle is up to date, false if it needs a full build.
+   */
+  boolean update() {
+    if (!myEnabled || !myOutput.isFile()) {
+      return false;
+    }
+    try {
+      BuildRecord record = loadRecord();
+      if (record == null || !record.myStamp.equals(myStamp) ||
+          record.myOutputLength != myOutput.length() || record.myOutputLastModified != myOutput.lastModified()) {
+        return false;
+      }
+
+      Map<String, FileState> files = scanRoots();
+      if (!files.keySet().equals(record.myFiles.keySet())) {
+        return false;
+      }
+      Map<String, File> replacements = new HashMap<String, File>();
+      for (Map.Entry<String, FileState> entry : files.entrySet()) {
+        FileState previous = record.myFiles.get(entry.getKey());
+        FileState current = entry.getValue();
+        current.myEntryName = previous.myEntryName;
+        current.myPackages = previous.myPackages;
+        if (current.myLength == previous.myLength && current.myLastModified == previous.myLastModified) {
+          continue;
+        }
+        String entryName = previous.myEntryName;
+        if (entryName == null || !isReplaceable(entryName)) {
+          return false;
+        }
+        File file = new File(entry.getKey());
+        if (entryName.endsWith(".class")) {
+          Set<String> packages = getReferredPackages(entryName, file);
+          if (!packages.equals(previous.myPackages)) {
+            return false;
+          }
+        }
+        replacements.put(entryName, file);
+      }
+
+      if (!replacements.isEmpty()) {
+        File temp = FileUtil.createTempFile(myOutput.getParentFile(), myOutput.getName(), ".tmp", true);
+        try {
+          JarEntryCopier.copy(myOutput, replacements, temp);
+          if (!FileUtil.delete(myOutput) || !temp.renameTo(myOutput)) {
+            throw new IOException("Cannot replace " + myOutput.getPath());
+          }
+        }
+        finally {
+          FileUtil.delete(temp);
+        }
+        saveRecord(new BuildRecord(myStamp, myOutput.length(), myOutput.lastModified(), files));
+      }
+      return true;
+    }
+    catch (Exception e) {
+      LOG.debug("Cannot update " + myOutput.getPath() + " incrementally", e);
+      forget();
+      return false;
+    }
+  }
+
+  /**
+   * Remembers a full build of the bundle.
+   *
+   * @param jar      the jar built by bnd, already written to the output file
+   * @param analyzer the analyzer which built the jar
+   */
+  void record(@NotNull Jar jar, @NotNull Analyzer analyzer) {
+    if (!myEnabled) {
+      return;
+    }
+    try {
+      Map<String, FileState> files = scanRoots();
+      Map<String, Clazz> classes = analyzer.getClassspace();
+      for (Map.Entry<String, Resource> entry : jar.getResources().entrySet()) {
+        String entryName = entry.getKey();
+        if (!(entry.getValue() instanceof FileResource)) {
+          continue;
+        }
+        FileResource resource = (FileResource)entry.getValue();
+        FileState state = findSource(files, entryName, resource);
+        if (state == null) {
+          continue;
+        }
+        state.myEntryName = entryName;
+        if (entryName.endsWith(".class")) {
+          Clazz clazz = classes != null ? classes.get(entryName) : null;
+          state.myPackages = clazz != null && clazz.getReferred() != null
+                             ? new HashSet<String>(clazz.getReferred())
+                             : getReferredPackages(entryName, new File(state.myPath));
+        }
+      }
+      saveRecord(new BuildRecord(myStamp, myOutput.length(), myOutput.lastModified(), files));
+    }
+    catch (Exception e) {
+      LOG.debug("Cannot record the build of " + myOutput.getPath(), e);
+      forget();
+    }
+  }
+
+  /**
+   * Forgets the last build, so the next build will be a full one.
+   */
+  void forget() {
+    FileUtil.delete(myRecordFile);
+  }
+
+  /**
+   * Classes only change the manifest if they refer to other packages. Other resources don't influence it, except for the
+   * ones bnd analyzes: package versions and embedded jars.
+   */
+  private static boolean isReplaceable(@NotNull String entryName) {
+    return !entryName.equals("META-INF/MANIFEST.MF") && !entryName.endsWith("/packageinfo") &&
+           !entryName.endsWith("package-info.class") && !entryName.endsWith(".jar") && !entryName.endsWith(".zip");
+  }
+
+  @Nullable
+  private FileState findSource(@NotNull Map<String, FileState> files, @NotNull String entryName, @NotNull FileResource resource) {
+    for (File root : myRoots) {
+      FileState state = files.get(new File(root, entryName).getPath());
+      if (state != null && state.myLength == resource.size() && state.myLastModified == resource.lastModified()) {
+        return state;
+      }
+    }
+    return null;
+  }
+
+  @NotNull
+  private static Set<String> getReferredPackages(@NotNull String entryName, @NotNull File file) throws Exception {
+    Clazz clazz = new Clazz(entryName, new FileResource(file));
+    clazz.parseClassFile();
+    Set<String> packages = clazz.getReferred();
+    return packages != null ? new HashSet<String>(packages) : new HashSet<String>();
+  }
+
+  @NotNull
+  private Map<String, FileState> scanRoots() {
+    Map<String, FileState> result = new HashMap<String, FileState>();
+    for (File root : myRoots) {
+      scan(root, result);
+    }
+    return result;
+  }
+
+  private void scan(@NotNull File dir, @NotNull Map<String, FileState> result) {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (child.isDirectory()) {
+        scan(child, result);
+      }
+      else if (!isIgnored(child)) {
+        result.put(child.getPath(), new FileState(child.getPath(), child.length(), child.lastModified()));
+      }
+    }
+  }
+
+  /**
+   * The bundle itself and the temporary bnd files are no input of the build, even if they are placed inside the output folder.
+   */
+  private boolean isIgnored(@NotNull File file) {
+    String name = file.getName();
+    return file.equals(myOutput) || name.startsWith(myOutput.getName()) && name.endsWith(".tmp") ||
+           name.startsWith("osmorc") && name.endsWith(".bnd");
+  }
+
+  private static void appendStamp(@NotNull StringBuilder stamp, @NotNull File file) {
+    stamp.append(file.getAbsolutePath()).append('|');
+    if (file.isFile()) {
+      stamp.append(file.length()).append('|').append(file.lastModified());
+    }
+    stamp.append('\n');
+  }
+
+  @Nullable
+  private BuildRecord loadRecord() throws IOException {
+    if (!myRecordFile.isFile()) {
+      return null;
+    }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myRecordFile)));
+    try {
+      if (in.readInt() != VERSION || !in.readUTF().equals(myOutput.getPath())) {
+        return null;
+      }
+      String stamp = readString(in);
+      long outputLength = in.readLong();
+      long outputLastModified = in.readLong();
+      int count = in.readInt();
+      Map<String, FileState> files = new HashMap<String, FileState>(count);
+      for (int i = 0; i < count; i++) {
+        FileState state = new FileState(in.readUTF(), in.readLong(), in.readLong());
+        if (in.readBoolean()) {
+          state.myEntryName = in.readUTF();
+        }
+        int packageCount = in.readInt();
+        if (packageCount >= 0) {
+          state.myPackages = new HashSet<String>(packageCount);
+          for (int j = 0; j < packageCount; j++) {
+            state.myPackages.add(in.readUTF());
+          }
+        }
+        files.put(state.myPath, state);
+      }
+      return new BuildRecord(stamp, outputLength, outputLastModified, files);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private void saveRecord(@NotNull BuildRecord record) throws IOException {
+    File dir = myRecordFile.getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Cannot create folder " + dir.getPath());
+    }
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myRecordFile)));
+    try {
+      out.writeInt(VERSION);
+      out.writeUTF(myOutput.getPath());
+      writeString(out, record.myStamp);
+      out.writeLong(record.myOutputLength);
+      out.writeLong(record.myOutputLastModified);
+      out.writeInt(record.myFiles.size());
+      long unreliable = System.currentTimeMillis() - UNRELIABLE_STAMP_INTERVAL;
+      for (FileState state : record.myFiles.values()) {
+        out.writeUTF(state.myPath);
+        out.writeLong(state.myLength);
+        // so the file is taken as changed next time
+        out.writeLong(state.myLastModified > unreliable ? -1 : state.myLastModified);
+        out.writeBoolean(state.myEntryName != null);
+        if (state.myEntryName != null) {
+          out.writeUTF(state.myEntryName);
+        }
+        out.writeInt(state.myPackages != null ? state.myPackages.size() : -1);
+        if (state.myPackages != null) {
+          for (String packageName : state.myPackages) {
+            out.writeUTF(packageName);
+          }
+        }
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  // the stamp may exceed the 64k limit of writeUTF
+  private static void writeString(@NotNull DataOutputStream out, @NotNull String value) throws IOException {
+    byte[] bytes = value.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  @NotNull
+  private static String readString(@NotNull DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  private static class BuildRecord {
+    private final String myStamp;
+    private final long myOutputLength;
+    private final long myOutputLastModified;
+    private final Map<String, FileState> myFiles;
+
+    private BuildRecord(@NotNull String stamp, long outputLength, long outputLastModified, @NotNull Map<String, FileState> files) {
+      myStamp = stamp;
+      myOutputLength = outputLength;
+      myOutputLastModified = outputLastModified;
+      myFiles = files;
+    }
+  }
+
+  private static class FileState {
+    private final String myPath;
+    private final long myLength;
+    private final long myLastModified;
+    // the name of the jar entry made from this file, null if the file is not part of the bundle
+    private String myEntryName;
+    // the packages referred to by a class
+    private Set<String> myPackages;
+
+    private FileState(@NotNull String path, long length, long lastModified) {
+      myPath = path;
+      myLength = length;
+      myLastModified = lastModified;
+    }
+  }
+}
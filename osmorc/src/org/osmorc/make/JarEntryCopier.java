@@ -0,0 +1,364 @@
+package org.osmorc.make;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a copy of a jar file in which some entries are replaced by the contents of files. All other entries are copied
+ * byte by byte in their compressed form, so they are neither inflated nor deflated again. The order of the entries,
+ * and therefore the position of the manifest, is kept.
+ * <p/>
+ * Only plain jar files are supported, jar files using ZIP64 extensions or encryption are rejected with a {@link ZipException}.
+ */
+class JarEntryCopier {
+  private static final int LOCAL_HEADER = 0x04034b50;
+  private static final int CENTRAL_HEADER = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+  private static final int LOCAL_HEADER_LENGTH = 30;
+  private static final int CENTRAL_HEADER_LENGTH = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+  private static final int FLAG_ENCRYPTED = 1;
+  private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+  private static final int METHOD_DEFLATED = 8;
+
+  private JarEntryCopier() {
+  }
+
+  /**
+   * Copies the given jar, replacing entries.
+   *
+   * @param source       the jar to copy
+   * @param replacements the files to replace entries with, by entry name. All of these entries must exist in the source.
+   * @param target       the jar to write
+   * @throws IOException if the source cannot be read or is not supported or the target cannot be written.
+   */
+  static void copy(@NotNull File source, @NotNull Map<String, File> replacements, @NotNull File target) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(source, "r");
+    try {
+      List<CentralHeader> headers = readCentralDirectory(in);
+      Set<String> names = new HashSet<String>();
+      for (CentralHeader header : headers) {
+        names.add(header.getName());
+      }
+      if (!names.containsAll(replacements.keySet())) {
+        throw new ZipException("New entries cannot be added to " + source.getPath());
+      }
+
+      CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(target)));
+      try {
+        for (CentralHeader header : headers) {
+          File replacement = replacements.get(header.getName());
+          if (replacement != null) {
+            writeReplacedEntry(header, replacement, out);
+          }
+          else {
+            copyEntry(in, header, out);
+          }
+        }
+        long centralDirectoryOffset = out.getCount();
+        for (CentralHeader header : headers) {
+          out.write(header.myData);
+        }
+        writeEndOfCentralDirectory(out, headers.size(), out.getCount() - centralDirectoryOffset, centralDirectoryOffset);
+      }
+      finally {
+        out.close();
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  @NotNull
+  private static List<CentralHeader> readCentralDirectory(@NotNull RandomAccessFile in) throws IOException {
+    long length = in.length();
+    if (length < END_OF_CENTRAL_DIRECTORY_LENGTH) {
+      throw new ZipException("Not a jar file");
+    }
+    // the end of central directory record is followed by a comment of up to 64k
+    int tailLength = (int)Math.min(length, END_OF_CENTRAL_DIRECTORY_LENGTH + 0xFFFF);
+    byte[] tail = new byte[tailLength];
+    in.seek(length - tailLength);
+    in.readFully(tail);
+    int end = -1;
+    for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= 0; i--) {
+      if (getInt(tail, i) == END_OF_CENTRAL_DIRECTORY) {
+        end = i;
+        break;
+      }
+    }
+    if (end < 0) {
+      throw new ZipException("Not a jar file");
+    }
+    int entryCount = getShort(tail, end + 10);
+    long centralDirectorySize = getUnsignedInt(tail, end + 12);
+    long centralDirectoryOffset = getUnsignedInt(tail, end + 16);
+    if (getShort(tail, end + 4) != 0 || entryCount == 0xFFFF || centralDirectoryOffset == 0xFFFFFFFFL ||
+        centralDirectoryOffset + centralDirectorySize > length) {
+      throw new ZipException("Unsupported jar file");
+    }
+
+    byte[] centralDirectory = new byte[(int)centralDirectorySize];
+    in.seek(centralDirectoryOffset);
+    in.readFully(centralDirectory);
+    List<CentralHeader> result = new ArrayList<CentralHeader>(entryCount);
+    int offset = 0;
+    for (int i = 0; i < entryCount; i++) {
+      if (offset + CENTRAL_HEADER_LENGTH > centralDirectory.length || getInt(centralDirectory, offset) != CENTRAL_HEADER) {
+        throw new ZipException("Corrupt central directory");
+      }
+      int headerLength = CENTRAL_HEADER_LENGTH + getShort(centralDirectory, offset + 28) + getShort(centralDirectory, offset + 30) +
+                         getShort(centralDirectory, offset + 32);
+      if (offset + headerLength > centralDirectory.length) {
+        throw new ZipException("Corrupt central directory");
+      }
+      CentralHeader header = new CentralHeader(Arrays.copyOfRange(centralDirectory, offset, offset + headerLength));
+      if ((header.getFlags() & FLAG_ENCRYPTED) != 0 || header.getCompressedSize() == 0xFFFFFFFFL ||
+          header.getSize() == 0xFFFFFFFFL || header.getLocalHeaderOffset() == 0xFFFFFFFFL) {
+        throw new ZipException("Unsupported entry " + header.getName());
+      }
+      result.add(header);
+      offset += headerLength;
+    }
+    return result;
+  }
+
+  private static void copyEntry(@NotNull RandomAccessFile in, @NotNull CentralHeader header, @NotNull CountingOutputStream out)
+    throws IOException {
+    byte[] localHeader = new byte[LOCAL_HEADER_LENGTH];
+    in.seek(header.getLocalHeaderOffset());
+    in.readFully(localHeader);
+    if (getInt(localHeader, 0) != LOCAL_HEADER) {
+      throw new ZipException("Corrupt local header of " + header.getName());
+    }
+    byte[] extra = new byte[getShort(localHeader, 28)];
+    in.skipBytes(getShort(localHeader, 26));
+    in.readFully(extra);
+
+    // sizes and checksum are taken from the central directory, so a data descriptor isn't needed anymore
+    int flags = header.getFlags() & ~FLAG_DATA_DESCRIPTOR;
+    header.setFlags(flags);
+    header.setLocalHeaderOffset(out.getCount());
+    writeLocalHeader(out, header, extra);
+
+    byte[] buffer = new byte[64 * 1024];
+    long remaining = header.getCompressedSize();
+    while (remaining > 0) {
+      int read = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+      if (read < 0) {
+        throw new EOFException("Unexpected end of " + header.getName());
+      }
+      out.write(buffer, 0, read);
+      remaining -= read;
+    }
+  }
+
+  private static void writeReplacedEntry(@NotNull CentralHeader header, @NotNull File replacement, @NotNull CountingOutputStream out)
+    throws IOException {
+    byte[] content = loadBytes(replacement);
+    CRC32 crc = new CRC32();
+    crc.update(content);
+
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 64);
+    try {
+      deflater.setInput(content);
+      deflater.finish();
+      byte[] buffer = new byte[64 * 1024];
+      while (!deflater.finished()) {
+        int length = deflater.deflate(buffer);
+        compressed.write(buffer, 0, length);
+      }
+    }
+    finally {
+      deflater.end();
+    }
+
+    header.setFlags(header.getFlags() & ~FLAG_DATA_DESCRIPTOR);
+    header.setMethod(METHOD_DEFLATED);
+    header.setDosTime(toDosTime(replacement.lastModified()));
+    header.setCrc(crc.getValue());
+    header.setCompressedSize(compressed.size());
+    header.setSize(content.length);
+    header.setLocalHeaderOffset(out.getCount());
+    writeLocalHeader(out, header, new byte[0]);
+    compressed.writeTo(out);
+  }
+
+  private static void writeLocalHeader(@NotNull OutputStream out, @NotNull CentralHeader header, @NotNull byte[] extra)
+    throws IOException {
+    byte[] name = header.getNameBytes();
+    byte[] localHeader = new byte[LOCAL_HEADER_LENGTH];
+    putInt(localHeader, 0, LOCAL_HEADER);
+    // version needed, flags, method, time, date, crc, sizes are laid out the same way as in the central header
+    System.arraycopy(header.myData, 6, localHeader, 4, 22);
+    putShort(localHeader, 26, name.length);
+    putShort(localHeader, 28, extra.length);
+    out.write(localHeader);
+    out.write(name);
+    out.write(extra);
+  }
+
+  private static void writeEndOfCentralDirectory(@NotNull OutputStream out, int entryCount, long size, long offset)
+    throws IOException {
+    if (entryCount >= 0xFFFF || offset >= 0xFFFFFFFFL) {
+      throw new ZipException("Jar file too large");
+    }
+    byte[] end = new byte[END_OF_CENTRAL_DIRECTORY_LENGTH];
+    putInt(end, 0, END_OF_CENTRAL_DIRECTORY);
+    putShort(end, 8, entryCount);
+    putShort(end, 10, entryCount);
+    putInt(end, 12, size);
+    putInt(end, 16, offset);
+    out.write(end);
+  }
+
+  @NotNull
+  private static byte[] loadBytes(@NotNull File file) throws IOException {
+    long length = file.length();
+    if (length > Integer.MAX_VALUE) {
+      throw new ZipException("File too large: " + file.getPath());
+    }
+    byte[] result = new byte[(int)length];
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      in.readFully(result);
+    }
+    finally {
+      in.close();
+    }
+    return result;
+  }
+
+  static long toDosTime(long time) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    int year = calendar.get(Calendar.YEAR);
+    if (year < 1980) {
+      // 1980-01-01 00:00, the earliest time a zip file can store
+      return (1 << 21) | (1 << 16);
+    }
+    return (long)(year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16 |
+           calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+  }
+
+  private static int getShort(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+  }
+
+  private static int getInt(byte[] bytes, int offset) {
+    return getShort(bytes, offset) | getShort(bytes, offset + 2) << 16;
+  }
+
+  private static long getUnsignedInt(byte[] bytes, int offset) {
+    return getInt(bytes, offset) & 0xFFFFFFFFL;
+  }
+
+  private static void putShort(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte)value;
+    bytes[offset + 1] = (byte)(value >> 8);
+  }
+
+  private static void putInt(byte[] bytes, int offset, long value) {
+    putShort(bytes, offset, (int)value);
+    putShort(bytes, offset + 2, (int)(value >> 16));
+  }
+
+  /**
+   * A central directory header, kept as raw bytes so the fields this class doesn't know about are copied as they are.
+   */
+  private static class CentralHeader {
+    private final byte[] myData;
+
+    private CentralHeader(@NotNull byte[] data) {
+      myData = data;
+    }
+
+    private int getFlags() {
+      return getShort(myData, 8);
+    }
+
+    private void setFlags(int flags) {
+      putShort(myData, 8, flags);
+    }
+
+    private void setMethod(int method) {
+      putShort(myData, 10, method);
+    }
+
+    private void setDosTime(long dosTime) {
+      putInt(myData, 12, dosTime);
+    }
+
+    private void setCrc(long crc) {
+      putInt(myData, 16, crc);
+    }
+
+    private long getCompressedSize() {
+      return getUnsignedInt(myData, 20);
+    }
+
+    private void setCompressedSize(long size) {
+      putInt(myData, 20, size);
+    }
+
+    private long getSize() {
+      return getUnsignedInt(myData, 24);
+    }
+
+    private void setSize(long size) {
+      putInt(myData, 24, size);
+    }
+
+    private long getLocalHeaderOffset() {
+      return getUnsignedInt(myData, 42);
+    }
+
+    private void setLocalHeaderOffset(long offset) throws ZipException {
+      if (offset >= 0xFFFFFFFFL) {
+        throw new ZipException("Jar file too large");
+      }
+      putInt(myData, 42, offset);
+    }
+
+    @NotNull
+    private byte[] getNameBytes() {
+      return Arrays.copyOfRange(myData, CENTRAL_HEADER_LENGTH, CENTRAL_HEADER_LENGTH + getShort(myData, 28));
+    }
+
+    @NotNull
+    private String getName() throws UnsupportedEncodingException {
+      return new String(getNameBytes(), "UTF-8");
+    }
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long myCount;
+
+    private CountingOutputStream(@NotNull OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      myCount++;
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      myCount += len;
+    }
+
+    private long getCount() {
+      return myCount;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package org.osmorc.make;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps fingerprints of the compiler output folders of the bundles in a project. The first request for a folder walks
+ * through it, afterwards the fingerprint is rolled forward with the file events the compiler causes when it writes or
+ * deletes classes. So checking whether a bundle is up to date doesn't need to look at all of its files on every make.
+ * <p/>
+ * Events the fingerprint cannot follow (moves, renames, copies) make it forget the folder, which is walked again the
+ * next time.
+ */
+public class ModuleOutputFingerprints {
+  // by the path of the output folder
+  private final Map<String, OutputFingerprint> myFingerprints = new HashMap<String, OutputFingerprint>();
+  // counts the file events, so a folder walked while files changed isn't remembered with an outdated fingerprint
+  private long myEventCount;
+
+  public static ModuleOutputFingerprints getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, ModuleOutputFingerprints.class);
+  }
+
+  public ModuleOutputFingerprints(@NotNull Project project) {
+    project.getMessageBus().connect(project).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter() {
+      @Override
+      public void after(@NotNull List<? extends VFileEvent> events) {
+        synchronized (myFingerprints) {
+          myEventCount++;
+          if (myFingerprints.isEmpty()) {
+            return;
+          }
+          for (VFileEvent event : events) {
+            fileChanged(event);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns the fingerprint of the files in the given folder and their time stamps. Must be called in a read action.
+   *
+   * @param outputDir the compiler output folder of a module
+   * @return the fingerprint, which is the same for the same files with the same time stamps.
+   */
+  public long getFingerprint(@NotNull VirtualFile outputDir) {
+    String root = outputDir.getPath();
+    long eventCount;
+    synchronized (myFingerprints) {
+      OutputFingerprint fingerprint = myFingerprints.get(root);
+      if (fingerprint != null) {
+        return fingerprint.getValue();
+      }
+      eventCount = myEventCount;
+    }
+
+    OutputFingerprint fingerprint = new OutputFingerprint();
+    register(outputDir, fingerprint);
+    synchronized (myFingerprints) {
+      if (eventCount == myEventCount) {
+        myFingerprints.put(root, fingerprint);
+      }
+    }
+    return fingerprint.getValue();
+  }
+
+  private void fileChanged(@NotNull VFileEvent event) {
+    String path = event.getPath();
+    for (Iterator<Map.Entry<String, OutputFingerprint>> iterator = myFingerprints.entrySet().iterator(); iterator.hasNext(); ) {
+      Map.Entry<String, OutputFingerprint> entry = iterator.next();
+      String root = entry.getKey();
+      if (!path.startsWith(root) || path.length() > root.length() && path.charAt(root.length()) != '/') {
+        // the root itself might have been moved or deleted
+        if (root.startsWith(path + "/") && !(event instanceof VFileContentChangeEvent)) {
+          iterator.remove();
+        }
+        continue;
+      }
+
+      OutputFingerprint fingerprint = entry.getValue();
+      VirtualFile file = event.getFile();
+      if (path.equals(root)) {
+        iterator.remove();
+      }
+      else if (event instanceof VFileContentChangeEvent && file != null) {
+        fingerprint.put(path, file.getTimeStamp());
+      }
+      else if (event instanceof VFileCreateEvent && file != null) {
+        register(file, fingerprint);
+      }
+      else if (event instanceof VFileDeleteEvent) {
+        fingerprint.remove(path);
+      }
+      else {
+        iterator.remove();
+      }
+    }
+  }
+
+  private static void register(@NotNull VirtualFile file, @NotNull OutputFingerprint fingerprint) {
+    if (file.isDirectory()) {
+      for (VirtualFile child : file.getChildren()) {
+        register(child, fingerprint);
+      }
+    }
+    else {
+      fingerprint.put(file.getPath(), file.getTimeStamp());
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package org.osmorc.make;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A fingerprint of a set of files and their time stamps. The fingerprint is the sum of the hashes of all files, so it doesn't
+ * depend on the order the files were added in and it can be rolled forward when a single file changes, without looking
+ * at all the other files again.
+ */
+class OutputFingerprint {
+  private final Map<String, Long> myTimestamps = new HashMap<String, Long>();
+  private long myValue;
+
+  /**
+   * Adds a file or updates its time stamp.
+   */
+  void put(@NotNull String path, long timestamp) {
+    Long previous = myTimestamps.put(path, timestamp);
+    if (previous != null) {
+      myValue -= hash(path, previous);
+    }
+    myValue += hash(path, timestamp);
+  }
+
+  /**
+   * Removes a file or all files in a folder.
+   */
+  void remove(@NotNull String path) {
+    Long previous = myTimestamps.remove(path);
+    if (previous != null) {
+      myValue -= hash(path, previous);
+      return;
+    }
+    String prefix = path + "/";
+    for (Iterator<Map.Entry<String, Long>> iterator = myTimestamps.entrySet().iterator(); iterator.hasNext(); ) {
+      Map.Entry<String, Long> entry = iterator.next();
+      if (entry.getKey().startsWith(prefix)) {
+        myValue -= hash(entry.getKey(), entry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+
+  boolean contains(@NotNull String path) {
+    return myTimestamps.containsKey(path);
+  }
+
+  long getValue() {
+    return myValue;
+  }
+
+  int size() {
+    return myTimestamps.size();
+  }
+
+  static long hash(@NotNull String path, long timestamp) {
+    long hash = 1125899906842597L;
+    for (int i = 0; i < path.length(); i++) {
+      hash = 31 * hash + path.charAt(i);
+    }
+    return mix(hash ^ mix(timestamp));
+  }
+
+  /**
+   * Spreads the bits of the given value, so similar paths and time stamps don't make similar hashes.
+   */
+  static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+}
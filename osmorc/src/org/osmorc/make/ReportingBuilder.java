@@ -53,10 +53,8 @@ class ReportingBuilder extends Builder {
   private String myMessagePrefix;
 
   public ReportingBuilder(CompileContext context, String sourceFileName, Module module) {
-    super();
-    myContext = context;
+    this(context, sourceFileName, "[" + module.getName() + "] ");
     OsmorcFacet facet = OsmorcFacet.getInstance(module);
-    mySourceFileName = sourceFileName;
     // link back to the original manifest if it's manually edited
     if (facet != null) {
       OsmorcFacetConfiguration configuration = facet.getConfiguration();
@@ -84,7 +82,20 @@ class ReportingBuilder extends Builder {
         }
       }
     }
-    myMessagePrefix = "[" + module.getName() + "] ";
+  }
+
+  /**
+   * Creates a builder which reports all messages with the given prefix, linking them to the given file.
+   */
+  ReportingBuilder(CompileContext context, String sourceFileName, String messagePrefix) {
+    super();
+    myContext = context;
+    mySourceFileName = sourceFileName;
+    myMessagePrefix = messagePrefix;
+  }
+
+  String getMessagePrefix() {
+    return myMessagePrefix;
   }
 
 
@@ -30,6 +30,7 @@ import org.osmorc.manifest.lang.psi.ManifestFile;
 import org.osmorc.valueobject.Version;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * Represents a manifest of a bundle.
@@ -79,6 +80,14 @@ public interface BundleManifest {
    */
   boolean exportsPackage(@NotNull String packageSpec);
 
+  /**
+   * Returns the names of all packages this bundle exports.
+   *
+   * @return the exported package names. If this bundle exports nothing, returns an empty set.
+   */
+  @NotNull
+  Set<String> getExportedPackageNames();
+
   /**
    * Returns a list of package specs that represent the imports of this bundle. Each package spec can be fed to {@link #exportsPackage(String)}
    * of another bundle, to find out if the other bundle exports a package according to the given spec.
@@ -129,6 +138,15 @@ public interface BundleManifest {
    */
   boolean isFragmentBundle();
 
+  /**
+   * Returns the Fragment-Host specification of this bundle. It can be fed to {@link #isRequiredBundle(String)} of another bundle
+   * to find out if the other bundle is the host of this fragment.
+   *
+   * @return the host specification or null if this bundle is no fragment or the header is invalid.
+   */
+  @Nullable
+  String getFragmentHost();
+
   /**
    * Checks, if this bundle would be a potential fragment host for the given fragment bundle.
    *
@@ -41,6 +41,7 @@ import org.jetbrains.annotations.Nullable;
 import org.osmorc.manifest.BundleManifest;
 import org.osmorc.manifest.ManifestHolder;
 import org.osmorc.manifest.ManifestHolderDisposedException;
+import org.osmorc.manifest.index.ManifestIndex;
 import org.osmorc.manifest.lang.psi.ManifestFile;
 
 import java.util.*;
@@ -117,7 +118,17 @@ public class LibraryManifestHolderImpl extends AbstractManifestHolderImpl {
    * @return the manifest holders
    */
   @NotNull
-  protected static synchronized Collection<ManifestHolder> createForLibrary(@NotNull Library library, @NotNull Project project) {
+  protected static Collection<ManifestHolder> createForLibrary(@NotNull Library library, @NotNull Project project) {
+    // manifests of OSGi bundles according to the index, null if the index is not available right now. This needs a read action,
+    // so it is done before taking the lock.
+    Set<VirtualFile> bundleManifests = ManifestIndex.getBundleManifestFiles(project);
+    return createForLibrary(library, project, bundleManifests);
+  }
+
+  @NotNull
+  private static synchronized Collection<ManifestHolder> createForLibrary(@NotNull Library library,
+                                                                         @NotNull Project project,
+                                                                         @Nullable Set<VirtualFile> bundleManifests) {
     cleanupHolderCache();
     List<ManifestHolder> result = new ArrayList<ManifestHolder>();
     if (isLibraryDisposed(library) || project.isDisposed()) {
@@ -141,7 +152,8 @@ public class LibraryManifestHolderImpl extends AbstractManifestHolderImpl {
 
       if (classDir != null) {
         final VirtualFile manifestFile = classDir.findFileByRelativePath("META-INF/MANIFEST.MF");
-        if (manifestFile != null) {
+        // a jar with a plain manifest is no bundle, so there is no need to keep (and later parse) its manifest
+        if (manifestFile != null && (bundleManifests == null || bundleManifests.contains(manifestFile))) {
           // potential bundle
           final LibraryManifestHolderImpl newHolder = new LibraryManifestHolderImpl(library, project, jarFileUrl);
 
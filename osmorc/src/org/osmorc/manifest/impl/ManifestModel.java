@@ -0,0 +1,328 @@
+package org.osmorc.manifest.impl;
+
+import org.apache.felix.framework.util.manifestparser.Capability;
+import org.apache.felix.framework.util.manifestparser.ManifestParser;
+import org.apache.felix.framework.util.manifestparser.R4Attribute;
+import org.apache.felix.framework.util.manifestparser.R4Directive;
+import org.apache.felix.moduleloader.ICapability;
+import org.apache.felix.moduleloader.IRequirement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osmorc.manifest.lang.psi.Clause;
+import org.osmorc.manifest.lang.psi.Directive;
+import org.osmorc.manifest.lang.psi.Header;
+import org.osmorc.manifest.lang.psi.ManifestFile;
+import org.osmorc.valueobject.Version;
+
+import java.util.*;
+
+import static org.osgi.framework.Constants.*;
+
+/**
+ * Immutable value model of a bundle manifest. It is parsed once from the PSI of a manifest file and is valid as long as the
+ * modification stamp of the file does not change.
+ */
+public final class ManifestModel {
+  private static final int MAX_CACHED_SPECS = 2048;
+
+  /**
+   * Parsed Import-Package and Require-Bundle specs. The same specs are asked for over and over again when dependencies are
+   * resolved, so they are kept across manifests. A null value means that the spec is unparseable.
+   */
+  private static final Map<String, IRequirement[]> ourImportSpecs = new SpecCache();
+  private static final Map<String, IRequirement[]> ourRequireBundleSpecs = new SpecCache();
+
+  private final long myModificationStamp;
+  @Nullable private final String myBundleSymbolicName;
+  @NotNull private final Version myBundleVersion;
+  @Nullable private final String myBundleActivator;
+  /**
+   * Package name to the capabilities exporting it, null if the Export-Package header is unparseable.
+   */
+  @Nullable private final Map<String, List<ICapability>> myExports;
+  @NotNull private final List<String> myImports;
+  @NotNull private final List<String> myRequiredBundles;
+  @NotNull private final List<String> myReExportedBundles;
+  @NotNull private final List<String> myBundleClassPathEntries;
+  private final boolean myFragmentBundle;
+  @Nullable private final String myFragmentHost;
+  @Nullable private final ICapability myModuleCapability;
+
+  ManifestModel(@NotNull ManifestFile manifestFile, long modificationStamp) {
+    myModificationStamp = modificationStamp;
+
+    Version version = (Version)getHeaderValue(manifestFile, BUNDLE_VERSION);
+    myBundleVersion = version != null ? version : new Version(0, 0, 0, null);
+    myBundleSymbolicName = (String)getHeaderValue(manifestFile, BUNDLE_SYMBOLICNAME);
+    myBundleActivator = (String)getHeaderValue(manifestFile, BUNDLE_ACTIVATOR);
+
+    myExports = parseExports(manifestFile.getHeaderByName(EXPORT_PACKAGE));
+    myImports = getClauseTexts(manifestFile.getHeaderByName(IMPORT_PACKAGE));
+    myBundleClassPathEntries = getClauseTexts(manifestFile.getHeaderByName(BUNDLE_CLASSPATH));
+
+    Header requireBundle = manifestFile.getHeaderByName(REQUIRE_BUNDLE);
+    myRequiredBundles = getClauseTexts(requireBundle);
+    List<String> reExportedBundles = new ArrayList<String>();
+    if (requireBundle != null) {
+      for (Clause clause : requireBundle.getClauses()) {
+        Directive visibilityDirective = clause.getDirectiveByName(VISIBILITY_DIRECTIVE);
+        if (visibilityDirective != null && VISIBILITY_REEXPORT.equals(visibilityDirective.getValue())) {
+          reExportedBundles.add(clause.getClauseText());
+        }
+      }
+    }
+    myReExportedBundles = Collections.unmodifiableList(reExportedBundles);
+
+    Header fragmentHost = manifestFile.getHeaderByName(FRAGMENT_HOST);
+    myFragmentBundle = fragmentHost != null;
+    Clause[] hostClauses = fragmentHost != null ? fragmentHost.getClauses() : null;
+    // a fragment should have exactly one host clause
+    myFragmentHost = hostClauses != null && hostClauses.length == 1 ? hostClauses[0].getClauseText() : null;
+
+    myModuleCapability = myBundleSymbolicName != null ? createModuleCapability(myBundleSymbolicName, myBundleVersion) : null;
+  }
+
+  long getModificationStamp() {
+    return myModificationStamp;
+  }
+
+  @Nullable
+  String getBundleSymbolicName() {
+    return myBundleSymbolicName;
+  }
+
+  @NotNull
+  Version getBundleVersion() {
+    return myBundleVersion;
+  }
+
+  @Nullable
+  String getBundleActivator() {
+    return myBundleActivator;
+  }
+
+  @NotNull
+  Set<String> getExportedPackageNames() {
+    return myExports != null ? Collections.unmodifiableSet(myExports.keySet()) : Collections.<String>emptySet();
+  }
+
+  @NotNull
+  List<String> getImports() {
+    return myImports;
+  }
+
+  @NotNull
+  List<String> getRequiredBundles() {
+    return myRequiredBundles;
+  }
+
+  @NotNull
+  List<String> getReExportedBundles() {
+    return myReExportedBundles;
+  }
+
+  @NotNull
+  List<String> getBundleClassPathEntries() {
+    return myBundleClassPathEntries;
+  }
+
+  boolean isFragmentBundle() {
+    return myFragmentBundle;
+  }
+
+  @Nullable
+  String getFragmentHost() {
+    return myFragmentHost;
+  }
+
+  boolean exportsPackage(@NotNull String packageSpec) {
+    if (myExports == null) {
+      return false;
+    }
+
+    // only capabilities of the packages named in the spec can satisfy it
+    List<ICapability> capabilities = null;
+    for (String packageName : getClauseNames(packageSpec)) {
+      List<ICapability> packageCapabilities = myExports.get(packageName);
+      if (packageCapabilities == null) {
+        return false;
+      }
+      if (capabilities == null) {
+        capabilities = packageCapabilities;
+      }
+      else {
+        capabilities = new ArrayList<ICapability>(capabilities);
+        capabilities.addAll(packageCapabilities);
+      }
+    }
+    if (capabilities == null) {
+      return false;
+    }
+
+    IRequirement[] requirements = parseSpec(ourImportSpecs, packageSpec, false);
+    if (requirements == null) {
+      // unparseable header
+      return false;
+    }
+
+    for (IRequirement requirement : requirements) {
+      boolean satisfied = false;
+      for (ICapability capability : capabilities) {
+        if (requirement.isSatisfied(capability)) {
+          satisfied = true;
+          break;
+        }
+      }
+      if (!satisfied) {
+        // at least one requirement is not satisfied by any of the capabilities in this bundle
+        return false;
+      }
+    }
+
+    // all requiremets are satisfied
+    return true;
+  }
+
+  boolean isRequiredBundle(@NotNull String bundleSpec) {
+    if (myModuleCapability == null) {
+      return false;
+    }
+    IRequirement[] requirements = parseSpec(ourRequireBundleSpecs, bundleSpec, true);
+    if (requirements == null) {
+      // invalid require spec
+      return false;
+    }
+    for (IRequirement requirement : requirements) {
+      if (!requirement.isSatisfied(myModuleCapability)) {
+        return false;
+      }
+    }
+    // all requirements are satisfied
+    return true;
+  }
+
+  /**
+   * Returns the names at the start of a header clause, e.g. the packages of an Export-Package clause like
+   * <code>org.foo;org.bar;version=1.0.0</code>. Names are followed by attributes and directives, which are not returned.
+   *
+   * @param clauseText the clause text
+   * @return the names, in the order they appear in the clause.
+   */
+  @NotNull
+  public static List<String> getClauseNames(@NotNull String clauseText) {
+    List<String> result = new ArrayList<String>(1);
+    for (String part : clauseText.split(";")) {
+      if (part.indexOf('=') >= 0) {
+        break;
+      }
+      part = part.trim();
+      if (part.length() > 0) {
+        result.add(part);
+      }
+    }
+    return result;
+  }
+
+  @Nullable
+  private static Map<String, List<ICapability>> parseExports(@Nullable Header header) {
+    if (header == null) {
+      return Collections.emptyMap();
+    }
+
+    Map<String, List<ICapability>> result = new HashMap<String, List<ICapability>>();
+    for (Clause clause : header.getClauses()) {
+      String clauseText = clause.getClauseText();
+      ICapability[] capabilities;
+      try {
+        capabilities = ManifestParser.parseExportHeader(clauseText);
+      }
+      catch (Exception e) {
+        // unparseable header
+        return null;
+      }
+      // the parser returns one capability per package name of the clause. Should that ever not be the case, every package of the
+      // clause gets all capabilities, which is still correct as requirements check the package name themselves.
+      List<String> packageNames = getClauseNames(clauseText);
+      boolean onePerPackage = capabilities.length == packageNames.size();
+      for (int i = 0; i < packageNames.size(); i++) {
+        String packageName = packageNames.get(i);
+        List<ICapability> packageCapabilities = result.get(packageName);
+        if (packageCapabilities == null) {
+          packageCapabilities = new ArrayList<ICapability>(1);
+          result.put(packageName, packageCapabilities);
+        }
+        if (onePerPackage) {
+          packageCapabilities.add(capabilities[i]);
+        }
+        else {
+          packageCapabilities.addAll(Arrays.asList(capabilities));
+        }
+      }
+    }
+    return result;
+  }
+
+  @Nullable
+  private static IRequirement[] parseSpec(@NotNull Map<String, IRequirement[]> cache, @NotNull String spec, boolean requireBundle) {
+    synchronized (cache) {
+      if (cache.containsKey(spec)) {
+        return cache.get(spec);
+      }
+    }
+
+    IRequirement[] requirements;
+    try {
+      requirements = requireBundle ? ManifestParser.parseRequireBundleHeader(spec) : ManifestParser.parseImportHeader(spec);
+    }
+    catch (Exception e) {
+      requirements = null;
+    }
+
+    synchronized (cache) {
+      cache.put(spec, requirements);
+    }
+    return requirements;
+  }
+
+  @NotNull
+  private static ICapability createModuleCapability(@NotNull String symbolicName, @NotNull Version version) {
+    return new Capability(ICapability.MODULE_NAMESPACE, new R4Directive[]{new R4Directive(BUNDLE_SYMBOLICNAME, symbolicName)},
+                          new R4Attribute[]{new R4Attribute(BUNDLE_SYMBOLICNAME_ATTRIBUTE, symbolicName, false), new R4Attribute(
+                            BUNDLE_VERSION_ATTRIBUTE,
+                            new org.osgi.framework.Version(version.getMajor(), version.getMinor(), version.getMicro(),
+                                                           version.getQualifier()), false)});
+  }
+
+  @NotNull
+  private static List<String> getClauseTexts(@Nullable Header header) {
+    if (header == null) {
+      return Collections.emptyList();
+    }
+    Clause[] clauses = header.getClauses();
+    List<String> result = new ArrayList<String>(clauses.length);
+    for (Clause clause : clauses) {
+      result.add(clause.getClauseText());
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  @Nullable
+  private static Object getHeaderValue(@NotNull ManifestFile manifestFile, @NotNull String headerName) {
+    Header header = manifestFile.getHeaderByName(headerName);
+    if (header != null) {
+      return header.getSimpleConvertedValue();
+    }
+    return null;
+  }
+
+  private static class SpecCache extends LinkedHashMap<String, IRequirement[]> {
+    private SpecCache() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, IRequirement[]> eldest) {
+      return size() > MAX_CACHED_SPECS;
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package org.osmorc.manifest.index;
+
+import com.intellij.psi.stubs.StubIndexKey;
+import org.jetbrains.annotations.NotNull;
+import org.osmorc.manifest.lang.psi.HeaderValuePart;
+
+/**
+ * Index of bundle symbolic names, as given in the Bundle-SymbolicName header.
+ */
+public class BundleSymbolicNameIndex extends ManifestHeaderIndex {
+  public static final StubIndexKey<String, HeaderValuePart> KEY = StubIndexKey.createIndexKey("osmorc.manifest.bundleSymbolicName");
+
+  @NotNull
+  @Override
+  public StubIndexKey<String, HeaderValuePart> getKey() {
+    return KEY;
+  }
+}
@@ -0,0 +1,18 @@
+package org.osmorc.manifest.index;
+
+import com.intellij.psi.stubs.StubIndexKey;
+import org.jetbrains.annotations.NotNull;
+import org.osmorc.manifest.lang.psi.HeaderValuePart;
+
+/**
+ * Index of exported package names, as given in the Export-Package header.
+ */
+public class ExportedPackageIndex extends ManifestHeaderIndex {
+  public static final StubIndexKey<String, HeaderValuePart> KEY = StubIndexKey.createIndexKey("osmorc.manifest.exportedPackage");
+
+  @NotNull
+  @Override
+  public StubIndexKey<String, HeaderValuePart> getKey() {
+    return KEY;
+  }
+}
@@ -0,0 +1,18 @@
+package org.osmorc.manifest.index;
+
+import com.intellij.psi.stubs.StubIndexKey;
+import org.jetbrains.annotations.NotNull;
+import org.osmorc.manifest.lang.psi.HeaderValuePart;
+
+/**
+ * Index of the symbolic names of fragment hosts, as given in the Fragment-Host header.
+ */
+public class FragmentHostIndex extends ManifestHeaderIndex {
+  public static final StubIndexKey<String, HeaderValuePart> KEY = StubIndexKey.createIndexKey("osmorc.manifest.fragmentHost");
+
+  @NotNull
+  @Override
+  public StubIndexKey<String, HeaderValuePart> getKey() {
+    return KEY;
+  }
+}
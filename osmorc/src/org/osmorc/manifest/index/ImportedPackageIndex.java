@@ -0,0 +1,18 @@
+package org.osmorc.manifest.index;
+
+import com.intellij.psi.stubs.StubIndexKey;
+import org.jetbrains.annotations.NotNull;
+import org.osmorc.manifest.lang.psi.HeaderValuePart;
+
+/**
+ * Index of imported package names, as given in the Import-Package header.
+ */
+public class ImportedPackageIndex extends ManifestHeaderIndex {
+  public static final StubIndexKey<String, HeaderValuePart> KEY = StubIndexKey.createIndexKey("osmorc.manifest.importedPackage");
+
+  @NotNull
+  @Override
+  public StubIndexKey<String, HeaderValuePart> getKey() {
+    return KEY;
+  }
+}
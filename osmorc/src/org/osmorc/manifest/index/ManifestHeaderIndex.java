@@ -0,0 +1,11 @@
+package org.osmorc.manifest.index;
+
+import com.intellij.psi.stubs.StringStubIndexExtension;
+import org.osmorc.manifest.lang.psi.HeaderValuePart;
+
+/**
+ * Base class of the stub indexes over manifest headers. Each index maps the values of the clauses of one header (e.g. the
+ * package names of Export-Package) to the header value parts containing them. Queries go through {@link ManifestIndex}.
+ */
+public abstract class ManifestHeaderIndex extends StringStubIndexExtension<HeaderValuePart> {
+}
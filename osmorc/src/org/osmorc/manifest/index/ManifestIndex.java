@@ -0,0 +1,211 @@
+package org.osmorc.manifest.index;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StubIndex;
+import com.intellij.psi.stubs.StubIndexKey;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osmorc.manifest.lang.psi.HeaderValuePart;
+import org.osmorc.manifest.lang.psi.ManifestFile;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.osgi.framework.Constants.*;
+
+/**
+ * Queries on the manifest header indexes. The indexes are persistent, so these queries don't need to open any manifest
+ * file. All queries need to be run in a read action and are not available while the project is being indexed.
+ */
+public class ManifestIndex {
+  private static final Key<CachedValue<Set<VirtualFile>>> BUNDLE_MANIFESTS_KEY = Key.create("Osmorc.BundleManifestFiles");
+  private static final Key<ManifestModificationTracker> MODIFICATION_TRACKER_KEY = Key.create("Osmorc.ManifestModificationTracker");
+
+  private ManifestIndex() {
+  }
+
+  /**
+   * Returns the key of the index for values of the given header.
+   *
+   * @param headerName the name of the header
+   * @return the index key or null if the header is not indexed.
+   */
+  @Nullable
+  public static StubIndexKey<String, HeaderValuePart> getIndexKey(@NotNull String headerName) {
+    if (EXPORT_PACKAGE.equals(headerName)) {
+      return ExportedPackageIndex.KEY;
+    }
+    if (IMPORT_PACKAGE.equals(headerName)) {
+      return ImportedPackageIndex.KEY;
+    }
+    if (BUNDLE_SYMBOLICNAME.equals(headerName)) {
+      return BundleSymbolicNameIndex.KEY;
+    }
+    if (REQUIRE_BUNDLE.equals(headerName)) {
+      return RequiredBundleIndex.KEY;
+    }
+    if (FRAGMENT_HOST.equals(headerName)) {
+      return FragmentHostIndex.KEY;
+    }
+    return null;
+  }
+
+  /**
+   * @return true if the indexes can be queried right now.
+   */
+  public static boolean isAvailable(@NotNull Project project) {
+    return !DumbService.isDumb(project);
+  }
+
+  @NotNull
+  public static Collection<ManifestFile> getManifestsBySymbolicName(@NotNull String bundleSymbolicName,
+                                                                    @NotNull Project project,
+                                                                    @NotNull GlobalSearchScope scope) {
+    return getManifests(BundleSymbolicNameIndex.KEY, bundleSymbolicName, project, scope);
+  }
+
+  /**
+   * Returns the files of all manifests in the project and its libraries which have the given value in the header of the given
+   * index. Only the stubs of the manifests are loaded, the manifests are not parsed.
+   *
+   * @param key     the key of the index, e.g. {@link ExportedPackageIndex#KEY}
+   * @param value   the value, e.g. a package name
+   * @param project the project
+   * @return the manifest files or null if the index is not available right now.
+   */
+  @Nullable
+  public static Set<VirtualFile> getManifestFiles(@NotNull final StubIndexKey<String, HeaderValuePart> key,
+                                                  @NotNull final String value,
+                                                  @NotNull final Project project) {
+    if (!isAvailable(project)) {
+      return null;
+    }
+    return ApplicationManager.getApplication().runReadAction(new Computable<Set<VirtualFile>>() {
+      public Set<VirtualFile> compute() {
+        if (project.isDisposed()) {
+          return null;
+        }
+        try {
+          Set<VirtualFile> result = new HashSet<VirtualFile>();
+          for (ManifestFile manifestFile : getManifests(key, value, project, GlobalSearchScope.allScope(project))) {
+            VirtualFile file = manifestFile.getVirtualFile();
+            if (file != null) {
+              result.add(file);
+            }
+          }
+          return result;
+        }
+        catch (IndexNotReadyException e) {
+          // dumb mode has started meanwhile
+          return null;
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns a tracker which changes whenever a manifest file changes, see {@link #manifestsChanged(Project)}.
+   */
+  @NotNull
+  public static ModificationTracker getModificationTracker(@NotNull Project project) {
+    return getTracker(project);
+  }
+
+  /**
+   * Tells the index that a manifest file of the project or of a library has been edited, created or deleted.
+   */
+  public static void manifestsChanged(@NotNull Project project) {
+    getTracker(project).myModificationCount.incrementAndGet();
+  }
+
+  @NotNull
+  private static ManifestModificationTracker getTracker(@NotNull Project project) {
+    synchronized (MODIFICATION_TRACKER_KEY) {
+      ManifestModificationTracker tracker = project.getUserData(MODIFICATION_TRACKER_KEY);
+      if (tracker == null) {
+        tracker = new ManifestModificationTracker();
+        project.putUserData(MODIFICATION_TRACKER_KEY, tracker);
+      }
+      return tracker;
+    }
+  }
+
+  /**
+   * Returns all manifest files in the project and its libraries which have a Bundle-SymbolicName header, i.e. which belong
+   * to OSGi bundles. The result is cached until a manifest or the project roots change.
+   *
+   * @param project the project
+   * @return the manifest files or null if the index is not available right now.
+   */
+  @Nullable
+  public static Set<VirtualFile> getBundleManifestFiles(@NotNull final Project project) {
+    if (!isAvailable(project)) {
+      return null;
+    }
+    return ApplicationManager.getApplication().runReadAction(new Computable<Set<VirtualFile>>() {
+      public Set<VirtualFile> compute() {
+        CachedValue<Set<VirtualFile>> cachedValue = project.getUserData(BUNDLE_MANIFESTS_KEY);
+        if (cachedValue == null) {
+          cachedValue = CachedValuesManager.getManager(project).createCachedValue(new CachedValueProvider<Set<VirtualFile>>() {
+            public Result<Set<VirtualFile>> compute() {
+              GlobalSearchScope scope = GlobalSearchScope.allScope(project);
+              Set<VirtualFile> result = new HashSet<VirtualFile>();
+              for (String bundleSymbolicName : StubIndex.getInstance().getAllKeys(BundleSymbolicNameIndex.KEY, project)) {
+                for (ManifestFile manifestFile : getManifestsBySymbolicName(bundleSymbolicName, project, scope)) {
+                  VirtualFile file = manifestFile.getVirtualFile();
+                  if (file != null) {
+                    result.add(file);
+                  }
+                }
+              }
+              return Result.create(Collections.unmodifiableSet(result), getModificationTracker(project),
+                                   ProjectRootManager.getInstance(project));
+            }
+          }, false);
+          project.putUserData(BUNDLE_MANIFESTS_KEY, cachedValue);
+        }
+        return cachedValue.getValue();
+      }
+    });
+  }
+
+  @NotNull
+  private static Collection<ManifestFile> getManifests(@NotNull StubIndexKey<String, HeaderValuePart> key,
+                                                       @NotNull String value,
+                                                       @NotNull Project project,
+                                                       @NotNull GlobalSearchScope scope) {
+    Collection<HeaderValuePart> valueParts = StubIndex.getInstance().get(key, value, project, scope);
+    if (valueParts.isEmpty()) {
+      return Collections.emptyList();
+    }
+    Set<ManifestFile> result = new LinkedHashSet<ManifestFile>();
+    for (HeaderValuePart valuePart : valueParts) {
+      PsiFile file = valuePart.getContainingFile();
+      if (file instanceof ManifestFile) {
+        result.add((ManifestFile)file);
+      }
+    }
+    return result;
+  }
+
+  private static class ManifestModificationTracker implements ModificationTracker {
+    private final AtomicLong myModificationCount = new AtomicLong();
+
+    public long getModificationCount() {
+      return myModificationCount.get();
+    }
+  }
+}
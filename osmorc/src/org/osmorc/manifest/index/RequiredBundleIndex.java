@@ -0,0 +1,18 @@
+package org.osmorc.manifest.index;
+
+import com.intellij.psi.stubs.StubIndexKey;
+import org.jetbrains.annotations.NotNull;
+import org.osmorc.manifest.lang.psi.HeaderValuePart;
+
+/**
+ * Index of the symbolic names of required bundles, as given in the Require-Bundle header.
+ */
+public class RequiredBundleIndex extends ManifestHeaderIndex {
+  public static final StubIndexKey<String, HeaderValuePart> KEY = StubIndexKey.createIndexKey("osmorc.manifest.requiredBundle");
+
+  @NotNull
+  @Override
+  public StubIndexKey<String, HeaderValuePart> getKey() {
+    return KEY;
+  }
+}
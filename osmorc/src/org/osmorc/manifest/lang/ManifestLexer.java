@@ -27,21 +27,29 @@ package org.osmorc.manifest.lang;
 import com.intellij.lexer.LexerBase;
 import com.intellij.psi.TokenType;
 import com.intellij.psi.tree.IElementType;
+import com.intellij.util.text.CharArrayUtil;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
+ * The lexer of manifest files.
+ * <p/>
+ * {@link #getState()} is the state the current token was lexed in. A token lexed in the initial state only depends on the
+ * characters from its start and the character before, so the lexer can be restarted there. This is the case for every
+ * header name and for nearly all tokens of a header value, so the editor only relexes the header being edited, no matter
+ * how large the manifest is.
+ *
  * @author Robert F. Beeger (robert@beeger.net)
  */
 public class ManifestLexer extends LexerBase {
 
   private CharSequence myBuffer;
+  // the buffer's characters, if it has an array which can be used without copying it
+  private char[] myBufferArray;
   private int myEndOffset;
   private int myTokenStart;
   private int myTokenEnd;
   private int myCurrentState;
+  private int myTokenState;
   private IElementType myTokenType;
 
   private static final int INITIAL_STATE = 0;
@@ -49,19 +57,19 @@ public class ManifestLexer extends LexerBase {
   private static final int WAITING_FOR_HEADER_ASSIGNMENT_AFTER_BAD_CHARACTER_STATE = 2;
   private static final int WAITING_FOR_SPACE_AFTER_HEADER_NAME_STATE = 3;
 
-  private static final Map<Character, IElementType> SPECIAL_CHARACTERS_TOKEN_MAPPING;
+  // the token types of the special characters, indexed by the character
+  private static final IElementType[] SPECIAL_CHARACTERS_TOKEN_MAPPING = new IElementType[128];
 
   static {
-    SPECIAL_CHARACTERS_TOKEN_MAPPING = new HashMap<Character, IElementType>();
-    SPECIAL_CHARACTERS_TOKEN_MAPPING.put(':', ManifestTokenType.COLON);
-    SPECIAL_CHARACTERS_TOKEN_MAPPING.put(';', ManifestTokenType.SEMICOLON);
-    SPECIAL_CHARACTERS_TOKEN_MAPPING.put(',', ManifestTokenType.COMMA);
-    SPECIAL_CHARACTERS_TOKEN_MAPPING.put('=', ManifestTokenType.EQUALS);
-    SPECIAL_CHARACTERS_TOKEN_MAPPING.put('(', ManifestTokenType.OPENING_PARENTHESIS_TOKEN);
-    SPECIAL_CHARACTERS_TOKEN_MAPPING.put(')', ManifestTokenType.CLOSING_PARENTHESIS_TOKEN);
-    SPECIAL_CHARACTERS_TOKEN_MAPPING.put('[', ManifestTokenType.OPENING_BRACKET_TOKEN);
-    SPECIAL_CHARACTERS_TOKEN_MAPPING.put(']', ManifestTokenType.CLOSING_BRACKET_TOKEN);
-    SPECIAL_CHARACTERS_TOKEN_MAPPING.put('\"', ManifestTokenType.QUOTE);
+    SPECIAL_CHARACTERS_TOKEN_MAPPING[':'] = ManifestTokenType.COLON;
+    SPECIAL_CHARACTERS_TOKEN_MAPPING[';'] = ManifestTokenType.SEMICOLON;
+    SPECIAL_CHARACTERS_TOKEN_MAPPING[','] = ManifestTokenType.COMMA;
+    SPECIAL_CHARACTERS_TOKEN_MAPPING['='] = ManifestTokenType.EQUALS;
+    SPECIAL_CHARACTERS_TOKEN_MAPPING['('] = ManifestTokenType.OPENING_PARENTHESIS_TOKEN;
+    SPECIAL_CHARACTERS_TOKEN_MAPPING[')'] = ManifestTokenType.CLOSING_PARENTHESIS_TOKEN;
+    SPECIAL_CHARACTERS_TOKEN_MAPPING['['] = ManifestTokenType.OPENING_BRACKET_TOKEN;
+    SPECIAL_CHARACTERS_TOKEN_MAPPING[']'] = ManifestTokenType.CLOSING_BRACKET_TOKEN;
+    SPECIAL_CHARACTERS_TOKEN_MAPPING['\"'] = ManifestTokenType.QUOTE;
   }
 
   public ManifestLexer() {
@@ -69,6 +77,7 @@ public class ManifestLexer extends LexerBase {
 
   public void start(CharSequence buffer, int startOffset, int endOffset, int initialState) {
     this.myBuffer = buffer;
+    this.myBufferArray = CharArrayUtil.fromSequenceWithoutCopying(buffer);
     this.myEndOffset = endOffset;
     myCurrentState = initialState;
 
@@ -82,7 +91,7 @@ public class ManifestLexer extends LexerBase {
   }
 
   public int getState() {
-    return myCurrentState;
+    return myTokenState;
   }
 
   @Nullable
@@ -107,15 +116,17 @@ public class ManifestLexer extends LexerBase {
   }
 
   private void parseNextToken() {
+    myTokenState = myCurrentState;
     if (myTokenStart < myEndOffset) {
-      if (isNewline(myTokenStart)) {
+      char c = charAt(myTokenStart);
+      if (c == '\n') {
         myTokenType = isLineStart(myTokenStart) ? ManifestTokenType.SECTION_END : ManifestTokenType.NEWLINE;
         myTokenEnd = myTokenStart + 1;
         myCurrentState = INITIAL_STATE;
       }
       else if (myCurrentState == WAITING_FOR_HEADER_ASSIGNMENT_STATE ||
                myCurrentState == WAITING_FOR_HEADER_ASSIGNMENT_AFTER_BAD_CHARACTER_STATE) {
-        if (isColon(myTokenStart)) {
+        if (c == ':') {
           myTokenType = ManifestTokenType.COLON;
           myCurrentState = WAITING_FOR_SPACE_AFTER_HEADER_NAME_STATE;
         }
@@ -126,7 +137,7 @@ public class ManifestLexer extends LexerBase {
         myTokenEnd = myTokenStart + 1;
       }
       else if (myCurrentState == WAITING_FOR_SPACE_AFTER_HEADER_NAME_STATE) {
-        if (isSpace(myTokenStart)) {
+        if (c == ' ') {
           myTokenType = ManifestTokenType.SIGNIFICANT_SPACE;
         }
         else {
@@ -135,31 +146,32 @@ public class ManifestLexer extends LexerBase {
         myCurrentState = INITIAL_STATE;
         myTokenEnd = myTokenStart + 1;
       }
-      else if (isHeaderStart(myTokenStart)) {
-        if (isAlphaNum(myTokenStart)) {
+      else if (isLineStart(myTokenStart)) {
+        if (Character.isWhitespace(c)) {
+          // a continuation line
+          myTokenType = ManifestTokenType.SIGNIFICANT_SPACE;
           myTokenEnd = myTokenStart + 1;
-          while (myTokenEnd < myEndOffset && isHeaderChar(myTokenEnd)) {
+          myCurrentState = INITIAL_STATE;
+        }
+        else {
+          myTokenEnd = myTokenStart;
+          if (Character.isLetterOrDigit(c)) {
             myTokenEnd++;
+            while (myTokenEnd < myEndOffset && isHeaderChar(charAt(myTokenEnd))) {
+              myTokenEnd++;
+            }
           }
+          myTokenType = ManifestTokenType.HEADER_NAME;
+          myCurrentState = WAITING_FOR_HEADER_ASSIGNMENT_STATE;
         }
-        myTokenType = ManifestTokenType.HEADER_NAME;
-        myCurrentState = WAITING_FOR_HEADER_ASSIGNMENT_STATE;
-      }
-      else if (isContinuationStart(myTokenStart)) {
-        myTokenType = ManifestTokenType.SIGNIFICANT_SPACE;
-        myTokenEnd = myTokenStart + 1;
-        myCurrentState = INITIAL_STATE;
       }
-      else if (isSpecialCharacter(myTokenStart)) {
-        myTokenType = getTokenTypeForSpecialCharacter(myTokenStart);
+      else if (getSpecialCharacterTokenType(c) != null) {
+        myTokenType = getSpecialCharacterTokenType(c);
         myTokenEnd = myTokenStart + 1;
         myCurrentState = INITIAL_STATE;
       }
       else {
-        myTokenEnd = myTokenStart;
-        while (myTokenEnd < myEndOffset && !isSpecialCharacter(myTokenEnd) && !isNewline(myTokenEnd)) {
-          myTokenEnd++;
-        }
+        myTokenEnd = findValuePartEnd(myTokenStart + 1);
         myTokenType = ManifestTokenType.HEADER_VALUE_PART;
       }
     }
@@ -169,43 +181,47 @@ public class ManifestLexer extends LexerBase {
     }
   }
 
-  private boolean isNewline(int position) {
-    return '\n' == myBuffer.charAt(position);
-  }
-
-  private boolean isHeaderStart(int position) {
-    return isLineStart(position) && !Character.isWhitespace(myBuffer.charAt(position));
-  }
-
-  private boolean isAlphaNum(int position) {
-    return Character.isLetterOrDigit(myBuffer.charAt(position));
-  }
-
-  private boolean isHeaderChar(int position) {
-    return isAlphaNum(position) || myBuffer.charAt(position) == '-' || myBuffer.charAt(position) == '_';
+  /**
+   * Finds the end of a header value part, which is the next special character or line end. Value parts make up most of a
+   * manifest, so the characters are taken directly from the buffer's array if there is one.
+   */
+  private int findValuePartEnd(int offset) {
+    char[] array = myBufferArray;
+    if (array != null) {
+      while (offset < myEndOffset) {
+        char c = array[offset];
+        if (c == '\n' || c < SPECIAL_CHARACTERS_TOKEN_MAPPING.length && SPECIAL_CHARACTERS_TOKEN_MAPPING[c] != null) {
+          break;
+        }
+        offset++;
+      }
+    }
+    else {
+      while (offset < myEndOffset) {
+        char c = myBuffer.charAt(offset);
+        if (c == '\n' || getSpecialCharacterTokenType(c) != null) {
+          break;
+        }
+        offset++;
+      }
+    }
+    return offset;
   }
 
-  private boolean isContinuationStart(int position) {
-    return isLineStart(position) && !isHeaderStart(position);
+  private char charAt(int position) {
+    return myBufferArray != null ? myBufferArray[position] : myBuffer.charAt(position);
   }
 
   private boolean isLineStart(int position) {
-    return (position == 0 || isNewline(position - 1));
-  }
-
-  private boolean isSpace(int position) {
-    return myBuffer.charAt(position) == ' ';
+    return position == 0 || charAt(position - 1) == '\n';
   }
 
-  private boolean isColon(int position) {
-    return myBuffer.charAt(position) == ':';
+  private static boolean isHeaderChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '-' || c == '_';
   }
 
-  private boolean isSpecialCharacter(int position) {
-    return SPECIAL_CHARACTERS_TOKEN_MAPPING.get(myBuffer.charAt(position)) != null;
-  }
-
-  private IElementType getTokenTypeForSpecialCharacter(int position) {
-    return SPECIAL_CHARACTERS_TOKEN_MAPPING.get(myBuffer.charAt(position));
+  @Nullable
+  private static IElementType getSpecialCharacterTokenType(char c) {
+    return c < SPECIAL_CHARACTERS_TOKEN_MAPPING.length ? SPECIAL_CHARACTERS_TOKEN_MAPPING[c] : null;
   }
 }
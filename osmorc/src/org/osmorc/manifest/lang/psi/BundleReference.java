@@ -26,13 +26,19 @@ package org.osmorc.manifest.lang.psi;
 
 import com.intellij.codeInsight.daemon.EmptyResolveMessageProvider;
 import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiReferenceBase;
+import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.util.ArrayUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.osmorc.BundleManager;
 import org.osmorc.manifest.BundleManifest;
+import org.osmorc.manifest.index.ManifestIndex;
+
+import java.util.Collection;
+import java.util.Collections;
 
 /**
  * @author Robert F. Beeger (robert@beeger.net)
@@ -45,8 +51,27 @@ public class BundleReference extends PsiReferenceBase<HeaderValuePart> implement
 
   @Nullable
   public PsiElement resolve() {
-    BundleManifest bundleManifest = _bundleManager.getManifestBySymbolicName(unwrap(getCanonicalText()));
-    return bundleManifest != null ? bundleManifest.getManifestFile() : null;
+    String bundleSymbolicName = unwrap(getCanonicalText());
+    if (bundleSymbolicName == null) {
+      return null;
+    }
+
+    // answer from the index if possible, so the bundle manager doesn't need to know the bundle yet
+    Project project = getElement().getProject();
+    Collection<ManifestFile> manifestFiles = ManifestIndex.isAvailable(project)
+                                             ? ManifestIndex.getManifestsBySymbolicName(bundleSymbolicName, project,
+                                                                                        GlobalSearchScope.allScope(project))
+                                             : Collections.<ManifestFile>emptyList();
+    if (manifestFiles.size() == 1) {
+      return manifestFiles.iterator().next();
+    }
+
+    // several versions of the bundle (prefer the one the bundle manager would pick) or a manifest which is not indexed
+    BundleManifest bundleManifest = _bundleManager.getManifestBySymbolicName(bundleSymbolicName);
+    if (bundleManifest != null) {
+      return bundleManifest.getManifestFile();
+    }
+    return manifestFiles.isEmpty() ? null : manifestFiles.iterator().next();
   }
 
   private String unwrap(String text) {
@@ -44,7 +44,7 @@ public class ManifestStubElementTypes {
   public static final IFileElementType FILE = new IStubFileElementType("ManifestFile", ManifestLanguage.INSTANCE) {
     @Override
     public int getStubVersion() {
-      return 1;
+      return 3;
     }
   };
 
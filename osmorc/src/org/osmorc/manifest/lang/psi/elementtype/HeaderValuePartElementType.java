@@ -28,11 +28,15 @@ package org.osmorc.manifest.lang.psi.elementtype;
 import com.intellij.lang.ASTNode;
 import com.intellij.psi.stubs.IndexSink;
 import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubIndexKey;
 import com.intellij.psi.stubs.StubInputStream;
 import com.intellij.psi.stubs.StubOutputStream;
 import org.jetbrains.annotations.NotNull;
+import org.osmorc.manifest.index.ManifestIndex;
 import org.osmorc.manifest.lang.psi.HeaderValuePart;
 import org.osmorc.manifest.lang.psi.impl.HeaderValuePartImpl;
+import org.osmorc.manifest.lang.psi.stub.ClauseStub;
+import org.osmorc.manifest.lang.psi.stub.HeaderStub;
 import org.osmorc.manifest.lang.psi.stub.HeaderValuePartStub;
 import org.osmorc.manifest.lang.psi.stub.impl.HeaderValuePartStubImpl;
 
@@ -71,5 +75,22 @@ public class HeaderValuePartElementType extends AbstractManifestStubElementType<
   }
 
   public void indexStub(@NotNull HeaderValuePartStub stub, @NotNull IndexSink sink) {
+    // only values of clauses are indexed, not the values of attributes and directives
+    StubElement clauseStub = stub.getParentStub();
+    if (!(clauseStub instanceof ClauseStub)) {
+      return;
+    }
+    StubElement headerStub = clauseStub.getParentStub();
+    if (!(headerStub instanceof HeaderStub)) {
+      return;
+    }
+    String headerName = ((HeaderStub)headerStub).getName();
+    StubIndexKey<String, HeaderValuePart> key = headerName != null ? ManifestIndex.getIndexKey(headerName) : null;
+    if (key != null) {
+      String value = stub.getUnwrappedText().trim();
+      if (value.length() > 0) {
+        sink.occurrence(key, value);
+      }
+    }
   }
 }
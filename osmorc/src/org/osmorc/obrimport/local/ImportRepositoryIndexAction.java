@@ -0,0 +1,54 @@
+package org.osmorc.obrimport.local;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.osmorc.settings.ApplicationSettings;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adds an OBR repository descriptor or a local Maven repository to the {@link RepositoryIndex} and refreshes the index.
+ */
+public class ImportRepositoryIndexAction extends AnAction implements DumbAware {
+  @Override
+  public void actionPerformed(AnActionEvent e) {
+    Project project = PlatformDataKeys.PROJECT.getData(e.getDataContext());
+    String location = Messages.showInputDialog(project,
+                                               "Path or URL of an OBR repository descriptor (repository.xml) or path of a local Maven repository:",
+                                               "Import Repository Index", Messages.getQuestionIcon());
+    if (StringUtil.isEmptyOrSpaces(location)) {
+      return;
+    }
+    location = location.trim();
+    if (location.indexOf("://") < 0 && !new File(location).exists()) {
+      Messages.showErrorDialog(project, "There is no file or folder " + location + ".", "Import Repository Index");
+      return;
+    }
+
+    ApplicationSettings settings = ApplicationSettings.getInstance();
+    List<String> sources = new ArrayList<String>(LocalIndexObr.getSources());
+    if (!sources.contains(location)) {
+      sources.add(location);
+    }
+    settings.setRepositoryIndexSources(sources);
+
+    final List<String> locations = sources;
+    new Task.Backgroundable(project, "Indexing bundle repositories", true) {
+      @Override
+      public void run(@NotNull ProgressIndicator indicator) {
+        indicator.setIndeterminate(true);
+        RepositoryIndex.getInstance().refresh(locations, indicator);
+      }
+    }.queue();
+  }
+}
@@ -0,0 +1,98 @@
+package org.osmorc.obrimport.local;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.Version;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A bundle in a {@link RepositoryIndex}: its symbolic name, version and exported packages and, if it can be retrieved
+ * from a Maven repository, its Maven coordinates.
+ */
+public class IndexedBundle {
+  private final String mySymbolicName;
+  private final String myVersion;
+  private final List<String> myExportedPackages;
+  private final String myGroupId;
+  private final String myArtifactId;
+  private final String myMavenVersion;
+  private final String myClassifier;
+
+  public IndexedBundle(@NotNull String symbolicName,
+                       @NotNull String version,
+                       @NotNull List<String> exportedPackages,
+                       @Nullable String groupId,
+                       @Nullable String artifactId,
+                       @Nullable String mavenVersion,
+                       @Nullable String classifier) {
+    mySymbolicName = symbolicName;
+    myVersion = version;
+    myExportedPackages = Collections.unmodifiableList(exportedPackages);
+    myGroupId = groupId;
+    myArtifactId = artifactId;
+    myMavenVersion = mavenVersion;
+    myClassifier = classifier;
+  }
+
+  @NotNull
+  public String getSymbolicName() {
+    return mySymbolicName;
+  }
+
+  @NotNull
+  public String getVersion() {
+    return myVersion;
+  }
+
+  @NotNull
+  public Version getParsedVersion() {
+    try {
+      return Version.parseVersion(myVersion);
+    }
+    catch (IllegalArgumentException e) {
+      return Version.emptyVersion;
+    }
+  }
+
+  @NotNull
+  public List<String> getExportedPackages() {
+    return myExportedPackages;
+  }
+
+  /**
+   * @return true if the bundle has Maven coordinates.
+   */
+  public boolean isMavenArtifact() {
+    return myGroupId != null && myArtifactId != null && myMavenVersion != null;
+  }
+
+  @Nullable
+  public String getGroupId() {
+    return myGroupId;
+  }
+
+  @Nullable
+  public String getArtifactId() {
+    return myArtifactId;
+  }
+
+  /**
+   * @return the version of the Maven artifact, which is not necessarily the same as the version of the bundle.
+   */
+  @Nullable
+  public String getMavenVersion() {
+    return myMavenVersion;
+  }
+
+  @Nullable
+  public String getClassifier() {
+    return myClassifier;
+  }
+
+  @Override
+  public String toString() {
+    return mySymbolicName + " " + myVersion;
+  }
+}
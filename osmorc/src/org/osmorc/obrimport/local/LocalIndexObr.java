@@ -0,0 +1,111 @@
+package org.osmorc.obrimport.local;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import org.jetbrains.annotations.NotNull;
+import org.osmorc.obrimport.MavenRepository;
+import org.osmorc.obrimport.Obr;
+import org.osmorc.obrimport.springsource.ObrMavenResult;
+import org.osmorc.settings.ApplicationSettings;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Implementation of {@link Obr} which searches the {@link RepositoryIndex}, so searching takes milliseconds and works offline.
+ * The index is refreshed in the background when the indexed repositories were changed in the settings or it wasn't refreshed
+ * for a while. Searches don't wait for the refresh but answer from the index as it is, new bundles are found once the refresh
+ * is done.
+ */
+public class LocalIndexObr implements Obr {
+  private static final long REFRESH_INTERVAL = 24 * 60 * 60 * 1000L;
+  private static final AtomicBoolean ourRefreshing = new AtomicBoolean();
+
+  public String getDisplayName() {
+    return "Local Repository Index";
+  }
+
+  public boolean supportsMaven() {
+    return true;
+  }
+
+  @NotNull
+  public ObrMavenResult[] queryForMavenArtifact(@NotNull String queryString, @NotNull ProgressIndicator progressIndicator) {
+    RepositoryIndex index = RepositoryIndex.getInstance();
+    List<String> sources = getSources();
+    if (!index.isUpToDate(sources, REFRESH_INTERVAL)) {
+      refreshInBackground(sources);
+    }
+
+    progressIndicator.setText("Searching the local repository index...");
+    List<ObrMavenResult> result = new ArrayList<ObrMavenResult>();
+    for (IndexedBundle bundle : index.search(queryString)) {
+      if (bundle.isMavenArtifact()) {
+        result.add(new ObrMavenResult(bundle.getGroupId(), bundle.getArtifactId(), bundle.getMavenVersion(), bundle.getClassifier(),
+                                      this));
+      }
+    }
+    return result.toArray(new ObrMavenResult[result.size()]);
+  }
+
+  /**
+   * Refreshes the index in the background unless a refresh started here is still running.
+   */
+  private static void refreshInBackground(@NotNull final List<String> sources) {
+    if (!ourRefreshing.compareAndSet(false, true)) {
+      return;
+    }
+    ApplicationManager.getApplication().invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        new Task.Backgroundable(null, "Refreshing the local repository index", true) {
+          @Override
+          public void run(@NotNull ProgressIndicator indicator) {
+            try {
+              indicator.setIndeterminate(true);
+              RepositoryIndex.getInstance().refresh(sources, indicator);
+            }
+            finally {
+              ourRefreshing.set(false);
+            }
+          }
+        }.queue();
+      }
+    }, ModalityState.any());
+  }
+
+  @NotNull
+  public MavenRepository[] getMavenRepositories() {
+    // bundles of remote OBR repositories are downloaded from where the repository descriptor is, local ones need no repository
+    List<MavenRepository> result = new ArrayList<MavenRepository>();
+    for (String source : getSources()) {
+      if (source.startsWith("http://") || source.startsWith("https://")) {
+        String url = source.substring(0, source.lastIndexOf('/'));
+        result.add(new MavenRepository(url.substring(url.indexOf("://") + 3).replace('/', '.').replace(':', '.'),
+                                       "OBR repository " + url, url));
+      }
+    }
+    return result.toArray(new MavenRepository[result.size()]);
+  }
+
+  /**
+   * @return the repositories to index, the local Maven repository of the user if none were configured.
+   */
+  @NotNull
+  public static List<String> getSources() {
+    List<String> sources = ApplicationSettings.getInstance().getRepositoryIndexSources();
+    if (!sources.isEmpty()) {
+      return sources;
+    }
+    List<String> result = new ArrayList<String>();
+    File localRepository = new File(System.getProperty("user.home"), ".m2" + File.separator + "repository");
+    if (localRepository.isDirectory()) {
+      result.add(localRepository.getPath());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,160 @@
+package org.osmorc.obrimport.local;
+
+import aQute.libg.header.OSGiHeader;
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Reads the bundles of a local Maven repository into a {@link RepositoryIndex}. Only jars which are new or were modified since
+ * the repository was indexed are opened.
+ */
+class MavenRepositoryScanner {
+  private MavenRepositoryScanner() {
+  }
+
+  /**
+   * @param repository the root folder of the repository
+   * @param previous   the repository as indexed before, if it was indexed before
+   * @return the indexed repository.
+   */
+  @NotNull
+  static RepositoryIndex.Source scan(@NotNull File repository, @Nullable RepositoryIndex.Source previous,
+                                     @NotNull ProgressIndicator indicator) throws IOException {
+    if (!repository.isDirectory()) {
+      throw new IOException("Not a folder: " + repository.getPath());
+    }
+    RepositoryIndex.Source source = new RepositoryIndex.Source(repository.getPath(), "");
+    scan(repository, "", previous, source, indicator);
+    return source;
+  }
+
+  private static void scan(@NotNull File dir, @NotNull String relativePath, @Nullable RepositoryIndex.Source previous,
+                           @NotNull RepositoryIndex.Source source, @NotNull ProgressIndicator indicator) {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    indicator.checkCanceled();
+    for (File child : children) {
+      String name = child.getName();
+      String path = relativePath + name;
+      if (child.isDirectory()) {
+        if (!name.startsWith(".")) {
+          scan(child, path + "/", previous, source, indicator);
+        }
+      }
+      else if (name.endsWith(".jar") && !name.endsWith("-sources.jar") && !name.endsWith("-javadoc.jar")) {
+        String stamp = child.length() + ":" + child.lastModified();
+        RepositoryIndex.Entry entry = previous != null ? previous.myEntries.get(path) : null;
+        if (entry == null || !entry.myStamp.equals(stamp)) {
+          indicator.setText2(path);
+          entry = new RepositoryIndex.Entry(stamp, readBundle(child, path));
+        }
+        source.myEntries.put(path, entry);
+      }
+    }
+  }
+
+  /**
+   * @return the bundle in the given jar, null if it isn't a bundle or can't be read.
+   */
+  @Nullable
+  private static IndexedBundle readBundle(@NotNull File file, @NotNull String relativePath) {
+    Manifest manifest;
+    try {
+      JarFile jar = new JarFile(file, false);
+      try {
+        manifest = jar.getManifest();
+      }
+      finally {
+        jar.close();
+      }
+    }
+    catch (IOException e) {
+      return null;
+    }
+    if (manifest == null) {
+      return null;
+    }
+
+    Attributes attributes = manifest.getMainAttributes();
+    String symbolicName = attributes.getValue("Bundle-SymbolicName");
+    if (symbolicName == null) {
+      return null;
+    }
+    int semicolon = symbolicName.indexOf(';');
+    symbolicName = (semicolon >= 0 ? symbolicName.substring(0, semicolon) : symbolicName).trim();
+    String version = attributes.getValue("Bundle-Version");
+    version = version != null ? version.trim() : "0.0.0";
+
+    List<String> packages = new ArrayList<String>();
+    String exportPackage = attributes.getValue("Export-Package");
+    if (exportPackage != null) {
+      Map<String, Map<String, String>> exports = OSGiHeader.parseHeader(exportPackage);
+      for (String packageName : exports.keySet()) {
+        // duplicate packages (exported with different versions) are returned with a trailing ~
+        while (packageName.endsWith("~")) {
+          packageName = packageName.substring(0, packageName.length() - 1);
+        }
+        if (!packages.contains(packageName)) {
+          packages.add(packageName);
+        }
+      }
+    }
+
+    String[] coordinates = getMavenCoordinates(relativePath);
+    if (coordinates == null) {
+      return new IndexedBundle(symbolicName, version, packages, null, null, null, null);
+    }
+    return new IndexedBundle(symbolicName, version, packages, coordinates[0], coordinates[1], coordinates[2], coordinates[3]);
+  }
+
+  /**
+   * Tells the Maven coordinates of a jar by its path in a Maven repository,
+   * <code>group/path/artifactId/version/artifactId-version[-classifier].jar</code>.
+   *
+   * @return the group id, artifact id, version and classifier (which may be null), or null if the path isn't in the layout of a
+   *         Maven repository.
+   */
+  @Nullable
+  static String[] getMavenCoordinates(@NotNull String relativePath) {
+    String[] segments = relativePath.split("/");
+    if (segments.length < 4) {
+      return null;
+    }
+    String fileName = segments[segments.length - 1];
+    String version = segments[segments.length - 2];
+    String artifactId = segments[segments.length - 3];
+    String prefix = artifactId + "-" + version;
+    if (!fileName.startsWith(prefix) || !fileName.endsWith(".jar")) {
+      return null;
+    }
+    String rest = fileName.substring(prefix.length(), fileName.length() - ".jar".length());
+    String classifier = null;
+    if (rest.length() > 0) {
+      if (rest.charAt(0) != '-' || rest.length() == 1) {
+        return null;
+      }
+      classifier = rest.substring(1);
+    }
+
+    StringBuilder groupId = new StringBuilder();
+    for (int i = 0; i < segments.length - 3; i++) {
+      if (i > 0) {
+        groupId.append('.');
+      }
+      groupId.append(segments[i]);
+    }
+    return new String[]{groupId.toString(), artifactId, version, classifier};
+  }
+}
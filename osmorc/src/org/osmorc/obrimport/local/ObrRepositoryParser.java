@@ -0,0 +1,177 @@
+package org.osmorc.obrimport.local;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the bundles of an OBR repository descriptor (<code>repository.xml</code>) into a {@link RepositoryIndex}. The descriptor
+ * is only read if it has changed since it was indexed.
+ */
+class ObrRepositoryParser {
+  private static final int TIMEOUT = 10000;
+
+  private ObrRepositoryParser() {
+  }
+
+  /**
+   * @param location the path or URL of the repository descriptor
+   * @param previous the repository as indexed before, if it was indexed before
+   * @return the indexed repository, <code>previous</code> if the descriptor hasn't changed.
+   */
+  @NotNull
+  static RepositoryIndex.Source refresh(@NotNull String location, @Nullable RepositoryIndex.Source previous) throws IOException {
+    if (location.indexOf("://") < 0) {
+      File file = new File(location);
+      if (!file.isFile()) {
+        throw new FileNotFoundException(location);
+      }
+      String stamp = file.length() + ":" + file.lastModified();
+      if (previous != null && previous.myStamp.equals(stamp)) {
+        return previous;
+      }
+      InputStream in = new BufferedInputStream(new FileInputStream(file));
+      try {
+        return parse(location, stamp, in);
+      }
+      finally {
+        in.close();
+      }
+    }
+
+    URLConnection connection = new URL(location).openConnection();
+    connection.setConnectTimeout(TIMEOUT);
+    connection.setReadTimeout(TIMEOUT);
+    if (previous != null && connection instanceof HttpURLConnection) {
+      try {
+        connection.setIfModifiedSince(Long.parseLong(previous.myStamp));
+      }
+      catch (NumberFormatException ignored) {
+      }
+    }
+    InputStream in = connection.getInputStream();
+    try {
+      if (previous != null && connection instanceof HttpURLConnection &&
+          ((HttpURLConnection)connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        return previous;
+      }
+      String stamp = String.valueOf(connection.getLastModified());
+      if (previous != null && connection.getLastModified() != 0 && previous.myStamp.equals(stamp)) {
+        return previous;
+      }
+      return parse(location, stamp, new BufferedInputStream(in));
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  @NotNull
+  static RepositoryIndex.Source parse(@NotNull String location, @NotNull String stamp, @NotNull InputStream in) throws IOException {
+    RepositoryIndex.Source source = new RepositoryIndex.Source(location, stamp);
+    try {
+      SAXParserFactory factory = SAXParserFactory.newInstance();
+      factory.setNamespaceAware(false);
+      factory.newSAXParser().parse(in, new RepositoryHandler(source, getBaseLocation(location)));
+    }
+    catch (SAXException e) {
+      throw new IOException("Invalid repository descriptor " + location + ": " + e.getMessage());
+    }
+    catch (ParserConfigurationException e) {
+      throw new IOException(e.getMessage());
+    }
+    return source;
+  }
+
+  /**
+   * @return the location of the folder the repository descriptor is in, including the trailing slash.
+   */
+  @NotNull
+  private static String getBaseLocation(@NotNull String location) {
+    String normalized = location.replace('\\', '/');
+    return normalized.substring(0, normalized.lastIndexOf('/') + 1);
+  }
+
+  private static class RepositoryHandler extends DefaultHandler {
+    private final RepositoryIndex.Source mySource;
+    private final String myBaseLocation;
+    private String mySymbolicName;
+    private String myVersion;
+    private String myUri;
+    private List<String> myPackages;
+    private boolean myInPackageCapability;
+
+    public RepositoryHandler(@NotNull RepositoryIndex.Source source, @NotNull String baseLocation) {
+      mySource = source;
+      myBaseLocation = baseLocation;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      if ("resource".equals(qName)) {
+        mySymbolicName = attributes.getValue("symbolicname");
+        myVersion = attributes.getValue("version");
+        myUri = attributes.getValue("uri");
+        myPackages = new ArrayList<String>();
+      }
+      else if ("capability".equals(qName)) {
+        myInPackageCapability = myPackages != null && "package".equals(attributes.getValue("name"));
+      }
+      else if ("p".equals(qName) && myInPackageCapability && "package".equals(attributes.getValue("n"))) {
+        String packageName = attributes.getValue("v");
+        if (packageName != null && !myPackages.contains(packageName)) {
+          myPackages.add(packageName);
+        }
+      }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      if ("capability".equals(qName)) {
+        myInPackageCapability = false;
+      }
+      else if ("resource".equals(qName)) {
+        if (mySymbolicName != null) {
+          String version = myVersion != null ? myVersion : "0.0.0";
+          String[] coordinates = myUri != null ? getMavenCoordinates(myUri) : null;
+          IndexedBundle bundle = coordinates == null
+                                 ? new IndexedBundle(mySymbolicName, version, myPackages, null, null, null, null)
+                                 : new IndexedBundle(mySymbolicName, version, myPackages,
+                                                     coordinates[0], coordinates[1], coordinates[2], coordinates[3]);
+          mySource.myEntries.put(mySymbolicName + ";" + version, new RepositoryIndex.Entry(mySource.myStamp, bundle));
+        }
+        mySymbolicName = null;
+        myVersion = null;
+        myUri = null;
+        myPackages = null;
+      }
+    }
+
+    /**
+     * Many repositories are generated next to a Maven repository layout, so the Maven coordinates of a bundle can be told
+     * by the path of its jar in the repository.
+     */
+    @Nullable
+    private String[] getMavenCoordinates(@NotNull String resourceUri) {
+      String path = resourceUri.replace('\\', '/');
+      if (path.startsWith(myBaseLocation)) {
+        path = path.substring(myBaseLocation.length());
+      }
+      else if (path.indexOf(':') >= 0 || path.startsWith("/")) {
+        return null;
+      }
+      return MavenRepositoryScanner.getMavenCoordinates(path);
+    }
+  }
+}
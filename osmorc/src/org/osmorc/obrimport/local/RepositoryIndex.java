@@ -0,0 +1,327 @@
+package org.osmorc.obrimport.local;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A local index of bundle repositories, so bundles can be searched without connecting to a repository and even offline.
+ * The index is made from OBR repository descriptors (<code>repository.xml</code>) and local Maven repositories and stored in
+ * the IDE's system folder.
+ * <p/>
+ * Bundles are looked up by symbolic name and by exported package; all versions of a bundle are returned newest first.
+ * Refreshing the index only reads what has changed: a repository descriptor is only parsed again if it was modified (remote
+ * ones are asked with <code>If-Modified-Since</code>) and only new or modified jars of a Maven repository are opened. If a
+ * repository can't be read, e.g. because there is no network, the bundles indexed before are kept.
+ */
+public class RepositoryIndex {
+  private static final Logger LOG = Logger.getInstance("#org.osmorc.obrimport.local.RepositoryIndex");
+  private static final int VERSION = 1;
+
+  private final File myIndexFile;
+  private final Map<String, Source> mySources = new LinkedHashMap<String, Source>();
+  private boolean myLoaded;
+  // lookups by lower case symbolic name and by package name
+  private final NavigableMap<String, List<IndexedBundle>> myBySymbolicName = new TreeMap<String, List<IndexedBundle>>();
+  private final NavigableMap<String, List<IndexedBundle>> myByPackage = new TreeMap<String, List<IndexedBundle>>();
+  private long myLastRefresh;
+
+  public static RepositoryIndex getInstance() {
+    return ServiceManager.getService(RepositoryIndex.class);
+  }
+
+  public RepositoryIndex() {
+    this(new File(PathManager.getSystemPath(), "osmorc" + File.separator + "repository-index" + File.separator + "index.dat"));
+  }
+
+  RepositoryIndex(@NotNull File indexFile) {
+    myIndexFile = indexFile;
+  }
+
+  /**
+   * Brings the index up to date with the given repositories. Repositories which are not in the list anymore are removed.
+   *
+   * @param locations the locations of OBR repository descriptors (paths or URLs) and local Maven repositories (paths)
+   * @param indicator a progress indicator
+   */
+  public void refresh(@NotNull List<String> locations, @NotNull ProgressIndicator indicator) {
+    Map<String, Source> previous;
+    synchronized (this) {
+      ensureLoaded();
+      previous = new HashMap<String, Source>(mySources);
+    }
+
+    Map<String, Source> refreshed = new LinkedHashMap<String, Source>();
+    for (String location : locations) {
+      indicator.checkCanceled();
+      indicator.setText("Indexing " + location + "...");
+      Source source = previous.get(location);
+      try {
+        File file = new File(location);
+        if (file.isDirectory()) {
+          source = MavenRepositoryScanner.scan(file, source, indicator);
+        }
+        else {
+          source = ObrRepositoryParser.refresh(location, source);
+        }
+      }
+      catch (IOException e) {
+        // keep what was indexed before, so searching still works offline
+        LOG.info("Cannot index repository " + location + ": " + e.getMessage());
+      }
+      if (source != null) {
+        refreshed.put(location, source);
+      }
+    }
+
+    synchronized (this) {
+      mySources.clear();
+      mySources.putAll(refreshed);
+      rebuildLookups();
+      myLastRefresh = System.currentTimeMillis();
+    }
+    save(refreshed);
+  }
+
+  /**
+   * @return true if the index covers exactly the given repositories and was refreshed within the given time.
+   */
+  public synchronized boolean isUpToDate(@NotNull List<String> locations, long maxAge) {
+    ensureLoaded();
+    return mySources.keySet().equals(new HashSet<String>(locations)) && System.currentTimeMillis() - myLastRefresh < maxAge;
+  }
+
+  /**
+   * Searches bundles whose symbolic name contains the given text, bundles exporting the given package and bundles exporting
+   * packages starting with the given text.
+   *
+   * @return the bundles found, bundles whose symbolic name equals the query first, all versions of a bundle newest first.
+   */
+  @NotNull
+  public synchronized List<IndexedBundle> search(@NotNull String query) {
+    ensureLoaded();
+    String text = query.trim().toLowerCase(Locale.US);
+    Set<IndexedBundle> result = new LinkedHashSet<IndexedBundle>();
+    if (text.length() == 0) {
+      return new ArrayList<IndexedBundle>();
+    }
+
+    List<IndexedBundle> exact = myBySymbolicName.get(text);
+    if (exact != null) {
+      result.addAll(exact);
+    }
+    for (Map.Entry<String, List<IndexedBundle>> entry : myBySymbolicName.entrySet()) {
+      if (entry.getKey().contains(text)) {
+        result.addAll(entry.getValue());
+      }
+    }
+    for (List<IndexedBundle> bundles : myByPackage.subMap(text, true, text + Character.MAX_VALUE, false).values()) {
+      result.addAll(bundles);
+    }
+    return new ArrayList<IndexedBundle>(result);
+  }
+
+  /**
+   * @return the number of bundles in the index.
+   */
+  public synchronized int size() {
+    ensureLoaded();
+    int result = 0;
+    for (List<IndexedBundle> bundles : myBySymbolicName.values()) {
+      result += bundles.size();
+    }
+    return result;
+  }
+
+  private void rebuildLookups() {
+    myBySymbolicName.clear();
+    myByPackage.clear();
+    for (Source source : mySources.values()) {
+      for (Entry entry : source.myEntries.values()) {
+        IndexedBundle bundle = entry.myBundle;
+        if (bundle != null) {
+          add(myBySymbolicName, bundle.getSymbolicName().toLowerCase(Locale.US), bundle);
+          for (String packageName : bundle.getExportedPackages()) {
+            add(myByPackage, packageName.toLowerCase(Locale.US), bundle);
+          }
+        }
+      }
+    }
+    Comparator<IndexedBundle> newestFirst = new Comparator<IndexedBundle>() {
+      @Override
+      public int compare(IndexedBundle o1, IndexedBundle o2) {
+        int result = o1.getSymbolicName().compareTo(o2.getSymbolicName());
+        return result != 0 ? result : o2.getParsedVersion().compareTo(o1.getParsedVersion());
+      }
+    };
+    for (List<IndexedBundle> bundles : myBySymbolicName.values()) {
+      Collections.sort(bundles, newestFirst);
+    }
+    for (List<IndexedBundle> bundles : myByPackage.values()) {
+      Collections.sort(bundles, newestFirst);
+    }
+  }
+
+  private static void add(@NotNull Map<String, List<IndexedBundle>> lookup, @NotNull String key, @NotNull IndexedBundle bundle) {
+    List<IndexedBundle> bundles = lookup.get(key);
+    if (bundles == null) {
+      bundles = new ArrayList<IndexedBundle>(1);
+      lookup.put(key, bundles);
+    }
+    if (!bundles.contains(bundle)) {
+      bundles.add(bundle);
+    }
+  }
+
+  private void ensureLoaded() {
+    if (myLoaded) {
+      return;
+    }
+    myLoaded = true;
+    if (!myIndexFile.isFile()) {
+      return;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myIndexFile)));
+      try {
+        if (in.readInt() != VERSION) {
+          return;
+        }
+        myLastRefresh = in.readLong();
+        int sourceCount = in.readInt();
+        for (int i = 0; i < sourceCount; i++) {
+          Source source = new Source(in.readUTF(), in.readUTF());
+          int entryCount = in.readInt();
+          for (int j = 0; j < entryCount; j++) {
+            String key = in.readUTF();
+            String stamp = in.readUTF();
+            source.myEntries.put(key, new Entry(stamp, in.readBoolean() ? readBundle(in) : null));
+          }
+          mySources.put(source.myLocation, source);
+        }
+      }
+      finally {
+        in.close();
+      }
+      rebuildLookups();
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read the repository index, it will be created again", e);
+      mySources.clear();
+      myLastRefresh = 0;
+    }
+  }
+
+  private void save(@NotNull Map<String, Source> sources) {
+    long lastRefresh;
+    synchronized (this) {
+      lastRefresh = myLastRefresh;
+    }
+    try {
+      File dir = myIndexFile.getParentFile();
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("Cannot create folder " + dir.getPath());
+      }
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myIndexFile)));
+      try {
+        out.writeInt(VERSION);
+        out.writeLong(lastRefresh);
+        out.writeInt(sources.size());
+        for (Source source : sources.values()) {
+          out.writeUTF(source.myLocation);
+          out.writeUTF(source.myStamp);
+          out.writeInt(source.myEntries.size());
+          for (Map.Entry<String, Entry> entry : source.myEntries.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue().myStamp);
+            IndexedBundle bundle = entry.getValue().myBundle;
+            out.writeBoolean(bundle != null);
+            if (bundle != null) {
+              writeBundle(out, bundle);
+            }
+          }
+        }
+      }
+      finally {
+        out.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save the repository index", e);
+    }
+  }
+
+  private static void writeBundle(@NotNull DataOutput out, @NotNull IndexedBundle bundle) throws IOException {
+    out.writeUTF(bundle.getSymbolicName());
+    out.writeUTF(bundle.getVersion());
+    out.writeInt(bundle.getExportedPackages().size());
+    for (String packageName : bundle.getExportedPackages()) {
+      out.writeUTF(packageName);
+    }
+    writeNullable(out, bundle.getGroupId());
+    writeNullable(out, bundle.getArtifactId());
+    writeNullable(out, bundle.getMavenVersion());
+    writeNullable(out, bundle.getClassifier());
+  }
+
+  @NotNull
+  private static IndexedBundle readBundle(@NotNull DataInput in) throws IOException {
+    String symbolicName = in.readUTF();
+    String version = in.readUTF();
+    int packageCount = in.readInt();
+    List<String> packages = new ArrayList<String>(packageCount);
+    for (int i = 0; i < packageCount; i++) {
+      packages.add(in.readUTF());
+    }
+    return new IndexedBundle(symbolicName, version, packages, readNullable(in), readNullable(in), readNullable(in),
+                             readNullable(in));
+  }
+
+  private static void writeNullable(@NotNull DataOutput out, @Nullable String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  @Nullable
+  private static String readNullable(@NotNull DataInput in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  /**
+   * An indexed repository.
+   */
+  static class Source {
+    final String myLocation;
+    // tells if the repository has changed, e.g. the modification time of a repository descriptor
+    final String myStamp;
+    // the bundles by the jar or resource they were read from
+    final Map<String, Entry> myEntries = new LinkedHashMap<String, Entry>();
+
+    Source(@NotNull String location, @NotNull String stamp) {
+      myLocation = location;
+      myStamp = stamp;
+    }
+  }
+
+  /**
+   * A jar or resource of a repository, with the bundle it contains, if it's a bundle.
+   */
+  static class Entry {
+    // tells if the jar has changed, its size and modification time
+    final String myStamp;
+    final IndexedBundle myBundle;
+
+    Entry(@NotNull String stamp, @Nullable IndexedBundle bundle) {
+      myStamp = stamp;
+      myBundle = bundle;
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package org.osmorc.run;
+
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VfsUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osmorc.frameworkintegration.LibraryBundlificationRule;
+import org.osmorc.make.BundleCompiler;
+import org.osmorc.run.ui.SelectedBundle;
+import org.osmorc.settings.ApplicationSettings;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Remembers the bundles assembled for launching OSGi run configurations, so pressing Run again doesn't check every library of
+ * every module again.
+ * <p/>
+ * The library bundles are remembered per module together with the size and time stamp of every library and the bundlification
+ * rules, so only modules whose libraries have changed are bundlified again. Libraries shared by several modules are bundlified
+ * once per launch. The final list of bundles is remembered per run configuration together with the size and time stamp of every
+ * bundle it was selected from.
+ */
+public class BundleSetCache {
+  private final Map<String, ModuleLibraries> myModuleLibraries = new HashMap<String, ModuleLibraries>();
+  private final Map<String, BundleSet> myBundleSets = new HashMap<String, BundleSet>();
+
+  public static BundleSetCache getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, BundleSetCache.class);
+  }
+
+  /**
+   * Returns the bundles of the libraries of the given modules, bundlifying the libraries of modules which have changed since the
+   * last call.
+   *
+   * @param modules        the modules
+   * @param indicator      a progress indicator
+   * @param compileContext the compile context
+   * @return the urls of the library bundles for each module, in the order of the given modules. Modules which were not processed
+   *         because the operation was canceled are missing.
+   */
+  @NotNull
+  public Map<Module, String[]> getLibraryBundles(@NotNull List<Module> modules, @NotNull ProgressIndicator indicator,
+                                                 @NotNull CompileContext compileContext) {
+    String rulesStamp = getRulesStamp();
+    Map<Module, String[]> result = new LinkedHashMap<Module, String[]>();
+    // the bundles of all libraries known in this launch, libraries which are no bundles map to null
+    Map<String, String> bundles = new HashMap<String, String>();
+    Map<Module, String[]> changedModules = new LinkedHashMap<Module, String[]>();
+    Map<Module, String> stamps = new HashMap<Module, String>();
+
+    for (Module module : modules) {
+      String[] libraryUrls = BundleCompiler.getLibraryUrls(module);
+      String stamp = rulesStamp + getStamp(libraryUrls);
+      ModuleLibraries cached;
+      synchronized (myModuleLibraries) {
+        cached = myModuleLibraries.get(module.getName());
+      }
+      if (cached != null && cached.myStamp.equals(stamp) && cached.bundlesExist()) {
+        bundles.putAll(cached.myBundles);
+        result.put(module, cached.getBundleUrls());
+      }
+      else {
+        changedModules.put(module, libraryUrls);
+        stamps.put(module, stamp);
+        result.put(module, null);
+      }
+    }
+
+    for (Map.Entry<Module, String[]> changedModule : changedModules.entrySet()) {
+      Module module = changedModule.getKey();
+      String[] libraryUrls = changedModule.getValue();
+
+      // libraries which have already been bundlified for another module are not bundlified again
+      List<String> toBundlify = new ArrayList<String>();
+      for (String libraryUrl : libraryUrls) {
+        if (!bundles.containsKey(libraryUrl)) {
+          toBundlify.add(libraryUrl);
+        }
+      }
+      Map<String, String> moduleBundles = BundleCompiler.bundlifyLibraries(module, toBundlify.toArray(new String[toBundlify.size()]),
+                                                                            indicator, compileContext);
+      boolean complete = moduleBundles.size() == toBundlify.size();
+      bundles.putAll(moduleBundles);
+
+      ModuleLibraries libraries = new ModuleLibraries(stamps.get(module));
+      for (String libraryUrl : libraryUrls) {
+        if (bundles.containsKey(libraryUrl)) {
+          libraries.myBundles.put(libraryUrl, bundles.get(libraryUrl));
+        }
+      }
+      result.put(module, libraries.getBundleUrls());
+      if (complete) {
+        synchronized (myModuleLibraries) {
+          myModuleLibraries.put(module.getName(), libraries);
+        }
+      }
+      if (indicator.isCanceled()) {
+        break;
+      }
+    }
+    // drop the modules which were not bundlified because of a cancellation
+    result.values().removeAll(Collections.<String[]>singleton(null));
+    return result;
+  }
+
+  /**
+   * Returns the bundles last assembled for the given run configuration, if they were assembled from the same bundles.
+   *
+   * @param runConfigurationName the name of the run configuration
+   * @param candidates           the bundles to select from
+   * @return the assembled bundles or null if they need to be assembled again.
+   */
+  @Nullable
+  public SelectedBundle[] getBundleSet(@NotNull String runConfigurationName, @NotNull Collection<SelectedBundle> candidates) {
+    BundleSet bundleSet;
+    synchronized (myBundleSets) {
+      bundleSet = myBundleSets.get(runConfigurationName);
+    }
+    if (bundleSet == null || !bundleSet.myStamp.equals(getStamp(candidates))) {
+      return null;
+    }
+    return bundleSet.myBundles.clone();
+  }
+
+  /**
+   * Remembers the bundles assembled for the given run configuration.
+   *
+   * @param runConfigurationName the name of the run configuration
+   * @param candidates           the bundles which were selected from
+   * @param bundles              the assembled bundles
+   */
+  public void putBundleSet(@NotNull String runConfigurationName, @NotNull Collection<SelectedBundle> candidates,
+                           @NotNull SelectedBundle[] bundles) {
+    BundleSet bundleSet = new BundleSet(getStamp(candidates), bundles.clone());
+    synchronized (myBundleSets) {
+      myBundleSets.put(runConfigurationName, bundleSet);
+    }
+  }
+
+  @NotNull
+  private static String getStamp(@NotNull Collection<SelectedBundle> bundles) {
+    List<String> stamps = new ArrayList<String>(bundles.size());
+    for (SelectedBundle bundle : bundles) {
+      String url = bundle.getBundleUrl();
+      stamps.add(bundle.getName() + "|" + bundle.getBundleType() + "|" + bundle.getStartLevel() + "|" +
+                 bundle.isStartAfterInstallation() + "|" + (url != null ? getStamp(new String[]{url}) : ""));
+    }
+    // the candidates come from a set, so their order doesn't matter
+    Collections.sort(stamps);
+    StringBuilder result = new StringBuilder();
+    for (String stamp : stamps) {
+      result.append(stamp).append('\n');
+    }
+    return result.toString();
+  }
+
+  /**
+   * Returns a stamp of the given urls, the size and time stamp of the files they point to.
+   */
+  @NotNull
+  static String getStamp(@NotNull String[] urls) {
+    StringBuilder result = new StringBuilder();
+    for (String url : urls) {
+      File file = new File(VfsUtil.urlToPath(url));
+      result.append(url).append('|').append(file.length()).append('|').append(file.lastModified()).append('\n');
+    }
+    return result.toString();
+  }
+
+  @NotNull
+  private static String getRulesStamp() {
+    ApplicationSettings settings = ServiceManager.getService(ApplicationSettings.class);
+    StringBuilder result = new StringBuilder();
+    for (LibraryBundlificationRule rule : settings.getLibraryBundlificationRules()) {
+      result.append(rule.getRuleRegex()).append('|').append(rule.getAdditionalProperties()).append('|')
+        .append(rule.isDoNotBundle()).append('|').append(rule.isStopAfterThisRule()).append('\n');
+    }
+    return result.toString();
+  }
+
+  private static class ModuleLibraries {
+    private final String myStamp;
+    private final Map<String, String> myBundles = new LinkedHashMap<String, String>();
+
+    private ModuleLibraries(@NotNull String stamp) {
+      myStamp = stamp;
+    }
+
+    @NotNull
+    private String[] getBundleUrls() {
+      List<String> result = new ArrayList<String>(myBundles.size());
+      for (String bundle : myBundles.values()) {
+        if (bundle != null && !result.contains(bundle)) {
+          result.add(bundle);
+        }
+      }
+      return result.toArray(new String[result.size()]);
+    }
+
+    private boolean bundlesExist() {
+      for (String bundle : myBundles.values()) {
+        if (bundle != null && !new File(VfsUtil.urlToPath(bundle)).exists()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static class BundleSet {
+    private final String myStamp;
+    private final SelectedBundle[] myBundles;
+
+    private BundleSet(@NotNull String stamp, @NotNull SelectedBundle[] bundles) {
+      myStamp = stamp;
+      myBundles = bundles;
+    }
+  }
+}
@@ -182,10 +182,11 @@ public class OsgiRunState extends JavaCommandLineState {
           final HashSet<SelectedBundle> selectedBundles = new HashSet<SelectedBundle>();
           // the bundles are module names, by now we try to find jar files in the output directory which we can then install
           ModuleManager moduleManager = ModuleManager.getInstance(project);
-          int bundleCount = runConfiguration.getBundlesToDeploy().size();
+          List<SelectedBundle> bundlesToDeploy = runConfiguration.getBundlesToDeploy();
+          int bundleCount = bundlesToDeploy.size();
+          List<Module> modules = new ArrayList<Module>();
           for (int i = 0; i < bundleCount; i++) {
-            final SelectedBundle selectedBundle = runConfiguration.getBundlesToDeploy().get(i);
-            progressIndicator.setFraction(i / bundleCount);
+            final SelectedBundle selectedBundle = bundlesToDeploy.get(i);
             if (selectedBundle.isModule()) {
               // use the output jar name if it is a module
               try {
@@ -204,17 +205,30 @@ public class OsgiRunState extends JavaCommandLineState {
                   return;
                 }
                 selectedBundle.setBundleUrl(new URL("file", "/", BundleCompiler.getJarFileName(module)).toString());
-                // add all the library dependencies of the bundle
-                String[] depUrls = BundleCompiler.bundlifyLibraries(module, progressIndicator, DummyCompileContext.getInstance());
+                modules.add(module);
+              }
+              catch (MalformedURLException e) {
+                throw new IllegalStateException(e); // should not happen...
+              }
+            }
+          }
+
+          // add all the library dependencies of the bundles. Libraries shared by several modules are bundlified once and
+          // only the libraries of modules which have changed since the last launch are checked.
+          BundleSetCache cache = BundleSetCache.getInstance(project);
+          Map<Module, String[]> libraryBundles = cache.getLibraryBundles(modules, progressIndicator, DummyCompileContext.getInstance());
+          for (int i = 0; i < bundleCount; i++) {
+            final SelectedBundle selectedBundle = bundlesToDeploy.get(i);
+            progressIndicator.setFraction((double)i / bundleCount);
+            if (selectedBundle.isModule()) {
+              String[] depUrls = libraryBundles.get(moduleManager.findModuleByName(selectedBundle.getName()));
+              if (depUrls != null) {
                 for (String depUrl : depUrls) {
                   SelectedBundle dependency = new SelectedBundle("Dependency", depUrl, SelectedBundle.BundleType.PlainLibrary);
                   selectedBundles.add(dependency);
                 }
-                selectedBundles.add(selectedBundle);
-              }
-              catch (MalformedURLException e) {
-                throw new IllegalStateException(e); // should not happen...
               }
+              selectedBundles.add(selectedBundle);
             }
             else {
               if (selectedBundles.contains(selectedBundle)) {
@@ -225,9 +239,21 @@ public class OsgiRunState extends JavaCommandLineState {
               selectedBundles.add(selectedBundle);
             }
           }
+
+          SelectedBundle[] cached = cache.getBundleSet(runConfiguration.getName(), selectedBundles);
+          if (cached != null) {
+            _selectedBundles = cached;
+            return;
+          }
+
           HashMap<String, SelectedBundle> finalList = new HashMap<String, SelectedBundle>();
 
           // filter out bundles which have the same symbolic name
+          List<String> bundleUrls = new ArrayList<String>();
+          for (SelectedBundle selectedBundle : selectedBundles) {
+            bundleUrls.add(selectedBundle.getBundleUrl());
+          }
+          CachingBundleInfoProvider.preload(bundleUrls);
           for (SelectedBundle selectedBundle : selectedBundles) {
             String name = CachingBundleInfoProvider.getBundleSymbolicName(selectedBundle.getBundleUrl());
             String version = CachingBundleInfoProvider.getBundleVersions(selectedBundle.getBundleUrl());
@@ -240,6 +266,9 @@ public class OsgiRunState extends JavaCommandLineState {
           Collection<SelectedBundle> selectedBundleCollection = finalList.values();
           _selectedBundles = selectedBundleCollection.toArray(new SelectedBundle[selectedBundleCollection.size()]);
           Arrays.sort(_selectedBundles, new StartLevelComparator());
+          if (!progressIndicator.isCanceled()) {
+            cache.putBundleSet(runConfiguration.getName(), selectedBundles, _selectedBundles);
+          }
         }
       });
     }
@@ -138,10 +138,16 @@ public class BundleSelector extends JDialog {
         @Override
         protected void collectFrameworkJars(@NotNull Collection<VirtualFile> jarFiles,
                                             @NotNull FrameworkInstanceLibrarySourceFinder sourceFinder) {
+          List<String> urls = new ArrayList<String>(jarFiles.size());
           for (VirtualFile jarFile : jarFiles) {
             String url = jarFile.getUrl();
             url = BundleCompiler.convertJarUrlToFileUrl(url);
             url = BundleCompiler.fixFileURL(url);
+            urls.add(url);
+          }
+          // read the manifests of all framework jars at once
+          CachingBundleInfoProvider.preload(urls);
+          for (String url : urls) {
             String bundleName = CachingBundleInfoProvider.getBundleSymbolicName(url);
             if (bundleName != null) {
               String bundleVersion = CachingBundleInfoProvider.getBundleVersions(url);
@@ -155,13 +161,16 @@ public class BundleSelector extends JDialog {
 
 
       // all the libraries that are bundles already (doesnt make much sense to start bundlified libs as they have no activator).
-      final String[] urls = OrderEnumerator.orderEntries(project).withoutSdk().withoutModuleSourceEntries()
+      final String[] libraryUrls = OrderEnumerator.orderEntries(project).withoutSdk().withoutModuleSourceEntries()
         .satisfying(BundleCompiler.NOT_FRAMEWORK_LIBRARY_CONDITION).classes().getUrls();
-      for (String url : urls) {
+      List<String> urls = new ArrayList<String>(libraryUrls.length);
+      for (String url : libraryUrls) {
         url = BundleCompiler.convertJarUrlToFileUrl(url);
         url = BundleCompiler.fixFileURL(url);
-
-
+        urls.add(url);
+      }
+      CachingBundleInfoProvider.preload(urls);
+      for (String url : urls) {
         String displayName = CachingBundleInfoProvider.getBundleSymbolicName(url);
         if (displayName != null) {
           // okay its a startable library
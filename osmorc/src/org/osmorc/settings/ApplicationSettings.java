@@ -51,6 +51,7 @@ import java.util.List;
 public class ApplicationSettings implements PersistentStateComponent<ApplicationSettings> {
   private List<FrameworkInstanceDefinition> _frameworkInstanceDefinitions = new ArrayList<FrameworkInstanceDefinition>();
   private List<LibraryBundlificationRule> _libraryBundlificationRules = new ArrayList<LibraryBundlificationRule>();
+  private List<String> _repositoryIndexSources = new ArrayList<String>();
   private EventDispatcher<ApplicationSettingsListener> dispatcher = EventDispatcher.create(ApplicationSettingsListener.class);
 
 
@@ -98,6 +99,18 @@ public class ApplicationSettings implements PersistentStateComponent<Application
     return _libraryBundlificationRules;
   }
 
+  /**
+   * @return the OBR repository descriptors and local Maven repositories which are indexed to search for bundles.
+   */
+  @AbstractCollection(elementTag = "repositoryIndexSource", elementValueAttribute = "location")
+  public List<String> getRepositoryIndexSources() {
+    return _repositoryIndexSources;
+  }
+
+  public void setRepositoryIndexSources(List<String> repositoryIndexSources) {
+    _repositoryIndexSources = repositoryIndexSources;
+  }
+
   public void setFrameworkInstanceDefinitions(List<FrameworkInstanceDefinition> frameworkInstanceDefinitions) {
     _frameworkInstanceDefinitions = frameworkInstanceDefinitions;
     dispatcher.getMulticaster().frameworkInstancesChanged();
@@ -0,0 +1,47 @@
+package org.osmorc.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helpers for the SHA-1 keys under which Osmorc caches generated files.
+ */
+public class DigestUtil {
+  private DigestUtil() {
+  }
+
+  @NotNull
+  public static MessageDigest createSha1() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Adds the given string to the digest, terminated so that consecutive values can't run into each other.
+   */
+  public static void update(@NotNull MessageDigest digest, @NotNull String value) {
+    try {
+      digest.update(value.getBytes("UTF-8"));
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+    digest.update((byte)0);
+  }
+
+  @NotNull
+  public static String toHex(@NotNull byte[] bytes) {
+    StringBuilder result = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return result.toString();
+  }
+}
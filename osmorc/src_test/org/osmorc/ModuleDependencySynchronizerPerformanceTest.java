@@ -0,0 +1,138 @@
+package org.osmorc;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.roots.LibraryOrderEntry;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.OrderEntry;
+import com.intellij.openapi.roots.libraries.Library;
+import com.intellij.openapi.roots.libraries.LibraryTable;
+import com.intellij.openapi.roots.libraries.LibraryTablesRegistrar;
+import com.intellij.testFramework.LightIdeaTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import org.osmorc.manifest.BundleManifest;
+import org.osmorc.manifest.impl.BundleManifestImpl;
+import org.osmorc.manifest.lang.psi.ManifestFile;
+import org.osmorc.testutil.SyntheticBundleWeb;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Performance regression test for {@link ModuleDependencySynchronizer}: finding the modules to synchronize after manifest changes,
+ * on a synthetic project with thousands of library bundles and hundreds of modules, and updating the root model of a module
+ * with hundreds of dependencies. Resolving the dependencies is covered by
+ * {@link org.osmorc.impl.BundleResolutionPerformanceTest}.
+ */
+public class ModuleDependencySynchronizerPerformanceTest extends LightIdeaTestCase {
+  private static final int LIBRARIES = 3000;
+  private static final int MODULES = 300;
+  private static final int CHANGES = 100;
+  private static final int DEPENDENCIES = 500;
+
+  public void testFindAffectedModules() {
+    SyntheticBundleWeb web = new SyntheticBundleWeb(LIBRARIES, MODULES);
+    Map<Object, BundleManifest> manifests = new HashMap<Object, BundleManifest>();
+    addManifests(manifests, web.getLibraries());
+    addManifests(manifests, web.getModules());
+    // the manifests are parsed once they are indexed, which isn't part of the synchronization
+    for (BundleManifest manifest : manifests.values()) {
+      manifest.getImports();
+    }
+
+    long start = System.nanoTime();
+    Map<Object, Set<Object>> dependents = ModuleDependencySynchronizer.buildReverseDependencies(manifests);
+    long building = (System.nanoTime() - start) / 1000000;
+
+    // a change at the bottom of the web affects much of the project, a change of a module only few other modules
+    start = System.nanoTime();
+    int affected = 0;
+    for (int i = 0; i < CHANGES; i++) {
+      String changed = i % 2 == 0 ? SyntheticBundleWeb.getLibraryName(i) : SyntheticBundleWeb.getModuleName(i);
+      affected += ModuleDependencySynchronizer.collectDependents(Collections.singletonList(changed), dependents).size();
+    }
+    long collecting = (System.nanoTime() - start) / 1000000;
+    assertThat(affected > CHANGES, is(true));
+
+    PlatformTestUtil.assertTiming("Building the reverse dependencies of " + manifests.size() + " bundles is too slow", 2000, building);
+    PlatformTestUtil.assertTiming("Collecting the dependents of " + CHANGES + " changes (" + affected / CHANGES +
+                                  " bundles on average) is too slow", 2000, collecting);
+  }
+
+  public void testUpdateModels() {
+    final LibraryTable libraryTable = LibraryTablesRegistrar.getInstance().getLibraryTable(getProject());
+    final List<Library> libraries = new ArrayList<Library>();
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      @Override
+      public void run() {
+        LibraryTable.ModifiableModel model = libraryTable.getModifiableModel();
+        for (int i = 0; i < DEPENDENCIES; i++) {
+          libraries.add(model.createLibrary(SyntheticBundleWeb.getLibraryName(i)));
+        }
+        model.commit();
+      }
+    });
+
+    try {
+      Set<Object> all = new HashSet<Object>(libraries);
+      long start = System.nanoTime();
+      updateModel(all, new HashSet<Object>(libraries.subList(0, DEPENDENCIES / 2)));
+      long adding = (System.nanoTime() - start) / 1000000;
+      assertThat(getLibraryEntries().size(), is(DEPENDENCIES));
+
+      start = System.nanoTime();
+      updateModel(all, new HashSet<Object>(libraries.subList(0, DEPENDENCIES / 2)));
+      long unchanged = (System.nanoTime() - start) / 1000000;
+
+      // half of the dependencies are dropped and the re-exports of the others change
+      Set<Object> remaining = new HashSet<Object>(libraries.subList(DEPENDENCIES / 2, DEPENDENCIES));
+      start = System.nanoTime();
+      updateModel(remaining, remaining);
+      long changing = (System.nanoTime() - start) / 1000000;
+      List<LibraryOrderEntry> entries = getLibraryEntries();
+      assertThat(entries.size(), is(DEPENDENCIES / 2));
+      for (LibraryOrderEntry entry : entries) {
+        assertThat(entry.isExported(), is(true));
+      }
+
+      PlatformTestUtil.assertTiming("Adding " + DEPENDENCIES + " dependencies to a module is too slow", 2000, adding);
+      PlatformTestUtil.assertTiming("Synchronizing " + DEPENDENCIES + " unchanged dependencies is too slow", 200, unchanged);
+      PlatformTestUtil.assertTiming("Changing " + DEPENDENCIES + " dependencies of a module is too slow", 2000, changing);
+    }
+    finally {
+      updateModel(Collections.emptySet(), Collections.emptySet());
+      ApplicationManager.getApplication().runWriteAction(new Runnable() {
+        @Override
+        public void run() {
+          LibraryTable.ModifiableModel model = libraryTable.getModifiableModel();
+          for (Library library : libraries) {
+            model.removeLibrary(library);
+          }
+          model.commit();
+        }
+      });
+    }
+  }
+
+  private static void updateModel(Set<Object> bundles, Set<Object> reExported) {
+    ModuleDependencySynchronizer.updateModels(getProject(), Collections.singletonMap(
+      getModule(), new ModuleDependencySynchronizer.Dependencies(new HashSet<Object>(bundles), reExported)));
+  }
+
+  private static List<LibraryOrderEntry> getLibraryEntries() {
+    List<LibraryOrderEntry> result = new ArrayList<LibraryOrderEntry>();
+    for (OrderEntry entry : ModuleRootManager.getInstance(getModule()).getOrderEntries()) {
+      if (entry instanceof LibraryOrderEntry) {
+        result.add((LibraryOrderEntry)entry);
+      }
+    }
+    return result;
+  }
+
+  private static void addManifests(Map<Object, BundleManifest> manifests, Map<String, String> bundles) {
+    for (Map.Entry<String, String> bundle : bundles.entrySet()) {
+      manifests.put(bundle.getKey(), new BundleManifestImpl((ManifestFile)createLightFile(bundle.getKey() + ".MF", bundle.getValue())));
+    }
+  }
+}
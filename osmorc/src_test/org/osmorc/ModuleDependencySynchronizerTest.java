@@ -0,0 +1,61 @@
+package org.osmorc;
+
+import com.intellij.testFramework.LightIdeaTestCase;
+import org.osmorc.manifest.BundleManifest;
+import org.osmorc.manifest.impl.BundleManifestImpl;
+import org.osmorc.manifest.lang.psi.ManifestFile;
+import org.osmorc.testutil.ManifestMaker;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.osmorc.testutil.ManifestMaker.bundleSymbolicName;
+
+/**
+ * Test for the computation of the modules affected by a manifest change in {@link ModuleDependencySynchronizer}.
+ */
+public class ModuleDependencySynchronizerTest extends LightIdeaTestCase {
+  private Map<Object, Set<Object>> myDependents;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    Map<Object, BundleManifest> manifests = new HashMap<Object, BundleManifest>();
+    addManifest(manifests, "api", bundleSymbolicName("org.example.api").bundleVersion("1.0.0")
+      .exportPackages("org.example.api"));
+    addManifest(manifests, "impl", bundleSymbolicName("org.example.impl").bundleVersion("1.0.0")
+      .importPackages("org.example.api;version=\"[1.0,2.0)\"").exportPackages("org.example.impl"));
+    addManifest(manifests, "client", bundleSymbolicName("org.example.client").bundleVersion("1.0.0")
+      .requireBundle("org.example.impl;bundle-version=\"1.0.0\""));
+    addManifest(manifests, "fragment", bundleSymbolicName("org.example.impl.fragment").bundleVersion("1.0.0")
+      .fragmentHost("org.example.impl;bundle-version=\"1.0.0\""));
+    addManifest(manifests, "unrelated", bundleSymbolicName("org.example.unrelated").bundleVersion("1.0.0")
+      .importPackages("org.example.other"));
+    myDependents = ModuleDependencySynchronizer.buildReverseDependencies(manifests);
+  }
+
+  public void testReverseDependencies() {
+    assertThat(myDependents.get("api"), equalTo(set("impl")));
+    assertThat(myDependents.get("impl"), equalTo(set("client", "fragment")));
+    assertThat(myDependents.get("fragment"), equalTo(set("impl")));
+    assertThat(myDependents.get("client"), equalTo(null));
+    assertThat(myDependents.get("unrelated"), equalTo(null));
+  }
+
+  public void testOnlyAffectedBundlesAreCollected() {
+    assertThat(ModuleDependencySynchronizer.collectDependents(Arrays.asList("api"), myDependents),
+               equalTo(set("api", "impl", "client", "fragment")));
+    assertThat(ModuleDependencySynchronizer.collectDependents(Arrays.asList("client"), myDependents), equalTo(set("client")));
+    assertThat(ModuleDependencySynchronizer.collectDependents(Arrays.asList("fragment", "unrelated"), myDependents),
+               equalTo(set("fragment", "impl", "client", "unrelated")));
+  }
+
+  private static void addManifest(Map<Object, BundleManifest> manifests, String bundle, ManifestMaker manifest) {
+    manifests.put(bundle, new BundleManifestImpl((ManifestFile)createLightFile(bundle + ".MF", manifest.toString())));
+  }
+
+  private static Set<Object> set(Object... bundles) {
+    return new HashSet<Object>(Arrays.asList(bundles));
+  }
+}
@@ -25,6 +25,7 @@
 
 package org.osmorc.frameworkintegration;
 
+import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.testFramework.fixtures.IdeaProjectTestFixture;
 import com.intellij.testFramework.fixtures.IdeaTestFixtureFactory;
 import com.intellij.testFramework.fixtures.TempDirTestFixture;
@@ -37,6 +38,15 @@ import org.junit.runner.RunWith;
 import org.osmorc.SwingRunner;
 import org.osmorc.TestUtil;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
 /**
  * @author Robert F. Beeger (robert@beeger.net)
  */
@@ -94,4 +104,44 @@ public class CachingBundleInfoProviderTest {
         assertThat(CachingBundleInfoProvider.isFragmentBundle(jarbundleUrl), equalTo(false));
         assertThat(CachingBundleInfoProvider.isFragmentBundle(invaliddirbundleUrl), equalTo(false));
     }
+
+    @Test
+    public void testChangedJarIsReadAgain() throws Exception {
+        File jar = new File(myTempDirFixture.getTempDirPath(), "changing.jar");
+        String url = VfsUtil.pathToUrl(jar.getPath());
+        writeBundle(jar, "first", "1.0.0");
+        assertThat(CachingBundleInfoProvider.getBundleSymbolicName(url), equalTo("first"));
+
+        writeBundle(jar, "second.bundle", "2.0.0");
+        assertThat(jar.setLastModified(jar.lastModified() + 2000), equalTo(true));
+        assertThat(CachingBundleInfoProvider.getBundleSymbolicName(url), equalTo("second.bundle"));
+        assertThat(CachingBundleInfoProvider.getBundleVersions(url), equalTo("2.0.0"));
+    }
+
+    @Test
+    public void testPreload() throws Exception {
+        List<String> urls = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            File jar = new File(myTempDirFixture.getTempDirPath(), "bundle" + i + ".jar");
+            writeBundle(jar, "bundle" + i, "1.0." + i);
+            urls.add(VfsUtil.pathToUrl(jar.getPath()));
+        }
+        urls.add(invaliddirbundleUrl);
+        CachingBundleInfoProvider.preload(urls);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(CachingBundleInfoProvider.getBundleSymbolicName(urls.get(i)), equalTo("bundle" + i));
+            assertThat(CachingBundleInfoProvider.getBundleVersions(urls.get(i)), equalTo("1.0." + i));
+        }
+        assertThat(CachingBundleInfoProvider.isBundle(invaliddirbundleUrl), equalTo(false));
+    }
+
+    private static void writeBundle(File jar, String symbolicName, String version) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Bundle-SymbolicName", symbolicName);
+        manifest.getMainAttributes().putValue("Bundle-Version", version);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+        out.close();
+    }
 }
@@ -0,0 +1,113 @@
+package org.osmorc.frameworkintegration;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test of {@link FrameworkJarCatalog}
+ */
+public class FrameworkJarCatalogTest {
+  private File myTempDir;
+  private File myBundleDir;
+
+  @Before
+  public void setUp() throws IOException {
+    myTempDir = FileUtil.createTempDirectory("osmorc", "framework");
+    myBundleDir = new File(myTempDir, "framework/bundle");
+    assertThat(myBundleDir.mkdirs(), is(true));
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myTempDir);
+  }
+
+  @Test
+  public void testJarsAreExamined() throws IOException {
+    createBundle("a.jar", "org.example.a", "1.0.0");
+    FileUtil.writeToFile(new File(myBundleDir, "readme.txt"), "no bundle".getBytes());
+
+    List<FrameworkJarCatalog.Jar> jars = newCatalog().getJars(Collections.singletonList(myBundleDir));
+    assertThat(jars.size(), is(2));
+    assertThat(jars.get(0).hasManifest(), is(true));
+    assertThat(jars.get(0).getSymbolicName(), equalTo("org.example.a"));
+    assertThat(jars.get(0).getVersion(), equalTo("1.0.0"));
+    assertThat(jars.get(1).hasManifest(), is(false));
+  }
+
+  @Test
+  public void testOnlyChangedJarsAreExaminedAgain() throws IOException {
+    File a = createBundle("a.jar", "org.example.a", "1.0.0");
+    File b = createBundle("b.jar", "org.example.b", "1.0.0");
+    newCatalog().getJars(Collections.singletonList(myBundleDir));
+
+    // same size and time stamp, the catalog (read from disk) doesn't look at it again
+    long lastModified = a.lastModified();
+    createBundle("a.jar", "org.example.x", "1.0.0");
+    assertThat(a.setLastModified(lastModified), is(true));
+    // but a changed time stamp is noticed
+    createBundle("b.jar", "org.example.b", "2.0.0");
+    assertThat(b.setLastModified(b.lastModified() + 10000), is(true));
+
+    List<FrameworkJarCatalog.Jar> jars = newCatalog().getJars(Collections.singletonList(myBundleDir));
+    assertThat(jars.get(0).getSymbolicName(), equalTo("org.example.a"));
+    assertThat(jars.get(1).getVersion(), equalTo("2.0.0"));
+
+    // removed jars are gone
+    assertThat(b.delete(), is(true));
+    assertThat(newCatalog().getJars(Collections.singletonList(myBundleDir)).size(), is(1));
+  }
+
+  @Test
+  public void testSourcesAreRememberedUntilTheLayoutChanges() throws IOException {
+    createBundle("a.jar", "org.example.a", "1.0.0");
+    File sourceDir = new File(myTempDir, "framework/src");
+    assertThat(sourceDir.mkdirs(), is(true));
+
+    FrameworkJarCatalog catalog = newCatalog();
+    FrameworkJarCatalog.Jar jar = catalog.getJars(Collections.singletonList(myBundleDir)).get(0);
+    assertThat(jar.getSourceUrls(), nullValue());
+    catalog.setSourceUrls(jar, Arrays.asList("jar:///framework/src/a-src.zip!/"));
+    catalog.save();
+
+    jar = newCatalog().getJars(Collections.singletonList(myBundleDir)).get(0);
+    assertThat(jar.getSourceUrls(), equalTo(Arrays.asList("jar:///framework/src/a-src.zip!/")));
+
+    // new sources next to the bundles
+    assertThat(new File(sourceDir, "bundle").mkdir(), is(true));
+    assertThat(sourceDir.setLastModified(sourceDir.lastModified() + 10000), is(true));
+    jar = newCatalog().getJars(Collections.singletonList(myBundleDir)).get(0);
+    assertThat(jar.getSourceUrls(), nullValue());
+  }
+
+  private FrameworkJarCatalog newCatalog() {
+    return new FrameworkJarCatalog(new File(myTempDir, "catalog"));
+  }
+
+  private File createBundle(String fileName, String symbolicName, String version) throws IOException {
+    Manifest manifest = new Manifest();
+    Attributes attributes = manifest.getMainAttributes();
+    attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    attributes.putValue("Bundle-SymbolicName", symbolicName + ";singleton:=true");
+    attributes.putValue("Bundle-Version", version);
+    File file = new File(myBundleDir, fileName);
+    JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest);
+    out.close();
+    return file;
+  }
+}
@@ -11,6 +11,7 @@ import org.osmorc.manifest.ManifestHolderDisposedException;
 import org.osmorc.manifest.lang.psi.ManifestFile;
 import org.osmorc.testutil.TestManifestHolder;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -71,6 +72,52 @@ public class BundleCacheTest extends LightIdeaTestCase {
     assertThat(fragmentHosts.iterator().next().getBundleManifest().getBundleSymbolicName(), equalTo("foo.bar"));
   }
 
+  public void testWhoProvides() throws ManifestHolderDisposedException {
+    Set<ManifestHolder> providers = myCache.whoProvides("foo.bam");
+    assertThat(providers.size(), is(2));
+
+    providers = myCache.whoProvides("foo.bam;version=\"[1.2.3,2.0.0)\"");
+    assertThat(providers.size(), is(1));
+    assertThat(providers.iterator().next().getBundleManifest().getBundleVersion().toString(), equalTo("1.2.3"));
+
+    assertThat(myCache.whoProvides("foo.bam;version=2.0.0").isEmpty(), is(true));
+    assertThat(myCache.whoProvides("foo.unknown").isEmpty(), is(true));
+  }
+
+  public void testFragmentsForBundle() throws ManifestHolderDisposedException {
+    ManifestHolder host = myCache.whoIs("foo.bar").get(0);
+    Set<ManifestHolder> fragments = myCache.getFragmentsForBundle(host);
+    assertThat(fragments.size(), is(1));
+    assertThat(fragments.iterator().next(), sameInstance(myFragmentHolder));
+
+    assertThat(myCache.getFragmentsForBundle(myFragmentHolder).isEmpty(), is(true));
+  }
+
+  public void testManifestHolderByBoundObject() {
+    TestManifestHolder holder = (TestManifestHolder)makeManifestHolder("MANIFEST6.MF", bundleSymbolicName("foo.bound").toString());
+    Object bundle = new Object();
+    holder.setBoundObject(bundle);
+    myCache.updateWith(holder);
+    assertThat(myCache.getManifestHolder(bundle), sameInstance((ManifestHolder)holder));
+    assertThat(myCache.getManifestHolder(new Object()), nullValue());
+  }
+
+  public void testChangedManifestIsReindexed() {
+    TestManifestHolder holder = (TestManifestHolder)makeManifestHolder("MANIFEST7.MF", bundleSymbolicName("foo.edited")
+      .exportPackages("foo.edited.old").toString());
+    myCache.updateWith(holder);
+    ManifestFile oldFile = holder.getBundleManifest().getManifestFile();
+    holder.setManifestFile((ManifestFile)createLightFile("MANIFEST7.MF", bundleSymbolicName("foo.edited")
+      .exportPackages("foo.edited.new").toString()));
+
+    // the cache doesn't look for changes by itself
+    assertThat(myCache.whoProvides("foo.edited.new").isEmpty(), is(true));
+
+    myCache.manifestChanged(oldFile.getViewProvider().getVirtualFile());
+    assertThat(myCache.whoProvides("foo.edited.new"), equalTo(Collections.<ManifestHolder>singleton(holder)));
+    assertThat(myCache.whoProvides("foo.edited.old").isEmpty(), is(true));
+  }
+
   public void testRequiredBundleWithVersion() throws ManifestHolderDisposedException {
     ManifestHolder manifestHolder = myCache.whoIsRequiredBundle("foo.bam;bundle-version=1.2.0");
     assertThat(manifestHolder, notNullValue());
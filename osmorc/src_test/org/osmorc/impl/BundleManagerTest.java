@@ -10,6 +10,7 @@ import com.intellij.testFramework.LightIdeaTestCase;
 import org.hamcrest.CoreMatchers;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.osmorc.VisiblePackages;
 import org.osmorc.manifest.ManifestHolder;
 import org.osmorc.manifest.impl.ManifestHolderRegistryImpl;
 import org.osmorc.manifest.lang.psi.ManifestFile;
@@ -22,7 +23,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.osmorc.testutil.ManifestMaker.bundleSymbolicName;
 
@@ -228,6 +231,53 @@ public class BundleManagerTest extends LightIdeaTestCase {
   }
 
 
+  /**
+   * Tests that resolved dependencies are cached until the index changes.
+   */
+  public void testResolvedDependenciesAreCached() {
+    myBundleManager.addManifestHolder(
+      makeHolder("MyManifest.MF", bundleSymbolicName("foo.bar").bundleVersion("1.0.0").requireBundle("org.eclipse.ui")
+        .bundleClassPath(FAKE_JAR_NAME).toString(), getModule()));
+
+    Set<Object> objects = myBundleManager.resolveDependenciesOf(getModule());
+    assertThat(objects.size(), is(4));
+    assertThat(myBundleManager.resolveDependenciesOf(getModule()), sameInstance(objects));
+
+    // a new version of a re-exported bundle is picked up
+    myBundleManager.addManifestHolder(makeHolder("Manifest9.MF", bundleSymbolicName("org.eclipse.core.expressions").bundleVersion("3.5.0")
+      .toString(), "org.eclipse.core.expressions.new"));
+    Set<Object> newObjects = myBundleManager.resolveDependenciesOf(getModule());
+    assertThat(newObjects, not(sameInstance(objects)));
+    assertThat(newObjects.contains("org.eclipse.core.expressions.new"), is(true));
+    assertThat(newObjects.contains("org.eclipse.core.expressions"), is(false));
+    assertThat(newObjects.contains(myFakeJarLibrary), is(true));
+  }
+
+  /**
+   * Tests the packages visible through Import-Package, Require-Bundle and Bundle-ClassPath.
+   */
+  public void testVisiblePackages() {
+    myBundleManager.addManifestHolder(makeHolder("Manifest9.MF", bundleSymbolicName("org.example.api").bundleVersion("1.0.0")
+      .exportPackages("org.example.api", "org.example.api.spi;version=1.0.0").toString(), "org.example.api"));
+    myBundleManager.addManifestHolder(
+      makeHolder("MyManifest.MF", bundleSymbolicName("foo.bar").bundleVersion("1.0.0").importPackages("org.example.util;version=1.0")
+        .requireBundle("org.example.api").bundleClassPath(FAKE_JAR_NAME).toString(), getModule()));
+
+    VisiblePackages visiblePackages = myBundleManager.getVisiblePackages(getModule());
+    assertThat(visiblePackages, notNullValue());
+    assertThat(visiblePackages.isVisible("org.example.util"), is(true));
+    assertThat(visiblePackages.isVisible("org.example.api"), is(true));
+    assertThat(visiblePackages.isVisible("org.example.api.spi"), is(true));
+    assertThat(visiblePackages.isVisible("org.example.internal"), is(false));
+    assertThat(visiblePackages.isVisibleFrom(myFakeJarLibrary), is(true));
+
+    // cached until the index changes
+    assertThat(myBundleManager.getVisiblePackages(getModule()), sameInstance(visiblePackages));
+    myBundleManager.addManifestHolder(makeHolder("Manifest10.MF", bundleSymbolicName("org.example.other").bundleVersion("1.0.0")
+      .toString(), "org.example.other"));
+    assertThat(myBundleManager.getVisiblePackages(getModule()), not(sameInstance(visiblePackages)));
+  }
+
   private static ManifestHolder makeHolder(@NotNull String fileName, @NotNull String contents, @Nullable Object boundObject) {
     TestManifestHolder result = new TestManifestHolder((ManifestFile)createLightFile(fileName, contents));
     result.setBoundObject(boundObject);
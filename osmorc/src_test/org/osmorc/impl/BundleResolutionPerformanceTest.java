@@ -0,0 +1,195 @@
+package org.osmorc.impl;
+
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.LightIdeaTestCase;
+import com.intellij.testFramework.LightVirtualFile;
+import com.intellij.testFramework.PlatformTestUtil;
+import org.osmorc.manifest.ManifestHolder;
+import org.osmorc.manifest.impl.ManifestHolderRegistryImpl;
+import org.osmorc.manifest.lang.psi.ManifestFile;
+import org.osmorc.testutil.SyntheticBundleWeb;
+import org.osmorc.testutil.TestManifestHolder;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Performance regression test for indexing bundles in the {@link BundleCache} and resolving the dependencies of modules in
+ * {@link MyBundleManager}, on a synthetic project with thousands of library bundles and hundreds of modules.
+ */
+public class BundleResolutionPerformanceTest extends LightIdeaTestCase {
+  private static final int LIBRARIES = 3000;
+  private static final int MODULES = 300;
+
+  private SyntheticBundleWeb myWeb;
+  private List<ManifestHolder> myLibraryHolders;
+  private List<TestManifestHolder> myModuleHolders;
+  private List<Module> myModules;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myWeb = new SyntheticBundleWeb(LIBRARIES, MODULES);
+    // manifests of libraries are read-only, those of modules can be edited and are watched for changes by the cache
+    myLibraryHolders = new ArrayList<ManifestHolder>();
+    for (Map.Entry<String, String> library : myWeb.getLibraries().entrySet()) {
+      myLibraryHolders.add(makeHolder(library.getKey(), library.getValue(), library.getKey(), false));
+    }
+    myModuleHolders = new ArrayList<TestManifestHolder>();
+    myModules = new ArrayList<Module>();
+    for (Map.Entry<String, String> module : myWeb.getModules().entrySet()) {
+      Module boundModule = createModule(module.getKey());
+      myModules.add(boundModule);
+      myModuleHolders.add(makeHolder(module.getKey(), module.getValue(), boundModule, true));
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myWeb = null;
+    myLibraryHolders = null;
+    myModuleHolders = null;
+    myModules = null;
+    super.tearDown();
+  }
+
+  public void testReindex() {
+    // the first indexing reads all manifests, reindexing afterwards (as on every change of the project roots) only checks them
+    long start = System.nanoTime();
+    BundleCache cache = index();
+    long indexing = (System.nanoTime() - start) / 1000000;
+
+    start = System.nanoTime();
+    boolean changed = false;
+    for (ManifestHolder holder : myLibraryHolders) {
+      changed |= cache.updateWith(holder);
+    }
+    for (ManifestHolder holder : myModuleHolders) {
+      changed |= cache.updateWith(holder);
+    }
+    changed |= cache.cleanup();
+    long reindexing = (System.nanoTime() - start) / 1000000;
+    assertThat(changed, is(false));
+
+    start = System.nanoTime();
+    int providers = 0;
+    for (int i = 0; i < LIBRARIES; i++) {
+      providers += cache.whoProvides(SyntheticBundleWeb.getLibraryName(i) + ".package0;version=\"[1.0,2.0)\"").size();
+    }
+    long lookups = (System.nanoTime() - start) / 1000000;
+    assertThat(providers, is(LIBRARIES));
+
+    // every module manifest is edited, the next query reindexes the modules but not the libraries
+    for (int i = 0; i < MODULES; i++) {
+      TestManifestHolder holder = myModuleHolders.get(i);
+      VirtualFile oldFile = holder.getBundleManifest().getManifestFile().getViewProvider().getVirtualFile();
+      String name = SyntheticBundleWeb.getModuleName(i);
+      String contents = myWeb.getModules().get(name).replace("Bundle-Version: 1.0.0", "Bundle-Version: 1.1.0");
+      holder.setManifestFile(createManifestFile(name, contents));
+      cache.manifestChanged(oldFile);
+    }
+    start = System.nanoTime();
+    assertThat(cache.whoIsRequiredBundle(SyntheticBundleWeb.getModuleName(0) + ";bundle-version=1.1.0"), notNullValue());
+    long editing = (System.nanoTime() - start) / 1000000;
+
+    int bundles = myLibraryHolders.size() + myModuleHolders.size();
+    PlatformTestUtil.assertTiming("Indexing " + bundles + " bundles is too slow", 5000, indexing);
+    PlatformTestUtil.assertTiming("Reindexing " + bundles + " unchanged bundles is too slow", 500, reindexing);
+    PlatformTestUtil.assertTiming("Looking up the exporters of " + LIBRARIES + " packages is too slow", 1000, lookups);
+    PlatformTestUtil.assertTiming("Reindexing " + MODULES + " edited module manifests among " + bundles + " bundles is too slow", 1000,
+                                  editing);
+  }
+
+  public void testResolveDependencies() {
+    MyBundleManager bundleManager = new MyBundleManager(new ManifestHolderRegistryImpl(getProject()), getProject());
+    for (ManifestHolder holder : myLibraryHolders) {
+      bundleManager.addManifestHolder(holder);
+    }
+    for (ManifestHolder holder : myModuleHolders) {
+      bundleManager.addManifestHolder(holder);
+    }
+
+    long start = System.nanoTime();
+    List<Set<Object>> dependencies = new ArrayList<Set<Object>>();
+    int total = 0;
+    for (Module module : myModules) {
+      Set<Object> moduleDependencies = bundleManager.resolveDependenciesOf(module);
+      dependencies.add(moduleDependencies);
+      total += moduleDependencies.size();
+    }
+    long resolving = (System.nanoTime() - start) / 1000000;
+    assertThat(total >= MODULES * 5, is(true));
+
+    // unchanged, so resolved from the cache
+    start = System.nanoTime();
+    for (int i = 0; i < myModules.size(); i++) {
+      assertThat(bundleManager.resolveDependenciesOf(myModules.get(i)), sameInstance(dependencies.get(i)));
+    }
+    long cached = (System.nanoTime() - start) / 1000000;
+
+    PlatformTestUtil.assertTiming("Resolving the " + total + " dependencies of " + MODULES + " modules is too slow", 3000, resolving);
+    PlatformTestUtil.assertTiming("Resolving cached dependencies of " + MODULES + " modules is too slow", 100, cached);
+  }
+
+  private BundleCache index() {
+    BundleCache cache = new BundleCache();
+    for (ManifestHolder holder : myLibraryHolders) {
+      cache.updateWith(holder);
+    }
+    for (ManifestHolder holder : myModuleHolders) {
+      cache.updateWith(holder);
+    }
+    cache.cleanup();
+    return cache;
+  }
+
+  private static TestManifestHolder makeHolder(String name, String contents, Object boundObject, boolean writable) {
+    ManifestFile manifestFile = createManifestFile(name, contents);
+    if (!writable) {
+      ((LightVirtualFile)manifestFile.getViewProvider().getVirtualFile()).setWritable(false);
+    }
+    TestManifestHolder result = new TestManifestHolder(manifestFile);
+    result.setBoundObject(boundObject);
+    return result;
+  }
+
+  private static ManifestFile createManifestFile(String name, String contents) {
+    return (ManifestFile)createLightFile(name + ".MF", contents);
+  }
+
+  /**
+   * The bundle manager only uses modules as keys, so a lightweight stand-in does for hundreds of modules.
+   */
+  private static Module createModule(final String name) {
+    return (Module)Proxy.newProxyInstance(Module.class.getClassLoader(), new Class[]{Module.class}, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String methodName = method.getName();
+        if (methodName.equals("equals")) {
+          return proxy == args[0];
+        }
+        if (methodName.equals("hashCode")) {
+          return System.identityHashCode(proxy);
+        }
+        if (methodName.equals("getName") || methodName.equals("toString")) {
+          return name;
+        }
+        if (methodName.equals("isDisposed")) {
+          return false;
+        }
+        throw new UnsupportedOperationException(methodName);
+      }
+    });
+  }
+}
@@ -0,0 +1,148 @@
+package org.osmorc.make;
+
+import aQute.lib.osgi.Analyzer;
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.compiler.DummyCompileContext;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.LightIdeaTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.framework.Constants;
+import org.osmorc.testutil.SyntheticModuleOutput;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Performance regression test for building the bundles of a synthetic project with {@link BndWrapper} on the
+ * {@link BundleCompilerPool}, compared to building them one after another.
+ */
+public class BundleCompilerPoolPerformanceTest extends LightIdeaTestCase {
+  private static final int MODULES = 64;
+  private static final int PACKAGES_PER_MODULE = 8;
+  private static final int CLASSES_PER_PACKAGE = 5;
+
+  private File myTempDir;
+  private List<File> myOutputDirs;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTempDir = FileUtil.createTempDirectory("osmorc", "pool");
+    SyntheticModuleOutput output = new SyntheticModuleOutput(PACKAGES_PER_MODULE, CLASSES_PER_PACKAGE, BundleCompiler.class,
+                                                             BndWrapper.class, BundleValidityState.class, Analyzer.class);
+    long lastModified = System.currentTimeMillis() - 60000;
+    myOutputDirs = new ArrayList<File>();
+    for (int module = 0; module < MODULES; module++) {
+      File outputDir = new File(myTempDir, "out/module" + module);
+      output.writeDirectory(outputDir, module, lastModified);
+      myOutputDirs.add(outputDir);
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myTempDir);
+    myOutputDirs = null;
+    super.tearDown();
+  }
+
+  public void testPooledBuild() throws Exception {
+    // bnd is loaded and compiled before anything is measured, so the first of both runs has no disadvantage
+    List<ModuleBuild> warmUp = createBuilds("warmup");
+    for (ModuleBuild build : warmUp.subList(0, MODULES / 4)) {
+      build.build(DummyCompileContext.getInstance());
+    }
+
+    List<ModuleBuild> serialBuilds = createBuilds("serial");
+    long start = System.nanoTime();
+    for (ModuleBuild build : serialBuilds) {
+      build.build(DummyCompileContext.getInstance());
+    }
+    long serial = (System.nanoTime() - start) / 1000000;
+
+    List<ModuleBuild> pooledBuilds = createBuilds("pooled");
+    start = System.nanoTime();
+    BundleCompiler.buildConcurrently(DummyCompileContext.getInstance(), pooledBuilds);
+    long pooled = (System.nanoTime() - start) / 1000000;
+
+    for (int i = 0; i < MODULES; i++) {
+      assertThat(getExportPackage(pooledBuilds.get(i).myBundle), equalTo(getExportPackage(serialBuilds.get(i).myBundle)));
+    }
+
+    PlatformTestUtil.assertTiming("Building " + MODULES + " bundles one after another is too slow", 20000, serial);
+    if (BundleCompilerPool.PARALLELISM > 1) {
+      // not the full speed-up of the pool, the builds share the disk and the garbage collector
+      PlatformTestUtil.assertTiming("Building " + MODULES + " bundles on a pool of " + BundleCompilerPool.PARALLELISM +
+                                    " threads is not faster than building them one after another (" + serial + " ms)",
+                                    serial * 3 / 4, pooled);
+    }
+  }
+
+  private List<ModuleBuild> createBuilds(String name) {
+    File bundleDir = new File(myTempDir, name);
+    List<ModuleBuild> result = new ArrayList<ModuleBuild>();
+    for (int module = 0; module < MODULES; module++) {
+      result.add(new ModuleBuild(module, myOutputDirs.get(module), bundleDir));
+    }
+    return result;
+  }
+
+  private static String getExportPackage(File bundle) throws IOException {
+    JarFile jar = new JarFile(bundle);
+    try {
+      return jar.getManifest().getMainAttributes().getValue(Constants.EXPORT_PACKAGE);
+    }
+    finally {
+      jar.close();
+    }
+  }
+
+  /**
+   * Builds the bundle of a synthetic module from scratch.
+   */
+  private static class ModuleBuild implements BundleCompiler.BundleBuild {
+    private final int myModule;
+    private final File myOutputDir;
+    private final File myBundleDir;
+    private final File myBundle;
+
+    private ModuleBuild(int module, File outputDir, File bundleDir) {
+      myModule = module;
+      myOutputDir = outputDir;
+      myBundleDir = bundleDir;
+      myBundle = new File(bundleDir, "module" + module + ".jar");
+    }
+
+    @Override
+    public void build(@NotNull CompileContext moduleContext) {
+      Map<String, String> properties = new HashMap<String, String>();
+      properties.put(Constants.BUNDLE_SYMBOLICNAME, "synthetic.module" + myModule);
+      properties.put(Constants.BUNDLE_VERSION, "1.0.0");
+      properties.put(Constants.EXPORT_PACKAGE, "synthetic.module" + myModule + ".*");
+      properties.put(Constants.IMPORT_PACKAGE, "*;resolution:=optional");
+      try {
+        File[] classpath = {myOutputDir};
+        IncrementalBundleBuilder incrementalBuilder =
+          new IncrementalBundleBuilder(myBundle, classpath, properties, new File(myBundleDir, "records"));
+        File bndFile = new File(myBundleDir, "module" + myModule + ".bnd");
+        FileUtil.createParentDirs(bndFile);
+        BndWrapper.writeBndFile(bndFile, properties, "module" + myModule);
+        ReportingBuilder builder = new ReportingBuilder(moduleContext, bndFile.getPath(), "[module" + myModule + "] ");
+        assertThat(BndWrapper.buildBundle(builder, bndFile, classpath, myBundle, incrementalBuilder, moduleContext), is(true));
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
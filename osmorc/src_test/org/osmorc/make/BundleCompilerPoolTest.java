@@ -0,0 +1,200 @@
+package org.osmorc.make;
+
+import aQute.lib.osgi.Analyzer;
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.compiler.CompilerMessageCategory;
+import com.intellij.openapi.compiler.DummyCompileContext;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.LightIdeaTestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.Constants;
+import org.osmorc.testutil.SyntheticModuleOutput;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the concurrent bundle building in {@link BundleCompiler}. Uses a synthetic project of generated module
+ * output jars which are analyzed by bnd, once one after another and once on the {@link BundleCompilerPool}, to check that
+ * concurrent builds give the same results.
+ */
+public class BundleCompilerPoolTest extends LightIdeaTestCase {
+  private static final int MODULES = 16;
+  private static final int PACKAGES_PER_MODULE = 8;
+  private static final int CLASSES_PER_PACKAGE = 5;
+
+  private File myFixtureDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFixtureDir = FileUtil.createTempDirectory("osmorc", "modules");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myFixtureDir);
+    super.tearDown();
+  }
+
+  public void testMessagesStayOrderedPerModule() throws Exception {
+    RecordingCompileContext compileContext = new RecordingCompileContext();
+    List<BundleCompiler.BundleBuild> bundleBuilds = new ArrayList<BundleCompiler.BundleBuild>();
+    for (int i = 0; i < MODULES; i++) {
+      final String module = "module" + i;
+      bundleBuilds.add(new BundleCompiler.BundleBuild() {
+        @Override
+        public void build(@NotNull CompileContext moduleContext) {
+          for (int message = 0; message < 20; message++) {
+            moduleContext.addMessage(CompilerMessageCategory.INFORMATION, "[" + module + "] " + message, null, 0, 0);
+            Thread.yield();
+          }
+        }
+      });
+    }
+    BundleCompiler.buildConcurrently(compileContext, bundleBuilds);
+
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < MODULES; i++) {
+      for (int message = 0; message < 20; message++) {
+        expected.add("[module" + i + "] " + message);
+      }
+    }
+    assertThat(compileContext.myMessages, equalTo(expected));
+  }
+
+  public void testBundlesAreBuiltConcurrently() throws Exception {
+    // every build waits until as many builds have started as the pool can run at once, which can't happen if they run one
+    // after another
+    final int expected = Math.min(BundleCompilerPool.PARALLELISM, MODULES);
+    final CountDownLatch started = new CountDownLatch(expected);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    List<BundleCompiler.BundleBuild> bundleBuilds = new ArrayList<BundleCompiler.BundleBuild>();
+    for (int i = 0; i < MODULES; i++) {
+      bundleBuilds.add(new BundleCompiler.BundleBuild() {
+        @Override
+        public void build(@NotNull CompileContext moduleContext) {
+          int nowRunning = running.incrementAndGet();
+          int max;
+          do {
+            max = maxRunning.get();
+          }
+          while (nowRunning > max && !maxRunning.compareAndSet(max, nowRunning));
+          started.countDown();
+          try {
+            started.await(10, TimeUnit.SECONDS);
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          finally {
+            running.decrementAndGet();
+          }
+        }
+      });
+    }
+    BundleCompiler.buildConcurrently(new RecordingCompileContext(), bundleBuilds);
+
+    assertThat(maxRunning.get(), is(expected));
+  }
+
+  public void testLibraryIsWrappedOnlyOnceAtATime() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger wraps = new AtomicInteger();
+    Callable<String> wrap = new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        wraps.incrementAndGet();
+        release.await();
+        return "file:///bundles/library.jar";
+      }
+    };
+
+    Future<String> first = BundleCompilerPool.submitLibraryTask("library.jar|bundles", wrap, null);
+    Future<String> second = BundleCompilerPool.submitLibraryTask("library.jar|bundles", wrap, null);
+    assertThat(second, sameInstance(first));
+    release.countDown();
+    assertThat(first.get(), equalTo("file:///bundles/library.jar"));
+    assertThat(wraps.get(), is(1));
+  }
+
+  public void testParallelBuildOfSyntheticModules() throws Exception {
+    List<File> moduleJars = createModuleJars();
+    assertThat(analyzeInParallel(moduleJars), equalTo(analyzeSerially(moduleJars)));
+  }
+
+  private static List<String> analyzeSerially(List<File> moduleJars) throws Exception {
+    List<String> result = new ArrayList<String>();
+    for (File moduleJar : moduleJars) {
+      result.add(analyze(moduleJar));
+    }
+    return result;
+  }
+
+  private static List<String> analyzeInParallel(List<File> moduleJars) throws Exception {
+    List<Future<String>> analyses = new ArrayList<Future<String>>();
+    for (final File moduleJar : moduleJars) {
+      analyses.add(BundleCompilerPool.submitModuleTask(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return analyze(moduleJar);
+        }
+      }, null));
+    }
+    List<String> result = new ArrayList<String>();
+    for (Future<String> analysis : analyses) {
+      result.add(analysis.get());
+    }
+    return result;
+  }
+
+  @Nullable
+  private static String analyze(File moduleJar) throws Exception {
+    Analyzer analyzer = new Analyzer();
+    try {
+      analyzer.setPedantic(false);
+      analyzer.setJar(moduleJar);
+      analyzer.setProperty(Constants.BUNDLE_SYMBOLICNAME, moduleJar.getName());
+      analyzer.setProperty(Constants.EXPORT_PACKAGE, "*");
+      analyzer.setProperty(Constants.IMPORT_PACKAGE, "*;resolution:=optional");
+      return analyzer.calcManifest().getMainAttributes().getValue(Constants.EXPORT_PACKAGE);
+    }
+    finally {
+      analyzer.close();
+    }
+  }
+
+  private List<File> createModuleJars() throws IOException {
+    SyntheticModuleOutput output = new SyntheticModuleOutput(PACKAGES_PER_MODULE, CLASSES_PER_PACKAGE, BundleCompiler.class,
+                                                             BndWrapper.class, BundleValidityState.class, Analyzer.class);
+    List<File> result = new ArrayList<File>();
+    for (int module = 0; module < MODULES; module++) {
+      File moduleJar = new File(myFixtureDir, "module" + module + ".jar");
+      output.writeJar(moduleJar, module);
+      result.add(moduleJar);
+    }
+    return result;
+  }
+
+  private static class RecordingCompileContext extends DummyCompileContext {
+    private final List<String> myMessages = new ArrayList<String>();
+
+    @Override
+    public void addMessage(CompilerMessageCategory category, String message, @Nullable String url, int lineNum, int columnNum) {
+      myMessages.add(message);
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package org.osmorc.make;
+
+import aQute.lib.osgi.Analyzer;
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.compiler.DummyCompileContext;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+import org.osmorc.testutil.SyntheticModuleOutput;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Performance regression test for making the bundles of a synthetic project with hundreds of modules: a full make with bnd
+ * by {@link BndWrapper}, a make without changes and a make after a class of every module has changed, which
+ * {@link IncrementalBundleBuilder} does without bnd.
+ */
+public class BundleMakePerformanceTest {
+  private static final int MODULES = 200;
+  private static final int PACKAGES_PER_MODULE = 4;
+  private static final int CLASSES_PER_PACKAGE = 5;
+
+  private File myTempDir;
+  private File myBundleDir;
+  private File myRecordDir;
+
+  @Before
+  public void setUp() throws IOException {
+    myTempDir = FileUtil.createTempDirectory("osmorc", "make");
+    myBundleDir = new File(myTempDir, "bundles");
+    assertThat(myBundleDir.mkdirs(), is(true));
+    myRecordDir = new File(myTempDir, "records");
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myTempDir);
+  }
+
+  @Test
+  public void testMake() throws Exception {
+    List<File> outputDirs = createModuleOutputs();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < MODULES; i++) {
+      build(i, outputDirs.get(i));
+    }
+    long full = (System.nanoTime() - start) / 1000000;
+
+    start = System.nanoTime();
+    for (int i = 0; i < MODULES; i++) {
+      assertThat(createBuilder(i, outputDirs.get(i)).update(), is(true));
+    }
+    long upToDate = (System.nanoTime() - start) / 1000000;
+
+    // recompiled classes with the same references are replaced in the bundles
+    long lastModified = System.currentTimeMillis() - 5000;
+    for (int i = 0; i < MODULES; i++) {
+      File changed = new File(outputDirs.get(i), SyntheticModuleOutput.getClassPath(i, 0, 0));
+      FileUtil.writeToFile(changed, FileUtil.loadFileBytes(changed));
+      assertThat(changed.setLastModified(lastModified), is(true));
+    }
+    start = System.nanoTime();
+    for (int i = 0; i < MODULES; i++) {
+      assertThat(createBuilder(i, outputDirs.get(i)).update(), is(true));
+    }
+    long incremental = (System.nanoTime() - start) / 1000000;
+
+    PlatformTestUtil.assertTiming("A full make of " + MODULES + " bundles is too slow", 30000, full);
+    PlatformTestUtil.assertTiming("Checking " + MODULES + " bundles which are up to date is too slow", 1000, upToDate);
+    PlatformTestUtil.assertTiming("Updating " + MODULES + " bundles with a changed class is too slow", 3000, incremental);
+  }
+
+  private void build(int module, File outputDir) throws Exception {
+    IncrementalBundleBuilder incrementalBuilder = createBuilder(module, outputDir);
+    assertThat(incrementalBuilder.update(), is(false));
+
+    File bndFile = new File(myTempDir, "module" + module + ".bnd");
+    BndWrapper.writeBndFile(bndFile, getBuildProperties(module), "module" + module);
+    CompileContext compileContext = DummyCompileContext.getInstance();
+    ReportingBuilder builder = new ReportingBuilder(compileContext, bndFile.getPath(), "");
+    assertThat(BndWrapper.buildBundle(builder, bndFile, new File[]{outputDir}, getBundle(module), incrementalBuilder, compileContext), is(true));
+  }
+
+  private IncrementalBundleBuilder createBuilder(int module, File outputDir) {
+    return new IncrementalBundleBuilder(getBundle(module), new File[]{outputDir}, getBuildProperties(module), myRecordDir);
+  }
+
+  private File getBundle(int module) {
+    return new File(myBundleDir, "module" + module + ".jar");
+  }
+
+  private static Map<String, String> getBuildProperties(int module) {
+    Map<String, String> result = new HashMap<String, String>();
+    result.put(Constants.BUNDLE_SYMBOLICNAME, "synthetic.module" + module);
+    result.put(Constants.BUNDLE_VERSION, "1.0.0");
+    result.put(Constants.EXPORT_PACKAGE, "synthetic.module" + module + ".*");
+    result.put(Constants.IMPORT_PACKAGE, "*;resolution:=optional");
+    return result;
+  }
+
+  /**
+   * Creates the output folder of every module. Their time stamps are in the past, as after an earlier compilation.
+   */
+  private List<File> createModuleOutputs() throws IOException {
+    SyntheticModuleOutput output = new SyntheticModuleOutput(PACKAGES_PER_MODULE, CLASSES_PER_PACKAGE, IncrementalBundleBuilder.class,
+                                                             JarEntryCopier.class, OutputFingerprint.class, Analyzer.class);
+    long lastModified = System.currentTimeMillis() - 60000;
+    List<File> result = new ArrayList<File>();
+    for (int module = 0; module < MODULES; module++) {
+      File outputDir = new File(myTempDir, "out/module" + module);
+      output.writeDirectory(outputDir, module, lastModified);
+      result.add(outputDir);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,86 @@
+package org.osmorc.make;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test of {@link BundledLibraryCache}
+ */
+public class BundledLibraryCacheTest {
+  private File myTempDir;
+  private BundledLibraryCache myCache;
+
+  @Before
+  public void setUp() throws IOException {
+    myTempDir = FileUtil.createTempDirectory("osmorc", "cache");
+    myCache = new BundledLibraryCache(new File(myTempDir, "cache"));
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myTempDir);
+  }
+
+  @Test
+  public void testKeyDependsOnContentsOnly() throws IOException {
+    File library = createFile("lib/foo-1.0.jar", "contents");
+    String key = myCache.getKey(library, Collections.<String, String>emptyMap());
+
+    // touching the library doesn't change the key
+    assertThat(library.setLastModified(library.lastModified() - 10000), is(true));
+    assertThat(myCache.getKey(library, Collections.<String, String>emptyMap()), equalTo(key));
+
+    // neither does an identical copy somewhere else
+    File copy = createFile("other/foo-1.0.jar", "contents");
+    assertThat(myCache.getKey(copy, Collections.<String, String>emptyMap()), equalTo(key));
+
+    // but changed contents do
+    File changed = createFile("changed/foo-1.0.jar", "changed contents");
+    assertThat(myCache.getKey(changed, Collections.<String, String>emptyMap()), not(equalTo(key)));
+  }
+
+  @Test
+  public void testKeyDependsOnRules() throws IOException {
+    File library = createFile("lib/foo-1.0.jar", "contents");
+    String key = myCache.getKey(library, Collections.<String, String>emptyMap());
+    Map<String, String> properties = Collections.singletonMap("Export-Package", "foo.*");
+
+    assertThat(myCache.getKey(library, properties), not(equalTo(key)));
+    assertThat(myCache.getKey(library, properties), equalTo(myCache.getKey(library, properties)));
+  }
+
+  @Test
+  public void testPutAndGet() throws IOException {
+    File library = createFile("lib/foo-1.0.jar", "contents");
+    String key = myCache.getKey(library, Collections.<String, String>emptyMap());
+    assertThat(myCache.get(key), nullValue());
+
+    File bundle = createFile("tmp/bundle.jar", "bundle");
+    File cached = myCache.put(key, bundle);
+    assertThat(bundle.exists(), is(false));
+    assertThat(myCache.get(key), equalTo(cached));
+    assertThat(FileUtil.loadFile(cached), equalTo("bundle"));
+
+    File target = createFile("bundles/foo-1.0.jar", "bundle");
+    assertThat(myCache.isSameContent(cached, target), is(true));
+    FileUtil.writeToFile(target, "outdated".getBytes());
+    assertThat(myCache.isSameContent(cached, target), is(false));
+  }
+
+  private File createFile(String path, String contents) throws IOException {
+    File file = new File(myTempDir, path);
+    FileUtil.createParentDirs(file);
+    FileUtil.writeToFile(file, contents.getBytes());
+    return file;
+  }
+}
@@ -0,0 +1,224 @@
+package org.osmorc.make;
+
+import aQute.lib.osgi.Analyzer;
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.compiler.DummyCompileContext;
+import com.intellij.openapi.util.io.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test of {@link IncrementalBundleBuilder#update()}: the bundle is only updated in place when the changed classes refer to the
+ * same packages as before, everything else needs a full build.
+ */
+public class IncrementalBundleBuilderTest {
+  private static final String CLASS_A = "org/foo/a/A.class";
+  private static final String CLASS_B = "org/foo/b/B.class";
+  private static final String TEMPLATE_TEXT = "original text";
+
+  private File myTempDir;
+  private File myOutputDir;
+  private File myBundle;
+  private File myRecordDir;
+  private Map<String, String> myProperties;
+
+  @Before
+  public void setUp() throws IOException {
+    myTempDir = FileUtil.createTempDirectory("osmorc", "incremental");
+    myOutputDir = new File(myTempDir, "out");
+    myBundle = new File(myTempDir, "bundle.jar");
+    myRecordDir = new File(myTempDir, "records");
+    myProperties = new HashMap<String, String>();
+    myProperties.put(Constants.BUNDLE_SYMBOLICNAME, "org.foo");
+    myProperties.put(Constants.BUNDLE_VERSION, "1.0.0");
+    myProperties.put(Constants.EXPORT_PACKAGE, "org.foo.*");
+    myProperties.put(Constants.IMPORT_PACKAGE, "*;resolution:=optional");
+
+    writeClass(CLASS_A, loadClass(Template.class));
+    writeClass(CLASS_B, loadClass(Template.class));
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myTempDir);
+  }
+
+  @Test
+  public void testUpToDate() throws Exception {
+    build();
+    byte[] bundle = FileUtil.loadFileBytes(myBundle);
+    assertThat(createBuilder().update(), is(true));
+    assertThat(Arrays.equals(FileUtil.loadFileBytes(myBundle), bundle), is(true));
+  }
+
+  @Test
+  public void testChangedClassWithSameReferences() throws Exception {
+    build();
+    byte[] changed = replaceText(loadClass(Template.class), TEMPLATE_TEXT, "changed! text");
+    writeClass(CLASS_A, changed);
+
+    assertThat(createBuilder().update(), is(true));
+    assertThat(Arrays.equals(loadEntry(CLASS_A), changed), is(true));
+    assertThat(Arrays.equals(loadEntry(CLASS_B), loadClass(Template.class)), is(true));
+
+    // the record is updated as well
+    assertThat(createBuilder().update(), is(true));
+  }
+
+  @Test
+  public void testChangedReferences() throws Exception {
+    build();
+    writeClass(CLASS_A, loadClass(Analyzer.class));
+    assertThat(createBuilder().update(), is(false));
+  }
+
+  @Test
+  public void testAddedClass() throws Exception {
+    build();
+    writeClass("org/foo/a/C.class", loadClass(Template.class));
+    assertThat(createBuilder().update(), is(false));
+  }
+
+  @Test
+  public void testRemovedClass() throws Exception {
+    build();
+    assertThat(FileUtil.delete(new File(myOutputDir, CLASS_B)), is(true));
+    assertThat(createBuilder().update(), is(false));
+  }
+
+  @Test
+  public void testChangedProperties() throws Exception {
+    build();
+    myProperties.put(Constants.BUNDLE_VERSION, "1.0.1");
+    assertThat(createBuilder().update(), is(false));
+  }
+
+  @Test
+  public void testContentDependentProperty() throws Exception {
+    myProperties.put(Analyzer.SERVICE_COMPONENT, "OSGI-INF/*.xml");
+    build();
+    assertThat(createBuilder().update(), is(false));
+  }
+
+  @Test
+  public void testIncludedBndFile() throws Exception {
+    File included = new File(myTempDir, "included.bnd");
+    FileUtil.writeToFile(included, (Constants.BUNDLE_VERSION + ": 1.0.0\n").getBytes());
+    myProperties.put(Analyzer.INCLUDE, included.getName());
+    build();
+    FileUtil.writeToFile(included, (Constants.BUNDLE_VERSION + ": 1.0.1\n").getBytes());
+    assertThat(createBuilder().update(), is(false));
+  }
+
+  @Test
+  public void testMissingRecord() throws Exception {
+    build();
+    createBuilder().forget();
+    assertThat(createBuilder().update(), is(false));
+  }
+
+  @Test
+  public void testStaleRecord() throws Exception {
+    build();
+    // the bundle has been built by someone else since the record was made
+    assertThat(myBundle.setLastModified(myBundle.lastModified() - 10000), is(true));
+    assertThat(createBuilder().update(), is(false));
+  }
+
+  /**
+   * Builds the bundle with {@link BndWrapper} from a bnd file next to it.
+   */
+  private void build() throws Exception {
+    IncrementalBundleBuilder incrementalBuilder = createBuilder();
+    assertThat(incrementalBuilder.update(), is(false));
+
+    File bndFile = new File(myTempDir, "bundle.bnd");
+    BndWrapper.writeBndFile(bndFile, myProperties, "test");
+    CompileContext compileContext = DummyCompileContext.getInstance();
+    ReportingBuilder builder = new ReportingBuilder(compileContext, bndFile.getPath(), "");
+    assertThat(BndWrapper.buildBundle(builder, bndFile, new File[]{myOutputDir}, myBundle, incrementalBuilder, compileContext), is(true));
+  }
+
+  private IncrementalBundleBuilder createBuilder() {
+    return new IncrementalBundleBuilder(myBundle, new File[]{myOutputDir}, myProperties, myRecordDir);
+  }
+
+  /**
+   * Writes a class file with a time stamp which differs from that of earlier versions and which isn't too recent to be trusted.
+   */
+  private void writeClass(String path, byte[] content) throws IOException {
+    File file = new File(myOutputDir, path);
+    long lastModified = file.exists() ? file.lastModified() + 1000 : System.currentTimeMillis() - 60000;
+    FileUtil.createParentDirs(file);
+    FileUtil.writeToFile(file, content);
+    assertThat(file.setLastModified(lastModified), is(true));
+  }
+
+  private byte[] loadEntry(String entryName) throws IOException {
+    JarFile jar = new JarFile(myBundle);
+    try {
+      InputStream in = jar.getInputStream(jar.getEntry(entryName));
+      try {
+        return FileUtil.loadBytes(in);
+      }
+      finally {
+        in.close();
+      }
+    }
+    finally {
+      jar.close();
+    }
+  }
+
+  private static byte[] loadClass(Class<?> aClass) throws IOException {
+    String name = aClass.getName();
+    InputStream in = aClass.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+    try {
+      return FileUtil.loadBytes(in);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Changes a string constant of a class, which changes the class without changing the packages it refers to.
+   */
+  private static byte[] replaceText(byte[] classFile, String text, String replacement) throws IOException {
+    byte[] search = text.getBytes("UTF-8");
+    byte[] replace = replacement.getBytes("UTF-8");
+    assertThat(replace.length, equalTo(search.length));
+    byte[] result = classFile.clone();
+    for (int i = 0; i + search.length <= result.length; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(result, i, i + search.length), search)) {
+        System.arraycopy(replace, 0, result, i, replace.length);
+        return result;
+      }
+    }
+    throw new AssertionError("No \"" + text + "\" in the class file");
+  }
+
+  @SuppressWarnings({"UnusedDeclaration"})
+  private static class Template {
+    private final String myText = TEMPLATE_TEXT;
+
+    @Override
+    public String toString() {
+      return myText;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package org.osmorc.make;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.jar.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Test of {@link JarEntryCopier}
+ */
+public class JarEntryCopierTest {
+  private File myTempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    myTempDir = FileUtil.createTempDirectory("osmorc", "jar");
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myTempDir);
+  }
+
+  @Test
+  public void testReplaceEntry() throws IOException {
+    File source = createJar();
+    File replacement = createFile("b.txt", "changed b");
+    File target = new File(myTempDir, "target.jar");
+    JarEntryCopier.copy(source, Collections.singletonMap("org/foo/b.txt", replacement), target);
+
+    JarFile jar = new JarFile(target);
+    try {
+      assertThat(jar.getManifest().getMainAttributes().getValue("Bundle-SymbolicName"), equalTo("foo"));
+      assertThat(load(jar, "org/foo/a.txt"), equalTo("aaaaaaaaaaaaaaaaaaaaaaaaaaaa"));
+      assertThat(load(jar, "org/foo/b.txt"), equalTo("changed b"));
+      assertThat(load(jar, "org/foo/c.txt"), equalTo("stored c"));
+
+      // unchanged entries keep their compressed form
+      JarFile sourceJar = new JarFile(source);
+      try {
+        ZipEntry original = sourceJar.getEntry("org/foo/a.txt");
+        ZipEntry copied = jar.getEntry("org/foo/a.txt");
+        assertThat(copied.getCompressedSize(), equalTo(original.getCompressedSize()));
+        assertThat(copied.getCrc(), equalTo(original.getCrc()));
+        assertThat(jar.getEntry("org/foo/c.txt").getMethod(), equalTo(ZipEntry.STORED));
+      }
+      finally {
+        sourceJar.close();
+      }
+    }
+    finally {
+      jar.close();
+    }
+  }
+
+  @Test
+  public void testEntryOrderIsKept() throws IOException {
+    File source = createJar();
+    File target = new File(myTempDir, "target.jar");
+    JarEntryCopier.copy(source, Collections.singletonMap("org/foo/a.txt", createFile("a.txt", "a")), target);
+
+    // reading the local headers one after another must work as well, this is how the manifest is found by JarInputStream
+    ZipInputStream in = new ZipInputStream(new FileInputStream(target));
+    try {
+      assertThat(in.getNextEntry().getName(), equalTo("META-INF/MANIFEST.MF"));
+      assertThat(in.getNextEntry().getName(), equalTo("org/foo/a.txt"));
+      assertThat(new String(FileUtil.loadBytes(in)), equalTo("a"));
+      assertThat(in.getNextEntry().getName(), equalTo("org/foo/b.txt"));
+      assertThat(new String(FileUtil.loadBytes(in)), equalTo("b"));
+      assertThat(in.getNextEntry().getName(), equalTo("org/foo/c.txt"));
+      assertThat(in.getNextEntry(), nullValue());
+    }
+    finally {
+      in.close();
+    }
+
+    JarInputStream jarIn = new JarInputStream(new FileInputStream(target));
+    try {
+      assertThat(jarIn.getManifest(), notNullValue());
+    }
+    finally {
+      jarIn.close();
+    }
+  }
+
+  @Test
+  public void testNewEntriesAreRejected() throws IOException {
+    File source = createJar();
+    try {
+      JarEntryCopier.copy(source, Collections.singletonMap("org/foo/d.txt", createFile("d.txt", "d")), new File(myTempDir, "target.jar"));
+      fail("New entries must not be added");
+    }
+    catch (ZipException ignored) {
+    }
+  }
+
+  private File createJar() throws IOException {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().putValue("Bundle-SymbolicName", "foo");
+    File jar = new File(myTempDir, "source.jar");
+    JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+    try {
+      out.putNextEntry(new ZipEntry("org/foo/a.txt"));
+      out.write("aaaaaaaaaaaaaaaaaaaaaaaaaaaa".getBytes());
+      out.putNextEntry(new ZipEntry("org/foo/b.txt"));
+      out.write("b".getBytes());
+
+      byte[] content = "stored c".getBytes();
+      ZipEntry stored = new ZipEntry("org/foo/c.txt");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(content.length);
+      CRC32 crc = new CRC32();
+      crc.update(content);
+      stored.setCrc(crc.getValue());
+      out.putNextEntry(stored);
+      out.write(content);
+    }
+    finally {
+      out.close();
+    }
+    return jar;
+  }
+
+  private File createFile(String path, String contents) throws IOException {
+    File file = new File(myTempDir, path);
+    FileUtil.writeToFile(file, contents.getBytes());
+    return file;
+  }
+
+  private static String load(JarFile jar, String name) throws IOException {
+    InputStream in = jar.getInputStream(jar.getEntry(name));
+    try {
+      return new String(FileUtil.loadBytes(in));
+    }
+    finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package org.osmorc.make;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test of {@link OutputFingerprint}, including a performance regression test for rolling the fingerprint of a large output
+ * folder forward, which {@link BundleValidityState} does instead of walking all output files.
+ */
+public class OutputFingerprintTest {
+  private static final int FILES = 3000;
+  private static final int CHECKS = 1000;
+
+  private File myTempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    myTempDir = FileUtil.createTempDirectory("osmorc", "output");
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myTempDir);
+  }
+
+  @Test
+  public void testOrderDoesNotMatter() {
+    OutputFingerprint first = new OutputFingerprint();
+    first.put("/out/a/A.class", 1);
+    first.put("/out/a/B.class", 2);
+    OutputFingerprint second = new OutputFingerprint();
+    second.put("/out/a/B.class", 2);
+    second.put("/out/a/A.class", 1);
+    assertThat(first.getValue(), equalTo(second.getValue()));
+
+    second.put("/out/a/A.class", 3);
+    assertThat(first.getValue(), not(equalTo(second.getValue())));
+  }
+
+  @Test
+  public void testRolledFingerprintEqualsRecomputed() {
+    OutputFingerprint rolled = new OutputFingerprint();
+    for (int i = 0; i < 100; i++) {
+      rolled.put("/out/p" + i % 10 + "/C" + i + ".class", i);
+    }
+    rolled.put("/out/p1/C1.class", 1000);
+    rolled.remove("/out/p2");
+    rolled.remove("/out/p3/C3.class");
+    rolled.put("/out/p3/New.class", 1001);
+
+    OutputFingerprint recomputed = new OutputFingerprint();
+    for (int i = 0; i < 100; i++) {
+      if (i % 10 != 2 && i != 3) {
+        recomputed.put("/out/p" + i % 10 + "/C" + i + ".class", i == 1 ? 1000 : i);
+      }
+    }
+    recomputed.put("/out/p3/New.class", 1001);
+
+    assertThat(rolled.size(), equalTo(recomputed.size()));
+    assertThat(rolled.getValue(), equalTo(recomputed.getValue()));
+  }
+
+  @Test
+  public void testRollingPerformance() throws IOException {
+    for (int i = 0; i < FILES; i++) {
+      File file = new File(myTempDir, "org/example/p" + i % 30 + "/Class" + i + ".class");
+      FileUtil.createParentDirs(file);
+      FileUtil.writeToFile(file, new byte[]{(byte)i});
+    }
+    File changed = new File(myTempDir, "org/example/p0/Class0.class");
+
+    // the fingerprint is rolled forward with the changed file and a single value is compared, no matter how many files there are
+    OutputFingerprint fingerprint = new OutputFingerprint();
+    register(myTempDir, fingerprint);
+    long start = System.nanoTime();
+    for (int i = 0; i < CHECKS; i++) {
+      long before = fingerprint.getValue();
+      fingerprint.put(changed.getPath(), changed.lastModified() + i + 1);
+      assertThat(fingerprint.getValue() == before, is(false));
+    }
+    long rolling = (System.nanoTime() - start) / 1000000;
+
+    PlatformTestUtil.assertTiming(CHECKS + " checks of the fingerprint of " + FILES + " files are too slow", 100, rolling);
+  }
+
+  private static void register(File dir, OutputFingerprint fingerprint) {
+    File[] children = dir.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.isDirectory()) {
+          register(child, fingerprint);
+        }
+        else {
+          fingerprint.put(child.getPath(), child.lastModified());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package org.osmorc.manifest.impl;
+
+import com.intellij.testFramework.LightIdeaTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import org.osmorc.manifest.lang.psi.ManifestFile;
+
+import static org.osmorc.testutil.ManifestMaker.bundleSymbolicName;
+
+/**
+ * Performance regression test for queries on {@link BundleManifestImpl}, which are answered from the parsed model of the
+ * manifest instead of parsing the headers again for every query.
+ */
+public class BundleManifestPerformanceTest extends LightIdeaTestCase {
+  private static final int PACKAGES = 300;
+  private static final int QUERIES = 2000;
+
+  public void testQueriesUseParsedModel() {
+    String[] exports = new String[PACKAGES];
+    for (int i = 0; i < PACKAGES; i++) {
+      exports[i] = "org.example.package" + i + ";version=1." + i + ".0";
+    }
+    ManifestFile manifestFile = (ManifestFile)createLightFile("MANIFEST.MF", bundleSymbolicName("org.example").bundleVersion("1.0.0")
+      .exportPackages(exports).toString());
+    BundleManifestImpl manifest = new BundleManifestImpl(manifestFile);
+
+    // warm up, this also parses the manifest
+    runQueries(manifest, QUERIES / 10);
+
+    long start = System.nanoTime();
+    runQueries(manifest, QUERIES);
+    long time = (System.nanoTime() - start) / 1000000;
+
+    PlatformTestUtil.assertTiming(QUERIES + " queries on a manifest exporting " + PACKAGES + " packages are too slow", 500, time);
+  }
+
+  private static void runQueries(BundleManifestImpl manifest, int count) {
+    for (int i = 0; i < count; i++) {
+      int packageNumber = i % PACKAGES;
+      assertTrue(manifest.exportsPackage("org.example.package" + packageNumber + ";version=\"[1." + packageNumber + ",2)\""));
+    }
+  }
+}
@@ -6,10 +6,14 @@ import org.junit.Test;
 import org.osmorc.manifest.BundleManifest;
 import org.osmorc.manifest.lang.psi.ManifestFile;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -150,4 +154,27 @@ public class BundleManifestTest extends LightIdeaTestCase {
     assertThat(potentialHost1.isFragmentHostFor(fragment), is(false));
     assertThat(potentialHost2.isFragmentHostFor(fragment), is(true));
   }
+
+  @Test
+  public void testParsedModel() {
+    BundleManifestImpl manifest = new BundleManifestImpl((ManifestFile)createLightFile("MANIFEST.MF", Manifest1));
+    assertThat(manifest.getExportedPackageNames(), equalTo((Set<String>)new HashSet<String>(Arrays.asList("foo.bar.baz", "foo.bar.bam"))));
+    assertThat(manifest.getFragmentHost(), nullValue());
+
+    BundleManifestImpl fragment = new BundleManifestImpl((ManifestFile)createLightFile("MANIFEST8.MF", Manifest8));
+    assertThat(fragment.getFragmentHost(), equalTo("foo.bar;bundle-version=\"(2.0.0, 2.5.0]\""));
+
+    // repeated queries are answered from the same model
+    assertThat(manifest.exportsPackage("foo.bar.baz;version=1.0.0"), is(true));
+    assertThat(manifest.exportsPackage("foo.bar.baz;version=1.0.0"), is(true));
+    assertThat(manifest.exportsPackage("foo.bar.baz;foo.bar.bam;version=1.0.0"), is(true));
+    assertThat(manifest.exportsPackage("foo.bar.baz;foo.bar.narf;version=1.0.0"), is(false));
+  }
+
+  @Test
+  public void testClauseNames() {
+    assertThat(ManifestModel.getClauseNames("foo.bar"), equalTo(Arrays.asList("foo.bar")));
+    assertThat(ManifestModel.getClauseNames(" foo.bar ; foo.baz;version=\"[1.0,2.0)\";uses:=\"a;b\""),
+               equalTo(Arrays.asList("foo.bar", "foo.baz")));
+  }
 }
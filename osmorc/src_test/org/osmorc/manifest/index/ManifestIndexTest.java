@@ -0,0 +1,206 @@
+package org.osmorc.manifest.index;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StubIndexKey;
+import com.intellij.testFramework.LightIdeaTestCase;
+import com.intellij.util.ThrowableRunnable;
+import org.osmorc.impl.BundleCache;
+import org.osmorc.manifest.BundleManifest;
+import org.osmorc.manifest.impl.BundleManifestImpl;
+import org.osmorc.manifest.lang.psi.HeaderValuePart;
+import org.osmorc.manifest.lang.psi.ManifestFile;
+import org.osmorc.testutil.TestManifestHolder;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.osmorc.testutil.ManifestMaker.bundleSymbolicName;
+
+/**
+ * Tests the lookups of {@link ManifestIndex} on manifests in the source root of the test project.
+ */
+public class ManifestIndexTest extends LightIdeaTestCase {
+  public void testLookupAfterEdit() throws IOException {
+    VirtualFile file = createManifest("edited", bundleSymbolicName("foo.bar").bundleVersion("1.0.0").toString());
+    assertThat(isIndexed("foo.bar", file), is(true));
+
+    setText(file, bundleSymbolicName("foo.baz").bundleVersion("1.0.0").toString());
+    assertThat(isIndexed("foo.bar", file), is(false));
+    assertThat(isIndexed("foo.baz", file), is(true));
+    assertThat(ManifestIndex.getBundleManifestFiles(getProject()).contains(file), is(true));
+
+    setText(file, "Manifest-Version: 1.0\n");
+    assertThat(isIndexed("foo.baz", file), is(false));
+    assertThat(ManifestIndex.getBundleManifestFiles(getProject()).contains(file), is(false));
+  }
+
+  public void testLookupAfterDeletion() throws IOException {
+    final VirtualFile file = createManifest("deleted", bundleSymbolicName("foo.deleted").toString());
+    VirtualFile other = createManifest("other", bundleSymbolicName("foo.deleted").bundleVersion("2.0.0").toString());
+    assertThat(lookup("foo.deleted").size(), is(2));
+
+    runWriteAction(new ThrowableRunnable<IOException>() {
+      public void run() throws IOException {
+        file.delete(this);
+      }
+    });
+    assertThat(lookup("foo.deleted").size(), is(1));
+    assertThat(isIndexed("foo.deleted", other), is(true));
+  }
+
+  public void testKeysAreClauseValues() throws IOException {
+    VirtualFile file = createManifest("ranges", "Bundle-SymbolicName: foo.fragment;singleton:=true\n" +
+                                                "Bundle-Version: 1.0.0\n" +
+                                                "Fragment-Host: foo.host;bundle-version=\"[1.0.0,2.0.0)\"\n" +
+                                                "Require-Bundle: foo.required;bundle-version=\"[1.0,2.0)\",\n" +
+                                                " foo.other\n");
+
+    // attributes and directives are no part of the key, versions and ranges don't end up as keys of their own
+    assertThat(isIndexed("foo.fragment", file), is(true));
+    assertThat(lookup("foo.fragment;singleton:=true").isEmpty(), is(true));
+    assertThat(lookup("[1.0.0,2.0.0)").isEmpty(), is(true));
+    assertThat(lookup("1.0.0").isEmpty(), is(true));
+
+    // the bundles this one refers to are found in the indexes of their headers, not as symbolic names
+    assertThat(lookup("foo.host").isEmpty(), is(true));
+    assertThat(lookup("foo.required").isEmpty(), is(true));
+    assertThat(lookup("foo.other").isEmpty(), is(true));
+    assertThat(lookup(FragmentHostIndex.KEY, "foo.host").contains(file), is(true));
+    assertThat(lookup(RequiredBundleIndex.KEY, "foo.required").contains(file), is(true));
+    assertThat(lookup(RequiredBundleIndex.KEY, "foo.other").contains(file), is(true));
+    assertThat(lookup(RequiredBundleIndex.KEY, "[1.0,2.0)").isEmpty(), is(true));
+  }
+
+  public void testPackageLookup() throws IOException {
+    VirtualFile file = createManifest("packages", bundleSymbolicName("foo.packages")
+      .exportPackages("foo.exported;version=1.0.0", "foo.other;uses:=\"foo.used\"")
+      .importPackages("foo.imported;version=\"[1.0,2.0)\"").toString());
+
+    assertThat(lookup(ExportedPackageIndex.KEY, "foo.exported").contains(file), is(true));
+    assertThat(lookup(ExportedPackageIndex.KEY, "foo.other").contains(file), is(true));
+    assertThat(lookup(ExportedPackageIndex.KEY, "foo.used").isEmpty(), is(true));
+    assertThat(lookup(ExportedPackageIndex.KEY, "foo.imported").isEmpty(), is(true));
+    assertThat(lookup(ImportedPackageIndex.KEY, "foo.imported").contains(file), is(true));
+    assertThat(lookup(ImportedPackageIndex.KEY, "foo.exported").isEmpty(), is(true));
+  }
+
+  public void testBundleCacheLooksUpIndexedManifests() throws IOException {
+    CountingManifest host = createCountingManifest("host", bundleSymbolicName("foo.host").bundleVersion("1.0.0")
+      .exportPackages("foo.host").toString());
+    CountingManifest fragment = createCountingManifest("fragment", bundleSymbolicName("foo.fragment").bundleVersion("1.0.0")
+      .fragmentHost("foo.host").toString());
+    CountingManifest other = createCountingManifest("unrelated", bundleSymbolicName("foo.unrelated").bundleVersion("1.0.0")
+      .exportPackages("foo.unrelated").toString());
+
+    BundleCache cache = new BundleCache(getProject());
+    TestManifestHolder hostHolder = new TestManifestHolder(host);
+    TestManifestHolder fragmentHolder = new TestManifestHolder(fragment);
+    cache.updateWith(hostHolder);
+    cache.updateWith(fragmentHolder);
+    cache.updateWith(new TestManifestHolder(other));
+    assertThat(host.myReads + fragment.myReads + other.myReads, is(0));
+
+    assertThat(cache.whoIs("foo.host").size(), is(1));
+    assertThat(cache.whoProvides("foo.host").size(), is(1));
+    assertThat(cache.getFragmentsForBundle(hostHolder).size(), is(1));
+    assertThat(cache.getFragmentHosts(fragmentHolder).size(), is(1));
+    // the manifests the lookups don't match are never read
+    assertThat(other.myReads, is(0));
+  }
+
+  private static Set<VirtualFile> lookup(StubIndexKey<String, HeaderValuePart> key, String value) {
+    Set<VirtualFile> files = ManifestIndex.getManifestFiles(key, value, getProject());
+    assertThat(files != null, is(true));
+    return files;
+  }
+
+  private boolean isIndexed(String bundleSymbolicName, VirtualFile file) {
+    for (ManifestFile manifestFile : lookup(bundleSymbolicName)) {
+      if (file.equals(manifestFile.getVirtualFile())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Collection<ManifestFile> lookup(String bundleSymbolicName) {
+    return ManifestIndex.getManifestsBySymbolicName(bundleSymbolicName, getProject(), GlobalSearchScope.allScope(getProject()));
+  }
+
+  private static VirtualFile createManifest(final String directory, final String text) throws IOException {
+    final VirtualFile[] result = new VirtualFile[1];
+    runWriteAction(new ThrowableRunnable<IOException>() {
+      public void run() throws IOException {
+        result[0] = getSourceRoot().createChildDirectory(this, directory).createChildData(this, "MANIFEST.MF");
+        VfsUtil.saveText(result[0], text);
+      }
+    });
+    return result[0];
+  }
+
+  private static CountingManifest createCountingManifest(String directory, String text) throws IOException {
+    VirtualFile file = createManifest(directory, text);
+    return new CountingManifest((ManifestFile)PsiManager.getInstance(getProject()).findFile(file));
+  }
+
+  private static void setText(final VirtualFile file, final String text) throws IOException {
+    runWriteAction(new ThrowableRunnable<IOException>() {
+      public void run() throws IOException {
+        VfsUtil.saveText(file, text);
+      }
+    });
+  }
+
+  private static void runWriteAction(final ThrowableRunnable<IOException> action) throws IOException {
+    final IOException[] exception = new IOException[1];
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      public void run() {
+        try {
+          action.run();
+        }
+        catch (IOException e) {
+          exception[0] = e;
+        }
+      }
+    });
+    if (exception[0] != null) {
+      throw exception[0];
+    }
+  }
+
+  /**
+   * Counts how often the headers by which bundles are looked up are read.
+   */
+  private static class CountingManifest extends BundleManifestImpl {
+    private int myReads;
+
+    private CountingManifest(ManifestFile manifestFile) {
+      super(manifestFile);
+    }
+
+    @Override
+    public String getBundleSymbolicName() {
+      myReads++;
+      return super.getBundleSymbolicName();
+    }
+
+    @Override
+    public Set<String> getExportedPackageNames() {
+      myReads++;
+      return super.getExportedPackageNames();
+    }
+
+    @Override
+    public String getFragmentHost() {
+      myReads++;
+      return super.getFragmentHost();
+    }
+  }
+}
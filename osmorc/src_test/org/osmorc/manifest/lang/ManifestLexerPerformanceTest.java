@@ -0,0 +1,101 @@
+package org.osmorc.manifest.lang;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.text.CharArrayCharSequence;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.jar.JarFile;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Performance regression test of the {@link ManifestLexer} on the manifest of the Eclipse OSGi framework, a signed bundle with
+ * long package headers and hundreds of sections. Checks lexing the whole manifest and relexing from the start of an edited
+ * header, which is what the editor does.
+ */
+public class ManifestLexerPerformanceTest {
+  private static final int ROUNDS = 50;
+
+  @Test
+  public void testLexerThroughput() throws Exception {
+    CharSequence manifest = new CharArrayCharSequence(loadEclipseManifest().toCharArray());
+
+    // warm up
+    lex(manifest, 0, ROUNDS / 5);
+
+    long time = lex(manifest, 0, ROUNDS) / 1000000;
+    PlatformTestUtil.assertTiming("Lexing " + manifest.length() + " chars of the Eclipse OSGi manifest " + ROUNDS + " times is too slow",
+                                  2000, time);
+  }
+
+  @Test
+  public void testRelexingEditedHeader() throws Exception {
+    String text = loadEclipseManifest();
+    CharSequence manifest = new CharArrayCharSequence(text.toCharArray());
+    int headerStart = text.indexOf("\nBundle-Activator:") + 1;
+    assertThat(headerStart > 0, is(true));
+
+    // the editor restarts at the last token lexed in the initial state before the change, which is the start of the header
+    ManifestLexer lexer = new ManifestLexer();
+    lexer.start(manifest, headerStart, manifest.length(), 0);
+    assertThat(lexer.getState(), is(0));
+    assertThat(lexer.getTokenType() == ManifestTokenType.HEADER_NAME, is(true));
+
+    // warm up
+    relexHeader(manifest, headerStart, ROUNDS * 10);
+
+    long time = relexHeader(manifest, headerStart, ROUNDS * 100) / 1000000;
+    PlatformTestUtil.assertTiming("Relexing an edited header " + ROUNDS * 100 + " times is too slow", 100, time);
+  }
+
+  private static long lex(CharSequence manifest, int startOffset, int rounds) {
+    ManifestLexer lexer = new ManifestLexer();
+    long start = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      lexer.start(manifest, startOffset, manifest.length(), 0);
+      while (lexer.getTokenType() != null) {
+        lexer.advance();
+      }
+    }
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Relexes from the start of a header up to the start of the next one, where the tokens are the same as before the change.
+   */
+  private static long relexHeader(CharSequence manifest, int headerStart, int rounds) {
+    ManifestLexer lexer = new ManifestLexer();
+    long start = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      lexer.start(manifest, headerStart, manifest.length(), 0);
+      do {
+        lexer.advance();
+      }
+      while (lexer.getTokenType() != null && lexer.getTokenType() != ManifestTokenType.HEADER_NAME);
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static String loadEclipseManifest() throws Exception {
+    // the Eclipse OSGi framework is one of the libraries of the plugin
+    Class<?> starter = Class.forName("org.eclipse.core.runtime.adaptor.EclipseStarter");
+    File jarFile = new File(starter.getProtectionDomain().getCodeSource().getLocation().toURI());
+    JarFile jar = new JarFile(jarFile);
+    try {
+      InputStream in = jar.getInputStream(jar.getEntry(JarFile.MANIFEST_NAME));
+      try {
+        return new String(FileUtil.loadBytes(in), "UTF-8").replace("\r\n", "\n");
+      }
+      finally {
+        in.close();
+      }
+    }
+    finally {
+      jar.close();
+    }
+  }
+}
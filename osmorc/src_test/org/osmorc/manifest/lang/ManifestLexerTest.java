@@ -33,6 +33,9 @@ import static org.junit.Assert.assertThat;
 import org.junit.Test;
 import static org.osmorc.manifest.lang.ManifestTokenType.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author Robert F. Beeger (robert@beeger.net)
  */
@@ -186,6 +189,34 @@ public class ManifestLexerTest {
         );
     }
 
+    @Test
+    public void testRestartInInitialState() {
+        String manifest = "Name: Value\nImport-Package: org.foo;version=\"[1.0,2.0)\",\n org.bar;resolution:=optional\n" +
+                "Export-Package: org.baz;uses:=\"org.foo,\n org.bar\"\nName:Value\nName : Value\n\nName: Section";
+        List<String> tokens = lex(manifest, 0);
+
+        // restarting at a token lexed in the initial state gives the same tokens as lexing from the start
+        ManifestLexer lexer = new ManifestLexer();
+        lexer.start(manifest);
+        for (int i = 0; lexer.getTokenType() != null; i++) {
+            if (lexer.getState() == 0) {
+                assertThat(lex(manifest, lexer.getTokenStart()), equalTo(tokens.subList(i, tokens.size())));
+            }
+            lexer.advance();
+        }
+    }
+
+    private static List<String> lex(String manifest, int startOffset) {
+        List<String> result = new ArrayList<String>();
+        ManifestLexer lexer = new ManifestLexer();
+        lexer.start(manifest, startOffset, manifest.length(), 0);
+        while (lexer.getTokenType() != null) {
+            result.add(lexer.getTokenType() + "@" + lexer.getTokenStart() + "-" + lexer.getTokenEnd());
+            lexer.advance();
+        }
+        return result;
+    }
+
     private void checkTokens(String manifest, Pair<IElementType,Integer>... tokens) {
         ManifestLexer lexer = new ManifestLexer();
         lexer.start(manifest);
@@ -0,0 +1,57 @@
+package org.osmorc.obrimport.local;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Performance regression test for searching the {@link RepositoryIndex} of a large OBR repository.
+ */
+public class RepositoryIndexPerformanceTest {
+  private static final int BUNDLES = 5000;
+  private static final int SEARCHES = 100;
+
+  private File myTempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    myTempDir = FileUtil.createTempDirectory("osmorc", "repository");
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myTempDir);
+  }
+
+  @Test
+  public void testSearch() throws IOException {
+    File descriptor = new File(myTempDir, "repository.xml");
+    StringBuilder xml = new StringBuilder("<repository>\n");
+    for (int i = 0; i < BUNDLES; i++) {
+      xml.append("<resource symbolicname='org.example.bundle").append(i).append("' version='1.").append(i % 7).append(".0'>")
+        .append("<capability name='package'><p n='package' v='org.example.p").append(i).append(".api'/>")
+        .append("<p n='package' v='org.example.p").append(i).append(".impl'/></capability></resource>\n");
+    }
+    FileUtil.writeToFile(descriptor, xml.append("</repository>\n").toString().getBytes("UTF-8"));
+    RepositoryIndex index = new RepositoryIndex(new File(myTempDir, "index/index.dat"));
+    index.refresh(Collections.singletonList(descriptor.getPath()), new EmptyProgressIndicator());
+    assertThat(index.size(), is(BUNDLES));
+
+    long start = System.nanoTime();
+    for (int i = 0; i < SEARCHES; i++) {
+      assertThat(index.search("org.example.p" + i * 37 + ".api").isEmpty(), is(false));
+    }
+    long time = (System.nanoTime() - start) / 1000000;
+    PlatformTestUtil.assertTiming(SEARCHES + " searches in " + BUNDLES + " bundles are too slow", 500, time);
+  }
+}
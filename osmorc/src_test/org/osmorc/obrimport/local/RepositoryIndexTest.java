@@ -0,0 +1,164 @@
+package org.osmorc.obrimport.local;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.util.io.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test of the {@link RepositoryIndex} with an OBR repository descriptor and a local Maven repository.
+ */
+public class RepositoryIndexTest {
+  private File myTempDir;
+  private File myIndexFile;
+
+  @Before
+  public void setUp() throws IOException {
+    myTempDir = FileUtil.createTempDirectory("osmorc", "repository");
+    myIndexFile = new File(myTempDir, "index/index.dat");
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myTempDir);
+  }
+
+  @Test
+  public void testObrRepository() throws IOException {
+    File descriptor = new File(myTempDir, "obr/repository.xml");
+    FileUtil.createParentDirs(descriptor);
+    FileUtil.writeToFile(descriptor, ("<?xml version='1.0' encoding='utf-8'?>\n" +
+                                      "<repository name='test' lastmodified='20120101000000.000'>\n" +
+                                      "  <resource id='org.example.foo/1.2.0' symbolicname='org.example.foo' version='1.2.0'\n" +
+                                      "            uri='org/example/foo/1.2/foo-1.2.jar'>\n" +
+                                      "    <capability name='bundle'><p n='symbolicname' v='org.example.foo'/></capability>\n" +
+                                      "    <capability name='package'>\n" +
+                                      "      <p n='package' v='org.example.foo.api'/><p n='version' t='version' v='1.2.0'/>\n" +
+                                      "    </capability>\n" +
+                                      "    <capability name='package'><p n='package' v='org.example.foo.util'/></capability>\n" +
+                                      "  </resource>\n" +
+                                      "  <resource id='org.example.bar/2.0.0' symbolicname='org.example.bar' version='2.0.0'\n" +
+                                      "            uri='http://example.org/bar.jar'>\n" +
+                                      "    <capability name='package'><p n='package' v='org.example.bar'/></capability>\n" +
+                                      "  </resource>\n" +
+                                      "</repository>\n").getBytes("UTF-8"));
+
+    RepositoryIndex index = new RepositoryIndex(myIndexFile);
+    index.refresh(Collections.singletonList(descriptor.getPath()), new EmptyProgressIndicator());
+    assertThat(index.size(), is(2));
+
+    List<IndexedBundle> found = index.search("org.example.foo.util");
+    assertThat(found.size(), is(1));
+    IndexedBundle foo = found.get(0);
+    assertThat(foo.getSymbolicName(), is("org.example.foo"));
+    assertThat(foo.getExportedPackages(), equalTo(Arrays.asList("org.example.foo.api", "org.example.foo.util")));
+    assertThat(foo.isMavenArtifact(), is(true));
+    assertThat(foo.getGroupId(), is("org.example"));
+    assertThat(foo.getArtifactId(), is("foo"));
+    assertThat(foo.getMavenVersion(), is("1.2"));
+
+    IndexedBundle bar = index.search("bar").get(0);
+    assertThat(bar.getSymbolicName(), is("org.example.bar"));
+    assertThat(bar.isMavenArtifact(), is(false));
+  }
+
+  @Test
+  public void testMavenRepository() throws IOException {
+    File repository = new File(myTempDir, "m2");
+    createBundle(repository, "org/example/foo/1.0/foo-1.0.jar", "org.example.foo;singleton:=true", "1.0.0",
+                 "org.example.foo;version=1.0,org.example.foo.spi");
+    createBundle(repository, "org/example/foo/1.10/foo-1.10.jar", "org.example.foo", "1.10.0", "org.example.foo;version=1.10");
+    createBundle(repository, "org/example/foo/1.10/foo-1.10-sources.jar", "org.example.foo.source", "1.10.0", null);
+    createBundle(repository, "org/example/plain/1.0/plain-1.0.jar", null, null, null);
+
+    RepositoryIndex index = new RepositoryIndex(myIndexFile);
+    index.refresh(Collections.singletonList(repository.getPath()), new EmptyProgressIndicator());
+    assertThat(index.size(), is(2));
+
+    // newest version first
+    List<IndexedBundle> found = index.search("org.example.foo");
+    assertThat(found.size(), is(2));
+    assertThat(found.get(0).getVersion(), is("1.10.0"));
+    assertThat(found.get(0).getMavenVersion(), is("1.10"));
+    assertThat(found.get(1).getVersion(), is("1.0.0"));
+
+    found = index.search("org.example.foo.spi");
+    assertThat(found.size(), is(1));
+    assertThat(found.get(0).getVersion(), is("1.0.0"));
+    assertThat(index.search("plain").isEmpty(), is(true));
+  }
+
+  @Test
+  public void testIncrementalRefresh() throws IOException {
+    File repository = new File(myTempDir, "m2");
+    File foo = createBundle(repository, "org/example/foo/1.0/foo-1.0.jar", "org.example.foo", "1.0.0", "org.example.foo");
+    File bar = createBundle(repository, "org/example/bar/1.0/bar-1.0.jar", "org.example.bar", "1.0.0", "org.example.bar");
+    List<String> sources = Collections.singletonList(repository.getPath());
+
+    RepositoryIndex index = new RepositoryIndex(myIndexFile);
+    index.refresh(sources, new EmptyProgressIndicator());
+    assertThat(index.size(), is(2));
+
+    // a jar with the same size and time stamp isn't read again, so garbage in it goes unnoticed
+    long length = foo.length();
+    long lastModified = foo.lastModified();
+    FileUtil.writeToFile(foo, new byte[(int)length]);
+    assertThat(foo.setLastModified(lastModified), is(true));
+    FileUtil.delete(bar);
+    createBundle(repository, "org/example/baz/1.0/baz-1.0.jar", "org.example.baz", "1.0.0", "org.example.baz");
+
+    index.refresh(sources, new EmptyProgressIndicator());
+    assertThat(index.search("org.example.foo").size(), is(1));
+    assertThat(index.search("org.example.bar").isEmpty(), is(true));
+    assertThat(index.search("org.example.baz").size(), is(1));
+
+    // the index is stored and found again without refreshing, e.g. when offline
+    RepositoryIndex loaded = new RepositoryIndex(myIndexFile);
+    assertThat(loaded.isUpToDate(sources, 60000), is(true));
+    assertThat(loaded.search("org.example.baz").size(), is(1));
+
+    // a repository which can't be read keeps what was indexed before
+    FileUtil.delete(repository);
+    loaded.refresh(sources, new EmptyProgressIndicator());
+    assertThat(loaded.size(), is(2));
+
+    // a repository which isn't indexed anymore is removed
+    loaded.refresh(new ArrayList<String>(), new EmptyProgressIndicator());
+    assertThat(loaded.size(), is(0));
+  }
+
+  private static File createBundle(File repository, String path, String symbolicName, String version, String exportPackage)
+    throws IOException {
+    File file = new File(repository, path);
+    FileUtil.createParentDirs(file);
+    Manifest manifest = new Manifest();
+    Attributes attributes = manifest.getMainAttributes();
+    attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    if (symbolicName != null) {
+      attributes.putValue("Bundle-SymbolicName", symbolicName);
+    }
+    if (version != null) {
+      attributes.putValue("Bundle-Version", version);
+    }
+    if (exportPackage != null) {
+      attributes.putValue("Export-Package", exportPackage);
+    }
+    new JarOutputStream(new FileOutputStream(file), manifest).close();
+    return file;
+  }
+}
@@ -0,0 +1,52 @@
+package org.osmorc.run;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test of {@link BundleSetCache}
+ */
+public class BundleSetCacheTest {
+  private File myTempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    myTempDir = FileUtil.createTempDirectory("osmorc", "bundles");
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myTempDir);
+  }
+
+  @Test
+  public void testStampChangesWithLibraries() throws IOException {
+    File first = new File(myTempDir, "first.jar");
+    File second = new File(myTempDir, "second.jar");
+    FileUtil.writeToFile(first, "first".getBytes());
+    FileUtil.writeToFile(second, "second".getBytes());
+    String[] urls = {VfsUtil.pathToUrl(first.getPath()), VfsUtil.pathToUrl(second.getPath())};
+
+    String stamp = BundleSetCache.getStamp(urls);
+    assertThat(BundleSetCache.getStamp(urls), equalTo(stamp));
+
+    // a changed library
+    FileUtil.writeToFile(second, "changed".getBytes());
+    assertThat(second.setLastModified(second.lastModified() + 10000), equalTo(true));
+    String changed = BundleSetCache.getStamp(urls);
+    assertThat(changed, not(equalTo(stamp)));
+
+    // a removed library
+    assertThat(BundleSetCache.getStamp(new String[]{urls[0]}), not(equalTo(changed)));
+  }
+}
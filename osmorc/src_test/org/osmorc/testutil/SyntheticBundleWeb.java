@@ -0,0 +1,97 @@
+package org.osmorc.testutil;
+
+import java.util.*;
+
+import static org.osmorc.testutil.ManifestMaker.bundleSymbolicName;
+
+/**
+ * Generates the manifests of a large synthetic OSGi project for performance tests: library bundles in layers which import
+ * packages of and require (and re-export) bundles in lower layers, some of them fragments or present in two versions, and
+ * modules which use the libraries and each other. The web is generated from a fixed seed, so every run measures the same
+ * project.
+ */
+public class SyntheticBundleWeb {
+  public static final int PACKAGES_PER_BUNDLE = 4;
+  private static final long SEED = 20120901L;
+
+  private final Map<String, String> myLibraries = new LinkedHashMap<String, String>();
+  private final Map<String, String> myModules = new LinkedHashMap<String, String>();
+
+  /**
+   * @param libraries the number of library bundles
+   * @param modules   the number of modules
+   */
+  public SyntheticBundleWeb(int libraries, int modules) {
+    Random random = new Random(SEED);
+    for (int i = 0; i < libraries; i++) {
+      String name = getLibraryName(i);
+      String version = "1." + i % 5 + ".0";
+      ManifestMaker manifest = bundleSymbolicName(name).bundleVersion(version).exportPackages(getPackages(name, version));
+      if (i > 0) {
+        for (int j = 2 + random.nextInt(5); j > 0; j--) {
+          manifest.importPackages(getPackage(getLibraryName(random.nextInt(i)), random) + ";version=\"[1.0,2.0)\"");
+        }
+        if (i % 7 == 0) {
+          manifest.requireBundle(getLibraryName(random.nextInt(i)) + ";bundle-version=\"[1.0,2.0)\";visibility:=reexport");
+        }
+        if (i % 50 == 0) {
+          manifest.fragmentHost(getLibraryName(random.nextInt(i)) + ";bundle-version=\"[1.0,2.0)\"");
+        }
+      }
+      myLibraries.put(name, manifest.toString());
+
+      // an older version of some libraries is in the project too
+      if (i % 20 == 10) {
+        myLibraries.put(name + "-old", bundleSymbolicName(name).bundleVersion("0.9.0").exportPackages(getPackages(name, "0.9.0"))
+          .toString());
+      }
+    }
+
+    for (int i = 0; i < modules; i++) {
+      String name = getModuleName(i);
+      ManifestMaker manifest = bundleSymbolicName(name).bundleVersion("1.0.0").exportPackages(getPackages(name, "1.0.0"));
+      for (int j = 5 + random.nextInt(10); j > 0; j--) {
+        manifest.importPackages(getPackage(getLibraryName(random.nextInt(libraries)), random) + ";version=\"[1.0,2.0)\"");
+      }
+      for (int j = i > 0 ? random.nextInt(4) : 0; j > 0; j--) {
+        manifest.importPackages(getPackage(getModuleName(random.nextInt(i)), random));
+      }
+      manifest.requireBundle(getLibraryName(random.nextInt(libraries)) + ";bundle-version=\"[1.0,2.0)\"");
+      myModules.put(name, manifest.toString());
+    }
+  }
+
+  /**
+   * @return the manifests of the library bundles by unique names of the libraries.
+   */
+  public Map<String, String> getLibraries() {
+    return myLibraries;
+  }
+
+  /**
+   * @return the manifests of the modules by the names of the modules.
+   */
+  public Map<String, String> getModules() {
+    return myModules;
+  }
+
+  public static String getLibraryName(int index) {
+    return "org.synthetic.library" + index;
+  }
+
+  public static String getModuleName(int index) {
+    return "org.synthetic.module" + index;
+  }
+
+  private static String[] getPackages(String bundleName, String version) {
+    String[] result = new String[PACKAGES_PER_BUNDLE];
+    for (int i = 0; i < PACKAGES_PER_BUNDLE; i++) {
+      result[i] = bundleName + ".package" + i + ";version=" + version;
+    }
+    return result;
+  }
+
+  private static String getPackage(String bundleName, Random random) {
+    return bundleName + ".package" + random.nextInt(PACKAGES_PER_BUNDLE);
+  }
+}
@@ -0,0 +1,90 @@
+package org.osmorc.testutil;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Generates the compiler output of synthetic modules for make tests. The class files are copies of real classes, so bnd has the
+ * same amount of byte code to analyze as for modules of this size. Module <code>i</code> has its classes in the packages
+ * <code>synthetic.module&lt;i&gt;.package&lt;j&gt;</code>.
+ */
+public class SyntheticModuleOutput {
+  private final int myPackages;
+  private final int myClassesPerPackage;
+  private final List<byte[]> myClasses = new ArrayList<byte[]>();
+
+  /**
+   * @param packages          the number of packages per module
+   * @param classesPerPackage the number of classes per package
+   * @param templates         the classes whose class files are copied, in turn.
+   */
+  public SyntheticModuleOutput(int packages, int classesPerPackage, @NotNull Class... templates) throws IOException {
+    myPackages = packages;
+    myClassesPerPackage = classesPerPackage;
+    for (Class template : templates) {
+      InputStream in = template.getResourceAsStream(template.getSimpleName() + ".class");
+      try {
+        myClasses.add(FileUtil.loadBytes(in));
+      }
+      finally {
+        in.close();
+      }
+    }
+  }
+
+  @NotNull
+  public static String getClassPath(int module, int pkg, int cls) {
+    return "synthetic/module" + module + "/package" + pkg + "/Class" + cls + ".class";
+  }
+
+  /**
+   * Writes the class files of a module to an output folder.
+   *
+   * @param outputDir    the output folder
+   * @param module       the number of the module
+   * @param lastModified the time stamp of the class files
+   */
+  public void writeDirectory(@NotNull File outputDir, int module, long lastModified) throws IOException {
+    for (int pkg = 0; pkg < myPackages; pkg++) {
+      for (int cls = 0; cls < myClassesPerPackage; cls++) {
+        File classFile = new File(outputDir, getClassPath(module, pkg, cls));
+        FileUtil.createParentDirs(classFile);
+        FileUtil.writeToFile(classFile, myClasses.get(cls % myClasses.size()));
+        if (!classFile.setLastModified(lastModified)) {
+          throw new IOException("Can't set the time stamp of " + classFile);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the class files of a module to a jar.
+   *
+   * @param jar    the jar
+   * @param module the number of the module
+   */
+  public void writeJar(@NotNull File jar, int module) throws IOException {
+    JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+    try {
+      for (int pkg = 0; pkg < myPackages; pkg++) {
+        for (int cls = 0; cls < myClassesPerPackage; cls++) {
+          out.putNextEntry(new ZipEntry(getClassPath(module, pkg, cls)));
+          out.write(myClasses.get(cls % myClasses.size()));
+          out.closeEntry();
+        }
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+}
@@ -18,6 +18,10 @@ public class TestManifestHolder extends AbstractManifestHolderImpl {
     myManifest = new BundleManifestImpl(lightFile);
   }
 
+  public TestManifestHolder(BundleManifest manifest) {
+    myManifest = manifest;
+  }
+
   
   @NotNull
   @Override
@@ -25,6 +29,10 @@ public class TestManifestHolder extends AbstractManifestHolderImpl {
     return myManifest;
   }
 
+  public void setManifestFile(ManifestFile manifestFile) {
+    myManifest = new BundleManifestImpl(manifestFile);
+  }
+
   public void setBoundObject(@Nullable Object boundObject) {
     myBoundObject = boundObject;
   }